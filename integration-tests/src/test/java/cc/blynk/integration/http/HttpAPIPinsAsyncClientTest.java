@@ -19,12 +19,17 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.Assert.*;
 
@@ -200,22 +205,47 @@ public class HttpAPIPinsAsyncClientTest extends BaseTest {
     }
 
     @Test
-    public void testGetCSVDataRedirect() throws Exception {
+    public void testGetCSVDataStreamed() throws Exception {
         Path reportingPath = Paths.get(localHolder.reportingDao.dataFolder, "dmitriy@blynk.cc");
         Files.createDirectories(reportingPath);
-        FileUtils.write(Paths.get(reportingPath.toString(), "history_125564119_v10_minute.bin"), 1, 2);
+        Path dataFile = Paths.get(reportingPath.toString(), "history_125564119_v10_minute.bin");
+        Files.deleteIfExists(dataFile);
+        FileUtils.write(dataFile, 1, 2);
+        FileUtils.write(dataFile, 2.5, 3);
 
         Future<Response> f = httpclient.prepareGet(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/data/v10").execute();
         Response response = f.get();
-        assertEquals(301, response.getStatusCode());
-        String redirectLocation = response.getHeader("location");
-        assertNotNull(redirectLocation);
-        assertTrue(redirectLocation.contains("/dmitriy@blynk.cc_125564119_0_v10_"));
+        assertEquals(200, response.getStatusCode());
+        assertEquals("application/x-gzip", response.getHeader("content-type"));
+        assertTrue(response.getHeader("content-disposition").contains("dmitriy@blynk.cc_125564119_0_v10_"));
+        assertEquals("1.0,2,0\n2.5,3,0\n", gunzip(response.getResponseBodyAsBytes()));
 
-        f = httpclient.prepareGet(httpsServerUrl + redirectLocation).execute();
+        f = httpclient.prepareGet(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/data/v10?from=3&to=10").execute();
         response = f.get();
         assertEquals(200, response.getStatusCode());
-        assertEquals("application/x-gzip", response.getHeader("content-type"));
+        assertEquals("2.5,3,0\n", gunzip(response.getResponseBodyAsBytes()));
+
+        f = httpclient.prepareGet(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/data/v10?from=4").execute();
+        response = f.get();
+        assertEquals(400, response.getStatusCode());
+        assertEquals("No data for pin.", response.getResponseBody());
+
+        f = httpclient.prepareGet(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/data/v10?from=abc").execute();
+        response = f.get();
+        assertEquals(400, response.getStatusCode());
+        assertEquals("Wrong time range.", response.getResponseBody());
+    }
+
+    private static String gunzip(byte[] bytes) throws Exception {
+        try (InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[1024];
+            int read;
+            while ((read = gzip.read(buf)) != -1) {
+                out.write(buf, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+        }
     }
 
 }
@@ -40,7 +40,9 @@ import static cc.blynk.server.core.protocol.enums.Response.*;
 import static java.nio.file.StandardOpenOption.APPEND;
 import static java.nio.file.StandardOpenOption.CREATE;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
 /**
@@ -148,8 +150,33 @@ public class HistoryGraphTest extends IntegrationBase {
             FileUtils.write(pinReportingDataPath4, ThreadLocalRandom.current().nextDouble(), now);
         }
 
+        //too large data set is downsampled instead of error
         clientPair.appClient.send("getenhanceddata 1" + b(" 432 THREE_MONTHS"));
-        verify(clientPair.appClient.responseMock, timeout(1000)).channelRead(any(), eq(serverError(1)));
+        assertGraphDataPoints(1, 511);
+
+        clientPair.appClient.reset();
+        clientPair.appClient.send("getenhanceddata 1" + b(" 432 THREE_MONTHS 0 100"));
+        assertGraphDataPoints(1, 100);
+
+        clientPair.appClient.reset();
+        clientPair.appClient.send("getenhanceddata 1" + b(" 432 THREE_MONTHS 0 100 MIN_MAX"));
+        assertGraphDataPoints(1, 100);
+    }
+
+    private void assertGraphDataPoints(int msgId, int maxPoints) throws Exception {
+        ArgumentCaptor<BinaryMessage> objectArgumentCaptor = ArgumentCaptor.forClass(BinaryMessage.class);
+        verify(clientPair.appClient.responseMock, timeout(1000)).channelRead(any(), objectArgumentCaptor.capture());
+        BinaryMessage graphDataResponse = objectArgumentCaptor.getValue();
+        assertEquals(msgId, graphDataResponse.id);
+
+        ByteBuffer bb = ByteBuffer.wrap(ByteUtils.decompress(graphDataResponse.getBytes()));
+        assertEquals(1, bb.getInt());
+        for (int i = 0; i < 4; i++) {
+            int points = bb.getInt();
+            assertTrue(points > 0 && points <= maxPoints);
+            bb.position(bb.position() + points * 16);
+        }
+        assertFalse(bb.hasRemaining());
     }
 
     @Test
@@ -3,7 +3,9 @@ package cc.blynk.server;
 import cc.blynk.server.core.BlockingIOProcessor;
 import cc.blynk.server.core.dao.*;
 import cc.blynk.server.core.dao.ota.OTAManager;
+import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.processors.EventorProcessor;
+import cc.blynk.server.core.processors.WebhookDispatcher;
 import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.db.DBManager;
 import cc.blynk.server.notifications.mail.MailWrapper;
@@ -16,10 +18,15 @@ import cc.blynk.server.workers.timer.TimerWorker;
 import cc.blynk.utils.FileUtils;
 import cc.blynk.utils.ServerProperties;
 import io.netty.util.internal.SystemPropertyUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.asynchttpclient.DefaultAsyncHttpClient;
 import org.asynchttpclient.DefaultAsyncHttpClientConfig;
 
 import java.io.Closeable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
 
 import static cc.blynk.utils.ReportingUtil.getReportingFolder;
 
@@ -32,6 +39,8 @@ import static cc.blynk.utils.ReportingUtil.getReportingFolder;
  */
 public class Holder implements Closeable {
 
+    private static final Logger log = LogManager.getLogger(Holder.class);
+
     public final FileManager fileManager;
 
     public final SessionDao sessionDao;
@@ -60,6 +69,7 @@ public class Holder implements Closeable {
 
     public final EventorProcessor eventorProcessor;
     public final DefaultAsyncHttpClient asyncHttpClient;
+    public final WebhookDispatcher webhookDispatcher;
 
     public final OTAManager otaManager;
 
@@ -80,7 +90,7 @@ public class Holder implements Closeable {
         this.host = serverProperties.getServerHost();
 
         String dataFolder = serverProperties.getProperty("data.folder");
-        this.fileManager = new FileManager(dataFolder);
+        this.fileManager = new FileManager(dataFolder, serverProperties.getBoolProperty("profile.save.fsync"));
         this.sessionDao = new SessionDao();
         this.blockingIOProcessor = new BlockingIOProcessor(
                 serverProperties.getIntProperty("blocking.processor.thread.pool.limit", 6),
@@ -88,18 +98,7 @@ public class Holder implements Closeable {
         );
         this.dbManager = new DBManager(blockingIOProcessor, serverProperties.getBoolProperty("enable.db"));
 
-        if (restore) {
-            try {
-                this.userDao = new UserDao(dbManager.userDBDao.getAllUsers(this.region), this.region);
-            } catch (Exception e) {
-                System.out.println("Error restoring data from DB!");
-                e.printStackTrace();
-                throw new RuntimeException(e);
-            }
-        } else {
-            this.userDao = new UserDao(fileManager.deserializeUsers(), this.region);
-        }
-
+        this.userDao = new UserDao(new ConcurrentHashMap<>(), this.region);
         this.tokenManager = new TokenManager(this.userDao.users, blockingIOProcessor, dbManager, host);
         this.stats = new GlobalStats();
         final String reportingFolder = getReportingFolder(dataFolder);
@@ -113,6 +112,12 @@ public class Holder implements Closeable {
                 .setKeepAlive(true)
                 .build()
         );
+        this.webhookDispatcher = new WebhookDispatcher(asyncHttpClient,
+                props.getIntProperty("webhooks.host.connections.limit", 8),
+                props.getIntProperty("webhooks.host.queue.limit", 100),
+                props.getIntProperty("webhooks.host.failures.limit", 10),
+                props.getLongProperty("webhooks.host.circuit.open.period", 30_000L)
+        );
 
         this.twitterWrapper = new TwitterWrapper();
         this.mailWrapper = new MailWrapper(mailProperties);
@@ -122,10 +127,24 @@ public class Holder implements Closeable {
         this.otaManager = new OTAManager(props);
 
         this.eventorProcessor = new EventorProcessor(gcmWrapper, mailWrapper, twitterWrapper, blockingIOProcessor, stats);
-        this.timerWorker = new TimerWorker(userDao, sessionDao, gcmWrapper);
+        this.timerWorker = new TimerWorker(userDao, sessionDao, gcmWrapper, props.getIntProperty("timer.firing.threads", 2));
         this.readingWidgetsWorker = new ReadingWidgetsWorker(sessionDao, userDao);
         this.limits = new Limits(props);
 
+        if (restore) {
+            ConcurrentMap<UserKey, User> users;
+            try {
+                users = dbManager.userDBDao.getAllUsers(this.region);
+            } catch (Exception e) {
+                System.out.println("Error restoring data from DB!");
+                e.printStackTrace();
+                throw new RuntimeException(e);
+            }
+            loadUsers(consumer -> users.values().parallelStream().forEach(consumer));
+        } else {
+            loadUsers(fileManager::deserializeUsers);
+        }
+
         this.csvDownloadUrl = FileUtils.csvDownloadUrl(host, props.getProperty("http.port"));
 
         String contactEmail = serverProperties.getProperty("contact.email", mailProperties.getProperty("mail.smtp.username"));
@@ -143,7 +162,7 @@ public class Holder implements Closeable {
         String dataFolder = serverProperties.getProperty("data.folder");
         this.fileManager = new FileManager(dataFolder);
         this.sessionDao = new SessionDao();
-        this.userDao = new UserDao(fileManager.deserializeUsers(), this.region);
+        this.userDao = new UserDao(new ConcurrentHashMap<>(), this.region);
         this.blockingIOProcessor = new BlockingIOProcessor(
                 serverProperties.getIntProperty("blocking.processor.thread.pool.limit", 5),
                 serverProperties.getIntProperty("notifications.queue.limit", 10000)
@@ -171,16 +190,44 @@ public class Holder implements Closeable {
                 .setKeepAlive(false)
                 .build()
         );
+        this.webhookDispatcher = new WebhookDispatcher(asyncHttpClient,
+                props.getIntProperty("webhooks.host.connections.limit", 8),
+                props.getIntProperty("webhooks.host.queue.limit", 100),
+                props.getIntProperty("webhooks.host.failures.limit", 10),
+                props.getLongProperty("webhooks.host.circuit.open.period", 30_000L)
+        );
 
-        this.timerWorker = new TimerWorker(userDao, sessionDao, gcmWrapper);
+        this.timerWorker = new TimerWorker(userDao, sessionDao, gcmWrapper, props.getIntProperty("timer.firing.threads", 2));
         this.readingWidgetsWorker = new ReadingWidgetsWorker(sessionDao, userDao);
         this.limits = new Limits(props);
 
+        loadUsers(fileManager::deserializeUsers);
+
         this.csvDownloadUrl = FileUtils.csvDownloadUrl(host, props.getProperty("http.port"));
 
         this.sslContextHolder = new SslContextHolder(props, "test@blynk.cc");
     }
 
+    /**
+     * Every user is added to all indexes right after it is loaded,
+     * so there is no separate pass over all users for every index.
+     */
+    private void loadUsers(UsersSource source) {
+        long start = System.currentTimeMillis();
+        source.load(user -> {
+            UserKey userKey = new UserKey(user);
+            userDao.users.put(userKey, user);
+            tokenManager.add(user);
+            timerWorker.add(userKey, user);
+        });
+        log.info("Loading {} users took {} ms. Tokens : {}. Timers : {}.", userDao.users.size(),
+                System.currentTimeMillis() - start, tokenManager.getTokensCount(), timerWorker.getTimersCount());
+    }
+
+    private interface UsersSource {
+        void load(Consumer<User> consumer);
+    }
+
     private static void disableNettyLeakDetector() {
         String leakProperty = SystemPropertyUtil.get("io.netty.leakDetection.level");
         //we do not pass any with JVM option
@@ -191,6 +238,8 @@ public class Holder implements Closeable {
 
     @Override
     public void close() {
+        this.timerWorker.close();
+
         this.reportingDao.close();
 
         System.out.println("Stopping BlockingIOProcessor...");
@@ -0,0 +1,116 @@
+package cc.blynk.server.core.dao;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.stream.ChunkedInput;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams CSV export as gzipped chunks. Next chunk is encoded and compressed only when
+ * {@link io.netty.handler.stream.ChunkedWriteHandler} requests it, so slow client doesn't make server
+ * to keep whole export in memory.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 13.09.17.
+ */
+public final class CSVChunkedInput implements ChunkedInput<ByteBuf> {
+
+    private static final int CHUNK_SIZE = 8192;
+    private static final int ENCODE_BUFFER_SIZE = 4096;
+
+    private final CSVExport export;
+    private final byte[] encodeBuffer;
+    private final ChunkSink sink;
+    private final GZIPOutputStream gzip;
+    private boolean finished;
+    private long progress;
+
+    public CSVChunkedInput(CSVExport export) throws IOException {
+        this.export = export;
+        this.encodeBuffer = new byte[ENCODE_BUFFER_SIZE];
+        this.sink = new ChunkSink();
+        //gzip header goes to first chunk
+        this.sink.current = Unpooled.buffer(CHUNK_SIZE);
+        this.gzip = new GZIPOutputStream(sink, CHUNK_SIZE);
+    }
+
+    @Override
+    public boolean isEndOfInput() {
+        return finished;
+    }
+
+    @Override
+    @Deprecated
+    public ByteBuf readChunk(ChannelHandlerContext ctx) throws Exception {
+        return readChunk(ctx.alloc());
+    }
+
+    @Override
+    public ByteBuf readChunk(ByteBufAllocator allocator) throws Exception {
+        if (finished) {
+            return null;
+        }
+        if (sink.current == null) {
+            sink.current = allocator.buffer(CHUNK_SIZE);
+        }
+        //deflater keeps some data internally, so few writes may be required to fill chunk
+        while (sink.current.readableBytes() < CHUNK_SIZE && export.hasRemaining()) {
+            int length = export.encode(encodeBuffer);
+            gzip.write(encodeBuffer, 0, length);
+        }
+        if (!export.hasRemaining()) {
+            gzip.finish();
+            finished = true;
+        }
+        ByteBuf chunk = sink.current;
+        sink.current = null;
+        progress += chunk.readableBytes();
+        return chunk;
+    }
+
+    @Override
+    public long length() {
+        return -1;
+    }
+
+    @Override
+    public long progress() {
+        return progress;
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (sink.current != null) {
+            sink.current.release();
+            sink.current = null;
+        }
+        //releases deflater, trailer of unfinished stream is dropped by sink
+        gzip.close();
+    }
+
+    private static final class ChunkSink extends OutputStream {
+
+        private ByteBuf current;
+
+        @Override
+        public void write(int b) {
+            if (current != null) {
+                current.writeByte(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (current != null) {
+                current.writeBytes(b, off, len);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+package cc.blynk.server.core.dao;
+
+import cc.blynk.utils.NumberUtil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+
+/**
+ * Reporting data of one pin of few devices that is going to be exported as "value,ts,deviceId" CSV lines.
+ * Data is not copied, export keeps buffers returned by storage (usually mapped file regions) and
+ * encodes lines on demand into provided byte array, so export of any size doesn't create objects
+ * per line and doesn't need to be fully materialized in memory.
+ *
+ * Not thread safe, every export should be consumed by single thread.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 13.09.17.
+ */
+public final class CSVExport {
+
+    //value, ts, deviceId, 2 commas and new line
+    static final int MAX_LINE_LENGTH = 3 * NumberUtil.MAX_NUMBER_LENGTH + 3;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final ByteBuffer[] data;
+    private final int[] deviceIds;
+    private int current;
+
+    CSVExport(ByteBuffer[] data, int[] deviceIds) {
+        this.data = data;
+        this.deviceIds = deviceIds;
+        skipEmpty();
+    }
+
+    private void skipEmpty() {
+        while (current < data.length && (data[current] == null || !data[current].hasRemaining())) {
+            current++;
+        }
+    }
+
+    public boolean hasRemaining() {
+        return current < data.length;
+    }
+
+    /**
+     * Encodes as many whole lines as fits into buffer.
+     *
+     * @return number of written bytes
+     */
+    public int encode(byte[] buf) {
+        int pos = 0;
+        int maxPos = buf.length - MAX_LINE_LENGTH;
+        while (pos <= maxPos && current < data.length) {
+            ByteBuffer onePinData = data[current];
+            int deviceId = deviceIds[current];
+            while (pos <= maxPos && onePinData.remaining() >= SIZE_OF_REPORT_ENTRY) {
+                double value = onePinData.getDouble();
+                long ts = onePinData.getLong();
+                pos = NumberUtil.writeDouble(buf, pos, value);
+                buf[pos++] = ',';
+                pos = NumberUtil.writeLong(buf, pos, ts);
+                buf[pos++] = ',';
+                pos = NumberUtil.writeLong(buf, pos, deviceId);
+                buf[pos++] = '\n';
+            }
+            if (onePinData.remaining() < SIZE_OF_REPORT_ENTRY) {
+                current++;
+                skipEmpty();
+            }
+        }
+        return pos;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        while (hasRemaining()) {
+            int length = encode(buf);
+            out.write(buf, 0, length);
+        }
+    }
+
+    /**
+     * Narrows records of flipped buffer to [from, to] time range. Records are expected to be sorted by time,
+     * so range is found with binary search.
+     *
+     * @return view of buffer with records within range or null if there are no such records
+     */
+    static ByteBuffer filter(ByteBuffer onePinData, long from, long to) {
+        if (onePinData == null) {
+            return null;
+        }
+        int start = onePinData.position();
+        int count = onePinData.remaining() / SIZE_OF_REPORT_ENTRY;
+        int fromIndex = firstAfter(onePinData, start, count, from - 1);
+        int toIndex = to == Long.MAX_VALUE ? count : firstAfter(onePinData, start, count, to);
+        if (fromIndex >= toIndex) {
+            return null;
+        }
+        ByteBuffer result = onePinData.duplicate();
+        result.limit(start + toIndex * SIZE_OF_REPORT_ENTRY);
+        result.position(start + fromIndex * SIZE_OF_REPORT_ENTRY);
+        return result;
+    }
+
+    //index of first record with timestamp greater than ts
+    private static int firstAfter(ByteBuffer onePinData, int start, int count, long ts) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            long midTs = onePinData.getLong(start + mid * SIZE_OF_REPORT_ENTRY + 8);
+            if (midTs <= ts) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+}
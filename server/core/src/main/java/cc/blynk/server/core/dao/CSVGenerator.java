@@ -6,14 +6,11 @@ import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
 import cc.blynk.server.core.protocol.exceptions.IllegalCommandBodyException;
 import cc.blynk.server.core.protocol.exceptions.NoDataException;
-import io.netty.util.CharsetUtil;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -22,6 +19,7 @@ import java.util.zip.GZIPOutputStream;
 
 /**
  * Simply generates CSV file from reporting data.
+ * Same data could be streamed without file with {@link #export}.
  *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
@@ -43,46 +41,53 @@ public class CSVGenerator {
 
     private final ReportingDao reportingDao;
     private final static int FETCH_COUNT = 60 * 24 * 30;
+    private final static int GZIP_BUFFER_SIZE = 8192;
 
     public CSVGenerator(ReportingDao reportingDao) {
         this.reportingDao = reportingDao;
     }
 
     public Path createCSV(User user, int dashId, int inDeviceId, PinType pinType, byte pin, int... deviceIds) throws Exception {
-        if (pinType == null || pin == DataStream.NO_PIN) {
-            throw new IllegalCommandBodyException("Wrong pin format.");
-        }
+        CSVExport export = export(user, dashId, pinType, pin, 0, Long.MAX_VALUE, deviceIds);
 
         Path path = generateExportCSVPath(user.email, dashId, inDeviceId, pinType, pin);
 
-        try (OutputStream output = Files.newOutputStream(path);
-             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(output), CharsetUtil.US_ASCII))) {
-
-            int emptyDataCounter = 0;
-            for (int deviceId : deviceIds) {
-                ByteBuffer onePinData = reportingDao.getByteBufferFromDisk(user, dashId, deviceId, pinType, pin, FETCH_COUNT, GraphGranularityType.MINUTE);
-                if (onePinData != null) {
-                    onePinData.flip();
-                    writeBuf(writer, onePinData, deviceId);
-                } else {
-                    emptyDataCounter++;
-                }
-            }
-            if (emptyDataCounter == deviceIds.length) {
-                throw new NoDataException();
-            }
+        try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(path), GZIP_BUFFER_SIZE)) {
+            export.writeTo(output);
         }
 
         return path;
     }
 
-    private static void writeBuf(BufferedWriter writer, ByteBuffer onePinData, int deviceId) throws Exception {;
-        while (onePinData.remaining() > 0) {
-            double value = onePinData.getDouble();
-            long ts = onePinData.getLong();
+    /**
+     * Prepares export of last month of minute data within [from, to] time range.
+     * Data itself is not read here, so export could be streamed to any output.
+     */
+    public CSVExport export(User user, int dashId, PinType pinType, byte pin,
+                            long from, long to, int... deviceIds) throws Exception {
+        if (pinType == null || pin == DataStream.NO_PIN) {
+            throw new IllegalCommandBodyException("Wrong pin format.");
+        }
 
-            writer.write("" + value + ',' + ts + ',' + deviceId + '\n');
+        ByteBuffer[] data = new ByteBuffer[deviceIds.length];
+        int emptyDataCounter = 0;
+        for (int i = 0; i < deviceIds.length; i++) {
+            ByteBuffer onePinData = reportingDao.getByteBufferView(user, dashId, deviceIds[i],
+                    pinType, pin, FETCH_COUNT, GraphGranularityType.MINUTE);
+            data[i] = CSVExport.filter(onePinData, from, to);
+            if (data[i] == null) {
+                emptyDataCounter++;
+            }
+        }
+        if (emptyDataCounter == deviceIds.length) {
+            throw new NoDataException();
         }
+
+        return new CSVExport(data, deviceIds);
+    }
+
+    public static String generateExportCSVFileName(String email, int dashId, int deviceId, PinType pinType, byte pin) {
+        return format(email, dashId, deviceId, pinType, pin);
     }
 
     private static Path generateExportCSVPath(String email, int dashId, int deviceId, PinType pinType, byte pin) {
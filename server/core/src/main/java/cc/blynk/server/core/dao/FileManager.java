@@ -11,21 +11,26 @@ import org.apache.logging.log4j.Logger;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 import static java.nio.file.Files.createDirectories;
-import static java.util.function.Function.identity;
 
 
 /**
@@ -39,6 +44,8 @@ public class FileManager {
 
     private static final Logger log = LogManager.getLogger(FileManager.class);
     private static final String USER_FILE_EXTENSION = ".user";
+    private static final String PROFILES_SNAPSHOT_FILE_NAME = "profiles.snapshot";
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
 
     /**
      * Folder where all user profiles are stored locally.
@@ -50,7 +57,15 @@ public class FileManager {
     private Path deletedDataDir;
     private Path backupDataDir;
 
+    //flush profile to disk before it replaces previous one
+    private final boolean fsync;
+
     public FileManager(String dataFolder) {
+        this(dataFolder, false);
+    }
+
+    public FileManager(String dataFolder, boolean fsync) {
+        this.fsync = fsync;
         if (dataFolder == null || dataFolder.isEmpty() || dataFolder.equals("/path")) {
             System.out.println("WARNING : '" + dataFolder + "' does not exists. Please specify correct -dataFolder parameter.");
             dataFolder = Paths.get(System.getProperty("java.io.tmpdir"), "blynk").toString();
@@ -101,10 +116,32 @@ public class FileManager {
         return FileUtils.move(file, this.deletedDataDir);
     }
 
+    /**
+     * Profile is written to temp file that replaces previous profile file, so file is never partially written.
+     * May be called from many threads.
+     */
     public void overrideUserFile(User user) throws IOException {
         Path path = generateFileName(user.email, user.appName);
 
-        JsonParser.writeUser(path.toFile(), user);
+        byte[] data = JsonParser.writeUserAsBytes(user);
+        //thread id makes temp file unique in case same profile is saved concurrently
+        Path tmp = Paths.get(dataDir.toString(),
+                path.getFileName().toString() + "." + Thread.currentThread().getId() + TEMP_FILE_EXTENSION);
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (fsync) {
+                    channel.force(true);
+                }
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
 
         removeOldFile(user.email);
     }
@@ -125,39 +162,86 @@ public class FileManager {
      * @return mapping between username and it's profile.
      */
     public ConcurrentMap<UserKey, User> deserializeUsers() {
-        log.debug("Starting reading user DB.");
+        ConcurrentMap<UserKey, User> users = new ConcurrentHashMap<>();
+        deserializeUsers(user -> users.put(new UserKey(user), user));
+        return users;
+    }
 
-        final File[] files = dataDir.toFile().listFiles();
+    /**
+     * Loads all user profiles and passes every profile to consumer right after it is parsed,
+     * so indexes could be built while loading is in progress. Consumer is called from many threads.
+     * Profiles that weren't modified since profiles snapshot was created are taken from snapshot,
+     * the rest are parsed from profile files.
+     *
+     * @return number of loaded profiles.
+     */
+    public int deserializeUsers(Consumer<User> consumer) {
+        log.debug("Starting reading user DB.");
 
-        ConcurrentMap<UserKey, User> temp;
+        long start = System.currentTimeMillis();
+        Map<String, File> userFiles = new HashMap<>();
+        File[] files = dataDir.toFile().listFiles();
         if (files != null) {
-            temp = Arrays.stream(files).parallel()
-                    .filter(file -> file.isFile() && file.getName().endsWith(USER_FILE_EXTENSION))
-                    .flatMap(file -> {
-                        try {
-                            User user = JsonParser.parseUserFromFile(file);
-                            makeProfileChanges(user);
-
-                            return Stream.of(user);
-                        } catch (IOException ioe) {
-                            String errorMessage = ioe.getMessage();
-                            log.error("Error parsing file '{}'. Error : {}", file, errorMessage);
-                            if (errorMessage != null && errorMessage.contains("Unexpected end-of-input")) {
-                                return restoreFromBackup(file.getName());
-                            }
-                        }
-                        return Stream.empty();
-                    })
-                    .collect(Collectors.toConcurrentMap(UserKey::new, identity()));
-        } else {
-            temp = new ConcurrentHashMap<>();
+            for (File file : files) {
+                if (file.isFile() && file.getName().endsWith(USER_FILE_EXTENSION)) {
+                    userFiles.put(file.getName(), file);
+                }
+            }
+        }
+        log.info("Listing {} profile files took {} ms.", userFiles.size(), System.currentTimeMillis() - start);
+
+        Consumer<User> profileConsumer = user -> {
+            makeProfileChanges(user);
+            consumer.accept(user);
+        };
+
+        Set<String> loadedFromSnapshot = Collections.emptySet();
+        Path snapshot = getProfilesSnapshotPath();
+        if (Files.exists(snapshot)) {
+            start = System.currentTimeMillis();
+            loadedFromSnapshot = ProfilesSnapshot.read(snapshot, (name, createdTs) -> {
+                File file = userFiles.get(name);
+                //second margin, as file modification time may be rounded to seconds
+                return file != null && file.lastModified() + 1000 <= createdTs;
+            }, profileConsumer);
+            log.info("Loading {} profiles from snapshot took {} ms.",
+                    loadedFromSnapshot.size(), System.currentTimeMillis() - start);
         }
 
+        start = System.currentTimeMillis();
+        Set<String> skip = loadedFromSnapshot;
+        LongAdder parsed = new LongAdder();
+        userFiles.values().parallelStream()
+                .filter(file -> !skip.contains(file.getName()))
+                .forEach(file -> {
+                    User user = parseUserFile(file);
+                    if (user != null) {
+                        consumer.accept(user);
+                        parsed.increment();
+                    }
+                });
+        log.info("Parsing {} profile files took {} ms.", parsed.sum(), System.currentTimeMillis() - start);
+
         log.debug("Reading user DB finished.");
-        return temp;
+        return loadedFromSnapshot.size() + parsed.intValue();
+    }
+
+    private User parseUserFile(File file) {
+        try {
+            User user = JsonParser.parseUserFromFile(file);
+            makeProfileChanges(user);
+            return user;
+        } catch (IOException ioe) {
+            String errorMessage = ioe.getMessage();
+            log.error("Error parsing file '{}'. Error : {}", file, errorMessage);
+            if (errorMessage != null && errorMessage.contains("Unexpected end-of-input")) {
+                return restoreFromBackup(file.getName());
+            }
+        }
+        return null;
     }
 
-    private Stream<User> restoreFromBackup(String filename) {
+    private User restoreFromBackup(String filename) {
         log.info("Trying to recover from backup...");
         try {
             File[] files = backupDataDir.toFile().listFiles(
@@ -167,7 +251,7 @@ public class FileManager {
             File backupFile = FileUtils.getLatestFile(files);
             if (backupFile == null) {
                 log.info("Didn't find any files for recovery :(.");
-                return Stream.empty();
+                return null;
             }
             log.info("Found {}. You are lucky today :).", backupFile.getAbsoluteFile());
 
@@ -178,12 +262,26 @@ public class FileManager {
             //this is not very important as profile will be updated by user anyway.
             user.lastModifiedTs = System.currentTimeMillis() + 10 * 1000;
             log.info("Restored.", backupFile.getAbsoluteFile());
-            return Stream.of(user);
+            return user;
         } catch (Exception e) {
             //ignore
             log.error("Restoring from backup failed. {}", e.getMessage());
         }
-        return Stream.empty();
+        return null;
+    }
+
+    public Path getProfilesSnapshotPath() {
+        return Paths.get(dataDir.toString(), PROFILES_SNAPSHOT_FILE_NAME);
+    }
+
+    /**
+     * Stores all profiles to single snapshot file that speeds up next server start.
+     */
+    public void writeProfilesSnapshot(Collection<User> users) throws IOException {
+        long start = System.currentTimeMillis();
+        int count = ProfilesSnapshot.write(getProfilesSnapshotPath(), users,
+                user -> generateFileName(user.email, user.appName).getFileName().toString());
+        log.info("Writing {} profiles to snapshot took {} ms.", count, System.currentTimeMillis() - start);
     }
 
     public static void makeProfileChanges(User user) {
@@ -0,0 +1,171 @@
+package cc.blynk.server.core.dao;
+
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.utils.JsonParser;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Single gzipped file with all user profiles, so on startup server doesn't need to open and read
+ * every profile file separately.
+ *
+ * Format : magic, version, creation time and records of (profile file name, profile json) pairs.
+ * Snapshot is only a cache, profile files are always source of truth. Record is used only
+ * when profile file wasn't modified after snapshot was created.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 11.09.17.
+ */
+final class ProfilesSnapshot {
+
+    private static final Logger log = LogManager.getLogger(ProfilesSnapshot.class);
+
+    private static final int MAGIC = 0x424C4E4B;
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int BATCH_SIZE = 256;
+
+    private ProfilesSnapshot() {
+    }
+
+    /**
+     * Writes snapshot to temp file and moves it over previous one, so snapshot is never partially written.
+     *
+     * @return number of stored profiles.
+     */
+    static int write(Path file, Collection<User> users, Function<User, String> fileName) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        //profiles modified after this moment are newer than snapshot
+        long createdTs = System.currentTimeMillis();
+        int count = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(tmp), BUFFER_SIZE), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(createdTs);
+            for (User user : users) {
+                byte[] data;
+                try {
+                    data = JsonParser.writeUserAsBytes(user);
+                } catch (Exception e) {
+                    //profile will be read from file
+                    log.error("Error adding {} to profiles snapshot.", user.email, e);
+                    continue;
+                }
+                out.writeBoolean(true);
+                out.writeUTF(fileName.apply(user));
+                out.writeInt(data.length);
+                out.write(data);
+                count++;
+            }
+            out.writeBoolean(false);
+        }
+        Files.move(tmp, file, REPLACE_EXISTING, ATOMIC_MOVE);
+        return count;
+    }
+
+    /**
+     * Reads snapshot sequentially and parses profiles in parallel. Consumer is called from many threads.
+     *
+     * @param isUpToDate - (profile file name, snapshot creation time) -> whether record could be used.
+     * @return file names of profiles passed to consumer. Empty in case snapshot is broken.
+     */
+    static Set<String> read(Path file, BiPredicate<String, Long> isUpToDate, Consumer<User> consumer) {
+        Set<String> loaded = ConcurrentHashMap.newKeySet();
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService parsers = Executors.newFixedThreadPool(threads);
+        //limits amount of read but not yet parsed profiles in memory
+        Semaphore inFlight = new Semaphore(threads * 2);
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(file), BUFFER_SIZE), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.warn("Unknown profiles snapshot format. Skipping.");
+                return loaded;
+            }
+            long createdTs = in.readLong();
+
+            List<Record> batch = new ArrayList<>(BATCH_SIZE);
+            while (in.readBoolean()) {
+                String name = in.readUTF();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                if (isUpToDate.test(name, createdTs)) {
+                    batch.add(new Record(name, data));
+                    if (batch.size() == BATCH_SIZE) {
+                        submit(parsers, inFlight, batch, loaded, consumer);
+                        batch = new ArrayList<>(BATCH_SIZE);
+                    }
+                }
+            }
+            submit(parsers, inFlight, batch, loaded, consumer);
+        } catch (Exception e) {
+            //already parsed profiles are valid, the rest is read from files
+            log.error("Error reading profiles snapshot {}.", file, e);
+        } finally {
+            parsers.shutdown();
+            try {
+                parsers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return loaded;
+    }
+
+    private static void submit(ExecutorService parsers, Semaphore inFlight, List<Record> batch,
+                               Set<String> loaded, Consumer<User> consumer) throws InterruptedException {
+        inFlight.acquire();
+        parsers.execute(() -> {
+            try {
+                for (Record record : batch) {
+                    try {
+                        consumer.accept(JsonParser.parseUserFromBytes(record.data));
+                        loaded.add(record.name);
+                    } catch (Exception e) {
+                        log.error("Error parsing {} from profiles snapshot. {}", record.name, e.getMessage());
+                    }
+                }
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    private static final class Record {
+        private final String name;
+        private final byte[] data;
+
+        private Record(String name, byte[] data) {
+            this.name = name;
+            this.data = data;
+        }
+    }
+
+}
@@ -7,8 +7,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.ArrayList;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.Collection;
 
 /**
  * The Blynk Project.
@@ -19,22 +18,26 @@ class RegularTokenManager {
 
     private static final Logger log = LogManager.getLogger(RegularTokenManager.class);
 
-    private final ConcurrentMap<String, TokenValue> cache;
-
-    RegularTokenManager(Iterable<User> users) {
-        this.cache = new ConcurrentHashMap<String, TokenValue>() {{
-            for (User user : users) {
-                if (user.profile != null) {
-                    for (DashBoard dashBoard : user.profile.dashBoards) {
-                        for (Device device : dashBoard.devices) {
-                            if (device.token != null) {
-                                put(device.token, new TokenValue(user, dashBoard, device));
-                            }
-                        }
+    private final TokenIndex cache;
+
+    RegularTokenManager(Collection<User> users) {
+        long start = System.currentTimeMillis();
+        this.cache = new TokenIndex();
+        users.parallelStream().forEach(this::add);
+        log.info("Tokens index built in {} ms. Tokens : {}.", System.currentTimeMillis() - start, cache.size());
+    }
+
+    //may be called from many threads
+    void add(User user) {
+        if (user.profile != null) {
+            for (DashBoard dashBoard : user.profile.dashBoards) {
+                for (Device device : dashBoard.devices) {
+                    if (device.token != null) {
+                        cache.put(device.token, new TokenValue(user, dashBoard, device));
                     }
                 }
             }
-        }};
+        }
     }
 
     String assignToken(User user, DashBoard dash, Device device, String newToken) {
@@ -64,6 +67,14 @@ class RegularTokenManager {
         return cache.get(token);
     }
 
+    int size() {
+        return cache.size();
+    }
+
+    long getIndexBytes() {
+        return cache.getBytes();
+    }
+
     String[] deleteProject(DashBoard dash) {
         ArrayList<String> removedTokens = new ArrayList<>(dash.devices.length);
         for (Device device : dash.devices) {
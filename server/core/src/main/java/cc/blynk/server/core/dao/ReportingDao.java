@@ -1,33 +1,34 @@
 package cc.blynk.server.core.dao;
 
-import cc.blynk.server.core.dao.functions.Function;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.enums.PinType;
-import cc.blynk.server.core.model.widgets.outputs.graph.AggregationFunctionType;
 import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.protocol.exceptions.GetGraphDataException;
 import cc.blynk.server.core.protocol.exceptions.NoDataException;
+import cc.blynk.server.core.reporting.CompressedGraphStream;
+import cc.blynk.server.core.reporting.Downsampler;
+import cc.blynk.server.core.reporting.DownsamplingType;
+import cc.blynk.server.core.reporting.GraphDataCache;
 import cc.blynk.server.core.reporting.GraphPinRequest;
+import cc.blynk.server.core.reporting.SeriesMerger;
 import cc.blynk.server.core.reporting.average.AverageAggregatorProcessor;
 import cc.blynk.server.core.reporting.raw.BaseReportingKey;
-import cc.blynk.server.core.reporting.raw.GraphValue;
 import cc.blynk.server.core.reporting.raw.RawDataCacheForGraphProcessor;
 import cc.blynk.server.core.reporting.raw.RawDataProcessor;
-import cc.blynk.utils.FileUtils;
+import cc.blynk.server.core.reporting.storage.FileReportingStorage;
+import cc.blynk.server.core.reporting.storage.MappedReportingStorage;
+import cc.blynk.server.core.reporting.storage.ReportingStorage;
 import cc.blynk.utils.NumberUtil;
 import cc.blynk.utils.ServerProperties;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.Closeable;
+import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.Map;
-import java.util.TreeMap;
 
 import static cc.blynk.utils.ArrayUtil.EMPTY_BYTES;
-import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static cc.blynk.utils.ByteUtils.compress;
 import static cc.blynk.utils.StringUtils.DEVICE_SEPARATOR;
 
 /**
@@ -43,10 +44,14 @@ public class ReportingDao implements Closeable {
     public final RawDataCacheForGraphProcessor rawDataCacheForGraphProcessor;
     public final RawDataProcessor rawDataProcessor;
     public final CSVGenerator csvGenerator;
+    public final ReportingStorage storage;
+    public final GraphDataCache graphDataCache;
 
     public final String dataFolder;
 
     private final boolean ENABLE_RAW_DB_DATA_STORE;
+    //percentiles of tag are estimated with constant memory instead of keeping all values
+    private final boolean approximatePercentiles;
 
     //for test only
     public ReportingDao(String reportingFolder, AverageAggregatorProcessor averageAggregator, ServerProperties serverProperties) {
@@ -56,6 +61,10 @@ public class ReportingDao implements Closeable {
         this.ENABLE_RAW_DB_DATA_STORE = serverProperties.getBoolProperty("enable.raw.db.data.store");
         this.rawDataProcessor = new RawDataProcessor(ENABLE_RAW_DB_DATA_STORE);
         this.csvGenerator = new CSVGenerator(this);
+        this.storage = createStorage(reportingFolder, serverProperties);
+        this.approximatePercentiles = serverProperties.getBoolProperty("reporting.approximate.percentiles");
+        this.graphDataCache = new GraphDataCache(
+                serverProperties.getIntProperty("reporting.graph.cache.size", 32) * 1024L * 1024L);
     }
 
     public ReportingDao(String reportingFolder , ServerProperties serverProperties) {
@@ -65,6 +74,18 @@ public class ReportingDao implements Closeable {
         this.ENABLE_RAW_DB_DATA_STORE = serverProperties.getBoolProperty("enable.raw.db.data.store");
         this.rawDataProcessor = new RawDataProcessor(ENABLE_RAW_DB_DATA_STORE);
         this.csvGenerator = new CSVGenerator(this);
+        this.storage = createStorage(reportingFolder, serverProperties);
+        this.approximatePercentiles = serverProperties.getBoolProperty("reporting.approximate.percentiles");
+        this.graphDataCache = new GraphDataCache(
+                serverProperties.getIntProperty("reporting.graph.cache.size", 32) * 1024L * 1024L);
+    }
+
+    private static ReportingStorage createStorage(String reportingFolder, ServerProperties serverProperties) {
+        if ("mmap".equals(serverProperties.getProperty("reporting.storage.type"))) {
+            return new MappedReportingStorage(reportingFolder,
+                    serverProperties.getIntProperty("reporting.storage.shards", 16));
+        }
+        return new FileReportingStorage(reportingFolder);
     }
 
     public static String generateFilename(int dashId, int deviceId, char pinType, byte pin, GraphGranularityType type) {
@@ -81,17 +102,11 @@ public class ReportingDao implements Closeable {
     public ByteBuffer getByteBufferFromDisk(User user, int dashId, int deviceId,
                                             PinType pinType, byte pin, int count,
                                             GraphGranularityType type, int skipCount) {
-        Path userDataFile = Paths.get(
-                dataFolder,
-                FileUtils.getUserReportingDir(user),
-                generateFilename(dashId, deviceId, pinType.pintTypeChar, pin, type)
-        );
-        if (Files.exists(userDataFile)) {
-            try {
-                return FileUtils.read(userDataFile, count, skipCount);
-            } catch (Exception ioe) {
-                log.error(ioe);
-            }
+        try {
+            return storage.read(user.email, user.appName, dashId, deviceId, pinType.pintTypeChar, pin,
+                    type, count, skipCount);
+        } catch (Exception ioe) {
+            log.error(ioe);
         }
 
         return null;
@@ -107,43 +122,17 @@ public class ReportingDao implements Closeable {
     }
 
     private ByteBuffer getDataForTag(User user, GraphPinRequest graphPinRequest) {
-        TreeMap<Long, Function> data = new TreeMap<>();
-        for (int deviceId : graphPinRequest.deviceIds) {
-            ByteBuffer localByteBuf = getByteBufferFromDisk(user,
-                    graphPinRequest.dashId, deviceId,
+        ByteBuffer[] data = new ByteBuffer[graphPinRequest.deviceIds.length];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = getByteBufferFromDisk(user,
+                    graphPinRequest.dashId, graphPinRequest.deviceIds[i],
                     graphPinRequest.pinType, graphPinRequest.pin,
                     graphPinRequest.count, graphPinRequest.type,
                     graphPinRequest.skipCount
             );
-            addBufferToResult(data, graphPinRequest.functionType, localByteBuf);
         }
 
-        return toByteBuf(data);
-    }
-
-    private void addBufferToResult(TreeMap<Long, Function> data, AggregationFunctionType functionType, ByteBuffer localByteBuf) {
-        if (localByteBuf != null) {
-            localByteBuf.flip();
-            while (localByteBuf.hasRemaining()) {
-                double newVal = localByteBuf.getDouble();
-                Long ts = localByteBuf.getLong();
-                Function functionObj = data.get(ts);
-                if (functionObj == null) {
-                    functionObj = functionType.produce();
-                    data.put(ts, functionObj);
-                }
-                functionObj.apply(newVal);
-            }
-        }
-    }
-
-    private ByteBuffer toByteBuf(TreeMap<Long, Function> data) {
-        ByteBuffer result = ByteBuffer.allocate(data.size() * SIZE_OF_REPORT_ENTRY);
-        for (Map.Entry<Long, Function> entry : data.entrySet()) {
-            result.putDouble(entry.getValue().getResult())
-                  .putLong(entry.getKey());
-        }
-        return result;
+        return SeriesMerger.merge(data, graphPinRequest.functionType.produce(approximatePercentiles));
     }
 
     public ByteBuffer getByteBufferFromDisk(User user, GraphPinRequest graphPinRequest) {
@@ -168,14 +157,26 @@ public class ReportingDao implements Closeable {
         return getByteBufferFromDisk(user, dashId, deviceId, pinType, pin, count, type, 0);
     }
 
+    /**
+     * Same as {@link #getByteBufferFromDisk(User, int, int, PinType, byte, int, GraphGranularityType)}
+     * but data is not copied into heap when storage allows that. Returned buffer is flipped.
+     */
+    public ByteBuffer getByteBufferView(User user, int dashId, int deviceId, PinType pinType, byte pin,
+                                        int count, GraphGranularityType type) {
+        try {
+            return storage.readView(user.email, user.appName, dashId, deviceId, pinType.pintTypeChar, pin,
+                    type, count, 0);
+        } catch (Exception ioe) {
+            log.error(ioe);
+        }
+
+        return null;
+    }
+
     public void delete(User user, int dashId, int deviceId, PinType pinType, byte pin) {
         log.debug("Removing {}{} pin data for dashId {}, deviceId {}.", pinType.pintTypeChar, pin, dashId, deviceId);
-        Path userDataMinuteFile = Paths.get(dataFolder, FileUtils.getUserReportingDir(user), formatMinute(dashId, deviceId, pinType.pintTypeChar, pin));
-        Path userDataHourlyFile = Paths.get(dataFolder, FileUtils.getUserReportingDir(user), formatHour(dashId, deviceId, pinType.pintTypeChar, pin));
-        Path userDataDailyFile = Paths.get(dataFolder, FileUtils.getUserReportingDir(user), formatDaily(dashId, deviceId, pinType.pintTypeChar, pin));
-        FileUtils.deleteQuietly(userDataMinuteFile);
-        FileUtils.deleteQuietly(userDataHourlyFile);
-        FileUtils.deleteQuietly(userDataDailyFile);
+        storage.delete(user.email, user.appName, dashId, deviceId, pinType.pintTypeChar, pin);
+        graphDataCache.invalidate(new BaseReportingKey(user.email, user.appName, dashId, deviceId, pinType, pin));
     }
 
     protected static String formatMinute(int dashId, int deviceId, char pinType, byte pin) {
@@ -199,56 +200,137 @@ public class ReportingDao implements Closeable {
     }
 
     public void process(User user, int dashId, int deviceId, byte pin, PinType pinType, String value, long ts) {
+        process(user, dashId, deviceId, pin, pinType, value, ts, NumberUtil.parseDouble(value));
+    }
+
+    /**
+     * @param doubleVal - already parsed value or NumberUtil.NO_RESULT if value is not a number.
+     */
+    public void process(User user, int dashId, int deviceId, byte pin, PinType pinType, String value, long ts, double doubleVal) {
         try {
-            double doubleVal = NumberUtil.parseDouble(value);
-            process(user, dashId, deviceId, pin, pinType, value, ts, doubleVal);
+            BaseReportingKey key = new BaseReportingKey(user.email, user.appName, dashId, deviceId, pinType, pin);
+            if (ENABLE_RAW_DB_DATA_STORE) {
+                rawDataProcessor.collect(key, ts, value, doubleVal);
+            }
+
+            //not a number, nothing to aggregate
+            if (doubleVal == NumberUtil.NO_RESULT) {
+                return;
+            }
+
+            averageAggregator.collect(key, ts, doubleVal);
+            rawDataCacheForGraphProcessor.collect(key, doubleVal, ts);
         } catch (Exception e) {
             //just in case
             log.trace("Error collecting reporting entry.");
         }
     }
 
-    private void process(User user, int dashId, int deviceId, byte pin, PinType pinType, String value, long ts, double doubleVal) {
-        if (ENABLE_RAW_DB_DATA_STORE) {
-            rawDataProcessor.collect(new BaseReportingKey(user.email, user.appName, dashId, deviceId, pinType, pin), ts, value, doubleVal);
+    public byte[][] getReportingData(User user, GraphPinRequest[] requestedPins) {
+        return getReportingData(user, requestedPins, DownsamplingType.LTTB, 0);
+    }
+
+    /**
+     * @param maxPoints - max number of points per pin, 0 means all points of requested period
+     */
+    public byte[][] getReportingData(User user, GraphPinRequest[] requestedPins,
+                                     DownsamplingType downsamplingType, int maxPoints) {
+        byte[][] values = new byte[requestedPins.length][];
+
+        for (int i = 0; i < requestedPins.length; i++) {
+            values[i] = getPinData(user, requestedPins[i], downsamplingType, maxPoints);
         }
 
-        //not a number, nothing to aggregate
-        if (doubleVal == NumberUtil.NO_RESULT) {
-            return;
+        if (!hasData(values)) {
+            throw new NoDataException();
         }
 
-        BaseReportingKey key = new BaseReportingKey(user.email, user.appName, dashId, deviceId, pinType, pin);
-        averageAggregator.collect(key, ts, doubleVal);
-        rawDataCacheForGraphProcessor.collect(key, new GraphValue(doubleVal, ts));
+        return values;
     }
 
-    public byte[][] getReportingData(User user, GraphPinRequest[] requestedPins) {
-        byte[][] values = new byte[requestedPins.length][];
+    public byte[] getCompressedReportingData(User user, GraphPinRequest[] requestedPins,
+                                             DownsamplingType downsamplingType, int maxPoints) {
+        return getCompressedReportingData(user, requestedPins, downsamplingType, maxPoints, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Same data as {@link #getReportingData(User, GraphPinRequest[], DownsamplingType, int)},
+     * but already compressed for response. Compressed data of pins is taken from cache when possible.
+     * In case compressed data is bigger than maxSize, all pins are downsampled to fit it.
+     * Data read within this call is reused for that and cached pins are inflated, so disk is never read twice.
+     */
+    public byte[] getCompressedReportingData(User user, GraphPinRequest[] requestedPins,
+                                             DownsamplingType downsamplingType, int maxPoints, int maxSize) {
+        CompressedGraphStream[] streams = new CompressedGraphStream[requestedPins.length];
+        byte[][] read = new byte[requestedPins.length][];
+        boolean hasData = false;
 
         for (int i = 0; i < requestedPins.length; i++) {
             GraphPinRequest graphPinRequest = requestedPins[i];
-            if (graphPinRequest.isValid()) {
-                ByteBuffer byteBuffer = graphPinRequest.isLiveData() ?
-                        //live graph data is not on disk but in memory
-                        rawDataCacheForGraphProcessor.getLiveGraphData(user, graphPinRequest) :
-                        getByteBufferFromDisk(user, graphPinRequest);
-                values[i] = byteBuffer == null ? EMPTY_BYTES : byteBuffer.array();
+            if (!graphPinRequest.isValid()) {
+                streams[i] = CompressedGraphStream.EMPTY;
+            } else if (graphPinRequest.isLiveData()) {
+                //live data changes all the time, so there is no sense to cache it
+                read[i] = getPinData(user, graphPinRequest, downsamplingType, maxPoints);
+                streams[i] = CompressedGraphStream.compress(read[i]);
             } else {
-                values[i] = EMPTY_BYTES;
+                GraphDataCache.Key key = new GraphDataCache.Key(user, graphPinRequest, downsamplingType, maxPoints);
+                streams[i] = graphDataCache.get(key);
+                if (streams[i] == null) {
+                    long version = graphDataCache.version();
+                    read[i] = getPinData(user, graphPinRequest, downsamplingType, maxPoints);
+                    streams[i] = CompressedGraphStream.compress(read[i]);
+                    graphDataCache.put(key, streams[i], version);
+                }
             }
+            hasData |= streams[i].points > 0;
         }
 
-        if (!hasData(values)) {
+        if (!hasData) {
             throw new NoDataException();
         }
 
-        return values;
+        int dashId = requestedPins[0].dashId;
+        byte[] compressed = CompressedGraphStream.join(dashId, streams);
+        if (compressed.length > maxSize) {
+            //many pins for long period, reducing resolution is better than no graph at all.
+            //raw data of half size always fits after deflate
+            for (int i = 0; i < streams.length; i++) {
+                if (read[i] == null) {
+                    read[i] = streams[i].decompress();
+                }
+            }
+            try {
+                compressed = compress(dashId, Downsampler.fit(read, maxSize / 2));
+            } catch (IOException ioe) {
+                throw new GetGraphDataException();
+            }
+        }
+        return compressed;
+    }
+
+    private byte[] getPinData(User user, GraphPinRequest graphPinRequest,
+                              DownsamplingType downsamplingType, int maxPoints) {
+        if (!graphPinRequest.isValid()) {
+            return EMPTY_BYTES;
+        }
+        ByteBuffer byteBuffer = graphPinRequest.isLiveData() ?
+                //live graph data is not on disk but in memory
+                rawDataCacheForGraphProcessor.getLiveGraphData(user, graphPinRequest) :
+                getByteBufferFromDisk(user, graphPinRequest);
+        byte[] data = byteBuffer == null ? EMPTY_BYTES : byteBuffer.array();
+        if (maxPoints > 0) {
+            data = downsamplingType.downsample(data, maxPoints);
+        }
+        return data;
     }
 
     @Override
     public void close() {
         System.out.println("Stopping aggregator...");
         this.averageAggregator.close();
+
+        System.out.println("Closing reporting storage...");
+        this.storage.close();
     }
 }
@@ -20,15 +20,18 @@ class SharedTokenManager {
     private static final Logger log = LogManager.getLogger(SharedTokenManager.class);
 
     public SharedTokenManager(Iterable<User> users) {
-        this.cache = new ConcurrentHashMap<String, SharedTokenValue>() {{
-            for (User user : users) {
-                for (DashBoard dashBoard : user.profile.dashBoards) {
-                    if (dashBoard.sharedToken != null) {
-                        put(dashBoard.sharedToken, new SharedTokenValue(user, dashBoard.id));
-                    }
-                }
+        this.cache = new ConcurrentHashMap<>();
+        for (User user : users) {
+            add(user);
+        }
+    }
+
+    void add(User user) {
+        for (DashBoard dashBoard : user.profile.dashBoards) {
+            if (dashBoard.sharedToken != null) {
+                cache.put(dashBoard.sharedToken, new SharedTokenValue(user, dashBoard.id));
             }
-        }};
+        }
     }
 
     public void assignToken(User user, DashBoard dash, String newToken) {
@@ -0,0 +1,230 @@
+package cc.blynk.server.core.dao;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Device token to TokenValue map that doesn't keep token strings.
+ *
+ * Generated tokens are 32 lowercase hex chars, so they are stored as 2 longs within
+ * open addressing tables (linear probing, backward shift deletion). Index is split on shards,
+ * every shard is guarded by own lock, so index could be filled from many threads.
+ * Tokens in any other format (e.g. assigned manually) are kept in regular map.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 10.09.17.
+ */
+final class TokenIndex {
+
+    private static final int TOKEN_LENGTH = 32;
+
+    private static final int SHARDS = 64;
+    private static final int INITIAL_SHARD_CAPACITY = 64;
+    //rough estimates of java 8 object sizes
+    private static final int REFERENCE_BYTES = 8;
+    private static final int TOKEN_STRING_BYTES = 104;
+    private static final int MAP_ENTRY_BYTES = 48;
+
+    private final Shard[] shards;
+    private final ConcurrentMap<String, TokenValue> other;
+
+    TokenIndex() {
+        this.shards = new Shard[SHARDS];
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard();
+        }
+        this.other = new ConcurrentHashMap<>();
+    }
+
+    private static boolean isHex(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f');
+    }
+
+    private static boolean isCompact(String token) {
+        if (token.length() != TOKEN_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < TOKEN_LENGTH; i++) {
+            if (!isHex(token.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //expects valid hex chars
+    private static long parseHex(String token, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 16; i++) {
+            char c = token.charAt(i);
+            value = (value << 4) | (c <= '9' ? c - '0' : c - 'a' + 10);
+        }
+        return value;
+    }
+
+    private static int hash(long hi, long lo) {
+        long h = hi * 0x9E3779B97F4A7C15L ^ lo;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private Shard shard(int hash) {
+        //upper bits select shard, lower bits select slot within shard
+        return shards[(hash >>> 26) & (SHARDS - 1)];
+    }
+
+    TokenValue get(String token) {
+        if (!isCompact(token)) {
+            return other.get(token);
+        }
+        long hi = parseHex(token, 0);
+        long lo = parseHex(token, 16);
+        int hash = hash(hi, lo);
+        return shard(hash).get(hi, lo, hash);
+    }
+
+    void put(String token, TokenValue value) {
+        if (!isCompact(token)) {
+            other.put(token, value);
+            return;
+        }
+        long hi = parseHex(token, 0);
+        long lo = parseHex(token, 16);
+        int hash = hash(hi, lo);
+        shard(hash).put(hi, lo, hash, value);
+    }
+
+    void remove(String token) {
+        if (!isCompact(token)) {
+            other.remove(token);
+            return;
+        }
+        long hi = parseHex(token, 0);
+        long lo = parseHex(token, 16);
+        int hash = hash(hi, lo);
+        shard(hash).remove(hi, lo, hash);
+    }
+
+    int size() {
+        int size = other.size();
+        for (Shard shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    /**
+     * Estimated memory used by index itself, without TokenValue objects.
+     */
+    long getBytes() {
+        long bytes = (long) other.size() * (TOKEN_STRING_BYTES + MAP_ENTRY_BYTES);
+        for (Shard shard : shards) {
+            bytes += shard.getBytes();
+        }
+        return bytes;
+    }
+
+    private static final class Shard {
+
+        //hi and lo parts of token per slot
+        private long[] keys = new long[INITIAL_SHARD_CAPACITY * 2];
+        //null means free slot
+        private TokenValue[] values = new TokenValue[INITIAL_SHARD_CAPACITY];
+        private int size;
+
+        private synchronized TokenValue get(long hi, long lo, int hash) {
+            int slot = find(hi, lo, hash);
+            return slot == -1 ? null : values[slot];
+        }
+
+        private synchronized void put(long hi, long lo, int hash, TokenValue value) {
+            int mask = values.length - 1;
+            int slot = hash & mask;
+            while (values[slot] != null) {
+                if (keys[slot * 2] == hi && keys[slot * 2 + 1] == lo) {
+                    values[slot] = value;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot * 2] = hi;
+            keys[slot * 2 + 1] = lo;
+            values[slot] = value;
+            //load factor 0.5
+            if (++size > values.length / 2) {
+                resize();
+            }
+        }
+
+        private synchronized void remove(long hi, long lo, int hash) {
+            int slot = find(hi, lo, hash);
+            if (slot == -1) {
+                return;
+            }
+            size--;
+            int mask = values.length - 1;
+            int free = slot;
+            int next = slot;
+            //shift following entries of same probe sequence back, so lookups don't stop on removed slot
+            while (true) {
+                next = (next + 1) & mask;
+                if (values[next] == null) {
+                    break;
+                }
+                int home = hash(keys[next * 2], keys[next * 2 + 1]) & mask;
+                boolean homeInRange = free <= next
+                        ? free < home && home <= next
+                        : free < home || home <= next;
+                if (!homeInRange) {
+                    keys[free * 2] = keys[next * 2];
+                    keys[free * 2 + 1] = keys[next * 2 + 1];
+                    values[free] = values[next];
+                    free = next;
+                }
+            }
+            values[free] = null;
+        }
+
+        private int find(long hi, long lo, int hash) {
+            int mask = values.length - 1;
+            int slot = hash & mask;
+            while (values[slot] != null) {
+                if (keys[slot * 2] == hi && keys[slot * 2 + 1] == lo) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            TokenValue[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new TokenValue[oldValues.length * 2];
+            int mask = values.length - 1;
+            for (int i = 0; i < oldValues.length; i++) {
+                if (oldValues[i] != null) {
+                    long hi = oldKeys[i * 2];
+                    long lo = oldKeys[i * 2 + 1];
+                    int slot = hash(hi, lo) & mask;
+                    while (values[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot * 2] = hi;
+                    keys[slot * 2 + 1] = lo;
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+
+        private synchronized int size() {
+            return size;
+        }
+
+        private synchronized long getBytes() {
+            return (long) keys.length * 8 + (long) values.length * REFERENCE_BYTES;
+        }
+    }
+
+}
@@ -32,6 +32,14 @@ public class TokenManager {
         this.currentIp = currentIp;
     }
 
+    /**
+     * Adds tokens of loaded user. May be called from many threads.
+     */
+    public void add(User user) {
+        regularTokenManager.add(user);
+        sharedTokenManager.add(user);
+    }
+
     public void deleteDevice(Device device) {
         String token = regularTokenManager.deleteDeviceToken(device);
         if (token != null) {
@@ -58,6 +66,14 @@ public class TokenManager {
         return regularTokenManager.getUserByToken(token);
     }
 
+    public int getTokensCount() {
+        return regularTokenManager.size();
+    }
+
+    public long getTokensIndexBytes() {
+        return regularTokenManager.getIndexBytes();
+    }
+
     public SharedTokenValue getUserBySharedToken(String token) {
         return sharedTokenManager.getUserByToken(token);
     }
@@ -10,9 +10,14 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
 
@@ -29,6 +34,8 @@ public class UserDao {
 
     public final ConcurrentMap<UserKey, User> users;
     private final String region;
+    //users which profiles may be changed since they were saved last time
+    private final Queue<User> modifiedUsers = new ConcurrentLinkedQueue<>();
 
     public UserDao(ConcurrentMap<UserKey, User> users, String region) {
         //reading DB to RAM.
@@ -86,6 +93,33 @@ public class UserDao {
 
     public void add(User user) {
         users.put(new UserKey(user), user);
+        markModified(user);
+    }
+
+    public boolean isRegistered(User user) {
+        return users.get(new UserKey(user)) == user;
+    }
+
+    /**
+     * Queues user for profile saving. User is queued only once until it is polled.
+     */
+    public void markModified(User user) {
+        if (user.queuedForSaveTs == 0) {
+            user.queuedForSaveTs = System.currentTimeMillis();
+            modifiedUsers.offer(user);
+        }
+    }
+
+    /**
+     * @return users queued since previous poll, without duplicates.
+     */
+    public List<User> pollModified() {
+        Set<User> polled = Collections.newSetFromMap(new IdentityHashMap<>());
+        User user;
+        while ((user = modifiedUsers.poll()) != null) {
+            polled.add(user);
+        }
+        return new ArrayList<>(polled);
     }
 
     public Map<String, Integer> getBoardsUsage() {
@@ -26,4 +26,10 @@ public class AverageFunction extends Function {
         return sum / count;
     }
 
+    @Override
+    public void reset() {
+        this.count = 0;
+        this.sum = 0;
+    }
+
 }
@@ -1,6 +1,9 @@
 package cc.blynk.server.core.dao.functions;
 
 /**
+ * Aggregates values of one timestamp. Same instance could be reused for
+ * next timestamp after {@link #reset()}.
+ *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
  * Created on 21.07.17.
@@ -11,4 +14,6 @@ public abstract class Function {
 
     public abstract double getResult();
 
+    public abstract void reset();
+
 }
@@ -7,7 +7,8 @@ package cc.blynk.server.core.dao.functions;
  */
 public class MaxFunction extends Function {
 
-    private double value = Double.MIN_VALUE;
+    //Double.MIN_VALUE is smallest positive value, so it can't be used for negative values
+    private double value = -Double.MAX_VALUE;
 
     @Override
     public void apply(double newValue) {
@@ -18,4 +19,9 @@ public class MaxFunction extends Function {
     public double getResult() {
         return value;
     }
+
+    @Override
+    public void reset() {
+        this.value = -Double.MAX_VALUE;
+    }
 }
@@ -19,4 +19,9 @@ public class MinFunction extends Function {
         return value;
     }
 
+    @Override
+    public void reset() {
+        this.value = Double.MAX_VALUE;
+    }
+
 }
@@ -0,0 +1,56 @@
+package cc.blynk.server.core.dao.functions;
+
+import java.util.Arrays;
+
+/**
+ * Exact percentile. Keeps all values in primitive array, so memory grows with number of values.
+ * Result is linearly interpolated between 2 closest ranks, so for 0.5 it is regular median.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 16.09.17.
+ */
+public class PercentileFunction extends Function {
+
+    private final double quantile;
+    private double[] values;
+    private int size;
+
+    public PercentileFunction(double quantile) {
+        this.quantile = quantile;
+        this.values = new double[16];
+        this.size = 0;
+    }
+
+    @Override
+    public void apply(double newValue) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = newValue;
+    }
+
+    @Override
+    public double getResult() {
+        Arrays.sort(values, 0, size);
+        return percentile(values, size, quantile);
+    }
+
+    /**
+     * @param sorted - sorted values, at least 1
+     */
+    static double percentile(double[] sorted, int size, double quantile) {
+        double rank = quantile * (size - 1);
+        int lower = (int) rank;
+        if (lower + 1 >= size) {
+            return sorted[size - 1];
+        }
+        return sorted[lower] + (rank - lower) * (sorted[lower + 1] - sorted[lower]);
+    }
+
+    @Override
+    public void reset() {
+        this.size = 0;
+    }
+
+}
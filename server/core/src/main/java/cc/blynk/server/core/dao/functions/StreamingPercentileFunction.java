@@ -0,0 +1,135 @@
+package cc.blynk.server.core.dao.functions;
+
+import java.util.Arrays;
+
+/**
+ * Approximate percentile with constant memory. First values are kept as is, so result is exact
+ * for small buckets. When buffer is full, it is replaced with 5 markers of P-square algorithm
+ * (Jain and Chlamtac): min, max, estimated percentile and 2 points between them. Markers start from
+ * exact ranks of buffered values. Every next value moves marker positions and marker heights are
+ * adjusted with piecewise-parabolic interpolation, so there is no sorting and no memory growth
+ * for big buckets.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 16.09.17.
+ */
+public class StreamingPercentileFunction extends Function {
+
+    private static final int MARKERS = 5;
+    //values that are kept before switching to markers
+    private static final int BUFFER_SIZE = 128;
+
+    //marker heights
+    private final double[] heights = new double[MARKERS];
+    //actual marker positions, 1-based
+    private final int[] positions = new int[MARKERS];
+    //desired marker positions
+    private final double[] desired = new double[MARKERS];
+    //increments of desired positions for every value
+    private final double[] increments;
+    private final double[] buffer = new double[BUFFER_SIZE];
+    private final double quantile;
+    private int count;
+
+    public StreamingPercentileFunction(double quantile) {
+        this.quantile = quantile;
+        this.increments = new double[] {0, quantile / 2, quantile, (1 + quantile) / 2, 1};
+    }
+
+    @Override
+    public void apply(double value) {
+        if (count < BUFFER_SIZE) {
+            buffer[count++] = value;
+            return;
+        }
+        if (count == BUFFER_SIZE) {
+            init();
+        }
+        count++;
+
+        int cell;
+        if (value < heights[0]) {
+            heights[0] = value;
+            cell = 0;
+        } else if (value >= heights[4]) {
+            heights[4] = value;
+            cell = 3;
+        } else {
+            cell = 0;
+            while (value >= heights[cell + 1]) {
+                cell++;
+            }
+        }
+
+        for (int i = cell + 1; i < MARKERS; i++) {
+            positions[i]++;
+        }
+        for (int i = 0; i < MARKERS; i++) {
+            desired[i] += increments[i];
+        }
+
+        for (int i = 1; i < MARKERS - 1; i++) {
+            double delta = desired[i] - positions[i];
+            if ((delta >= 1 && positions[i + 1] - positions[i] > 1)
+                    || (delta <= -1 && positions[i - 1] - positions[i] < -1)) {
+                int step = delta > 0 ? 1 : -1;
+                double height = parabolic(i, step);
+                if (heights[i - 1] < height && height < heights[i + 1]) {
+                    heights[i] = height;
+                } else {
+                    heights[i] = linear(i, step);
+                }
+                positions[i] += step;
+            }
+        }
+    }
+
+    private void init() {
+        Arrays.sort(buffer);
+        int last = BUFFER_SIZE - 1;
+        for (int i = 0; i < MARKERS; i++) {
+            desired[i] = 1 + last * increments[i];
+            positions[i] = (int) Math.round(desired[i]);
+        }
+        //markers should stay on different values, for extreme percentiles ranks may collide.
+        //first and last markers are always min and max
+        for (int i = 1; i < MARKERS - 1; i++) {
+            positions[i] = Math.max(positions[i], positions[i - 1] + 1);
+        }
+        for (int i = MARKERS - 2; i > 0; i--) {
+            positions[i] = Math.min(positions[i], positions[i + 1] - 1);
+        }
+        for (int i = 0; i < MARKERS; i++) {
+            heights[i] = buffer[positions[i] - 1];
+        }
+    }
+
+    private double parabolic(int i, int step) {
+        double prevDistance = positions[i] - positions[i - 1];
+        double nextDistance = positions[i + 1] - positions[i];
+        return heights[i] + step / (double) (positions[i + 1] - positions[i - 1])
+                * ((prevDistance + step) * (heights[i + 1] - heights[i]) / nextDistance
+                + (nextDistance - step) * (heights[i] - heights[i - 1]) / prevDistance);
+    }
+
+    private double linear(int i, int step) {
+        return heights[i] + step * (heights[i + step] - heights[i]) / (positions[i + step] - positions[i]);
+    }
+
+    @Override
+    public double getResult() {
+        if (count > BUFFER_SIZE) {
+            return heights[2];
+        }
+        double[] sorted = Arrays.copyOf(buffer, count);
+        Arrays.sort(sorted);
+        return PercentileFunction.percentile(sorted, count, quantile);
+    }
+
+    @Override
+    public void reset() {
+        this.count = 0;
+    }
+
+}
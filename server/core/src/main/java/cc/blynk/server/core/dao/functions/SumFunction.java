@@ -23,4 +23,9 @@ public class SumFunction extends Function {
         return sum;
     }
 
+    @Override
+    public void reset() {
+        this.sum = 0;
+    }
+
 }
@@ -9,6 +9,7 @@ import cc.blynk.server.core.model.widgets.*;
 import cc.blynk.server.core.model.widgets.controls.Timer;
 import cc.blynk.server.core.model.widgets.notifications.Notification;
 import cc.blynk.server.core.model.widgets.others.eventor.Eventor;
+import cc.blynk.server.core.model.widgets.others.eventor.EventorIndex;
 import cc.blynk.server.core.model.widgets.others.webhook.WebHook;
 import cc.blynk.server.core.model.widgets.ui.DeviceSelector;
 import cc.blynk.server.core.protocol.exceptions.IllegalCommandException;
@@ -65,11 +66,13 @@ public class DashBoard {
     public volatile String sharedToken;
 
     @JsonDeserialize(keyUsing = PinStorageKeyDeserializer.class)
-    public Map<PinStorageKey, String> pinsStorage = Collections.emptyMap();
+    public PinStorage pinsStorage = new PinStorage();
+
+    private transient volatile WidgetIndex widgetIndex;
 
     public void update(int deviceId, byte pin, PinType type, String value, long now) {
         boolean hasWidget = false;
-        for (Widget widget : widgets) {
+        for (Widget widget : getWidgetIndex().getWidgets(deviceId, pin, type)) {
             if (widget.updateIfSame(deviceId, pin, type, value)) {
                 hasWidget = true;
             }
@@ -87,18 +90,11 @@ public class DashBoard {
     }
 
     public void putPinPropertyStorageValue(int deviceId, PinType type, byte pin, String property, String value) {
-        puntPinStorageValue(new PinPropertyStorageKey(deviceId, type, pin, property), value);
+        pinsStorage.put(new PinPropertyStorageKey(deviceId, type, pin, property), value);
     }
 
     private void putPinStorageValue(int deviceId, PinType type, byte pin, String value) {
-        puntPinStorageValue(new PinStorageKey(deviceId, type, pin), value);
-    }
-
-    private void puntPinStorageValue(PinStorageKey key, String value) {
-        if (pinsStorage == Collections.EMPTY_MAP) {
-            pinsStorage = new HashMap<>();
-        }
-        pinsStorage.put(key, value);
+        pinsStorage.put(new PinStorageKey(deviceId, type, pin), value);
     }
 
     public void activate() {
@@ -118,7 +114,7 @@ public class DashBoard {
     }
 
     public Widget findWidgetByPin(int deviceId, byte pin, PinType pinType) {
-        for (Widget widget : widgets) {
+        for (Widget widget : getWidgetIndex().getWidgets(deviceId, pin, pinType)) {
             if (widget.isSame(deviceId, pin, pinType)) {
                 return widget;
             }
@@ -127,12 +123,10 @@ public class DashBoard {
     }
 
     public WebHook findWebhookByPin(int deviceId, byte pin, PinType pinType) {
-        for (Widget widget : widgets) {
-            if (widget instanceof WebHook) {
-                WebHook webHook = (WebHook) widget;
-                if (webHook.isSameWebHook(deviceId, pin, pinType)) {
-                    return webHook;
-                }
+        for (Widget widget : getWidgetIndex().getWebhooks(deviceId, pin, pinType)) {
+            WebHook webHook = (WebHook) widget;
+            if (webHook.isSameWebHook(deviceId, pin, pinType)) {
+                return webHook;
             }
         }
         return null;
@@ -219,13 +213,25 @@ public class DashBoard {
         return null;
     }
 
-    public  <T> T getWidgetByType(Class<T> clazz) {
-        for (Widget widget : widgets) {
-            if (clazz.isInstance(widget)) {
-                return clazz.cast(widget);
-            }
+    public <T> T getWidgetByType(Class<T> clazz) {
+        return getWidgetIndex().getWidgetByType(clazz);
+    }
+
+    /**
+     * Widgets by pin and type. Index is rebuilt lazily when widgets array is replaced.
+     */
+    private WidgetIndex getWidgetIndex() {
+        Widget[] widgets = this.widgets;
+        WidgetIndex index = this.widgetIndex;
+        if (index == null || !index.isBuiltFrom(widgets)) {
+            index = WidgetIndex.build(widgets);
+            this.widgetIndex = index;
         }
-        return null;
+        return index;
+    }
+
+    public EventorIndex getEventorIndex() {
+        return getWidgetIndex().eventorIndex;
     }
 
     public String buildPMMessage(int deviceId) {
@@ -14,7 +14,7 @@ import static cc.blynk.utils.StringUtils.BODY_SEPARATOR;
  */
 public final class PinPropertyStorageKey extends PinStorageKey {
 
-    private final String property;
+    final String property;
 
     public PinPropertyStorageKey(int deviceId, PinType pinType, byte pin, String property) {
         super(deviceId, pinType, pin);
@@ -0,0 +1,255 @@
+package cc.blynk.server.core.model;
+
+import cc.blynk.utils.ParseUtil;
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.collection.LongObjectMap;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Values of pins that have no widget on dashboard.
+ *
+ * Written from hardware event loop and read from app/http threads, so all access is synchronized
+ * on storage itself. Plain pin keys are packed into long, only property keys are kept as objects.
+ * Integer values could be stored as Integer instead of String (so 0/1 of digital pins cost nothing).
+ * Storage size is estimated and limited per dashboard, new values are rejected when limit is reached.
+ *
+ * Iteration works on snapshot, so it is safe to iterate while storage is updated.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 09.09.17.
+ */
+public final class PinStorage extends AbstractMap<PinStorageKey, String> {
+
+    private static final int MAX_BYTES =
+            ParseUtil.parseInt(System.getProperty("pin.storage.dash.max.size", "512")) * 1024;
+    private static final boolean COMPACT_VALUES =
+            Boolean.parseBoolean(System.getProperty("pin.storage.compact.values", "true"));
+
+    //rough estimates of java 8 object sizes
+    private static final int ENTRY_BYTES = 32;
+    private static final int PROPERTY_ENTRY_BYTES = 96;
+    private static final int INTEGER_BYTES = 16;
+    private static final int STRING_BYTES = 40;
+
+    private final int maxBytes;
+    private final boolean compactValues;
+
+    private LongObjectHashMap<Object> pins;
+    private Map<PinPropertyStorageKey, Object> properties;
+    private int bytes;
+    private int rejected;
+
+    public PinStorage() {
+        this(MAX_BYTES, COMPACT_VALUES);
+    }
+
+    PinStorage(int maxBytes, boolean compactValues) {
+        this.maxBytes = maxBytes;
+        this.compactValues = compactValues;
+    }
+
+    private static long pack(PinStorageKey key) {
+        return ((long) key.deviceId << 16) | ((key.pinTypeChar & 0xFF) << 8) | (key.pin & 0xFF);
+    }
+
+    private static PinStorageKey unpack(long key) {
+        return new PinStorageKey((int) (key >> 16), (char) ((key >> 8) & 0xFF), (byte) key);
+    }
+
+    private static int keyBytes(PinStorageKey key) {
+        if (key instanceof PinPropertyStorageKey) {
+            String property = ((PinPropertyStorageKey) key).property;
+            return PROPERTY_ENTRY_BYTES + (property == null ? 0 : 2 * property.length());
+        }
+        return ENTRY_BYTES;
+    }
+
+    private static int valueBytes(Object value) {
+        if (value instanceof String) {
+            return STRING_BYTES + 2 * ((String) value).length();
+        }
+        int intValue = (Integer) value;
+        //Integer.valueOf() cache
+        return intValue >= -128 && intValue <= 127 ? 0 : INTEGER_BYTES;
+    }
+
+    /**
+     * Returns Integer for canonical integer string (no leading zeros, no plus sign) or value itself,
+     * so toString() of result is always equal to original value.
+     */
+    static Object compact(String value) {
+        int length = value.length();
+        boolean negative = length > 0 && value.charAt(0) == '-';
+        int start = negative ? 1 : 0;
+        //9 digits always fit int
+        if (length == start || length - start > 9) {
+            return value;
+        }
+        char first = value.charAt(start);
+        if (first == '0' && (length > start + 1 || negative)) {
+            return value;
+        }
+        int result = 0;
+        for (int i = start; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return value;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return negative ? -result : result;
+    }
+
+    private static String toString(Object value) {
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public synchronized String get(Object key) {
+        if (key instanceof PinPropertyStorageKey) {
+            return properties == null ? null : toString(properties.get(key));
+        }
+        if (key instanceof PinStorageKey) {
+            return pins == null ? null : toString(pins.get(pack((PinStorageKey) key)));
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return previous value. When storage limit is reached value is not stored and null is returned.
+     */
+    @Override
+    public synchronized String put(PinStorageKey key, String value) {
+        if (value == null) {
+            return remove(key);
+        }
+        Object storedValue = compactValues ? compact(value) : value;
+        Object prev = key instanceof PinPropertyStorageKey
+                ? (properties == null ? null : properties.get(key))
+                : (pins == null ? null : pins.get(pack(key)));
+
+        int newBytes = bytes + valueBytes(storedValue);
+        newBytes += prev == null ? keyBytes(key) : -valueBytes(prev);
+        if (newBytes > maxBytes && newBytes > bytes) {
+            rejected++;
+            return null;
+        }
+
+        if (key instanceof PinPropertyStorageKey) {
+            if (properties == null) {
+                properties = new HashMap<>();
+            }
+            properties.put((PinPropertyStorageKey) key, storedValue);
+        } else {
+            if (pins == null) {
+                pins = new LongObjectHashMap<>();
+            }
+            pins.put(pack(key), storedValue);
+        }
+        bytes = newBytes;
+        return toString(prev);
+    }
+
+    @Override
+    public synchronized String remove(Object key) {
+        Object prev = null;
+        if (key instanceof PinPropertyStorageKey) {
+            if (properties != null) {
+                prev = properties.remove(key);
+            }
+        } else if (key instanceof PinStorageKey) {
+            if (pins != null) {
+                prev = pins.remove(pack((PinStorageKey) key));
+            }
+        }
+        if (prev != null) {
+            bytes -= keyBytes((PinStorageKey) key) + valueBytes(prev);
+        }
+        return toString(prev);
+    }
+
+    @Override
+    public synchronized void clear() {
+        pins = null;
+        properties = null;
+        bytes = 0;
+    }
+
+    @Override
+    public synchronized int size() {
+        return (pins == null ? 0 : pins.size()) + (properties == null ? 0 : properties.size());
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Estimated memory used by stored values.
+     */
+    public synchronized int getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Number of values rejected because of storage limit.
+     */
+    public synchronized int getRejected() {
+        return rejected;
+    }
+
+    @Override
+    public Set<Entry<PinStorageKey, String>> entrySet() {
+        List<Entry<PinStorageKey, String>> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(size());
+            if (pins != null) {
+                for (LongObjectMap.PrimitiveEntry<Object> entry : pins.entries()) {
+                    snapshot.add(new SimpleImmutableEntry<>(unpack(entry.key()), entry.value().toString()));
+                }
+            }
+            if (properties != null) {
+                for (Map.Entry<PinPropertyStorageKey, Object> entry : properties.entrySet()) {
+                    snapshot.add(new SimpleImmutableEntry<>(entry.getKey(), entry.getValue().toString()));
+                }
+            }
+        }
+        return snapshot.isEmpty() ? Collections.emptySet() : new SnapshotSet(snapshot);
+    }
+
+    private static final class SnapshotSet extends AbstractSet<Entry<PinStorageKey, String>> {
+
+        private final List<Entry<PinStorageKey, String>> entries;
+
+        SnapshotSet(List<Entry<PinStorageKey, String>> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public Iterator<Entry<PinStorageKey, String>> iterator() {
+            return Collections.unmodifiableList(entries).iterator();
+        }
+
+        @Override
+        public int size() {
+            return entries.size();
+        }
+    }
+
+}
@@ -20,11 +20,15 @@ public class PinStorageKey {
 
     final byte pin;
 
-    private final char pinTypeChar;
+    final char pinTypeChar;
 
     public PinStorageKey(int deviceId, PinType pinType, byte pin) {
+        this(deviceId, pinType.pintTypeChar, pin);
+    }
+
+    PinStorageKey(int deviceId, char pinTypeChar, byte pin) {
         this.deviceId = deviceId;
-        this.pinTypeChar = pinType.pintTypeChar;
+        this.pinTypeChar = pinTypeChar;
         this.pin = pin;
     }
 
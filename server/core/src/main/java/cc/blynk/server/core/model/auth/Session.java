@@ -1,6 +1,7 @@
 package cc.blynk.server.core.model.auth;
 
 import cc.blynk.server.core.protocol.model.messages.ResponseWithBodyMessage;
+import cc.blynk.server.core.session.HardwareChannelIndex;
 import cc.blynk.server.core.session.HardwareStateHolder;
 import cc.blynk.server.core.stats.metrics.InstanceLoadMeter;
 import cc.blynk.server.handlers.BaseSimpleChannelInboundHandler;
@@ -18,10 +19,10 @@ import java.util.Set;
 
 import static cc.blynk.server.core.protocol.enums.Command.RESPONSE;
 import static cc.blynk.server.core.protocol.enums.Response.DEVICE_WENT_OFFLINE;
+import static cc.blynk.utils.BlynkByteBufUtil.makeBinaryMessage;
 import static cc.blynk.utils.BlynkByteBufUtil.makeUTF8StringMessage;
 import static cc.blynk.utils.StateHolderUtil.*;
 import static cc.blynk.utils.StringUtils.DEVICE_SEPARATOR;
-import static cc.blynk.utils.StringUtils.prependDashIdAndDeviceId;
 
 /**
  * The Blynk Project.
@@ -37,6 +38,7 @@ public class Session {
     public final EventLoop initialEventLoop;
     public final Set<Channel> appChannels = new ConcurrentSet<>();
     public final Set<Channel> hardwareChannels = new ConcurrentSet<>();
+    private final HardwareChannelIndex hardwareIndex = new HardwareChannelIndex();
 
     private final ChannelFutureListener appRemover = future -> removeAppChannel(future.channel());
     private final ChannelFutureListener hardRemover = future -> removeHardChannel(future.channel());
@@ -74,14 +76,16 @@ public class Session {
         }
     }
 
-    public void addHardChannel(Channel hardChannel) {
+    public void addHardChannel(Channel hardChannel, int dashId, int deviceId) {
         if (hardwareChannels.add(hardChannel)) {
+            hardwareIndex.add(dashId, deviceId, hardChannel);
             hardChannel.closeFuture().addListener(hardRemover);
         }
     }
 
     public void removeHardChannel(Channel hardChannel) {
         if (hardwareChannels.remove(hardChannel)) {
+            hardwareIndex.remove(hardChannel);
             hardChannel.closeFuture().removeListener(hardRemover);
         }
     }
@@ -98,21 +102,21 @@ public class Session {
         return targetChannels;
     }
 
-    private Set<Channel> filter(int activeDashId, int deviceId) {
-        final Set<Channel> targetChannels = new HashSet<>();
-        for (Channel channel : hardwareChannels) {
-            if (isSameDashAndDeviceId(channel, activeDashId, deviceId)) {
-                targetChannels.add(channel);
-            }
+    public boolean sendMessageToHardware(int activeDashId, short cmd, int msgId, String body, int deviceId) {
+        Channel[] targetChannels = hardwareIndex.get(activeDashId, deviceId);
+        if (targetChannels.length == 0) {
+            return true; // -> no active hardware
         }
-        return targetChannels;
-    }
 
-    public boolean sendMessageToHardware(int activeDashId, short cmd, int msgId, String body, int deviceId) {
-        return hardwareChannels.size() == 0 || sendMessageToHardware(filter(activeDashId, deviceId), cmd, msgId, body);
+        send(targetChannels, cmd, msgId, body);
+
+        return false; // -> there is active hardware
     }
 
     public boolean sendMessageToHardware(int activeDashId, short cmd, int msgId, String body, int... deviceIds) {
+        if (deviceIds.length == 1) {
+            return sendMessageToHardware(activeDashId, cmd, msgId, body, deviceIds[0]);
+        }
         return hardwareChannels.size() == 0 || sendMessageToHardware(filter(activeDashId, deviceIds), cmd, msgId, body);
     }
 
@@ -126,7 +130,7 @@ public class Session {
             return true; // -> no active hardware
         }
 
-        send(targetChannels, channelsNum, cmd, msgId, body);
+        send(targetChannels, cmd, msgId, body);
 
         return false; // -> there is active hardware
     }
@@ -135,13 +139,15 @@ public class Session {
         return hardwareChannels.size() > 0;
     }
 
+    /**
+     * @return - hardware channels of the device. Returned array should not be modified.
+     */
+    public Channel[] getHardwareChannels(int dashId, int deviceId) {
+        return hardwareIndex.get(dashId, deviceId);
+    }
+
     public boolean isHardwareConnected(int dashId, int deviceId) {
-        for (Channel channel : hardwareChannels) {
-            if (isSameDashAndDeviceId(channel, dashId, deviceId)) {
-                return true;
-            }
-        }
-        return false;
+        return hardwareIndex.get(dashId, deviceId).length > 0;
     }
 
     public boolean isHardwareConnected(int dashId) {
@@ -166,37 +172,75 @@ public class Session {
     }
 
     public void sendToApps(short cmd, int msgId, int dashId, int deviceId) {
-        final int targetsNum = appChannels.size();
-        if (targetsNum == 0) {
+        if (appChannels.size() == 0) {
             return;
         }
 
-        send(appChannels, targetsNum, cmd, msgId, "" + dashId + DEVICE_SEPARATOR + deviceId);
+        send(appChannels, cmd, msgId, "" + dashId + DEVICE_SEPARATOR + deviceId);
     }
 
     public void sendToApps(short cmd, int msgId, int dashId, int deviceId, String body) {
-        final int targetsNum = appChannels.size();
-        if (targetsNum == 0) {
+        if (appChannels.size() == 0) {
             return;
         }
 
-        send(appChannels, targetsNum, cmd, msgId, prependDashIdAndDeviceId(dashId, deviceId, body));
+        send(appChannels, makeUTF8StringMessage(cmd, msgId, dashId, deviceId, body), body);
     }
 
-    private void send(Set<Channel> targets, int targetsNum, short cmd, int msgId, String body) {
-        ByteBuf msg = makeUTF8StringMessage(cmd, msgId, body);
-        if (targetsNum > 1) {
-            msg.retain(targetsNum - 1);
+    public void sendToApps(short cmd, int msgId, int dashId, int deviceId, ByteBuf body) {
+        if (appChannels.size() == 0) {
+            return;
         }
 
+        send(appChannels, makeBinaryMessage(cmd, msgId, dashId, deviceId, body), body);
+    }
+
+    private void send(Set<Channel> targets, short cmd, int msgId, String body) {
+        send(targets, makeUTF8StringMessage(cmd, msgId, body), body);
+    }
+
+    /**
+     * Message is encoded once and targets get retained duplicates of it, so they share content,
+     * but not reader index, that is moved by target event loop.
+     * Last target takes original buffer, so for single target no duplicate is created.
+     * With 5-50 targets this is ~20% slower than retaining single buffer and resetting its reader index
+     * after every write (see SessionSendPerfTest), but that reset races with writes still queued
+     * in other event loops or in outbound buffer of not writable socket and corrupts frames.
+     */
+    private static void send(Set<Channel> targets, ByteBuf msg, Object body) {
+        Channel last = null;
         for (Channel channel : targets) {
-            if (channel.isWritable()) {
-                log.trace("Sending {} to channel {}", body, channel);
-                channel.writeAndFlush(msg, channel.voidPromise());
-            } else {
-                msg.release();
+            if (last != null) {
+                send(last, msg.retainedDuplicate(), body);
             }
-            msg.resetReaderIndex();
+            last = channel;
+        }
+        sendLast(last, msg, body);
+    }
+
+    private void send(Channel[] targets, short cmd, int msgId, String body) {
+        ByteBuf msg = makeUTF8StringMessage(cmd, msgId, body);
+        int lastIndex = targets.length - 1;
+        for (int i = 0; i < lastIndex; i++) {
+            send(targets[i], msg.retainedDuplicate(), body);
+        }
+        sendLast(lastIndex < 0 ? null : targets[lastIndex], msg, body);
+    }
+
+    private static void sendLast(Channel channel, ByteBuf msg, Object body) {
+        if (channel == null) {
+            msg.release();
+        } else {
+            send(channel, msg, body);
+        }
+    }
+
+    private static void send(Channel channel, ByteBuf msg, Object body) {
+        if (channel.isWritable()) {
+            log.trace("Sending {} to channel {}", body, channel);
+            channel.writeAndFlush(msg, channel.voidPromise());
+        } else {
+            msg.release();
         }
     }
 
@@ -213,7 +257,7 @@ public class Session {
             return;
         }
 
-        send(targetChannels, channelsNum, cmd, msgId, body);
+        send(targetChannels, cmd, msgId, body);
     }
 
     public boolean isAppConnected() {
@@ -229,10 +273,8 @@ public class Session {
     }
 
     public void closeHardwareChannelByDeviceId(int dashId, int deviceId) {
-        for (Channel channel : hardwareChannels) {
-            if (isSameDashAndDeviceId(channel, dashId, deviceId)) {
-                channel.close();
-            }
+        for (Channel channel : hardwareIndex.get(dashId, deviceId)) {
+            channel.close();
         }
     }
 
@@ -40,6 +40,10 @@ public class User {
     public volatile int energy;
 
     public transient int emailMessages;
+    //time when user was queued for profile saving, 0 if not queued
+    public transient volatile long queuedForSaveTs;
+    //time when last saved profile copy was taken, 0 if not saved since server start
+    public transient volatile long savedTs;
     private transient long emailSentTs;
 
     public User() {
@@ -15,6 +15,8 @@ public interface FrequencyWidget {
 
     int getDeviceId();
 
+    int getFrequency();
+
     boolean isTicked(long now);
 
 }
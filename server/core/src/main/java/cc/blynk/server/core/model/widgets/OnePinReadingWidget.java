@@ -32,6 +32,11 @@ public abstract class OnePinReadingWidget extends OnePinWidget implements Freque
         return deviceId;
     }
 
+    @Override
+    public int getFrequency() {
+        return frequency;
+    }
+
     @Override
     public void writeReadingCommand(Channel channel) {
         if (isNotValid()) {
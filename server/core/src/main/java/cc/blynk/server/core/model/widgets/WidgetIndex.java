@@ -0,0 +1,135 @@
+package cc.blynk.server.core.model.widgets;
+
+import cc.blynk.server.core.model.DataStream;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.others.eventor.EventorIndex;
+import cc.blynk.server.core.model.widgets.others.webhook.WebHook;
+import cc.blynk.utils.ArrayUtil;
+import io.netty.util.collection.LongObjectHashMap;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static cc.blynk.utils.ArrayUtil.EMPTY_WIDGETS;
+
+/**
+ * Immutable lookup of dashboard widgets by pin and by type.
+ * Built from dashboard widgets array, so any widget create/update/delete
+ * (that always replaces widgets array) requires new index.
+ *
+ * Index returns candidates only, in same order as in widgets array,
+ * final check is still done by widget itself via isSame/updateIfSame.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 08.09.17.
+ */
+public final class WidgetIndex {
+
+    private static final Object NO_WIDGET = new Object();
+
+    private final Widget[] widgets;
+    private final LongObjectHashMap<Widget[]> widgetsByPin;
+    private final LongObjectHashMap<Widget[]> webhooksByPin;
+    //filled on demand, as only few types are ever requested
+    private final ConcurrentMap<Class<?>, Object> widgetsByType;
+    public final EventorIndex eventorIndex;
+
+    private WidgetIndex(Widget[] widgets) {
+        this.widgets = widgets;
+        this.widgetsByPin = new LongObjectHashMap<>();
+        this.webhooksByPin = new LongObjectHashMap<>();
+        this.widgetsByType = new ConcurrentHashMap<>();
+        this.eventorIndex = EventorIndex.build(widgets);
+    }
+
+    public static WidgetIndex build(Widget[] widgets) {
+        WidgetIndex index = new WidgetIndex(widgets);
+        for (Widget widget : widgets) {
+            if (widget instanceof WebHook) {
+                //webhooks never match isSame, so kept separately
+                add(index.webhooksByPin, (WebHook) widget);
+            } else if (widget instanceof OnePinWidget) {
+                add(index.widgetsByPin, (OnePinWidget) widget);
+            } else if (widget instanceof MultiPinWidget) {
+                MultiPinWidget multiPinWidget = (MultiPinWidget) widget;
+                if (multiPinWidget.dataStreams != null) {
+                    for (DataStream dataStream : multiPinWidget.dataStreams) {
+                        if (dataStream != null) {
+                            add(index.widgetsByPin, multiPinWidget.deviceId, dataStream.pin, dataStream.pinType, widget);
+                            if (dataStream.pwmMode) {
+                                add(index.widgetsByPin, multiPinWidget.deviceId, dataStream.pin, PinType.ANALOG, widget);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return index;
+    }
+
+    private static long key(int deviceId, byte pin, PinType pinType) {
+        return ((long) deviceId << 16) | (pinType.ordinal() << 8) | (pin & 0xFF);
+    }
+
+    //same pin types as OnePinWidget.isSame() accepts
+    private static void add(LongObjectHashMap<Widget[]> index, OnePinWidget widget) {
+        add(index, widget.deviceId, widget.pin, widget.pinType, widget);
+        if (widget.isPWMSupported()) {
+            add(index, widget.deviceId, widget.pin, PinType.ANALOG, widget);
+        }
+        if (widget.pinType == PinType.ANALOG) {
+            add(index, widget.deviceId, widget.pin, PinType.DIGITAL, widget);
+        }
+    }
+
+    private static void add(LongObjectHashMap<Widget[]> index, int deviceId, byte pin, PinType pinType, Widget widget) {
+        if (pinType == null) {
+            return;
+        }
+        long key = key(deviceId, pin, pinType);
+        Widget[] existing = index.get(key);
+        if (existing == null) {
+            index.put(key, new Widget[] {widget});
+        } else if (existing[existing.length - 1] != widget) {
+            //widgets are added in order, so same widget with few same pins is always last one
+            index.put(key, ArrayUtil.add(existing, widget, Widget.class));
+        }
+    }
+
+    public boolean isBuiltFrom(Widget[] widgets) {
+        return this.widgets == widgets;
+    }
+
+    /**
+     * @return widgets that may have given pin or empty array.
+     */
+    public Widget[] getWidgets(int deviceId, byte pin, PinType pinType) {
+        Widget[] widgets = widgetsByPin.get(key(deviceId, pin, pinType));
+        return widgets == null ? EMPTY_WIDGETS : widgets;
+    }
+
+    /**
+     * @return webhooks that may have given pin or empty array.
+     */
+    public Widget[] getWebhooks(int deviceId, byte pin, PinType pinType) {
+        Widget[] webHooks = webhooksByPin.get(key(deviceId, pin, pinType));
+        return webHooks == null ? EMPTY_WIDGETS : webHooks;
+    }
+
+    public <T> T getWidgetByType(Class<T> clazz) {
+        Object widget = widgetsByType.get(clazz);
+        if (widget == null) {
+            widget = NO_WIDGET;
+            for (Widget w : widgets) {
+                if (clazz.isInstance(w)) {
+                    widget = w;
+                    break;
+                }
+            }
+            widgetsByType.put(clazz, widget);
+        }
+        return widget == NO_WIDGET ? null : clazz.cast(widget);
+    }
+
+}
@@ -0,0 +1,77 @@
+package cc.blynk.server.core.model.widgets.others.eventor;
+
+import cc.blynk.server.core.model.DataStream;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.utils.ArrayUtil;
+import io.netty.util.collection.IntObjectHashMap;
+
+/**
+ * Immutable lookup of eventor rules by trigger pin. Part of dashboard WidgetIndex.
+ *
+ * Hardware write to pin that is not used as trigger costs single map miss.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 07.09.17.
+ */
+public final class EventorIndex {
+
+    private static final Rule[] EMPTY_RULES = {};
+
+    private final int deviceId;
+    private final IntObjectHashMap<Rule[]> rules;
+
+    private EventorIndex(int deviceId, IntObjectHashMap<Rule[]> rules) {
+        this.deviceId = deviceId;
+        this.rules = rules;
+    }
+
+    public static EventorIndex build(Widget[] widgets) {
+        IntObjectHashMap<Rule[]> rules = new IntObjectHashMap<>();
+        for (Widget widget : widgets) {
+            if (widget instanceof Eventor) {
+                Eventor eventor = (Eventor) widget;
+                if (eventor.rules != null) {
+                    for (Rule rule : eventor.rules) {
+                        if (rule.isActive && rule.condition != null && rule.actions != null) {
+                            DataStream trigger = rule.triggerDataStream;
+                            if (trigger == null) {
+                                continue;
+                            }
+                            if (trigger.pinType != null) {
+                                add(rules, key(trigger.pin, trigger.pinType), rule);
+                            }
+                            //pwm pins are reported by hardware as analog ones
+                            if (trigger.pwmMode && trigger.pinType != PinType.ANALOG) {
+                                add(rules, key(trigger.pin, PinType.ANALOG), rule);
+                            }
+                        }
+                    }
+                }
+                return new EventorIndex(eventor.deviceId, rules);
+            }
+        }
+        return new EventorIndex(-1, rules);
+    }
+
+    private static void add(IntObjectHashMap<Rule[]> rules, int key, Rule rule) {
+        Rule[] existing = rules.get(key);
+        rules.put(key, ArrayUtil.add(existing == null ? EMPTY_RULES : existing, rule, Rule.class));
+    }
+
+    private static int key(byte pin, PinType pinType) {
+        return (pinType.ordinal() << 8) | (pin & 0xFF);
+    }
+
+    /**
+     * @return rules triggered by given pin in the order they defined in eventor or null.
+     */
+    public Rule[] getRules(int deviceId, byte pin, PinType pinType) {
+        if (this.deviceId != deviceId || rules.isEmpty()) {
+            return null;
+        }
+        return rules.get(key(pin, pinType));
+    }
+
+}
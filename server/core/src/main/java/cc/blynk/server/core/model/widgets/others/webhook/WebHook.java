@@ -24,6 +24,10 @@ public class WebHook extends OnePinWidget {
 
     public transient volatile int failureCounter = 0;
 
+    //compiled lazily, widget is replaced with new instance on update
+    private transient WebhookTemplate urlTemplate;
+    private transient WebhookTemplate bodyTemplate;
+
     public boolean isValidUrl() {
         return url != null && !url.isEmpty() && url.regionMatches(true, 0, "http", 0, 4);
     }
@@ -32,6 +36,25 @@ public class WebHook extends OnePinWidget {
         return isValidUrl() && failureCounter < WEBHOOK_FAILURE_LIMIT;
     }
 
+    public WebhookTemplate getUrlTemplate() {
+        WebhookTemplate template = this.urlTemplate;
+        if (template == null || template.source != url) {
+            //this is an ugly hack to make it work with Blynk HTTP API.
+            template = WebhookTemplate.compile(url, !url.toLowerCase().contains("/pin/v"));
+            this.urlTemplate = template;
+        }
+        return template;
+    }
+
+    public WebhookTemplate getBodyTemplate() {
+        WebhookTemplate template = this.bodyTemplate;
+        if (template == null || template.source != body) {
+            template = WebhookTemplate.compile(body, true);
+            this.bodyTemplate = template;
+        }
+        return template;
+    }
+
     //a bit ugly but as quick fix ok
     public boolean isSameWebHook(int deviceId, byte pin, PinType type) {
         return super.isSame(deviceId, pin, type);
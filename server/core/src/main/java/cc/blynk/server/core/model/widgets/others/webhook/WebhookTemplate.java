@@ -0,0 +1,182 @@
+package cc.blynk.server.core.model.widgets.others.webhook;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static cc.blynk.utils.StringUtils.BODY_SEPARATOR;
+
+/**
+ * Webhook url or body compiled into literal segments and placeholder slots.
+ * Placeholders are the same as were previously replaced with regexp one by one :
+ * "/pin/" - whole trigger value, "/pin[N]/" - N-th part of multi value trigger,
+ * "%s" - whole trigger value and "/datetime_iso/" - current time.
+ * Only first occurrence of every placeholder is substituted.
+ * Template is immutable and rendered in single pass.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 05.09.17.
+ */
+public final class WebhookTemplate {
+
+    private static final int MAX_PARTS = 10;
+
+    private static final int PIN = MAX_PARTS;
+    private static final int GENERIC = MAX_PARTS + 1;
+    private static final int DATETIME = MAX_PARTS + 2;
+
+    //index is slot type. 0-9 are /pin[N]/ placeholders
+    private static final String[] PLACEHOLDERS = {
+            "/pin[0]/", "/pin[1]/", "/pin[2]/", "/pin[3]/", "/pin[4]/",
+            "/pin[5]/", "/pin[6]/", "/pin[7]/", "/pin[8]/", "/pin[9]/",
+            "/pin/", "%s", "/datetime_iso/"
+    };
+
+    //order in which placeholders were replaced by previous implementation, it matters for overlapping placeholders
+    private static final int[] PRIORITY = {PIN, 9, 8, 7, 6, 5, 4, 3, 2, 1, 0, GENERIC, DATETIME};
+
+    public final String source;
+
+    //literals.length == slots.length + 1
+    private final String[] literals;
+    private final int[] slots;
+    private final int literalsLength;
+
+    private WebhookTemplate(String source, String[] literals, int[] slots) {
+        this.source = source;
+        this.literals = literals;
+        this.slots = slots;
+        int literalsLength = 0;
+        for (String literal : literals) {
+            literalsLength += literal.length();
+        }
+        this.literalsLength = literalsLength;
+    }
+
+    /**
+     * @param pinPlaceholder - whether "/pin/" placeholder is substituted.
+     *                         Should be false for urls that point to Blynk HTTP API.
+     */
+    public static WebhookTemplate compile(String source, boolean pinPlaceholder) {
+        List<int[]> found = new ArrayList<>();
+        for (int slot : PRIORITY) {
+            if (slot == PIN && !pinPlaceholder) {
+                continue;
+            }
+            int start = indexOfFree(source, PLACEHOLDERS[slot], found);
+            if (start != -1) {
+                found.add(new int[] {start, start + PLACEHOLDERS[slot].length(), slot});
+            }
+        }
+        found.sort((a, b) -> Integer.compare(a[0], b[0]));
+
+        String[] literals = new String[found.size() + 1];
+        int[] slots = new int[found.size()];
+        int position = 0;
+        for (int i = 0; i < found.size(); i++) {
+            int[] placeholder = found.get(i);
+            literals[i] = source.substring(position, placeholder[0]);
+            slots[i] = placeholder[2];
+            position = placeholder[1];
+        }
+        literals[found.size()] = source.substring(position);
+        return new WebhookTemplate(source, literals, slots);
+    }
+
+    private static int indexOfFree(String source, String placeholder, List<int[]> taken) {
+        int start = source.indexOf(placeholder);
+        while (start != -1 && overlaps(start, start + placeholder.length(), taken)) {
+            start = source.indexOf(placeholder, start + 1);
+        }
+        return start;
+    }
+
+    private static boolean overlaps(int start, int end, List<int[]> taken) {
+        for (int[] range : taken) {
+            if (start < range[1] && range[0] < end) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String render(String triggerValue) {
+        StringBuilder sb = new StringBuilder(literalsLength + triggerValue.length() * 2);
+        render(sb, triggerValue);
+        return sb.toString();
+    }
+
+    /**
+     * Appends rendered template to the builder.
+     * Trigger value is split by body separator with String.split() semantics.
+     * Multi value placeholders, "%s" and "/datetime_iso/" are left as is when trigger
+     * consists of more than 10 parts.
+     */
+    public void render(StringBuilder sb, String triggerValue) {
+        if (slots.length == 0) {
+            sb.append(literals[0]);
+            return;
+        }
+
+        int parts = countParts(triggerValue);
+        boolean partsSupported = parts > 0 && parts <= MAX_PARTS;
+        String datetime = null;
+
+        for (int i = 0; i < slots.length; i++) {
+            sb.append(literals[i]);
+            int slot = slots[i];
+            if (slot == PIN) {
+                sb.append(triggerValue);
+            } else if (!partsSupported) {
+                sb.append(PLACEHOLDERS[slot]);
+            } else if (slot == GENERIC) {
+                sb.append(triggerValue);
+            } else if (slot == DATETIME) {
+                if (datetime == null) {
+                    datetime = Instant.now().toString();
+                }
+                sb.append(datetime);
+            } else if (slot < parts) {
+                appendPart(sb, triggerValue, slot);
+            } else {
+                sb.append(PLACEHOLDERS[slot]);
+            }
+        }
+        sb.append(literals[slots.length]);
+    }
+
+    /**
+     * Same as value.split("\0").length, but without allocations.
+     */
+    static int countParts(String value) {
+        if (value.indexOf(BODY_SEPARATOR) == -1) {
+            return 1;
+        }
+        //trailing empty parts are removed
+        int end = value.length();
+        while (end > 0 && value.charAt(end - 1) == BODY_SEPARATOR) {
+            end--;
+        }
+        if (end == 0) {
+            return 0;
+        }
+        int parts = 1;
+        for (int i = 0; i < end; i++) {
+            if (value.charAt(i) == BODY_SEPARATOR) {
+                parts++;
+            }
+        }
+        return parts;
+    }
+
+    private static void appendPart(StringBuilder sb, String value, int index) {
+        int start = 0;
+        for (int i = 0; i < index; i++) {
+            start = value.indexOf(BODY_SEPARATOR, start) + 1;
+        }
+        int end = value.indexOf(BODY_SEPARATOR, start);
+        sb.append(value, start, end == -1 ? value.length() : end);
+    }
+
+}
@@ -119,6 +119,11 @@ public class LCD extends MultiPinWidget implements FrequencyWidget {
         return deviceId;
     }
 
+    @Override
+    public int getFrequency() {
+        return frequency;
+    }
+
     @Override
     public String getModeType() {
         return "in";
@@ -13,9 +13,18 @@ public enum AggregationFunctionType {
     MAX,
     AVG,
     SUM,
-    MED;
+    MED,
+    P90,
+    P99;
 
     public Function produce() {
+        return produce(false);
+    }
+
+    /**
+     * @param approximate - percentiles are estimated with constant memory instead of keeping all values
+     */
+    public Function produce(boolean approximate) {
         switch (this) {
             case MIN :
                 return new MinFunction();
@@ -24,10 +33,18 @@ public enum AggregationFunctionType {
             case SUM :
                 return new SumFunction();
             case MED :
-                return new MedianFunction();
+                return approximate ? new StreamingPercentileFunction(0.5) : new MedianFunction();
+            case P90 :
+                return percentile(0.9, approximate);
+            case P99 :
+                return percentile(0.99, approximate);
             default:
                 return new AverageFunction();
         }
     }
 
+    private static Function percentile(double quantile, boolean approximate) {
+        return approximate ? new StreamingPercentileFunction(quantile) : new PercentileFunction(quantile);
+    }
+
 }
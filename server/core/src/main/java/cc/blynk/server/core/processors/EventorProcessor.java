@@ -8,7 +8,6 @@ import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.model.widgets.notifications.Mail;
 import cc.blynk.server.core.model.widgets.notifications.Notification;
 import cc.blynk.server.core.model.widgets.notifications.Twitter;
-import cc.blynk.server.core.model.widgets.others.eventor.Eventor;
 import cc.blynk.server.core.model.widgets.others.eventor.Rule;
 import cc.blynk.server.core.model.widgets.others.eventor.model.action.BaseAction;
 import cc.blynk.server.core.model.widgets.others.eventor.model.action.SetPinAction;
@@ -56,9 +55,13 @@ public class EventorProcessor {
     }
 
     public void process(User user, Session session, DashBoard dash, int deviceId, byte pin, PinType type, String triggerValue, long now) {
-        Eventor eventor = dash.getWidgetByType(Eventor.class);
-        if (eventor == null || eventor.rules == null ||
-            eventor.deviceId != deviceId || !dash.isActive) {
+        if (!dash.isActive) {
+            return;
+        }
+
+        //index contains only active rules with trigger on this pin
+        Rule[] rules = dash.getEventorIndex().getRules(deviceId, pin, type);
+        if (rules == null) {
             return;
         }
 
@@ -67,24 +70,22 @@ public class EventorProcessor {
             return;
         }
 
-        for (Rule rule : eventor.rules) {
-            if (rule.isReady(pin, type)) {
-                if (rule.isValid(valueParsed)) {
-                    if (!rule.isProcessed) {
-                        for (BaseAction action : rule.actions) {
-                            if (action.isValid()) {
-                                if (action instanceof SetPinAction) {
-                                    execute(session, dash, deviceId, (SetPinAction) action, now);
-                                } else if (action instanceof NotificationAction) {
-                                    execute(user, dash, triggerValue, (NotificationAction) action);
-                                }
+        for (Rule rule : rules) {
+            if (rule.isValid(valueParsed)) {
+                if (!rule.isProcessed) {
+                    for (BaseAction action : rule.actions) {
+                        if (action.isValid()) {
+                            if (action instanceof SetPinAction) {
+                                execute(session, dash, deviceId, (SetPinAction) action, now);
+                            } else if (action instanceof NotificationAction) {
+                                execute(user, dash, triggerValue, (NotificationAction) action);
                             }
                         }
-                        rule.isProcessed = true;
                     }
-                } else {
-                    rule.isProcessed = false;
+                    rule.isProcessed = true;
                 }
+            } else {
+                rule.isProcessed = false;
             }
         }
     }
@@ -0,0 +1,320 @@
+package cc.blynk.server.core.processors;
+
+import io.netty.handler.codec.http.HttpHeaders;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.asynchttpclient.AsyncHandler;
+import org.asynchttpclient.AsyncHttpClient;
+import org.asynchttpclient.HttpResponseBodyPart;
+import org.asynchttpclient.HttpResponseStatus;
+import org.asynchttpclient.Request;
+import org.asynchttpclient.uri.Uri;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends webhook requests grouped by destination host.
+ *
+ * Every host has limited number of requests in flight. Requests above the limit wait in
+ * bounded per host queue, where repeated triggers of the same webhook replace each other,
+ * so only latest value is sent. When host fails (5xx or no response) many times in a row
+ * circuit for it is opened : queued requests are dropped and new ones are rejected
+ * for some period. After that period single probe request decides whether circuit is closed again.
+ *
+ * So slow or dead third-party endpoint can't accumulate unbounded amount of pending
+ * requests and affect webhooks to other hosts.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 05.09.17.
+ */
+public class WebhookDispatcher {
+
+    private static final Logger log = LogManager.getLogger(WebhookDispatcher.class);
+
+    private final AsyncHttpClient httpClient;
+    private final int hostConnectionsLimit;
+    private final int hostQueueLimit;
+    private final int hostFailuresLimit;
+    private final long circuitOpenPeriod;
+
+    private final ConcurrentMap<String, Host> hosts = new ConcurrentHashMap<>();
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder totalLatency = new LongAdder();
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    public WebhookDispatcher(AsyncHttpClient httpClient, int hostConnectionsLimit, int hostQueueLimit,
+                             int hostFailuresLimit, long circuitOpenPeriod) {
+        this.httpClient = httpClient;
+        this.hostConnectionsLimit = hostConnectionsLimit;
+        this.hostQueueLimit = hostQueueLimit;
+        this.hostFailuresLimit = hostFailuresLimit;
+        this.circuitOpenPeriod = circuitOpenPeriod;
+    }
+
+    private static String hostKey(Uri uri) {
+        return uri.getHost() + ':' + uri.getExplicitPort();
+    }
+
+    /**
+     * @param key - identifies webhook, queued request with same key is replaced with new one.
+     * @return - false if request was dropped because of full queue or open circuit.
+     */
+    public boolean dispatch(Object key, Request request, AsyncHandler<?> handler) {
+        long now = System.currentTimeMillis();
+        String hostKey = hostKey(request.getUri());
+
+        Call call;
+        Host host;
+        while (true) {
+            host = hosts.computeIfAbsent(hostKey, Host::new);
+            synchronized (host) {
+                if (host.removed) {
+                    continue;
+                }
+                switch (host.circuitState(now)) {
+                    case OPEN :
+                        rejected.increment();
+                        return false;
+                    case HALF_OPEN :
+                        if (host.inFlight >= hostConnectionsLimit) {
+                            rejected.increment();
+                            return false;
+                        }
+                        log.debug("Sending probe webhook request to {}.", hostKey);
+                        host.probing = true;
+                        break;
+                    default :
+                        if (host.inFlight >= hostConnectionsLimit) {
+                            return enqueue(host, key, request, handler, now);
+                        }
+                }
+                host.inFlight++;
+                call = new Call(key, request, handler, now);
+            }
+            break;
+        }
+
+        execute(host, call);
+        return true;
+    }
+
+    private boolean enqueue(Host host, Object key, Request request, AsyncHandler<?> handler, long now) {
+        Call pending = host.pendingByKey.get(key);
+        if (pending != null) {
+            pending.request = request;
+            pending.handler = handler;
+            coalesced.increment();
+            return true;
+        }
+        if (host.pending.size() >= hostQueueLimit) {
+            dropped.increment();
+            return false;
+        }
+        Call call = new Call(key, request, handler, now);
+        host.pending.add(call);
+        host.pendingByKey.put(key, call);
+        queued.incrementAndGet();
+        return true;
+    }
+
+    private void execute(Host host, Call call) {
+        inFlight.incrementAndGet();
+        sent.increment();
+        TrackingHandler<?> trackingHandler = new TrackingHandler<>(host, call.handler, call.createdAt);
+        try {
+            httpClient.executeRequest(call.request, trackingHandler);
+        } catch (Exception e) {
+            trackingHandler.onThrowable(e);
+        }
+    }
+
+    private void onComplete(Host host, long createdAt, boolean success) {
+        long now = System.currentTimeMillis();
+        inFlight.decrementAndGet();
+        completed.increment();
+        long latency = now - createdAt;
+        totalLatency.add(latency);
+        maxLatency.accumulateAndGet(latency, Math::max);
+        if (!success) {
+            failed.increment();
+        }
+
+        Call next = null;
+        synchronized (host) {
+            host.probing = false;
+            if (success) {
+                host.consecutiveFailures = 0;
+            } else if (++host.consecutiveFailures >= hostFailuresLimit) {
+                host.openUntil = now + circuitOpenPeriod;
+                if (host.pending.size() > 0) {
+                    log.debug("Circuit for {} is open. Dropping {} webhooks.", host.key, host.pending.size());
+                    queued.addAndGet(-host.pending.size());
+                    dropped.add(host.pending.size());
+                    host.pending.clear();
+                    host.pendingByKey.clear();
+                }
+            }
+
+            if (host.circuitState(now) == CircuitState.CLOSED && host.pending.size() > 0) {
+                next = host.pending.poll();
+                host.pendingByKey.remove(next.key);
+                queued.decrementAndGet();
+            } else {
+                host.inFlight--;
+            }
+        }
+
+        if (next != null) {
+            execute(host, next);
+        }
+    }
+
+    /**
+     * Collects metrics. Counters are reset after every call.
+     * Also removes idle hosts, so should be called periodically.
+     */
+    public WebhookDispatcherStat getStat() {
+        long now = System.currentTimeMillis();
+        int openCircuits = 0;
+        for (Iterator<Map.Entry<String, Host>> it = hosts.entrySet().iterator(); it.hasNext(); ) {
+            Host host = it.next().getValue();
+            synchronized (host) {
+                CircuitState state = host.circuitState(now);
+                if (state != CircuitState.CLOSED) {
+                    openCircuits++;
+                } else if (host.inFlight == 0 && host.pending.isEmpty()) {
+                    host.removed = true;
+                    it.remove();
+                }
+            }
+        }
+
+        long completed = this.completed.sumThenReset();
+        long totalLatency = this.totalLatency.sumThenReset();
+        return new WebhookDispatcherStat(
+                hosts.size(), openCircuits, queued.get(), inFlight.get(),
+                sent.sumThenReset(), coalesced.sumThenReset(), dropped.sumThenReset(),
+                rejected.sumThenReset(), failed.sumThenReset(),
+                completed == 0 ? 0 : totalLatency / completed, maxLatency.getAndSet(0)
+        );
+    }
+
+    private enum CircuitState {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final class Host {
+
+        private final String key;
+        private final ArrayDeque<Call> pending = new ArrayDeque<>();
+        private final Map<Object, Call> pendingByKey = new IdentityHashMap<>();
+
+        private int inFlight;
+        private int consecutiveFailures;
+        private long openUntil;
+        private boolean probing;
+        private boolean removed;
+
+        Host(String key) {
+            this.key = key;
+        }
+
+        CircuitState circuitState(long now) {
+            if (consecutiveFailures < hostFailuresLimit) {
+                return CircuitState.CLOSED;
+            }
+            if (now < openUntil || probing) {
+                return CircuitState.OPEN;
+            }
+            return CircuitState.HALF_OPEN;
+        }
+    }
+
+    private static final class Call {
+
+        private final Object key;
+        private final long createdAt;
+        private Request request;
+        private AsyncHandler<?> handler;
+
+        Call(Object key, Request request, AsyncHandler<?> handler, long createdAt) {
+            this.key = key;
+            this.request = request;
+            this.handler = handler;
+            this.createdAt = createdAt;
+        }
+    }
+
+    /**
+     * Releases host slot once request is finished and delegates to webhook handler.
+     * Host is considered failed on 5xx response or when no response received.
+     */
+    private final class TrackingHandler<T> implements AsyncHandler<T> {
+
+        private final Host host;
+        private final AsyncHandler<T> delegate;
+        private final long createdAt;
+        private final AtomicBoolean done = new AtomicBoolean();
+        private volatile int statusCode;
+
+        @SuppressWarnings("unchecked")
+        TrackingHandler(Host host, AsyncHandler<?> delegate, long createdAt) {
+            this.host = host;
+            this.delegate = (AsyncHandler<T>) delegate;
+            this.createdAt = createdAt;
+        }
+
+        private void complete(boolean success) {
+            if (done.compareAndSet(false, true)) {
+                onComplete(host, createdAt, success);
+            }
+        }
+
+        @Override
+        public void onThrowable(Throwable t) {
+            complete(false);
+            delegate.onThrowable(t);
+        }
+
+        @Override
+        public State onBodyPartReceived(HttpResponseBodyPart bodyPart) throws Exception {
+            return delegate.onBodyPartReceived(bodyPart);
+        }
+
+        @Override
+        public State onStatusReceived(HttpResponseStatus responseStatus) throws Exception {
+            this.statusCode = responseStatus.getStatusCode();
+            return delegate.onStatusReceived(responseStatus);
+        }
+
+        @Override
+        public State onHeadersReceived(HttpHeaders headers) throws Exception {
+            return delegate.onHeadersReceived(headers);
+        }
+
+        @Override
+        public T onCompleted() throws Exception {
+            complete(statusCode < 500);
+            return delegate.onCompleted();
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+package cc.blynk.server.core.processors;
+
+/**
+ * Webhook dispatcher metrics. Counters are collected since previous stat.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 05.09.17.
+ */
+public final class WebhookDispatcherStat {
+
+    public final int hosts;
+    public final int openCircuits;
+    //current queue depth of all hosts
+    public final int queued;
+    public final int inFlight;
+    public final long sent;
+    //triggers that replaced already queued request of same webhook
+    public final long coalesced;
+    //triggers dropped because of full host queue or removed from queue when circuit was opened
+    public final long dropped;
+    //triggers rejected because of opened circuit
+    public final long rejected;
+    public final long failed;
+    //time from trigger till response, including time in queue
+    public final long avgLatency;
+    public final long maxLatency;
+
+    WebhookDispatcherStat(int hosts, int openCircuits, int queued, int inFlight,
+                          long sent, long coalesced, long dropped, long rejected, long failed,
+                          long avgLatency, long maxLatency) {
+        this.hosts = hosts;
+        this.openCircuits = openCircuits;
+        this.queued = queued;
+        this.inFlight = inFlight;
+        this.sent = sent;
+        this.coalesced = coalesced;
+        this.dropped = dropped;
+        this.rejected = rejected;
+        this.failed = failed;
+        this.avgLatency = avgLatency;
+        this.maxLatency = maxLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "Webhooks. Hosts " + hosts
+                + ", open circuits " + openCircuits
+                + ", queued " + queued
+                + ", in flight " + inFlight
+                + ". Sent " + sent
+                + ", coalesced " + coalesced
+                + ", dropped " + dropped
+                + ", rejected " + rejected
+                + ", failed " + failed
+                + ". Latency avg : " + avgLatency + " ms, max : " + maxLatency + " ms.";
+    }
+}
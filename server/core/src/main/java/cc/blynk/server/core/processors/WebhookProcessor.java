@@ -7,19 +7,16 @@ import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.model.widgets.others.webhook.Header;
 import cc.blynk.server.core.model.widgets.others.webhook.SupportedWebhookMethod;
 import cc.blynk.server.core.model.widgets.others.webhook.WebHook;
+import cc.blynk.server.core.model.widgets.others.webhook.WebhookTemplate;
 import cc.blynk.server.core.protocol.enums.Command;
 import cc.blynk.server.core.protocol.exceptions.QuotaLimitException;
 import cc.blynk.server.core.stats.GlobalStats;
-import cc.blynk.utils.StringUtils;
 import io.netty.util.CharsetUtil;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.asynchttpclient.*;
 
-import java.time.Instant;
-
 import static cc.blynk.server.core.protocol.enums.Command.WEB_HOOKS;
-import static cc.blynk.utils.StringUtils.*;
 
 /**
  * Handles all webhooks logic.
@@ -32,19 +29,21 @@ public class WebhookProcessor extends NotificationBase {
 
     private static final Logger log = LogManager.getLogger(WebhookProcessor.class);
 
-    private final AsyncHttpClient httpclient;
+    private final WebhookDispatcher dispatcher;
     private final GlobalStats globalStats;
     private final int responseSizeLimit;
     private final String email;
     private final int WEBHOOK_FAILURE_LIMIT;
+    //processor belongs to single channel handler, so builder is reused
+    private final StringBuilder sb = new StringBuilder(256);
 
-    public WebhookProcessor(DefaultAsyncHttpClient httpclient,
+    public WebhookProcessor(WebhookDispatcher dispatcher,
                             long quotaFrequencyLimit,
                             int responseSizeLimit,
                             int failureLimit,
                             GlobalStats stats, String email) {
         super(quotaFrequencyLimit);
-        this.httpclient = httpclient;
+        this.dispatcher = dispatcher;
         this.globalStats = stats;
         this.responseSizeLimit = responseSizeLimit;
         this.email = email;
@@ -71,17 +70,20 @@ public class WebhookProcessor extends NotificationBase {
             return;
         }
 
-        String newUrl = format(webHook.url, triggerValue, false);
+        String newUrl = render(webHook.getUrlTemplate(), triggerValue);
 
-        BoundRequestBuilder builder = buildRequestMethod(webHook.method, newUrl);
+        RequestBuilder builder = buildRequestMethod(webHook.method, newUrl);
         if (webHook.headers != null) {
+            String newBody = null;
             for (Header header : webHook.headers) {
                 if (header.isValid()) {
                     builder.setHeader(header.name, header.value);
                     if (webHook.body != null && !webHook.body.isEmpty()) {
                         if (header.name.equals("Content-Type")) {
-                            String newBody = format(webHook.body, triggerValue, true);
-                            log.trace("Webhook formatted body : {}", newBody);
+                            if (newBody == null) {
+                                newBody = render(webHook.getBodyTemplate(), triggerValue);
+                                log.trace("Webhook formatted body : {}", newBody);
+                            }
                             buildRequestBody(builder, header.value, newBody);
                         }
                     }
@@ -90,7 +92,7 @@ public class WebhookProcessor extends NotificationBase {
         }
 
         log.trace("Sending webhook. ", webHook);
-        builder.execute(new AsyncCompletionHandler<Response>() {
+        boolean accepted = dispatcher.dispatch(webHook, builder.build(), new AsyncCompletionHandler<Response>() {
 
             private int length = 0;
 
@@ -135,44 +137,21 @@ public class WebhookProcessor extends NotificationBase {
                 }
             }
         });
-        globalStats.mark(WEB_HOOKS);
-    }
 
-    private String format(String data, String triggerValue, boolean doBlynkCheck) {
-        //this is an ugly hack to make it work with Blynk HTTP API.
-        if (doBlynkCheck || !data.toLowerCase().contains("/pin/v")) {
-            data = PIN_PATTERN.matcher(data).replaceFirst(triggerValue);
+        if (accepted) {
+            globalStats.mark(WEB_HOOKS);
+        } else {
+            log.debug("Webhook for {} dropped by dispatcher.", email);
         }
+    }
 
-        String[] splitted = triggerValue.split(StringUtils.BODY_SEPARATOR_STRING);
-        switch (splitted.length) {
-            case 10 :
-                data = PIN_PATTERN_9.matcher(data).replaceFirst(splitted[9]);
-            case 9 :
-                data = PIN_PATTERN_8.matcher(data).replaceFirst(splitted[8]);
-            case 8 :
-                data = PIN_PATTERN_7.matcher(data).replaceFirst(splitted[7]);
-            case 7 :
-                data = PIN_PATTERN_6.matcher(data).replaceFirst(splitted[6]);
-            case 6 :
-                data = PIN_PATTERN_5.matcher(data).replaceFirst(splitted[5]);
-            case 5 :
-                data = PIN_PATTERN_4.matcher(data).replaceFirst(splitted[4]);
-            case 4 :
-                data = PIN_PATTERN_3.matcher(data).replaceFirst(splitted[3]);
-            case 3 :
-                data = PIN_PATTERN_2.matcher(data).replaceFirst(splitted[2]);
-            case 2 :
-                data = PIN_PATTERN_1.matcher(data).replaceFirst(splitted[1]);
-            case 1 :
-                data = PIN_PATTERN_0.matcher(data).replaceFirst(splitted[0]);
-                data = GENERIC_PLACEHOLDER.matcher(data).replaceFirst(triggerValue);
-                data = DATETIME_PATTERN.matcher(data).replaceFirst(Instant.now().toString());
-        }
-        return data;
+    private String render(WebhookTemplate template, String triggerValue) {
+        sb.setLength(0);
+        template.render(sb, triggerValue);
+        return sb.toString();
     }
 
-    private void buildRequestBody(BoundRequestBuilder builder, String header, String body) {
+    private void buildRequestBody(RequestBuilder builder, String header, String body) {
         switch (header) {
             case "application/x-www-form-urlencoded" :
             case "application/json" :
@@ -184,16 +163,16 @@ public class WebhookProcessor extends NotificationBase {
         }
     }
 
-    private BoundRequestBuilder buildRequestMethod(SupportedWebhookMethod method, String url) {
+    private RequestBuilder buildRequestMethod(SupportedWebhookMethod method, String url) {
         switch (method) {
             case GET :
-                return httpclient.prepareGet(url);
+                return new RequestBuilder("GET").setUrl(url);
             case POST :
-                return httpclient.preparePost(url);
+                return new RequestBuilder("POST").setUrl(url);
             case PUT :
-                return httpclient.preparePut(url);
+                return new RequestBuilder("PUT").setUrl(url);
             case DELETE :
-                return httpclient.prepareDelete(url);
+                return new RequestBuilder("DELETE").setUrl(url);
             default :
                 throw new IllegalArgumentException("Unsupported method type for webhook.");
         }
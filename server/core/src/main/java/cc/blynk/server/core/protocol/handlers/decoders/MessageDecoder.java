@@ -3,6 +3,7 @@ package cc.blynk.server.core.protocol.handlers.decoders;
 import cc.blynk.server.core.protocol.enums.Command;
 import cc.blynk.server.core.protocol.model.messages.MessageBase;
 import cc.blynk.server.core.protocol.model.messages.ResponseMessage;
+import cc.blynk.server.core.protocol.model.messages.hardware.RawHardwareMessage;
 import cc.blynk.server.core.stats.GlobalStats;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
@@ -17,6 +18,8 @@ import static cc.blynk.server.core.protocol.model.messages.MessageFactory.produc
 
 /**
  * Decodes input byte array into java message.
+ * When raw hardware messages are enabled, hardware commands body is not decoded
+ * into string, but passed as retained slice within {@link RawHardwareMessage}.
  *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
@@ -27,9 +30,15 @@ public class MessageDecoder extends ByteToMessageDecoder {
     private static final Logger log = LogManager.getLogger(MessageDecoder.class);
 
     private final GlobalStats stats;
+    private final boolean rawHardwareMessages;
 
     public MessageDecoder(GlobalStats stats) {
+        this(stats, false);
+    }
+
+    public MessageDecoder(GlobalStats stats, boolean rawHardwareMessages) {
         this.stats = stats;
+        this.rawHardwareMessages = rawHardwareMessages;
     }
 
     @Override
@@ -53,7 +62,11 @@ public class MessageDecoder extends ByteToMessageDecoder {
                 return;
             }
 
-            message = produce(messageId, command, (String) in.readCharSequence(codeOrLength, CharsetUtil.UTF_8));
+            if (rawHardwareMessages && command == Command.HARDWARE) {
+                message = new RawHardwareMessage(messageId, in.readRetainedSlice(codeOrLength));
+            } else {
+                message = produce(messageId, command, (String) in.readCharSequence(codeOrLength, CharsetUtil.UTF_8));
+            }
         }
 
         log.trace("Incoming {}", message);
@@ -0,0 +1,136 @@
+package cc.blynk.server.core.protocol.model.messages.hardware;
+
+import cc.blynk.server.core.protocol.model.messages.MessageBase;
+import cc.blynk.utils.ParseUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.ReferenceCounted;
+
+import java.nio.charset.StandardCharsets;
+
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+import static cc.blynk.utils.StringUtils.BODY_SEPARATOR;
+
+/**
+ * Hardware command which body is kept as retained slice of incoming buffer instead of string.
+ * Parts of "vw 1 100" command are located and pin is parsed directly from bytes,
+ * so strings are created only when consumer actually needs them.
+ * Message should be released after processing.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 04.09.17.
+ */
+public class RawHardwareMessage extends MessageBase implements ReferenceCounted {
+
+    public final ByteBuf body;
+
+    //same parts as StringUtils.split3() returns, -1 when part is absent
+    private final int pinIndex;
+    private final int valueIndex;
+
+    private String value;
+
+    public RawHardwareMessage(int messageId, ByteBuf body) {
+        super(messageId, HARDWARE, body.readableBytes());
+        this.body = body;
+
+        int start = body.readerIndex();
+        int end = body.writerIndex();
+        int firstSeparator = length > 1 ? body.indexOf(start + 1, end, (byte) BODY_SEPARATOR) : -1;
+        int secondSeparator = firstSeparator == -1 ? -1 : body.indexOf(firstSeparator + 1, end, (byte) BODY_SEPARATOR);
+        this.pinIndex = firstSeparator == -1 ? -1 : firstSeparator + 1;
+        this.valueIndex = secondSeparator == -1 ? -1 : secondSeparator + 1;
+    }
+
+    public boolean isWriteOperation() {
+        return length > 1 && body.getByte(body.readerIndex() + 1) == 'w';
+    }
+
+    /**
+     * Same as split3(body).length == 3 with non empty value.
+     */
+    public boolean hasValue() {
+        return valueIndex != -1 && valueIndex < body.writerIndex();
+    }
+
+    public char getPinType() {
+        return (char) body.getByte(body.readerIndex());
+    }
+
+    public byte getPin() {
+        int pinEnd = (valueIndex == -1 ? body.writerIndex() + 1 : valueIndex) - 1;
+        int pin = 0;
+        for (int i = pinIndex; i < pinEnd; i++) {
+            int digit = body.getByte(i) - '0';
+            pin = pin * 10 + digit;
+            if (digit < 0 || digit > 9 || pin > Byte.MAX_VALUE) {
+                //not a plain number, leaving validation and error message to the common parser
+                return ParseUtil.parseByte(body.toString(pinIndex, pinEnd - pinIndex, StandardCharsets.UTF_8));
+            }
+        }
+        if (pinIndex == pinEnd) {
+            return ParseUtil.parseByte("");
+        }
+        return (byte) pin;
+    }
+
+    public String getValue() {
+        String value = this.value;
+        if (value == null) {
+            value = body.toString(valueIndex, body.writerIndex() - valueIndex, StandardCharsets.UTF_8);
+            this.value = value;
+        }
+        return value;
+    }
+
+    @Override
+    public byte[] getBytes() {
+        return ByteBufUtil.getBytes(body);
+    }
+
+    @Override
+    public int refCnt() {
+        return body.refCnt();
+    }
+
+    @Override
+    public RawHardwareMessage retain() {
+        body.retain();
+        return this;
+    }
+
+    @Override
+    public RawHardwareMessage retain(int increment) {
+        body.retain(increment);
+        return this;
+    }
+
+    @Override
+    public RawHardwareMessage touch() {
+        body.touch();
+        return this;
+    }
+
+    @Override
+    public RawHardwareMessage touch(Object hint) {
+        body.touch(hint);
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return body.release();
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        return body.release(decrement);
+    }
+
+    @Override
+    public String toString() {
+        return "RawHardwareMessage{" + super.toString() + ", body='"
+                + body.toString(StandardCharsets.UTF_8) + "'}";
+    }
+}
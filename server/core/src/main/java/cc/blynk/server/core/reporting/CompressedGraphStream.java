@@ -0,0 +1,176 @@
+package cc.blynk.server.core.reporting;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static cc.blynk.utils.ArrayUtil.EMPTY_BYTES;
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+
+/**
+ * History graph data of single pin, already deflated. Response for few pins is joined from such streams
+ * without compressing data again, so compressed stream of pin could be cached and reused for
+ * different requests.
+ *
+ * Every stream is raw deflate block sequence ended with sync flush, so streams could be concatenated.
+ * Joined response is regular zlib stream, same as {@link cc.blynk.utils.ByteUtils#compress(int, byte[][])}
+ * produces, so client side is not changed.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.09.17.
+ */
+public final class CompressedGraphStream {
+
+    public static final CompressedGraphStream EMPTY = compress(EMPTY_BYTES);
+
+    //zlib header for default compression
+    private static final byte[] ZLIB_HEADER = {0x78, (byte) 0x9C};
+    //final empty block with fixed huffman codes
+    private static final byte[] FINAL_BLOCK = {0x03, 0x00};
+    private static final int ADLER_BASE = 65521;
+
+    final byte[] deflated;
+    //adler32 checksum and length of uncompressed data, required for zlib trailer
+    final int adler;
+    final int length;
+    public final int points;
+
+    private CompressedGraphStream(byte[] deflated, int adler, int length, int points) {
+        this.deflated = deflated;
+        this.adler = adler;
+        this.length = length;
+        this.points = points;
+    }
+
+    /**
+     * @param data - reporting entries of single pin
+     */
+    public static CompressedGraphStream compress(byte[] data) {
+        int points = data.length / SIZE_OF_REPORT_ENTRY;
+        byte[] input = new byte[4 + data.length];
+        writeInt(input, 0, points);
+        System.arraycopy(data, 0, input, 4, data.length);
+
+        Adler32 adler32 = new Adler32();
+        adler32.update(input);
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(input);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, input.length / 4));
+            byte[] buf = new byte[8192];
+            int written;
+            //sync flush writes all pending data and aligns output to byte boundary
+            do {
+                written = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+                out.write(buf, 0, written);
+            } while (written == buf.length);
+            return new CompressedGraphStream(out.toByteArray(), (int) adler32.getValue(), input.length, points);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @return zlib stream with dashId and all pins data
+     */
+    public static byte[] join(int dashId, CompressedGraphStream[] streams) {
+        byte[] header = new byte[4];
+        writeInt(header, 0, dashId);
+        Adler32 adler32 = new Adler32();
+        adler32.update(header);
+        long adler = adler32.getValue();
+
+        int size = ZLIB_HEADER.length + 5 + header.length + FINAL_BLOCK.length + 4;
+        for (CompressedGraphStream stream : streams) {
+            size += stream.deflated.length;
+            adler = combine(adler, stream.adler & 0xFFFFFFFFL, stream.length);
+        }
+
+        byte[] result = new byte[size];
+        int pos = 0;
+        System.arraycopy(ZLIB_HEADER, 0, result, pos, ZLIB_HEADER.length);
+        pos += ZLIB_HEADER.length;
+
+        //dashId goes as stored (not compressed) block
+        result[pos++] = 0;
+        result[pos++] = (byte) header.length;
+        result[pos++] = 0;
+        result[pos++] = (byte) ~header.length;
+        result[pos++] = (byte) 0xFF;
+        System.arraycopy(header, 0, result, pos, header.length);
+        pos += header.length;
+
+        for (CompressedGraphStream stream : streams) {
+            System.arraycopy(stream.deflated, 0, result, pos, stream.deflated.length);
+            pos += stream.deflated.length;
+        }
+
+        System.arraycopy(FINAL_BLOCK, 0, result, pos, FINAL_BLOCK.length);
+        pos += FINAL_BLOCK.length;
+        writeInt(result, pos, (int) adler);
+        return result;
+    }
+
+    /**
+     * @return - reporting entries of pin, same as were passed to {@link #compress(byte[])}
+     */
+    public byte[] decompress() {
+        byte[] input = new byte[length];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(deflated);
+            int read = 0;
+            while (read < length) {
+                int inflated = inflater.inflate(input, read, length - read);
+                if (inflated == 0 && inflater.needsInput()) {
+                    throw new IllegalStateException("Graph stream is truncated.");
+                }
+                read += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Graph stream is corrupted.", e);
+        } finally {
+            inflater.end();
+        }
+        return Arrays.copyOfRange(input, 4, length);
+    }
+
+    public int size() {
+        return deflated.length;
+    }
+
+    //same as adler32_combine() of zlib
+    static long combine(long adler1, long adler2, long length2) {
+        long rem = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (rem * sum1) % ADLER_BASE;
+        sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += ((adler1 >> 16) & 0xFFFF) + ((adler2 >> 16) & 0xFFFF) + ADLER_BASE - rem;
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum2 >= (ADLER_BASE << 1)) {
+            sum2 -= (ADLER_BASE << 1);
+        }
+        if (sum2 >= ADLER_BASE) {
+            sum2 -= ADLER_BASE;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    private static void writeInt(byte[] buf, int pos, int value) {
+        buf[pos] = (byte) (value >>> 24);
+        buf[pos + 1] = (byte) (value >>> 16);
+        buf[pos + 2] = (byte) (value >>> 8);
+        buf[pos + 3] = (byte) value;
+    }
+
+}
@@ -0,0 +1,148 @@
+package cc.blynk.server.core.reporting;
+
+import java.nio.ByteBuffer;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+
+/**
+ * Reduces number of history graph points to screen resolution before data is compressed and sent.
+ * Works with reporting entries as they are returned from {@link cc.blynk.server.core.dao.ReportingDao},
+ * every entry is value (double) and timestamp (long). Selected entries are copied as is,
+ * so downsampled data has same format and client side is not changed.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.09.17.
+ */
+public final class Downsampler {
+
+    //first, last and at least 1 point between them
+    static final int MIN_POINTS = 3;
+
+    private Downsampler() {
+    }
+
+    /**
+     * Largest-Triangle-Three-Buckets (Steinarsson). Keeps first and last entries and selects 1 entry from
+     * every bucket, that forms largest triangle with entry selected from previous bucket and average of
+     * next bucket. Visual shape of graph is preserved, including peaks.
+     */
+    public static byte[] lttb(byte[] data, int maxPoints) {
+        int size = data.length / SIZE_OF_REPORT_ENTRY;
+        maxPoints = Math.max(maxPoints, MIN_POINTS);
+        if (size <= maxPoints) {
+            return data;
+        }
+
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        //timestamps are relative to first entry, so there is no precision loss on conversion to double
+        long startTs = ts(buf, 0);
+        byte[] result = new byte[maxPoints * SIZE_OF_REPORT_ENTRY];
+        int resultSize = 0;
+
+        copy(data, 0, result, resultSize++);
+        double bucketSize = (double) (size - 2) / (maxPoints - 2);
+        int selected = 0;
+        for (int bucket = 0; bucket < maxPoints - 2; bucket++) {
+            //average of next bucket, last entry for last bucket
+            int nextStart = (int) ((bucket + 1) * bucketSize) + 1;
+            int nextEnd = Math.min((int) ((bucket + 2) * bucketSize) + 1, size);
+            double avgX = 0;
+            double avgY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                avgX += ts(buf, i) - startTs;
+                avgY += value(buf, i);
+            }
+            avgX /= nextEnd - nextStart;
+            avgY /= nextEnd - nextStart;
+
+            int start = (int) (bucket * bucketSize) + 1;
+            int end = nextStart;
+            double selectedX = ts(buf, selected) - startTs;
+            double selectedY = value(buf, selected);
+            double maxArea = -1;
+            int next = start;
+            for (int i = start; i < end; i++) {
+                //doubled area is enough for comparison
+                double area = Math.abs((selectedX - avgX) * (value(buf, i) - selectedY)
+                        - (selectedX - (ts(buf, i) - startTs)) * (avgY - selectedY));
+                if (area > maxArea) {
+                    maxArea = area;
+                    next = i;
+                }
+            }
+            copy(data, next, result, resultSize++);
+            selected = next;
+        }
+        copy(data, size - 1, result, resultSize);
+        return result;
+    }
+
+    /**
+     * Min/max envelope. Splits entries into maxPoints / 2 buckets and keeps min and max entry of every
+     * bucket in original order, so every spike stays visible on graph.
+     */
+    public static byte[] minMax(byte[] data, int maxPoints) {
+        int size = data.length / SIZE_OF_REPORT_ENTRY;
+        int buckets = Math.max(maxPoints, MIN_POINTS) / 2;
+        if (size <= buckets * 2) {
+            return data;
+        }
+
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        byte[] result = new byte[buckets * 2 * SIZE_OF_REPORT_ENTRY];
+        int resultSize = 0;
+        double bucketSize = (double) size / buckets;
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            int start = (int) (bucket * bucketSize);
+            int end = Math.min((int) ((bucket + 1) * bucketSize), size);
+            int min = start;
+            int max = start;
+            for (int i = start + 1; i < end; i++) {
+                double value = value(buf, i);
+                if (value < value(buf, min)) {
+                    min = i;
+                } else if (value > value(buf, max)) {
+                    max = i;
+                }
+            }
+            copy(data, Math.min(min, max), result, resultSize++);
+            if (min != max) {
+                copy(data, Math.max(min, max), result, resultSize++);
+            }
+        }
+        if (resultSize < buckets * 2) {
+            byte[] trimmed = new byte[resultSize * SIZE_OF_REPORT_ENTRY];
+            System.arraycopy(result, 0, trimmed, 0, trimmed.length);
+            return trimmed;
+        }
+        return result;
+    }
+
+    /**
+     * Downsamples all streams with {@link #lttb(byte[], int)}, so their total size is not bigger
+     * than maxBytes.
+     */
+    public static byte[][] fit(byte[][] data, int maxBytes) {
+        int maxPoints = maxBytes / SIZE_OF_REPORT_ENTRY / Math.max(data.length, 1);
+        byte[][] result = new byte[data.length][];
+        for (int i = 0; i < data.length; i++) {
+            result[i] = lttb(data[i], maxPoints);
+        }
+        return result;
+    }
+
+    private static double value(ByteBuffer buf, int index) {
+        return buf.getDouble(index * SIZE_OF_REPORT_ENTRY);
+    }
+
+    private static long ts(ByteBuffer buf, int index) {
+        return buf.getLong(index * SIZE_OF_REPORT_ENTRY + 8);
+    }
+
+    private static void copy(byte[] data, int index, byte[] result, int resultIndex) {
+        System.arraycopy(data, index * SIZE_OF_REPORT_ENTRY,
+                result, resultIndex * SIZE_OF_REPORT_ENTRY, SIZE_OF_REPORT_ENTRY);
+    }
+
+}
@@ -0,0 +1,24 @@
+package cc.blynk.server.core.reporting;
+
+/**
+ * Way history graph data is reduced to requested number of points.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.09.17.
+ */
+public enum DownsamplingType {
+
+    LTTB,
+    MIN_MAX;
+
+    public byte[] downsample(byte[] data, int maxPoints) {
+        switch (this) {
+            case MIN_MAX :
+                return Downsampler.minMax(data, maxPoints);
+            default:
+                return Downsampler.lttb(data, maxPoints);
+        }
+    }
+
+}
@@ -0,0 +1,237 @@
+package cc.blynk.server.core.reporting;
+
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.AggregationFunctionType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import cc.blynk.server.core.stats.model.GraphCacheStat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Size bounded LRU cache of compressed history graph data of pins. Apps request same graphs
+ * every time they are opened, while hourly and daily data changes only once per period.
+ *
+ * Entry is removed as soon as data of any pin it was built from is written or removed,
+ * so cache never returns data that differs from storage. Data that was read while some pin was
+ * invalidated is not cached, as it could be read before write.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.09.17.
+ */
+public final class GraphDataCache {
+
+    private static final GraphGranularityType[] TYPES = GraphGranularityType.values();
+    //approximate size of key, entry and index references
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, CompressedGraphStream> entries;
+    //cached keys by pin that they were built from, indexed by granularity ordinal
+    private final List<Map<BaseReportingKey, ArrayList<Key>>> index;
+    private long bytes;
+    //incremented on every invalidation
+    private long version;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    public GraphDataCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.entries = new LinkedHashMap<>(256, 0.75f, true);
+        this.index = new ArrayList<>(TYPES.length);
+        for (int i = 0; i < TYPES.length; i++) {
+            index.add(new HashMap<>());
+        }
+    }
+
+    public synchronized CompressedGraphStream get(Key key) {
+        CompressedGraphStream stream = entries.get(key);
+        if (stream == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return stream;
+    }
+
+    /**
+     * Should be taken before data is read, so it could be cached with {@link #put}.
+     */
+    public synchronized long version() {
+        return version;
+    }
+
+    public synchronized void put(Key key, CompressedGraphStream stream, long readVersion) {
+        int size = stream.size() + ENTRY_OVERHEAD;
+        if (readVersion != version || size > maxBytes) {
+            return;
+        }
+
+        CompressedGraphStream old = entries.put(key, stream);
+        if (old == null) {
+            for (BaseReportingKey pinKey : key.pinKeys()) {
+                index.get(key.type.ordinal()).computeIfAbsent(pinKey, k -> new ArrayList<>(2)).add(key);
+            }
+        } else {
+            bytes -= old.size() + ENTRY_OVERHEAD;
+        }
+        bytes += size;
+
+        Iterator<Map.Entry<Key, CompressedGraphStream>> iterator = entries.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<Key, CompressedGraphStream> eldest = iterator.next();
+            iterator.remove();
+            bytes -= eldest.getValue().size() + ENTRY_OVERHEAD;
+            removeFromIndex(eldest.getKey(), null);
+            evictions++;
+        }
+    }
+
+    /**
+     * Removes all cached data built from given pin data of given granularity.
+     */
+    public synchronized void invalidate(BaseReportingKey pinKey, GraphGranularityType type) {
+        version++;
+        ArrayList<Key> keys = index.get(type.ordinal()).remove(pinKey);
+        if (keys != null) {
+            for (Key key : keys) {
+                CompressedGraphStream stream = entries.remove(key);
+                if (stream != null) {
+                    bytes -= stream.size() + ENTRY_OVERHEAD;
+                    invalidations++;
+                }
+                //tag data is also indexed by other devices
+                if (key.deviceIds != null) {
+                    removeFromIndex(key, pinKey);
+                }
+            }
+        }
+    }
+
+    public void invalidate(BaseReportingKey pinKey) {
+        for (GraphGranularityType type : TYPES) {
+            invalidate(pinKey, type);
+        }
+    }
+
+    private void removeFromIndex(Key key, BaseReportingKey skip) {
+        Map<BaseReportingKey, ArrayList<Key>> typeIndex = index.get(key.type.ordinal());
+        for (BaseReportingKey pinKey : key.pinKeys()) {
+            if (pinKey.equals(skip)) {
+                continue;
+            }
+            ArrayList<Key> keys = typeIndex.get(pinKey);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    typeIndex.remove(pinKey);
+                }
+            }
+        }
+    }
+
+    public synchronized GraphCacheStat getStat() {
+        return new GraphCacheStat(hits, misses, evictions, invalidations, entries.size(), bytes);
+    }
+
+    /**
+     * Pin data request. Same pin with different period, page or resolution is different entry.
+     */
+    public static final class Key {
+
+        private final String email;
+        private final String appName;
+        private final int dashId;
+        private final int deviceId;
+        private final int[] deviceIds;
+        private final PinType pinType;
+        private final byte pin;
+        private final GraphGranularityType type;
+        private final int count;
+        private final int skipCount;
+        private final AggregationFunctionType functionType;
+        private final DownsamplingType downsamplingType;
+        private final int maxPoints;
+
+        public Key(User user, GraphPinRequest request, DownsamplingType downsamplingType, int maxPoints) {
+            this.email = user.email;
+            this.appName = user.appName;
+            this.dashId = request.dashId;
+            this.deviceId = request.deviceId;
+            this.deviceIds = request.isTag ? request.deviceIds : null;
+            this.pinType = request.pinType;
+            this.pin = request.pin;
+            this.type = request.type;
+            this.count = request.count;
+            this.skipCount = request.skipCount;
+            this.functionType = request.isTag ? request.functionType : null;
+            this.maxPoints = maxPoints;
+            this.downsamplingType = maxPoints > 0 ? downsamplingType : null;
+        }
+
+        private BaseReportingKey[] pinKeys() {
+            if (deviceIds == null) {
+                return new BaseReportingKey[] {
+                        new BaseReportingKey(email, appName, dashId, deviceId, pinType, pin)
+                };
+            }
+            BaseReportingKey[] pinKeys = new BaseReportingKey[deviceIds.length];
+            for (int i = 0; i < deviceIds.length; i++) {
+                pinKeys[i] = new BaseReportingKey(email, appName, dashId, deviceIds[i], pinType, pin);
+            }
+            return pinKeys;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+
+            Key that = (Key) o;
+
+            if (dashId != that.dashId) return false;
+            if (deviceId != that.deviceId) return false;
+            if (pin != that.pin) return false;
+            if (count != that.count) return false;
+            if (skipCount != that.skipCount) return false;
+            if (maxPoints != that.maxPoints) return false;
+            if (!email.equals(that.email)) return false;
+            if (appName != null ? !appName.equals(that.appName) : that.appName != null) return false;
+            if (!Arrays.equals(deviceIds, that.deviceIds)) return false;
+            if (pinType != that.pinType) return false;
+            if (type != that.type) return false;
+            if (functionType != that.functionType) return false;
+            return downsamplingType == that.downsamplingType;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = email.hashCode();
+            result = 31 * result + (appName != null ? appName.hashCode() : 0);
+            result = 31 * result + dashId;
+            result = 31 * result + deviceId;
+            result = 31 * result + Arrays.hashCode(deviceIds);
+            result = 31 * result + (pinType != null ? pinType.hashCode() : 0);
+            result = 31 * result + (int) pin;
+            result = 31 * result + (type != null ? type.hashCode() : 0);
+            result = 31 * result + count;
+            result = 31 * result + skipCount;
+            result = 31 * result + (functionType != null ? functionType.hashCode() : 0);
+            result = 31 * result + (downsamplingType != null ? downsamplingType.hashCode() : 0);
+            result = 31 * result + maxPoints;
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,215 @@
+package cc.blynk.server.core.reporting;
+
+import cc.blynk.server.core.dao.functions.Function;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+
+/**
+ * Merges reporting series of few devices (tag) into one series. Entries with same timestamp
+ * are aggregated with requested function.
+ *
+ * Every series is already sorted by time, so merge is a single pass over all entries. Merge starts with
+ * linear scans over all series, that consume entries of min timestamp and find next min timestamp at once.
+ * When series timestamps are not aligned and scans consume only few entries, merge switches to
+ * min-heap of series ordered by timestamp of current entry. Values of one timestamp
+ * are aggregated with single reused function, so nothing is allocated per entry or per timestamp.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 15.09.17.
+ */
+public final class SeriesMerger {
+
+    //scans are used while on average every 4th series is consumed per scan
+    private static final int SCAN_EFFICIENCY = 4;
+    private static final int MIN_SCANS = 16;
+
+    private SeriesMerger() {
+    }
+
+    /**
+     * @param series - buffers filled as returned from storage (not flipped), null means no data
+     * @param function - aggregates values of one timestamp, reset for every timestamp
+     * @return - filled buffer (not flipped) with merged entries, backed by array of exact size
+     */
+    public static ByteBuffer merge(ByteBuffer[] series, Function function) {
+        int seriesCount = 0;
+        int maxEntries = 0;
+        for (ByteBuffer buf : series) {
+            if (buf != null && buf.position() >= SIZE_OF_REPORT_ENTRY) {
+                seriesCount++;
+                maxEntries += buf.position() / SIZE_OF_REPORT_ENTRY;
+            }
+        }
+
+        ByteBuffer result = ByteBuffer.allocate(maxEntries * SIZE_OF_REPORT_ENTRY);
+        if (seriesCount == 0) {
+            return result;
+        }
+
+        Cursors cursors = new Cursors(series, seriesCount);
+
+        //devices of tag usually report same (rounded) timestamps, so every scan over all series
+        //consumes entry of almost every series. when it isn't so, heap is cheaper
+        long ts = cursors.minTs;
+        int scans = 0;
+        long consumed = 0;
+        while (cursors.size > 0 && (scans < MIN_SCANS || consumed * SCAN_EFFICIENCY >= (long) scans * cursors.size)) {
+            function.reset();
+            consumed += cursors.scan(ts, function);
+            result.putDouble(function.getResult())
+                  .putLong(ts);
+            ts = cursors.minTs;
+            scans++;
+        }
+
+        cursors.heapify();
+        while (cursors.size > 0) {
+            ts = cursors.heapMinTs();
+            function.reset();
+            do {
+                function.apply(cursors.pollMinValue());
+            } while (cursors.size > 0 && cursors.heapMinTs() == ts);
+            result.putDouble(function.getResult())
+                  .putLong(ts);
+        }
+
+        if (result.hasRemaining()) {
+            //same timestamps were merged, so result is smaller than expected
+            int size = result.position();
+            result = ByteBuffer.wrap(Arrays.copyOf(result.array(), size));
+            result.position(size);
+        }
+        return result;
+    }
+
+    /**
+     * Current positions within series. Only first "size" series have entries left.
+     */
+    private static final class Cursors {
+
+        private final ByteBuffer[] series;
+        private final int[] positions;
+        private final int[] limits;
+        private final long[] timestamps;
+        //series indexes ordered by timestamp of current entry, used after heapify()
+        private final int[] heap;
+        private int size;
+        //min timestamp of current entries, maintained by scans only
+        private long minTs = Long.MAX_VALUE;
+
+        Cursors(ByteBuffer[] allSeries, int seriesCount) {
+            this.series = new ByteBuffer[seriesCount];
+            this.positions = new int[seriesCount];
+            this.limits = new int[seriesCount];
+            this.timestamps = new long[seriesCount];
+            this.heap = new int[seriesCount];
+            for (ByteBuffer buf : allSeries) {
+                if (buf != null && buf.position() >= SIZE_OF_REPORT_ENTRY) {
+                    series[size] = buf;
+                    limits[size] = buf.position() - buf.position() % SIZE_OF_REPORT_ENTRY;
+                    timestamps[size] = buf.getLong(8);
+                    minTs = Math.min(minTs, timestamps[size]);
+                    size++;
+                }
+            }
+        }
+
+        /**
+         * Applies all entries with given timestamp and finds next min timestamp.
+         *
+         * @return number of consumed entries
+         */
+        int scan(long ts, Function function) {
+            int consumed = 0;
+            long nextMinTs = Long.MAX_VALUE;
+            int i = 0;
+            while (i < size) {
+                if (timestamps[i] == ts) {
+                    function.apply(series[i].getDouble(positions[i]));
+                    consumed++;
+                    if (!advance(i)) {
+                        //last series takes place of finished one and is checked on next iteration
+                        remove(i);
+                        continue;
+                    }
+                    //few entries with same timestamp within one series
+                    if (timestamps[i] == ts) {
+                        continue;
+                    }
+                }
+                nextMinTs = Math.min(nextMinTs, timestamps[i]);
+                i++;
+            }
+            minTs = nextMinTs;
+            return consumed;
+        }
+
+        private boolean advance(int i) {
+            positions[i] += SIZE_OF_REPORT_ENTRY;
+            if (positions[i] < limits[i]) {
+                timestamps[i] = series[i].getLong(positions[i] + 8);
+                return true;
+            }
+            return false;
+        }
+
+        private void remove(int i) {
+            size--;
+            series[i] = series[size];
+            positions[i] = positions[size];
+            limits[i] = limits[size];
+            timestamps[i] = timestamps[size];
+            series[size] = null;
+        }
+
+        void heapify() {
+            for (int i = 0; i < size; i++) {
+                heap[i] = i;
+            }
+            for (int i = (size >>> 1) - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+        }
+
+        long heapMinTs() {
+            return timestamps[heap[0]];
+        }
+
+        double pollMinValue() {
+            int i = heap[0];
+            double value = series[i].getDouble(positions[i]);
+            if (!advance(i)) {
+                //finished series stays in arrays, only heap shrinks
+                heap[0] = heap[--size];
+            }
+            siftDown(0);
+            return value;
+        }
+
+        private void siftDown(int index) {
+            if (size == 0) {
+                return;
+            }
+            int item = heap[index];
+            int half = size >>> 1;
+            while (index < half) {
+                int child = 2 * index + 1;
+                int right = child + 1;
+                if (right < size && timestamps[heap[right]] < timestamps[heap[child]]) {
+                    child = right;
+                }
+                if (timestamps[item] <= timestamps[heap[child]]) {
+                    break;
+                }
+                heap[index] = heap[child];
+                index = child;
+            }
+            heap[index] = item;
+        }
+    }
+
+}
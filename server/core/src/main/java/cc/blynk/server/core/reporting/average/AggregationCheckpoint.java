@@ -0,0 +1,149 @@
+package cc.blynk.server.core.reporting.average;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary checkpoint of single aggregation table.
+ *
+ * Format (version 1) :
+ * int magic, byte version,
+ * int pins count, pins : (int pinId, utf email, utf appName, int dashId, int deviceId, char pinType, byte pin),
+ * int entries count, entries : (int pinId, int period, double sum, long count).
+ *
+ * Checkpoint is written into temp file first and moved over previous one after that,
+ * so crash during write never corrupts existing checkpoint.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 02.09.17.
+ */
+final class AggregationCheckpoint {
+
+    private static final int MAGIC = 0x424C4147;
+    private static final int VERSION = 1;
+    //java serialization stream header, used by previous versions
+    private static final int LEGACY_MAGIC = 0xACED;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private AggregationCheckpoint() {
+    }
+
+    static boolean isLegacy(Path path) throws IOException {
+        try (InputStream is = Files.newInputStream(path)) {
+            int first = is.read();
+            int second = is.read();
+            return ((first << 8) | second) == LEGACY_MAGIC;
+        }
+    }
+
+    /**
+     * Writes table to the file. Table should not be modified during write, so copy should be used.
+     * In case table is empty - existing checkpoint is removed.
+     */
+    static void write(Path path, AggregationTable table, PinIdRegistry pinIds) throws IOException {
+        int entriesCount = table.size();
+        if (entriesCount == 0) {
+            Files.deleteIfExists(path);
+            return;
+        }
+
+        BitSet pins = new BitSet();
+        table.forEach((pinId, period, sum, count) -> pins.set(pinId));
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp), BUFFER_SIZE))) {
+            dos.writeInt(MAGIC);
+            dos.writeByte(VERSION);
+
+            dos.writeInt(pins.cardinality());
+            for (int pinId = pins.nextSetBit(0); pinId >= 0; pinId = pins.nextSetBit(pinId + 1)) {
+                BaseReportingKey key = pinIds.getKey(pinId);
+                dos.writeInt(pinId);
+                dos.writeUTF(key.email);
+                dos.writeUTF(key.appName);
+                dos.writeInt(key.dashId);
+                dos.writeInt(key.deviceId);
+                dos.writeChar(key.pinType);
+                dos.writeByte(key.pin);
+            }
+
+            dos.writeInt(entriesCount);
+            table.forEach((pinId, period, sum, count) -> {
+                try {
+                    dos.writeInt(pinId);
+                    dos.writeInt((int) period);
+                    dos.writeDouble(sum);
+                    dos.writeLong(count);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads checkpoint and adds its entries to the table.
+     *
+     * @param flushedPeriod - entries of this and earlier periods are skipped, as they are already written
+     * @return - number of restored entries.
+     */
+    static int read(Path path, AggregationTable table, PinIdRegistry pinIds, long flushedPeriod) throws IOException {
+        try (DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+            if (dis.readInt() != MAGIC) {
+                throw new IOException("Unknown aggregation checkpoint format.");
+            }
+            int version = dis.readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported aggregation checkpoint version " + version + ".");
+            }
+
+            int pinsCount = dis.readInt();
+            Map<Integer, Integer> ids = new HashMap<>(pinsCount * 2);
+            for (int i = 0; i < pinsCount; i++) {
+                int storedPinId = dis.readInt();
+                BaseReportingKey key = new BaseReportingKey(
+                        dis.readUTF(), dis.readUTF(),
+                        dis.readInt(), dis.readInt(),
+                        PinType.getPinType(dis.readChar()), dis.readByte()
+                );
+                ids.put(storedPinId, pinIds.getId(key));
+            }
+
+            int entriesCount = dis.readInt();
+            int restored = 0;
+            for (int i = 0; i < entriesCount; i++) {
+                int pinId = ids.get(dis.readInt());
+                long period = dis.readInt() & 0xFFFFFFFFL;
+                double sum = dis.readDouble();
+                long count = dis.readLong();
+                if (period > flushedPeriod) {
+                    table.add(pinId, period, sum, count);
+                    restored++;
+                }
+            }
+            return restored;
+        }
+    }
+
+}
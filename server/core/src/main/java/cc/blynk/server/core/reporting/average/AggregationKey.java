@@ -14,6 +14,9 @@ import java.util.Comparator;
  */
 public final class AggregationKey implements Serializable {
 
+    //fixed to stay compatible with temp files stored by previous versions
+    private static final long serialVersionUID = -559661421974362001L;
+
     public static final Comparator<AggregationKey> AGGREGATION_KEY_COMPARATOR = (o1, o2) -> (int) (o1.ts - o2.ts);
 
     private final BaseReportingKey baseReportingKey;
@@ -36,6 +39,10 @@ public final class AggregationKey implements Serializable {
         return ts < nowTruncatedToPeriod;
     }
 
+    public BaseReportingKey getBaseReportingKey() {
+        return baseReportingKey;
+    }
+
     public String getEmail() {
         return baseReportingKey.email;
     }
@@ -0,0 +1,218 @@
+package cc.blynk.server.core.reporting.average;
+
+/**
+ * Primitive (pinId, period) -> (sum, count) table for one aggregation granularity.
+ * Table is split into stripes by pin id, every stripe is open-addressed hash table
+ * with linear probing guarded by its own lock. So aggregation doesn't allocate
+ * and different pins are rarely contended.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 30.08.17.
+ */
+final class AggregationTable {
+
+    private static final int STRIPES = 64;
+    private static final int INITIAL_STRIPE_CAPACITY = 64;
+
+    private final Stripe[] stripes;
+
+    AggregationTable() {
+        this.stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(INITIAL_STRIPE_CAPACITY);
+        }
+    }
+
+    interface EntryConsumer {
+        void accept(int pinId, long period, double sum, long count);
+    }
+
+    void aggregate(int pinId, long period, double value) {
+        stripe(pinId).add(key(pinId, period), value, 1);
+    }
+
+    void add(int pinId, long period, double sum, long count) {
+        stripe(pinId).add(key(pinId, period), sum, count);
+    }
+
+    /**
+     * Removes all entries with period before given one and passes them to consumer.
+     */
+    void drain(long nowTruncatedToPeriod, EntryConsumer consumer) {
+        for (Stripe stripe : stripes) {
+            stripe.drain(nowTruncatedToPeriod, consumer);
+        }
+    }
+
+    void forEach(EntryConsumer consumer) {
+        for (Stripe stripe : stripes) {
+            stripe.forEach(consumer);
+        }
+    }
+
+    /**
+     * @return - copy of the table. Every stripe is copied under its lock.
+     */
+    AggregationTable copy() {
+        AggregationTable copy = new AggregationTable();
+        for (int i = 0; i < STRIPES; i++) {
+            copy.stripes[i] = stripes[i].copy();
+        }
+        return copy;
+    }
+
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    private Stripe stripe(int pinId) {
+        return stripes[pinId & (STRIPES - 1)];
+    }
+
+    //pin id is never 0, so 0 key marks empty slot
+    private static long key(int pinId, long period) {
+        return ((long) pinId << 32) | (period & 0xFFFFFFFFL);
+    }
+
+    private static int pinId(long key) {
+        return (int) (key >>> 32);
+    }
+
+    private static long period(long key) {
+        return key & 0xFFFFFFFFL;
+    }
+
+    private static final class Stripe {
+
+        private long[] keys;
+        private double[] sums;
+        private long[] counts;
+        private int size;
+
+        Stripe(int capacity) {
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            this.keys = new long[capacity];
+            this.sums = new double[capacity];
+            this.counts = new long[capacity];
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        synchronized void add(long key, double sum, long count) {
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+
+            if (keys[slot] == 0) {
+                //load factor 0.5
+                if ((size + 1) * 2 > keys.length) {
+                    rehash(keys.length * 2);
+                    add(key, sum, count);
+                    return;
+                }
+                keys[slot] = key;
+                size++;
+            }
+
+            sums[slot] += sum;
+            counts[slot] += count;
+        }
+
+        synchronized void drain(long nowTruncatedToPeriod, EntryConsumer consumer) {
+            int slot = 0;
+            while (slot < keys.length) {
+                long key = keys[slot];
+                if (key != 0 && period(key) < nowTruncatedToPeriod) {
+                    consumer.accept(pinId(key), period(key), sums[slot], counts[slot]);
+                    removeAt(slot);
+                    //other entry could be shifted to this slot, so checking it again
+                } else {
+                    slot++;
+                }
+            }
+        }
+
+        synchronized void forEach(EntryConsumer consumer) {
+            for (int slot = 0; slot < keys.length; slot++) {
+                long key = keys[slot];
+                if (key != 0) {
+                    consumer.accept(pinId(key), period(key), sums[slot], counts[slot]);
+                }
+            }
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized Stripe copy() {
+            Stripe copy = new Stripe(keys.length);
+            System.arraycopy(keys, 0, copy.keys, 0, keys.length);
+            System.arraycopy(sums, 0, copy.sums, 0, sums.length);
+            System.arraycopy(counts, 0, copy.counts, 0, counts.length);
+            copy.size = size;
+            return copy;
+        }
+
+        /**
+         * Backward shift deletion, so no tombstones are required.
+         */
+        private void removeAt(int slot) {
+            int mask = keys.length - 1;
+            int hole = slot;
+            int next = (hole + 1) & mask;
+            while (keys[next] != 0) {
+                int ideal = hash(keys[next]) & mask;
+                //entry may be moved to hole only if hole is between its ideal slot and current one
+                if (((next - ideal) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    sums[hole] = sums[next];
+                    counts[hole] = counts[next];
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            keys[hole] = 0;
+            sums[hole] = 0;
+            counts[hole] = 0;
+            size--;
+        }
+
+        private void rehash(int newCapacity) {
+            long[] oldKeys = keys;
+            double[] oldSums = sums;
+            long[] oldCounts = counts;
+            allocate(newCapacity);
+            size = 0;
+
+            int mask = newCapacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                long key = oldKeys[i];
+                if (key != 0) {
+                    int slot = hash(key) & mask;
+                    while (keys[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = key;
+                    sums[slot] = oldSums[i];
+                    counts[slot] = oldCounts[i];
+                    size++;
+                }
+            }
+        }
+    }
+
+}
@@ -9,9 +9,20 @@ import java.io.Serializable;
  */
 public class AggregationValue implements Serializable {
 
+    //fixed to stay compatible with temp files stored by previous versions
+    private static final long serialVersionUID = -445006968633062412L;
+
     private double values = 0;
     private long count = 0;
 
+    public AggregationValue() {
+    }
+
+    public AggregationValue(double values, long count) {
+        this.values = values;
+        this.count = count;
+    }
+
     public void update(double val) {
         values += val;
         count++;
@@ -20,4 +31,12 @@ public class AggregationValue implements Serializable {
     public double calcAverage() {
         return values / count;
     }
+
+    double getValues() {
+        return values;
+    }
+
+    long getCount() {
+        return count;
+    }
 }
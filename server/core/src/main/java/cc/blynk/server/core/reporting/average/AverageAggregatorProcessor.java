@@ -1,20 +1,45 @@
 package cc.blynk.server.core.reporting.average;
 
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
 import cc.blynk.server.core.reporting.raw.BaseReportingKey;
 import cc.blynk.utils.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import static cc.blynk.utils.ReportingUtil.read;
-import static cc.blynk.utils.ReportingUtil.write;
 
 /**
+ * Aggregates incoming pin values into minute, hourly and daily averages.
+ * Every reporting key is interned into int pin id, so collecting value
+ * is just 3 updates of primitive tables without any allocation.
+ * Aggregations are periodically stored to binary checkpoints (see {@link AggregationCheckpoint})
+ * and restored on start.
+ *
+ * Checkpoint is not aligned with reporting flush, so it also keeps drained entries that are not written
+ * to storage yet. Last written period of every granularity is stored separately right after flush,
+ * so entries of already written periods are skipped on restore and never written twice.
+ * Values that come for already written period after the flush are lost in case of crash.
+ *
+ * Entries that failed to write are retried with next flushes, up to {@link #MAX_WRITE_ATTEMPTS} times.
+ * They are kept within separate checkpoints, that are restored regardless of written period,
+ * so single failing pin doesn't hold back written period of all other pins.
+ *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
  * Created on 10.08.15.
@@ -29,69 +54,361 @@ public class AverageAggregatorProcessor implements Closeable {
     public static final String MINUTE_TEMP_FILENAME = "minute_temp.bin";
     public static final String HOURLY_TEMP_FILENAME = "hourly_temp.bin";
     public static final String DAILY_TEMP_FILENAME = "daily_temp.bin";
+    public static final String MINUTE_RETRY_FILENAME = "minute_retry.bin";
+    public static final String HOURLY_RETRY_FILENAME = "hourly_retry.bin";
+    public static final String DAILY_RETRY_FILENAME = "daily_retry.bin";
+    public static final String FLUSHED_PERIODS_FILENAME = "flushed_periods.bin";
+    static final int MAX_WRITE_ATTEMPTS = 3;
     private final String dataFolder;
-    private final ConcurrentHashMap<AggregationKey, AggregationValue> minute;
-    private final ConcurrentHashMap<AggregationKey, AggregationValue> hourly;
-    private final ConcurrentHashMap<AggregationKey, AggregationValue> daily;
+    private final PinIdRegistry pinIds;
+    private final AggregationTable minute;
+    private final AggregationTable hourly;
+    private final AggregationTable daily;
+    //drained entries that are not written yet -> last drained period, indexed by granularity ordinal
+    private final List<IdentityHashMap<Map<AggregationKey, AggregationValue>, Long>> pending;
+    //entries that failed to write and wait for next drain, indexed by granularity ordinal
+    private final List<Map<AggregationKey, AggregationValue>> retries;
+    //failed writes of entry that is retried, indexed by granularity ordinal
+    private final List<Map<AggregationKey, Integer>> writeAttempts;
+    //last period per granularity that was written to storage
+    private final long[] flushedPeriods;
 
     public AverageAggregatorProcessor(String dataFolder) {
         this.dataFolder = dataFolder;
+        this.pinIds = new PinIdRegistry();
+        this.minute = new AggregationTable();
+        this.hourly = new AggregationTable();
+        this.daily = new AggregationTable();
+        GraphGranularityType[] types = GraphGranularityType.values();
+        this.pending = new ArrayList<>(types.length);
+        this.retries = new ArrayList<>(types.length);
+        this.writeAttempts = new ArrayList<>(types.length);
+        for (int i = 0; i < types.length; i++) {
+            pending.add(new IdentityHashMap<>());
+            retries.add(new HashMap<>());
+            writeAttempts.add(new HashMap<>());
+        }
+        this.flushedPeriods = readFlushedPeriods(Paths.get(dataFolder, FLUSHED_PERIODS_FILENAME), types.length);
 
-        Path path;
+        long start = System.currentTimeMillis();
+        Arrays.stream(GraphGranularityType.values()).parallel().forEach(this::restore);
+        if (minute.size() + hourly.size() + daily.size() > 0) {
+            log.info("Restored aggregation checkpoint. Minute : {}, hourly : {}, daily : {}. Time : {} ms.",
+                    minute.size(), hourly.size(), daily.size(), System.currentTimeMillis() - start);
+        }
+    }
 
-        path = Paths.get(dataFolder, MINUTE_TEMP_FILENAME);
-        this.minute = read(path);
-        FileUtils.deleteQuietly(path);
+    private static String getCheckpointFileName(GraphGranularityType type) {
+        switch (type) {
+            case MINUTE :
+                return MINUTE_TEMP_FILENAME;
+            case HOURLY :
+                return HOURLY_TEMP_FILENAME;
+            default :
+                return DAILY_TEMP_FILENAME;
+        }
+    }
 
-        path = Paths.get(dataFolder, HOURLY_TEMP_FILENAME);
-        this.hourly = read(path);
-        FileUtils.deleteQuietly(path);
+    private static String getRetryFileName(GraphGranularityType type) {
+        switch (type) {
+            case MINUTE :
+                return MINUTE_RETRY_FILENAME;
+            case HOURLY :
+                return HOURLY_RETRY_FILENAME;
+            default :
+                return DAILY_RETRY_FILENAME;
+        }
+    }
+
+    private static long[] readFlushedPeriods(Path path, int typesCount) {
+        long[] periods = new long[typesCount];
+        Arrays.fill(periods, -1);
+        if (Files.exists(path)) {
+            try (DataInputStream dis = new DataInputStream(Files.newInputStream(path))) {
+                for (int i = 0; i < typesCount; i++) {
+                    periods[i] = dis.readLong();
+                }
+            } catch (IOException e) {
+                log.error("Error reading flushed reporting periods {}.", path, e);
+            }
+        }
+        return periods;
+    }
 
-        path = Paths.get(dataFolder, DAILY_TEMP_FILENAME);
-        this.daily = read(path);
+    private void writeFlushedPeriods() throws IOException {
+        Path path = Paths.get(dataFolder, FLUSHED_PERIODS_FILENAME);
+        Path tmp = path.resolveSibling(FLUSHED_PERIODS_FILENAME + ".tmp");
+        try (DataOutputStream dos = new DataOutputStream(Files.newOutputStream(tmp))) {
+            for (long period : flushedPeriods) {
+                dos.writeLong(period);
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads checkpoints and removes them, so same data is never restored twice.
+     * Entries of periods that are already written to storage are skipped, except entries that failed to write.
+     */
+    private void restore(GraphGranularityType type) {
+        AggregationTable table = getTable(type);
+        Path retryPath = Paths.get(dataFolder, getRetryFileName(type));
+        if (Files.exists(retryPath)) {
+            try {
+                //failed entries are drained with next flush, as their periods are finished
+                AggregationCheckpoint.read(retryPath, table, pinIds, -1);
+            } catch (Exception e) {
+                log.error("Error restoring aggregation checkpoint {}.", retryPath, e);
+            }
+            FileUtils.deleteQuietly(retryPath);
+        }
+
+        Path path = Paths.get(dataFolder, getCheckpointFileName(type));
+        if (Files.notExists(path)) {
+            return;
+        }
+
+        long flushedPeriod = flushedPeriods[type.ordinal()];
+        try {
+            if (AggregationCheckpoint.isLegacy(path)) {
+                for (Map.Entry<AggregationKey, AggregationValue> entry : read(path).entrySet()) {
+                    if (entry.getKey().ts > flushedPeriod) {
+                        AggregationValue value = entry.getValue();
+                        int pinId = pinIds.getId(entry.getKey().getBaseReportingKey());
+                        table.add(pinId, entry.getKey().ts, value.getValues(), value.getCount());
+                    }
+                }
+            } else {
+                AggregationCheckpoint.read(path, table, pinIds, flushedPeriod);
+            }
+        } catch (Exception e) {
+            log.error("Error restoring aggregation checkpoint {}.", path, e);
+        }
         FileUtils.deleteQuietly(path);
     }
 
-    private static void aggregate(Map<AggregationKey, AggregationValue> map, AggregationKey key, double value) {
-        AggregationValue aggregationValue = map.get(key);
-        if (aggregationValue == null) {
-            final AggregationValue aggregationValueTmp = new AggregationValue();
-            aggregationValue = map.putIfAbsent(key, aggregationValueTmp);
-            if (aggregationValue == null) {
-                aggregationValue = aggregationValueTmp;
+    /**
+     * Stores all current aggregations and drained but not yet written entries to disk.
+     * Granularities are written in parallel. Called periodically, so crash loses only data
+     * collected after last checkpoint. Runs under same lock as {@link #drain}, so every entry
+     * is either in the table, in pending entries or waits for retry.
+     */
+    public synchronized void checkpoint() {
+        Arrays.stream(GraphGranularityType.values()).parallel().forEach(type -> {
+            Path path = Paths.get(dataFolder, getCheckpointFileName(type));
+            try {
+                AggregationTable copy = getTable(type).copy();
+                Map<AggregationKey, Integer> attempts = writeAttempts.get(type.ordinal());
+                for (Map<AggregationKey, AggregationValue> drained : pending.get(type.ordinal()).keySet()) {
+                    for (Map.Entry<AggregationKey, AggregationValue> entry : drained.entrySet()) {
+                        AggregationKey key = entry.getKey();
+                        if (!attempts.containsKey(key)) {
+                            add(copy, key, entry.getValue());
+                        }
+                    }
+                }
+                AggregationCheckpoint.write(path, copy, pinIds);
+            } catch (Exception e) {
+                log.error("Error writing aggregation checkpoint {}.", path, e);
             }
+            writeRetryCheckpoint(type);
+        });
+    }
+
+    /**
+     * Stores entries that failed to write, both waiting for next drain and drained again.
+     */
+    private void writeRetryCheckpoint(GraphGranularityType type) {
+        Path path = Paths.get(dataFolder, getRetryFileName(type));
+        try {
+            AggregationTable copy = new AggregationTable();
+            Map<AggregationKey, Integer> attempts = writeAttempts.get(type.ordinal());
+            if (!attempts.isEmpty()) {
+                for (Map<AggregationKey, AggregationValue> drained : pending.get(type.ordinal()).keySet()) {
+                    for (Map.Entry<AggregationKey, AggregationValue> entry : drained.entrySet()) {
+                        if (attempts.containsKey(entry.getKey())) {
+                            add(copy, entry.getKey(), entry.getValue());
+                        }
+                    }
+                }
+            }
+            for (Map.Entry<AggregationKey, AggregationValue> entry : retries.get(type.ordinal()).entrySet()) {
+                add(copy, entry.getKey(), entry.getValue());
+            }
+            AggregationCheckpoint.write(path, copy, pinIds);
+        } catch (Exception e) {
+            log.error("Error writing aggregation checkpoint {}.", path, e);
         }
+    }
 
-        aggregationValue.update(value);
+    private void add(AggregationTable table, AggregationKey key, AggregationValue value) {
+        table.add(pinIds.getId(key.getBaseReportingKey()), key.ts, value.getValues(), value.getCount());
     }
 
     public void collect(BaseReportingKey baseReportingKey, long ts, double val) {
-        aggregate(minute, new AggregationKey(baseReportingKey, ts / MINUTE), val);
-        aggregate(hourly, new AggregationKey(baseReportingKey, ts / HOUR), val);
-        aggregate(daily, new AggregationKey(baseReportingKey, ts / DAY), val);
+        int pinId = pinIds.getId(baseReportingKey);
+        minute.aggregate(pinId, ts / MINUTE, val);
+        hourly.aggregate(pinId, ts / HOUR, val);
+        daily.aggregate(pinId, ts / DAY, val);
     }
 
-    public ConcurrentHashMap<AggregationKey, AggregationValue> getMinute() {
-        return minute;
+    private AggregationTable getTable(GraphGranularityType type) {
+        switch (type) {
+            case MINUTE :
+                return minute;
+            case HOURLY :
+                return hourly;
+            default :
+                return daily;
+        }
     }
 
-    public ConcurrentHashMap<AggregationKey, AggregationValue> getHourly() {
-        return hourly;
+    /**
+     * Removes all aggregated entries of given granularity that belong to finished periods.
+     * Removed entries are kept within checkpoints till {@link #flushed} is called for them.
+     *
+     * @param type - type of reporting. Could be minute, hourly, daily.
+     * @param nowTruncatedToPeriod - current period. Entries of this period are kept.
+     * @return - removed entries.
+     */
+    public synchronized Map<AggregationKey, AggregationValue> drain(GraphGranularityType type,
+                                                                    long nowTruncatedToPeriod) {
+        Map<AggregationKey, AggregationValue> result = new HashMap<>();
+        //same key may have 2 ids for a moment after release, see PinIdRegistry
+        getTable(type).drain(nowTruncatedToPeriod, (pinId, period, sum, count) ->
+                result.merge(new AggregationKey(pinIds.getKey(pinId), period), new AggregationValue(sum, count),
+                        AverageAggregatorProcessor::merge)
+        );
+        Map<AggregationKey, AggregationValue> failed = retries.get(type.ordinal());
+        if (!failed.isEmpty()) {
+            failed.forEach((key, value) -> result.merge(key, value, AverageAggregatorProcessor::merge));
+            failed.clear();
+        }
+        if (!result.isEmpty()) {
+            pending.get(type.ordinal()).put(result, nowTruncatedToPeriod - 1);
+            //every collected value has daily entry, so pin may become unused only when daily entries are drained
+            if (type == GraphGranularityType.DAILY) {
+                releaseUnusedPins();
+            }
+        }
+        return result;
+    }
+
+    private static AggregationValue merge(AggregationValue prev, AggregationValue next) {
+        return new AggregationValue(prev.getValues() + next.getValues(), prev.getCount() + next.getCount());
+    }
+
+    private void releaseUnusedPins() {
+        BitSet liveIds = new BitSet();
+        AggregationTable.EntryConsumer marker = (pinId, period, sum, count) -> liveIds.set(pinId);
+        minute.forEach(marker);
+        hourly.forEach(marker);
+        daily.forEach(marker);
+        //entries waiting for retry are checkpointed by pin id as well
+        for (Map<AggregationKey, AggregationValue> failed : retries) {
+            for (AggregationKey key : failed.keySet()) {
+                liveIds.set(pinIds.getId(key.getBaseReportingKey()));
+            }
+        }
+        pinIds.release(liveIds);
+    }
+
+    int pinsCount() {
+        return pinIds.size();
+    }
+
+    /**
+     * Called when entries returned by {@link #drain} are processed, so they are not needed in checkpoints anymore.
+     * Drained periods are marked as written, so they are not restored from older checkpoint after crash.
+     * Entries that were not written are kept for next drain and within retry checkpoints,
+     * entry that failed {@link #MAX_WRITE_ATTEMPTS} times is dropped.
+     *
+     * @param drained - exactly same map as returned by drain
+     * @param failed - drained entries that were not written to storage
+     */
+    public synchronized void flushed(GraphGranularityType type, Map<AggregationKey, AggregationValue> drained,
+                                     Map<AggregationKey, AggregationValue> failed) {
+        Long lastPeriod = pending.get(type.ordinal()).remove(drained);
+        if (lastPeriod == null) {
+            return;
+        }
+
+        Map<AggregationKey, Integer> attempts = writeAttempts.get(type.ordinal());
+        if (!attempts.isEmpty()) {
+            //retried entries that were written now
+            for (AggregationKey key : drained.keySet()) {
+                if (!failed.containsKey(key)) {
+                    attempts.remove(key);
+                }
+            }
+        }
+        if (!failed.isEmpty()) {
+            Map<AggregationKey, AggregationValue> retry = retries.get(type.ordinal());
+            int dropped = 0;
+            for (Map.Entry<AggregationKey, AggregationValue> entry : failed.entrySet()) {
+                AggregationKey key = entry.getKey();
+                if (attempts.merge(key, 1, Integer::sum) < MAX_WRITE_ATTEMPTS) {
+                    retry.merge(key, entry.getValue(), AverageAggregatorProcessor::merge);
+                } else {
+                    attempts.remove(key);
+                    dropped++;
+                }
+            }
+            if (dropped > 0) {
+                log.error("{} {} reporting entries were not written after {} attempts and are dropped.",
+                        dropped, type, MAX_WRITE_ATTEMPTS);
+            }
+            if (dropped < failed.size()) {
+                log.warn("{} {} reporting entries were not written and will be retried.",
+                        failed.size() - dropped, type);
+            }
+            //older checkpoint keeps failed entries with regular ones, that are skipped once period is written
+            writeRetryCheckpoint(type);
+        }
+
+        if (lastPeriod <= flushedPeriods[type.ordinal()]) {
+            return;
+        }
+        flushedPeriods[type.ordinal()] = lastPeriod;
+        try {
+            writeFlushedPeriods();
+        } catch (IOException e) {
+            log.error("Error storing flushed reporting periods.", e);
+        }
     }
 
-    public ConcurrentHashMap<AggregationKey, AggregationValue> getDaily() {
-        return daily;
+    private Map<AggregationKey, AggregationValue> snapshot(AggregationTable table) {
+        Map<AggregationKey, AggregationValue> result = new HashMap<>(table.size());
+        table.forEach((pinId, period, sum, count) ->
+                result.put(new AggregationKey(pinIds.getKey(pinId), period), new AggregationValue(sum, count))
+        );
+        return result;
+    }
+
+    /**
+     * @return - copy of current minute aggregations.
+     */
+    public Map<AggregationKey, AggregationValue> getMinute() {
+        return snapshot(minute);
+    }
+
+    /**
+     * @return - copy of current hourly aggregations.
+     */
+    public Map<AggregationKey, AggregationValue> getHourly() {
+        return snapshot(hourly);
+    }
+
+    /**
+     * @return - copy of current daily aggregations.
+     */
+    public Map<AggregationKey, AggregationValue> getDaily() {
+        return snapshot(daily);
     }
 
     @Override
     public void close() {
-        if (minute.size() > 100_000) {
-            log.info("Too many minute records ({}). This may cause performance issues on server start. Skipping.", minute.size());
-        } else {
-            write(Paths.get(dataFolder, MINUTE_TEMP_FILENAME), minute);
-        }
-        write(Paths.get(dataFolder, HOURLY_TEMP_FILENAME), hourly);
-        write(Paths.get(dataFolder, DAILY_TEMP_FILENAME), daily);
+        checkpoint();
     }
 
 }
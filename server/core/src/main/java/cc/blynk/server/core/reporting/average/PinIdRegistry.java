@@ -0,0 +1,90 @@
+package cc.blynk.server.core.reporting.average;
+
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns reporting keys (user, dash, device, pin) into int handles,
+ * so aggregation tables could operate with primitive keys only.
+ * Ids start from 1, 0 is never assigned.
+ *
+ * Keys without aggregated entries are removed with {@link #release}. Id of removed key is reused
+ * only after next release, as value collected right before removal may still be written with that id.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 30.08.17.
+ */
+final class PinIdRegistry {
+
+    private final ConcurrentHashMap<BaseReportingKey, Integer> ids = new ConcurrentHashMap<>();
+    private volatile BaseReportingKey[] keys = new BaseReportingKey[1024];
+    private int lastId;
+    //ids removed from the map on previous release, key is still resolvable for them
+    private final BitSet retired = new BitSet();
+    private int[] freeIds = new int[16];
+    private int freeIdsCount;
+
+    int getId(BaseReportingKey key) {
+        Integer id = ids.get(key);
+        if (id == null) {
+            return register(key);
+        }
+        return id;
+    }
+
+    BaseReportingKey getKey(int id) {
+        return keys[id];
+    }
+
+    int size() {
+        return ids.size();
+    }
+
+    /**
+     * Removes keys which ids have no entries in aggregation tables.
+     *
+     * @param liveIds - ids that still have entries
+     */
+    synchronized void release(BitSet liveIds) {
+        BaseReportingKey[] keys = this.keys;
+        for (int id = retired.nextSetBit(0); id >= 0; id = retired.nextSetBit(id + 1)) {
+            if (!liveIds.get(id)) {
+                keys[id] = null;
+                retired.clear(id);
+                if (freeIdsCount == freeIds.length) {
+                    freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+                }
+                freeIds[freeIdsCount++] = id;
+            }
+        }
+        for (int id = 1; id <= lastId; id++) {
+            BaseReportingKey key = keys[id];
+            if (key != null && !liveIds.get(id) && !retired.get(id) && ids.remove(key, id)) {
+                retired.set(id);
+            }
+        }
+    }
+
+    private synchronized int register(BaseReportingKey key) {
+        Integer id = ids.get(key);
+        if (id != null) {
+            return id;
+        }
+
+        int newId = freeIdsCount > 0 ? freeIds[--freeIdsCount] : ++lastId;
+        BaseReportingKey[] keys = this.keys;
+        if (newId == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+        }
+        keys[newId] = key;
+        //volatile write publishes new key before id becomes visible
+        this.keys = keys;
+        ids.put(key, newId);
+        return newId;
+    }
+
+}
@@ -0,0 +1,85 @@
+package cc.blynk.server.core.reporting.raw;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.StampedLock;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+
+/**
+ * Fixed size ring of (value, ts) points stored in primitive arrays.
+ * Pin is usually updated from single event loop, so write lock is never contended.
+ * Readers don't lock at all - they copy data optimistically and retry only
+ * in case ring was updated during copy.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 31.08.17.
+ */
+final class GraphValueRing {
+
+    private final double[] values;
+    private final long[] timestamps;
+    private final StampedLock lock = new StampedLock();
+    //total number of points ever written
+    private long written;
+
+    GraphValueRing(int capacity) {
+        this.values = new double[capacity];
+        this.timestamps = new long[capacity];
+    }
+
+    void add(double value, long ts) {
+        long stamp = lock.writeLock();
+        try {
+            int index = (int) (written % values.length);
+            values[index] = value;
+            timestamps[index] = ts;
+            written++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Copies last count points before skipCount most recent points
+     * into buffer in report entry format, oldest first.
+     *
+     * @return - filled buffer or null if there are no points within requested range.
+     */
+    ByteBuffer read(int count, int skipCount) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            ByteBuffer result = copy(count, skipCount);
+            if (lock.validate(stamp)) {
+                return result;
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            return copy(count, skipCount);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private ByteBuffer copy(int count, int skipCount) {
+        long written = this.written;
+        int size = (int) Math.min(written, values.length);
+        int diff = size - (count + skipCount);
+        int expectedResultSize = diff < 0 ? count + diff : count;
+        if (expectedResultSize <= 0) {
+            return null;
+        }
+
+        ByteBuffer byteBuffer = ByteBuffer.allocate(expectedResultSize * SIZE_OF_REPORT_ENTRY);
+        long seq = written - size + Math.max(0, diff);
+        for (int i = 0; i < expectedResultSize; i++, seq++) {
+            int index = (int) (seq % values.length);
+            byteBuffer.putDouble(values[index])
+                      .putLong(timestamps[index]);
+        }
+        return byteBuffer;
+    }
+
+}
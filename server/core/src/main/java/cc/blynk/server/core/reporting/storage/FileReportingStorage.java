@@ -0,0 +1,228 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.utils.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static cc.blynk.server.core.dao.ReportingDao.generateFilename;
+
+/**
+ * Default reporting storage. Keeps separate "history_*.bin" file for every pin and granularity
+ * within user reporting folder.
+ *
+ * Old entries of file are moved into compressed "history_*.cbin" file with {@link #compact()},
+ * see {@link HistoryBlockFile}. Both formats are read transparently. Appends and reads of file
+ * are not blocked by each other, only conversion of file blocks them.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 28.08.17.
+ */
+public class FileReportingStorage implements ReportingStorage {
+
+    private static final Logger log = LogManager.getLogger(FileReportingStorage.class);
+
+    private static final int LOCKS_COUNT = 64;
+
+    private final String dataFolder;
+    //shared for appends and reads, exclusive for conversion
+    private final ReentrantReadWriteLock[] locks;
+
+    public FileReportingStorage(String dataFolder) {
+        this.dataFolder = dataFolder;
+        this.locks = new ReentrantReadWriteLock[LOCKS_COUNT];
+        for (int i = 0; i < LOCKS_COUNT; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    private ReentrantReadWriteLock getLock(Path filePath) {
+        return locks[(filePath.hashCode() & Integer.MAX_VALUE) % LOCKS_COUNT];
+    }
+
+    @Override
+    public void write(String email, String appName, int dashId, int deviceId, char pinType, byte pin,
+                      GraphGranularityType type, double value, long ts) throws IOException {
+        Path userReportFolder = Paths.get(dataFolder, FileUtils.getUserReportingDir(email, appName));
+        if (Files.notExists(userReportFolder)) {
+            Files.createDirectories(userReportFolder);
+        }
+
+        Path filePath = userReportFolder.resolve(generateFilename(dashId, deviceId, pinType, pin, type));
+        Lock lock = getLock(filePath).readLock();
+        lock.lock();
+        try {
+            FileUtils.write(filePath, value, ts);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void write(String email, String appName, int dashId, int deviceId, char pinType, byte pin,
+                      GraphGranularityType type, ByteBuffer entries) throws IOException {
+        Path filePath = Paths.get(
+                dataFolder,
+                FileUtils.getUserReportingDir(email, appName),
+                generateFilename(dashId, deviceId, pinType, pin, type)
+        );
+        Lock lock = getLock(filePath).readLock();
+        lock.lock();
+        try {
+            //user folder exists almost always, so creating it only when write fails
+            try {
+                FileUtils.write(filePath, entries);
+            } catch (NoSuchFileException e) {
+                Files.createDirectories(filePath.getParent());
+                FileUtils.write(filePath, entries);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public ByteBuffer read(String email, String appName, int dashId, int deviceId, char pinType, byte pin,
+                           GraphGranularityType type, int count, int skip) throws IOException {
+        Path userDataFile = Paths.get(
+                dataFolder,
+                FileUtils.getUserReportingDir(email, appName),
+                generateFilename(dashId, deviceId, pinType, pin, type)
+        );
+        Lock lock = getLock(userDataFile).readLock();
+        lock.lock();
+        try {
+            Path blocksFile = HistoryBlockFile.blocksPath(userDataFile);
+            if (Files.exists(blocksFile)) {
+                return HistoryBlockFile.read(userDataFile, blocksFile, count, skip);
+            }
+            if (Files.exists(userDataFile)) {
+                return FileUtils.read(userDataFile, count, skip);
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public ByteBuffer readView(String email, String appName, int dashId, int deviceId, char pinType, byte pin,
+                               GraphGranularityType type, int count, int skip) throws IOException {
+        Path userDataFile = Paths.get(
+                dataFolder,
+                FileUtils.getUserReportingDir(email, appName),
+                generateFilename(dashId, deviceId, pinType, pin, type)
+        );
+        Lock lock = getLock(userDataFile).readLock();
+        lock.lock();
+        try {
+            Path blocksFile = HistoryBlockFile.blocksPath(userDataFile);
+            if (Files.exists(blocksFile)) {
+                //compressed entries can't be mapped, so they are decoded into heap
+                ByteBuffer buf = HistoryBlockFile.read(userDataFile, blocksFile, count, skip);
+                if (buf == null) {
+                    return null;
+                }
+                buf.flip();
+                return buf.asReadOnlyBuffer();
+            }
+            //mapping stays valid when file is replaced or removed by conversion
+            if (Files.exists(userDataFile)) {
+                return FileUtils.map(userDataFile, count, skip);
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void delete(String email, String appName, int dashId, int deviceId, char pinType, byte pin) {
+        Path userReportFolder = Paths.get(dataFolder, FileUtils.getUserReportingDir(email, appName));
+        for (GraphGranularityType type : GraphGranularityType.values()) {
+            Path filePath = userReportFolder.resolve(generateFilename(dashId, deviceId, pinType, pin, type));
+            Lock lock = getLock(filePath).writeLock();
+            lock.lock();
+            try {
+                FileUtils.deleteQuietly(filePath);
+                FileUtils.deleteQuietly(HistoryBlockFile.blocksPath(filePath));
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Moves whole blocks of raw entries of all reporting files into compressed files.
+     * Files with less than {@link HistoryBlockFile#BLOCK_ENTRIES} raw entries are not touched.
+     */
+    @Override
+    public void compact() {
+        long start = System.currentTimeMillis();
+        int filesCount = 0;
+        long entriesCount = 0;
+        try (DirectoryStream<Path> userFolders = Files.newDirectoryStream(Paths.get(dataFolder), Files::isDirectory)) {
+            for (Path userFolder : userFolders) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(userFolder, "history_*.bin")) {
+                    for (Path file : files) {
+                        try {
+                            int converted = compact(file);
+                            if (converted > 0) {
+                                filesCount++;
+                                entriesCount += converted;
+                            }
+                        } catch (Exception e) {
+                            log.error("Error compressing reporting file {}.", file, e);
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error compressing reporting files.", e);
+        }
+        if (filesCount > 0) {
+            log.info("Compressed {} entries of {} reporting files. Time : {} ms.",
+                    entriesCount, filesCount, System.currentTimeMillis() - start);
+        }
+    }
+
+    int compact(Path file) throws IOException {
+        //size is checked without lock, so most of files are skipped cheaply
+        long size;
+        try {
+            size = Files.size(file);
+        } catch (NoSuchFileException e) {
+            //file was removed concurrently, nothing to compact
+            return 0;
+        }
+        if (size < HistoryBlockFile.BLOCK_ENTRIES * FileUtils.SIZE_OF_REPORT_ENTRY) {
+            return 0;
+        }
+        Lock lock = getLock(file).writeLock();
+        lock.lock();
+        try {
+            if (Files.notExists(file)) {
+                return 0;
+            }
+            return HistoryBlockFile.convert(file, HistoryBlockFile.blocksPath(file));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+}
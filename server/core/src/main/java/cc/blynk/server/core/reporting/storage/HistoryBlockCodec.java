@@ -0,0 +1,218 @@
+package cc.blynk.server.core.reporting.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+
+/**
+ * Encodes block of reporting entries (value and timestamp) same way as Facebook Gorilla does.
+ *
+ * First entry is stored as is. Every next timestamp is stored as difference between its delta
+ * and previous delta (delta-of-delta), so regular minute/hour/day timestamps take 1 bit.
+ * Every next value is stored as XOR with previous value, only meaningful bits of XOR are written,
+ * so same value takes 1 bit and close values take few bits.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 19.09.17.
+ */
+final class HistoryBlockCodec {
+
+    private HistoryBlockCodec() {
+    }
+
+    /**
+     * @param entries - buffer with entries, not modified
+     * @param offset - absolute position of first entry to encode
+     * @param count - number of entries to encode, at least 1
+     * @return - encoded entries, array of exact size
+     */
+    static byte[] encode(ByteBuffer entries, int offset, int count) {
+        BitOutput out = new BitOutput(count * 2 + 16);
+
+        long prevBits = Double.doubleToRawLongBits(entries.getDouble(offset));
+        long prevTs = entries.getLong(offset + 8);
+        out.write(prevBits, 64);
+        out.write(prevTs, 64);
+
+        long prevDelta = 0;
+        int prevLeading = -1;
+        int prevTrailing = 0;
+        for (int i = 1; i < count; i++) {
+            int position = offset + i * SIZE_OF_REPORT_ENTRY;
+
+            long ts = entries.getLong(position + 8);
+            long delta = ts - prevTs;
+            writeDeltaOfDelta(out, delta - prevDelta);
+            prevDelta = delta;
+            prevTs = ts;
+
+            long bits = Double.doubleToRawLongBits(entries.getDouble(position));
+            long xor = bits ^ prevBits;
+            prevBits = bits;
+            if (xor == 0) {
+                out.write(0, 1);
+                continue;
+            }
+            //leading zeros are stored with 5 bits
+            int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (prevLeading != -1 && leading >= prevLeading && trailing >= prevTrailing) {
+                //meaningful bits fit into window of previous value
+                out.write(0b10, 2);
+                out.write(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+            } else {
+                int meaningful = 64 - leading - trailing;
+                out.write(0b11, 2);
+                out.write(leading, 5);
+                out.write(meaningful - 1, 6);
+                out.write(xor >>> trailing, meaningful);
+                prevLeading = leading;
+                prevTrailing = trailing;
+            }
+        }
+        return out.toArray();
+    }
+
+    private static void writeDeltaOfDelta(BitOutput out, long dod) {
+        if (dod == 0) {
+            out.write(0, 1);
+        } else if (dod >= -64 && dod <= 63) {
+            out.write(0b10, 2);
+            out.write(dod, 7);
+        } else if (dod >= -2048 && dod <= 2047) {
+            out.write(0b110, 3);
+            out.write(dod, 12);
+        } else if (dod >= Integer.MIN_VALUE && dod <= Integer.MAX_VALUE) {
+            out.write(0b1110, 4);
+            out.write(dod, 32);
+        } else {
+            out.write(0b1111, 4);
+            out.write(dod, 64);
+        }
+    }
+
+    /**
+     * Decodes first entries of encoded block.
+     *
+     * @param block - encoded entries from position till limit, not modified
+     * @param count - number of entries to decode, not more than encoded
+     * @param out - buffer for decoded entries, count * 16 bytes should be remaining
+     */
+    static void decode(ByteBuffer block, int count, ByteBuffer out) {
+        if (count <= 0) {
+            return;
+        }
+        BitInput in = new BitInput(block);
+
+        long bits = in.read(64);
+        long ts = in.read(64);
+        out.putDouble(Double.longBitsToDouble(bits))
+           .putLong(ts);
+
+        long delta = 0;
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 1; i < count; i++) {
+            delta += readDeltaOfDelta(in);
+            ts += delta;
+
+            if (in.readBit()) {
+                if (in.readBit()) {
+                    leading = (int) in.read(5);
+                    int meaningful = (int) in.read(6) + 1;
+                    trailing = 64 - leading - meaningful;
+                }
+                bits ^= in.read(64 - leading - trailing) << trailing;
+            }
+            out.putDouble(Double.longBitsToDouble(bits))
+               .putLong(ts);
+        }
+    }
+
+    private static long readDeltaOfDelta(BitInput in) {
+        if (!in.readBit()) {
+            return 0;
+        }
+        if (!in.readBit()) {
+            return signed(in.read(7), 7);
+        }
+        if (!in.readBit()) {
+            return signed(in.read(12), 12);
+        }
+        if (!in.readBit()) {
+            return signed(in.read(32), 32);
+        }
+        return in.read(64);
+    }
+
+    private static long signed(long value, int bits) {
+        return (value << (64 - bits)) >> (64 - bits);
+    }
+
+    private static final class BitOutput {
+
+        private byte[] bytes;
+        private int bitPosition;
+
+        BitOutput(int initialSize) {
+            this.bytes = new byte[initialSize];
+        }
+
+        /**
+         * Writes lowest bits of value, most significant bit first.
+         */
+        void write(long value, int bits) {
+            int requiredSize = (bitPosition + bits + 7) >>> 3;
+            if (requiredSize > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(requiredSize, bytes.length * 2));
+            }
+            while (bits > 0) {
+                int free = 8 - (bitPosition & 7);
+                int n = Math.min(free, bits);
+                int chunk = (int) (value >>> (bits - n)) & ((1 << n) - 1);
+                bytes[bitPosition >>> 3] |= chunk << (free - n);
+                bitPosition += n;
+                bits -= n;
+            }
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(bytes, (bitPosition + 7) >>> 3);
+        }
+    }
+
+    private static final class BitInput {
+
+        private final ByteBuffer buf;
+        private final int start;
+        private int bitPosition;
+
+        BitInput(ByteBuffer buf) {
+            this.buf = buf;
+            this.start = buf.position();
+        }
+
+        boolean readBit() {
+            int b = buf.get(start + (bitPosition >>> 3));
+            boolean bit = ((b >>> (7 - (bitPosition & 7))) & 1) == 1;
+            bitPosition++;
+            return bit;
+        }
+
+        long read(int bits) {
+            long result = 0;
+            while (bits > 0) {
+                int b = buf.get(start + (bitPosition >>> 3)) & 0xFF;
+                int available = 8 - (bitPosition & 7);
+                int n = Math.min(available, bits);
+                result = (result << n) | ((b >>> (available - n)) & ((1 << n) - 1));
+                bitPosition += n;
+                bits -= n;
+            }
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,306 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.utils.FileUtils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Compressed format of "history_*.bin" file. Old entries of series are kept within "history_*.cbin" file
+ * as blocks of {@link #BLOCK_ENTRIES} entries encoded with {@link HistoryBlockCodec}. Newest entries
+ * that don't fill whole block yet stay within raw "history_*.bin" file, so appends are not changed.
+ *
+ * Every block is preceded by size of encoded block (int) and followed by its index entry : timestamp of
+ * last entry (long), number of entries (int) and size of encoded block (int). So reading of last entries
+ * walks blocks from the end of file and decodes only blocks that contain requested entries, while
+ * {@link #convert} walks blocks from the start of file to find where last whole block ends.
+ *
+ * Raw entries are moved into blocks with {@link #convert}. Blocks are appended first and only after that
+ * raw file is replaced with its tail, so crash between these steps leaves whole blocks of entries in both
+ * files. Next conversion finds them by comparing head of raw file with last blocks and removes them.
+ * Crash during append leaves torn block at the end of blocks file, it is cut off by next conversion.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 19.09.17.
+ */
+public final class HistoryBlockFile {
+
+    public static final int BLOCK_ENTRIES = 1024;
+    public static final String EXTENSION = ".cbin";
+
+    private static final int BLOCK_HEADER_SIZE = 4;
+    private static final int INDEX_ENTRY_SIZE = 16;
+
+    private HistoryBlockFile() {
+    }
+
+    /**
+     * @return - path of blocks file for given raw "history_*.bin" file
+     */
+    public static Path blocksPath(Path rawFile) {
+        String name = rawFile.getFileName().toString();
+        if (name.endsWith(".bin")) {
+            name = name.substring(0, name.length() - 4);
+        }
+        return rawFile.resolveSibling(name + EXTENSION);
+    }
+
+    /**
+     * Reads bunch of last records of series stored within blocks file and raw file.
+     * Uses same semantic as {@link FileUtils#read(Path, int, int)}.
+     *
+     * @return - filled (not flipped) byte buffer with data or null if there is no data
+     */
+    public static ByteBuffer read(Path rawFile, Path blocksFile, int count, int skip) throws IOException {
+        int rawEntries = Files.exists(rawFile) ? (int) (Files.size(rawFile) / SIZE_OF_REPORT_ENTRY) : 0;
+        int fromRaw = Math.max(0, Math.min(count, rawEntries - skip));
+
+        List<ByteBuffer> blocks = new ArrayList<>();
+        int size = fromRaw * SIZE_OF_REPORT_ENTRY;
+        if (count > fromRaw && Files.exists(blocksFile)) {
+            size += readBlocks(blocksFile, count - fromRaw, Math.max(0, skip - rawEntries), blocks);
+        }
+        if (size == 0) {
+            return null;
+        }
+
+        ByteBuffer result = ByteBuffer.allocate(size);
+        //blocks are collected from the end
+        for (int i = blocks.size() - 1; i >= 0; i--) {
+            result.put(blocks.get(i));
+        }
+        if (fromRaw > 0) {
+            //position is taken from size read above, so concurrent appends don't shift entries
+            try (FileChannel channel = FileChannel.open(rawFile, READ)) {
+                ByteBuffer raw = result.slice();
+                readFully(channel, raw, (long) (rawEntries - skip - fromRaw) * SIZE_OF_REPORT_ENTRY);
+            }
+            result.position(size);
+        }
+        return result;
+    }
+
+    /**
+     * Decodes blocks with requested entries, starting from the last block.
+     *
+     * @param blocks - collects flipped buffers with decoded entries, last entries go first
+     * @return - size of all decoded entries
+     */
+    private static int readBlocks(Path blocksFile, int count, int skip, List<ByteBuffer> blocks) throws IOException {
+        int size = 0;
+        try (FileChannel channel = FileChannel.open(blocksFile, READ)) {
+            ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+            long end = channel.size();
+            while (count > 0 && end >= INDEX_ENTRY_SIZE) {
+                readFully(channel, indexEntry, end - INDEX_ENTRY_SIZE);
+                int entries = indexEntry.getInt(8);
+                int length = indexEntry.getInt(12);
+                long start = end - INDEX_ENTRY_SIZE - length - BLOCK_HEADER_SIZE;
+                if (entries <= 0 || length <= 0 || start < 0) {
+                    throw new IOException("Corrupted history block in " + blocksFile);
+                }
+
+                if (skip >= entries) {
+                    skip -= entries;
+                } else {
+                    int to = entries - skip;
+                    int from = Math.max(0, to - count);
+                    ByteBuffer block = ByteBuffer.allocate(length);
+                    readFully(channel, block, start + BLOCK_HEADER_SIZE);
+                    ByteBuffer decoded = ByteBuffer.allocate(to * SIZE_OF_REPORT_ENTRY);
+                    //entries are encoded one after another, so decoding stops at last requested entry
+                    HistoryBlockCodec.decode(block, to, decoded);
+                    decoded.position(from * SIZE_OF_REPORT_ENTRY);
+                    blocks.add(decoded);
+                    size += decoded.remaining();
+                    count -= to - from;
+                    skip = 0;
+                }
+                end = start;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Moves all whole blocks of raw entries into blocks file. Caller should make sure
+     * there are no writes to both files during conversion.
+     *
+     * @return - number of entries moved into blocks file
+     */
+    public static int convert(Path rawFile, Path blocksFile) throws IOException {
+        ByteBuffer raw = ByteBuffer.wrap(Files.readAllBytes(rawFile));
+        int rawEntries = raw.capacity() / SIZE_OF_REPORT_ENTRY;
+        if (rawEntries < BLOCK_ENTRIES) {
+            return 0;
+        }
+
+        int first;
+        int blocksCount;
+        try (FileChannel channel = FileChannel.open(blocksFile, CREATE, READ, WRITE)) {
+            long end = validEnd(channel);
+            if (end < channel.size()) {
+                channel.truncate(end);
+            }
+
+            //entries left after interrupted conversion
+            first = convertedEntries(channel, end, raw, rawEntries / BLOCK_ENTRIES);
+            blocksCount = (rawEntries - first) / BLOCK_ENTRIES;
+
+            if (blocksCount > 0) {
+                List<byte[]> encodedBlocks = new ArrayList<>(blocksCount);
+                int size = 0;
+                for (int i = 0; i < blocksCount; i++) {
+                    byte[] encoded = HistoryBlockCodec.encode(raw,
+                            (first + i * BLOCK_ENTRIES) * SIZE_OF_REPORT_ENTRY, BLOCK_ENTRIES);
+                    encodedBlocks.add(encoded);
+                    size += BLOCK_HEADER_SIZE + encoded.length + INDEX_ENTRY_SIZE;
+                }
+
+                ByteBuffer out = ByteBuffer.allocate(size);
+                for (int i = 0; i < blocksCount; i++) {
+                    byte[] encoded = encodedBlocks.get(i);
+                    int lastEntry = first + (i + 1) * BLOCK_ENTRIES - 1;
+                    out.putInt(encoded.length)
+                       .put(encoded)
+                       .putLong(raw.getLong(lastEntry * SIZE_OF_REPORT_ENTRY + 8))
+                       .putInt(BLOCK_ENTRIES)
+                       .putInt(encoded.length);
+                }
+                out.flip();
+                while (out.hasRemaining()) {
+                    channel.write(out, end + out.position());
+                }
+                //blocks should be on disk before raw entries are removed
+                channel.force(false);
+            }
+        }
+
+        int tailStart = (first + blocksCount * BLOCK_ENTRIES) * SIZE_OF_REPORT_ENTRY;
+        if (tailStart == raw.capacity()) {
+            Files.delete(rawFile);
+        } else {
+            Path tmpFile = rawFile.resolveSibling(rawFile.getFileName() + ".tmp");
+            raw.position(tailStart);
+            try (FileChannel channel = FileChannel.open(tmpFile, CREATE, WRITE, TRUNCATE_EXISTING)) {
+                while (raw.hasRemaining()) {
+                    channel.write(raw);
+                }
+                //otherwise rename may reach disk before data and raw entries are lost on power loss
+                channel.force(false);
+            }
+            Files.move(tmpFile, rawFile, ATOMIC_MOVE, REPLACE_EXISTING);
+        }
+        return blocksCount * BLOCK_ENTRIES;
+    }
+
+    /**
+     * Walks blocks from the start of file, as torn block at the end of file can't be parsed backwards.
+     *
+     * @return - position right after last whole block
+     */
+    private static long validEnd(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long end = 0;
+        ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+        ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        while (end + BLOCK_HEADER_SIZE + INDEX_ENTRY_SIZE < size) {
+            readFully(channel, header, end);
+            int length = header.getInt(0);
+            long next = end + BLOCK_HEADER_SIZE + length + INDEX_ENTRY_SIZE;
+            if (length <= 0 || next > size) {
+                break;
+            }
+            readFully(channel, indexEntry, next - INDEX_ENTRY_SIZE);
+            if (indexEntry.getInt(8) <= 0 || indexEntry.getInt(12) != length) {
+                break;
+            }
+            end = next;
+        }
+        return end;
+    }
+
+    /**
+     * Interrupted conversion leaves raw file untouched, so its head is equal to blocks appended last.
+     * Timestamps can't be used for that check, as late values for already written period are appended
+     * with same timestamp, so decoded blocks are compared with raw entries byte by byte.
+     *
+     * @return - number of raw entries from the start of raw file that are already within blocks file
+     */
+    private static int convertedEntries(FileChannel channel, long end,
+                                        ByteBuffer raw, int rawBlocks) throws IOException {
+        //positions of last blocks, last block goes first
+        List<long[]> lastBlocks = new ArrayList<>();
+        ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        while (lastBlocks.size() < rawBlocks && end > 0) {
+            readFully(channel, indexEntry, end - INDEX_ENTRY_SIZE);
+            int entries = indexEntry.getInt(8);
+            int length = indexEntry.getInt(12);
+            if (entries != BLOCK_ENTRIES) {
+                return 0;
+            }
+            long start = end - INDEX_ENTRY_SIZE - length - BLOCK_HEADER_SIZE;
+            lastBlocks.add(new long[] {start + BLOCK_HEADER_SIZE, length, indexEntry.getLong(0)});
+            if (isRawHead(channel, raw, lastBlocks)) {
+                return lastBlocks.size() * BLOCK_ENTRIES;
+            }
+            end = start;
+        }
+        return 0;
+    }
+
+    private static boolean isRawHead(FileChannel channel, ByteBuffer raw, List<long[]> lastBlocks) throws IOException {
+        int blocksCount = lastBlocks.size();
+        //index timestamps are cheap pre-check, so blocks are decoded only for possible match
+        for (int i = 0; i < blocksCount; i++) {
+            long lastTs = raw.getLong(((i + 1) * BLOCK_ENTRIES - 1) * SIZE_OF_REPORT_ENTRY + 8);
+            if (lastBlocks.get(blocksCount - 1 - i)[2] != lastTs) {
+                return false;
+            }
+        }
+
+        int blockSize = BLOCK_ENTRIES * SIZE_OF_REPORT_ENTRY;
+        ByteBuffer decoded = ByteBuffer.allocate(blockSize);
+        for (int i = 0; i < blocksCount; i++) {
+            long[] position = lastBlocks.get(blocksCount - 1 - i);
+            ByteBuffer block = ByteBuffer.allocate((int) position[1]);
+            readFully(channel, block, position[0]);
+            decoded.clear();
+            HistoryBlockCodec.decode(block, BLOCK_ENTRIES, decoded);
+            decoded.flip();
+
+            ByteBuffer rawBlock = raw.duplicate();
+            rawBlock.limit((i + 1) * blockSize).position(i * blockSize);
+            if (!rawBlock.equals(decoded)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        buf.clear();
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) == -1) {
+                throw new EOFException();
+            }
+        }
+        buf.flip();
+    }
+
+}
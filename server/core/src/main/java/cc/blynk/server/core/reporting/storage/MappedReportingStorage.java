@@ -0,0 +1,103 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.utils.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Reporting storage that keeps all series within fixed number of memory-mapped segments (shards).
+ * User is always assigned to the same shard, so number of shards should not be changed
+ * after storage was created.
+ *
+ * Appending entry is a memory write, no file open/close is required. Reading is a copy from mapped
+ * memory straight into result buffer.
+ *
+ * Existing "history_*.bin" files (and their compressed "history_*.cbin" part) are moved into segment
+ * on first access of the series.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 28.08.17.
+ */
+public class MappedReportingStorage implements ReportingStorage {
+
+    private static final Logger log = LogManager.getLogger(MappedReportingStorage.class);
+
+    public static final String SEGMENTS_FOLDER = "segments";
+
+    private final SegmentShard[] shards;
+
+    public MappedReportingStorage(String dataFolder, int shardsCount) {
+        if (shardsCount < 1) {
+            throw new IllegalArgumentException("Reporting storage shards number should be positive.");
+        }
+        Path segmentsFolder = Paths.get(dataFolder, SEGMENTS_FOLDER);
+        this.shards = new SegmentShard[shardsCount];
+        try {
+            Files.createDirectories(segmentsFolder);
+            for (int i = 0; i < shardsCount; i++) {
+                shards[i] = new SegmentShard(segmentsFolder, i, dataFolder);
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException("Error opening reporting segments.", ioe);
+        }
+        log.info("Reporting segments loaded. Series number : {}.", seriesCount());
+    }
+
+    private SegmentShard getShard(String userDir) {
+        return shards[(userDir.hashCode() & Integer.MAX_VALUE) % shards.length];
+    }
+
+    @Override
+    public void write(String email, String appName, int dashId, int deviceId, char pinType, byte pin,
+                      GraphGranularityType type, double value, long ts) throws IOException {
+        String userDir = FileUtils.getUserReportingDir(email, appName);
+        getShard(userDir).append(new SeriesKey(userDir, dashId, deviceId, pinType, pin, type), value, ts);
+    }
+
+    @Override
+    public void write(String email, String appName, int dashId, int deviceId, char pinType, byte pin,
+                      GraphGranularityType type, ByteBuffer entries) throws IOException {
+        String userDir = FileUtils.getUserReportingDir(email, appName);
+        getShard(userDir).append(new SeriesKey(userDir, dashId, deviceId, pinType, pin, type), entries);
+    }
+
+    @Override
+    public ByteBuffer read(String email, String appName, int dashId, int deviceId, char pinType, byte pin,
+                           GraphGranularityType type, int count, int skip) throws IOException {
+        String userDir = FileUtils.getUserReportingDir(email, appName);
+        return getShard(userDir).read(new SeriesKey(userDir, dashId, deviceId, pinType, pin, type), count, skip);
+    }
+
+    @Override
+    public void delete(String email, String appName, int dashId, int deviceId, char pinType, byte pin) {
+        String userDir = FileUtils.getUserReportingDir(email, appName);
+        SegmentShard shard = getShard(userDir);
+        for (GraphGranularityType type : GraphGranularityType.values()) {
+            shard.delete(new SeriesKey(userDir, dashId, deviceId, pinType, pin, type));
+        }
+    }
+
+    public int seriesCount() {
+        int count = 0;
+        for (SegmentShard shard : shards) {
+            count += shard.seriesCount();
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        for (SegmentShard shard : shards) {
+            shard.close();
+        }
+    }
+
+}
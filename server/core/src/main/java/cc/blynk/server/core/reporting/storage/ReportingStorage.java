@@ -0,0 +1,76 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Storage engine for aggregated reporting (history graph) data.
+ * Every stored entry is value (double) and timestamp (long), 16 bytes in total.
+ * Entries are always appended in time order per pin and granularity.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 28.08.17.
+ */
+public interface ReportingStorage extends Closeable {
+
+    /**
+     * Appends single reporting entry for given pin and granularity.
+     */
+    void write(String email, String appName, int dashId, int deviceId, char pinType, byte pin,
+               GraphGranularityType type, double value, long ts) throws IOException;
+
+    /**
+     * Appends bunch of already encoded entries for given pin and granularity at once.
+     * Entries should be sorted by time and buffer should be ready for read (flipped).
+     */
+    void write(String email, String appName, int dashId, int deviceId, char pinType, byte pin,
+               GraphGranularityType type, ByteBuffer entries) throws IOException;
+
+    /**
+     * Reads bunch of last records for given pin and granularity.
+     * Returned buffer is filled (not flipped), same as {@link cc.blynk.utils.FileUtils#read}.
+     *
+     * @param count - number of records to read
+     * @param skip - number of entries to skip from the end
+     * @return - byte buffer with data or null if there is no data
+     */
+    ByteBuffer read(String email, String appName, int dashId, int deviceId, char pinType, byte pin,
+                    GraphGranularityType type, int count, int skip) throws IOException;
+
+    /**
+     * Same records as {@link #read}, but returned buffer is read-only, flipped and may be
+     * a view of storage memory (e.g. mapped file region) instead of heap copy.
+     * Used for big exports, so data is not copied into heap.
+     *
+     * @return - byte buffer with data or null if there is no data
+     */
+    default ByteBuffer readView(String email, String appName, int dashId, int deviceId, char pinType, byte pin,
+                                GraphGranularityType type, int count, int skip) throws IOException {
+        ByteBuffer buf = read(email, appName, dashId, deviceId, pinType, pin, type, count, skip);
+        if (buf == null) {
+            return null;
+        }
+        buf.flip();
+        return buf.asReadOnlyBuffer();
+    }
+
+    /**
+     * Removes all data of all granularities for given pin.
+     */
+    void delete(String email, String appName, int dashId, int deviceId, char pinType, byte pin);
+
+    /**
+     * Background maintenance of stored data, e.g. compression of old entries.
+     * Called periodically from separate thread, does nothing by default.
+     */
+    default void compact() {
+    }
+
+    @Override
+    void close();
+
+}
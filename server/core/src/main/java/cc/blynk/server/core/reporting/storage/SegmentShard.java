@@ -0,0 +1,441 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.utils.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static cc.blynk.server.core.dao.ReportingDao.generateFilename;
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * One memory-mapped segment of reporting storage. Segment holds series of many users.
+ * Consists of 3 files :
+ *
+ * - data file, split into fixed size chunks. Every chunk belongs to one series
+ *   and holds up to {@link #ENTRIES_PER_CHUNK} reporting entries in time order;
+ * - chunks table, 16 bytes header per data chunk : series id, chunk sequence number within series,
+ *   number of entries in chunk. Kept separately so index could be restored on start
+ *   without touching data pages;
+ * - series dictionary, append-only list of series id -> series key records.
+ *
+ * Both data file and chunks table are mapped with regions of {@link #CHUNKS_PER_REGION} chunks,
+ * so file growth doesn't require remapping of existing data.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 28.08.17.
+ */
+final class SegmentShard implements Closeable {
+
+    private static final Logger log = LogManager.getLogger(SegmentShard.class);
+
+    static final int CHUNK_SIZE = 4096;
+    static final int ENTRIES_PER_CHUNK = CHUNK_SIZE / SIZE_OF_REPORT_ENTRY;
+    static final int CHUNKS_PER_REGION = 2048;
+
+    private static final long DATA_REGION_SIZE = (long) CHUNKS_PER_REGION * CHUNK_SIZE;
+
+    private static final int CHUNK_HEADER_SIZE = 16;
+    private static final int SERIES_ID_OFFSET = 0;
+    private static final int SEQ_OFFSET = 4;
+    private static final int COUNT_OFFSET = 8;
+    private static final long TABLE_REGION_SIZE = (long) CHUNKS_PER_REGION * CHUNK_HEADER_SIZE;
+
+    private final String legacyDataFolder;
+    private final FileChannel dataChannel;
+    private final FileChannel tableChannel;
+    private final FileChannel dictionaryChannel;
+
+    private final ArrayList<MappedByteBuffer> dataRegions = new ArrayList<>();
+    private final ArrayList<MappedByteBuffer> tableRegions = new ArrayList<>();
+
+    private final Map<SeriesKey, Series> index = new HashMap<>();
+
+    private int[] freeChunks = new int[CHUNKS_PER_REGION];
+    private int freeChunksCount;
+    private int lastSeriesId;
+
+    SegmentShard(Path folder, int shardId, String legacyDataFolder) throws IOException {
+        this.legacyDataFolder = legacyDataFolder;
+
+        Path dictionaryPath = folder.resolve("shard_" + shardId + ".series");
+        Map<Integer, SeriesKey> dictionary = readDictionary(dictionaryPath);
+
+        this.dataChannel = FileChannel.open(folder.resolve("shard_" + shardId + ".data"), CREATE, READ, WRITE);
+        this.tableChannel = FileChannel.open(folder.resolve("shard_" + shardId + ".chunks"), CREATE, READ, WRITE);
+        this.dictionaryChannel = FileChannel.open(dictionaryPath, CREATE, WRITE, APPEND);
+
+        restoreIndex(dictionary);
+    }
+
+    private static final class Series {
+
+        final int id;
+        int[] chunks = new int[1];
+        int chunksCount;
+        //number of entries in last chunk
+        int lastChunkCount;
+
+        Series(int id) {
+            this.id = id;
+        }
+
+        long size() {
+            if (chunksCount == 0) {
+                return 0;
+            }
+            return (long) (chunksCount - 1) * ENTRIES_PER_CHUNK + lastChunkCount;
+        }
+
+        void addChunk(int chunkId) {
+            if (chunksCount == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunks.length * 2);
+            }
+            chunks[chunksCount++] = chunkId;
+        }
+    }
+
+    synchronized void append(SeriesKey key, double value, long ts) throws IOException {
+        Series series = getSeries(key, true);
+        append(series, value, ts);
+    }
+
+    synchronized void append(SeriesKey key, ByteBuffer entries) throws IOException {
+        Series series = getSeries(key, true);
+        while (entries.remaining() >= SIZE_OF_REPORT_ENTRY) {
+            append(series, entries.getDouble(), entries.getLong());
+        }
+    }
+
+    synchronized ByteBuffer read(SeriesKey key, int count, int skip) throws IOException {
+        Series series = getSeries(key, false);
+        if (series == null) {
+            return null;
+        }
+        return read(series, count, skip);
+    }
+
+    synchronized void delete(SeriesKey key) {
+        Series series = index.remove(key);
+        if (series != null) {
+            release(series);
+        }
+        Path legacyFile = legacyPath(key);
+        FileUtils.deleteQuietly(legacyFile);
+        FileUtils.deleteQuietly(HistoryBlockFile.blocksPath(legacyFile));
+    }
+
+    synchronized int seriesCount() {
+        return index.size();
+    }
+
+    private Series getSeries(SeriesKey key, boolean create) throws IOException {
+        Series series = index.get(key);
+        if (series != null) {
+            return series;
+        }
+
+        Path legacyFile = legacyPath(key);
+        Path legacyBlocksFile = HistoryBlockFile.blocksPath(legacyFile);
+        if (Files.exists(legacyFile) || Files.exists(legacyBlocksFile)) {
+            series = createSeries(key);
+            try {
+                migrate(series, legacyFile, legacyBlocksFile);
+            } catch (IOException ioe) {
+                index.remove(key);
+                release(series);
+                throw ioe;
+            }
+            FileUtils.deleteQuietly(legacyFile);
+            FileUtils.deleteQuietly(legacyBlocksFile);
+            log.debug("Migrated {} to segment storage.", legacyFile);
+            return series;
+        }
+
+        if (create) {
+            return createSeries(key);
+        }
+        return null;
+    }
+
+    private Path legacyPath(SeriesKey key) {
+        return Paths.get(legacyDataFolder, key.userDir,
+                generateFilename(key.dashId, key.deviceId, key.pinType, key.pin, key.type));
+    }
+
+    private void migrate(Series series, Path legacyFile, Path legacyBlocksFile) throws IOException {
+        //files could be compressed by file storage before
+        ByteBuffer legacyData = HistoryBlockFile.read(legacyFile, legacyBlocksFile, Integer.MAX_VALUE, 0);
+        if (legacyData == null) {
+            return;
+        }
+        legacyData.flip();
+        while (legacyData.remaining() >= SIZE_OF_REPORT_ENTRY) {
+            append(series, legacyData.getDouble(), legacyData.getLong());
+        }
+    }
+
+    private Series createSeries(SeriesKey key) throws IOException {
+        Series series = new Series(++lastSeriesId);
+        writeDictionaryRecord(series.id, key);
+        index.put(key, series);
+        return series;
+    }
+
+    private void append(Series series, double value, long ts) throws IOException {
+        if (series.chunksCount == 0 || series.lastChunkCount == ENTRIES_PER_CHUNK) {
+            allocateChunk(series);
+        }
+
+        int chunkId = series.chunks[series.chunksCount - 1];
+        int entryOffset = dataOffset(chunkId) + series.lastChunkCount * SIZE_OF_REPORT_ENTRY;
+
+        MappedByteBuffer dataRegion = dataRegions.get(chunkId / CHUNKS_PER_REGION);
+        dataRegion.putDouble(entryOffset, value);
+        dataRegion.putLong(entryOffset + 8, ts);
+
+        series.lastChunkCount++;
+        tableRegions.get(chunkId / CHUNKS_PER_REGION)
+                .putInt(tableOffset(chunkId) + COUNT_OFFSET, series.lastChunkCount);
+    }
+
+    /**
+     * Copies requested range straight from mapped data chunks to result buffer.
+     * Uses same semantic as {@link FileUtils#read(Path, int, int)}.
+     */
+    private ByteBuffer read(Series series, int count, int skip) {
+        long size = series.size();
+        long diff = size - (count + skip);
+        long startIndex = Math.max(0, diff);
+        long resultSize = diff < 0 ? count + diff : count;
+        if (resultSize <= 0) {
+            return null;
+        }
+
+        ByteBuffer result = ByteBuffer.allocate((int) resultSize * SIZE_OF_REPORT_ENTRY);
+
+        long index = startIndex;
+        long end = startIndex + resultSize;
+        while (index < end) {
+            int indexInChunk = (int) (index % ENTRIES_PER_CHUNK);
+            int entries = (int) Math.min(ENTRIES_PER_CHUNK - indexInChunk, end - index);
+            int chunkId = series.chunks[(int) (index / ENTRIES_PER_CHUNK)];
+
+            int from = dataOffset(chunkId) + indexInChunk * SIZE_OF_REPORT_ENTRY;
+            ByteBuffer chunk = dataRegions.get(chunkId / CHUNKS_PER_REGION).duplicate();
+            chunk.limit(from + entries * SIZE_OF_REPORT_ENTRY);
+            chunk.position(from);
+            result.put(chunk);
+
+            index += entries;
+        }
+
+        return result;
+    }
+
+    private void allocateChunk(Series series) throws IOException {
+        if (freeChunksCount == 0) {
+            int firstChunkId = dataRegions.size() * CHUNKS_PER_REGION;
+            mapRegion();
+            //so chunks are taken in ascending order
+            for (int chunkId = firstChunkId + CHUNKS_PER_REGION - 1; chunkId >= firstChunkId; chunkId--) {
+                addFreeChunk(chunkId);
+            }
+        }
+
+        int chunkId = freeChunks[--freeChunksCount];
+        MappedByteBuffer tableRegion = tableRegions.get(chunkId / CHUNKS_PER_REGION);
+        int headerOffset = tableOffset(chunkId);
+        tableRegion.putInt(headerOffset + SEQ_OFFSET, series.chunksCount);
+        tableRegion.putInt(headerOffset + COUNT_OFFSET, 0);
+        //series id is written last, so chunk is never visible with wrong header
+        tableRegion.putInt(headerOffset + SERIES_ID_OFFSET, series.id);
+
+        series.addChunk(chunkId);
+        series.lastChunkCount = 0;
+    }
+
+    private void release(Series series) {
+        for (int i = 0; i < series.chunksCount; i++) {
+            int chunkId = series.chunks[i];
+            tableRegions.get(chunkId / CHUNKS_PER_REGION).putInt(tableOffset(chunkId) + SERIES_ID_OFFSET, 0);
+            addFreeChunk(chunkId);
+        }
+        series.chunksCount = 0;
+    }
+
+    private void addFreeChunk(int chunkId) {
+        if (freeChunksCount == freeChunks.length) {
+            freeChunks = Arrays.copyOf(freeChunks, freeChunks.length * 2);
+        }
+        freeChunks[freeChunksCount++] = chunkId;
+    }
+
+    private void mapRegion() throws IOException {
+        int region = dataRegions.size();
+        dataRegions.add(dataChannel.map(FileChannel.MapMode.READ_WRITE, region * DATA_REGION_SIZE, DATA_REGION_SIZE));
+        tableRegions.add(tableChannel.map(FileChannel.MapMode.READ_WRITE, region * TABLE_REGION_SIZE, TABLE_REGION_SIZE));
+    }
+
+    private static int dataOffset(int chunkId) {
+        return (chunkId % CHUNKS_PER_REGION) * CHUNK_SIZE;
+    }
+
+    private static int tableOffset(int chunkId) {
+        return (chunkId % CHUNKS_PER_REGION) * CHUNK_HEADER_SIZE;
+    }
+
+    /**
+     * Rebuilds in-memory index from chunks table. Chunks that point to unknown series
+     * (for example, server was killed during series creation) are released.
+     */
+    private void restoreIndex(Map<Integer, SeriesKey> dictionary) throws IOException {
+        long tableSize = tableChannel.size();
+        int regionsCount = (int) ((tableSize + TABLE_REGION_SIZE - 1) / TABLE_REGION_SIZE);
+        for (int i = 0; i < regionsCount; i++) {
+            mapRegion();
+        }
+
+        Map<Integer, Series> seriesById = new HashMap<>();
+        Map<Integer, long[]> sequences = new HashMap<>();
+
+        for (int chunkId = regionsCount * CHUNKS_PER_REGION - 1; chunkId >= 0; chunkId--) {
+            MappedByteBuffer tableRegion = tableRegions.get(chunkId / CHUNKS_PER_REGION);
+            int headerOffset = tableOffset(chunkId);
+            int seriesId = tableRegion.getInt(headerOffset + SERIES_ID_OFFSET);
+            if (seriesId == 0) {
+                addFreeChunk(chunkId);
+                continue;
+            }
+            if (!dictionary.containsKey(seriesId)) {
+                tableRegion.putInt(headerOffset + SERIES_ID_OFFSET, 0);
+                addFreeChunk(chunkId);
+                continue;
+            }
+
+            Series series = seriesById.get(seriesId);
+            if (series == null) {
+                series = new Series(seriesId);
+                seriesById.put(seriesId, series);
+            }
+            series.addChunk(chunkId);
+
+            //sequence number in high bits, so sorting gives chunks in series order
+            long[] seq = sequences.get(seriesId);
+            if (seq == null || seq.length < series.chunksCount) {
+                seq = seq == null ? new long[4] : Arrays.copyOf(seq, seq.length * 2);
+                sequences.put(seriesId, seq);
+            }
+            seq[series.chunksCount - 1] = ((long) tableRegion.getInt(headerOffset + SEQ_OFFSET) << 32) | chunkId;
+        }
+
+        for (Series series : seriesById.values()) {
+            long[] seq = sequences.get(series.id);
+            Arrays.sort(seq, 0, series.chunksCount);
+            for (int i = 0; i < series.chunksCount; i++) {
+                series.chunks[i] = (int) seq[i];
+            }
+            int lastChunkId = series.chunks[series.chunksCount - 1];
+            series.lastChunkCount = tableRegions.get(lastChunkId / CHUNKS_PER_REGION)
+                    .getInt(tableOffset(lastChunkId) + COUNT_OFFSET);
+
+            SeriesKey key = dictionary.get(series.id);
+            Series existing = index.get(key);
+            //same series may be re-created after delete. the latest one wins
+            if (existing == null || existing.id < series.id) {
+                index.put(key, series);
+                if (existing != null) {
+                    release(existing);
+                }
+            } else {
+                release(series);
+            }
+        }
+
+        for (Integer seriesId : dictionary.keySet()) {
+            lastSeriesId = Math.max(lastSeriesId, seriesId);
+        }
+    }
+
+    private void writeDictionaryRecord(int seriesId, SeriesKey key) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(64);
+        try (DataOutputStream dos = new DataOutputStream(baos)) {
+            dos.writeInt(seriesId);
+            dos.writeUTF(key.userDir);
+            dos.writeInt(key.dashId);
+            dos.writeInt(key.deviceId);
+            dos.writeByte(key.pinType);
+            dos.writeByte(key.pin);
+            dos.writeByte(key.type.ordinal());
+        }
+        ByteBuffer record = ByteBuffer.wrap(baos.toByteArray());
+        while (record.hasRemaining()) {
+            dictionaryChannel.write(record);
+        }
+    }
+
+    private static Map<Integer, SeriesKey> readDictionary(Path dictionaryPath) throws IOException {
+        Map<Integer, SeriesKey> dictionary = new HashMap<>();
+        if (Files.notExists(dictionaryPath)) {
+            return dictionary;
+        }
+
+        GraphGranularityType[] types = GraphGranularityType.values();
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(dictionaryPath)))) {
+            while (true) {
+                int seriesId = dis.readInt();
+                String userDir = dis.readUTF();
+                int dashId = dis.readInt();
+                int deviceId = dis.readInt();
+                char pinType = (char) dis.readByte();
+                byte pin = dis.readByte();
+                GraphGranularityType type = types[dis.readByte()];
+                dictionary.put(seriesId, new SeriesKey(userDir, dashId, deviceId, pinType, pin, type));
+            }
+        } catch (EOFException eof) {
+            //end of dictionary. last record may be incomplete in case of crash, it is fine to skip it.
+        }
+        return dictionary;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (MappedByteBuffer dataRegion : dataRegions) {
+            dataRegion.force();
+        }
+        for (MappedByteBuffer tableRegion : tableRegions) {
+            tableRegion.force();
+        }
+        try {
+            dataChannel.close();
+            tableChannel.close();
+            dictionaryChannel.close();
+        } catch (IOException e) {
+            log.error("Error closing reporting segment.", e);
+        }
+    }
+
+}
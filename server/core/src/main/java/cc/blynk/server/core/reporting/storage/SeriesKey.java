@@ -0,0 +1,56 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+
+/**
+ * Identifies single reporting series within segment storage.
+ * Same as one "history_*.bin" file in file storage.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 28.08.17.
+ */
+final class SeriesKey {
+
+    final String userDir;
+    final int dashId;
+    final int deviceId;
+    final char pinType;
+    final byte pin;
+    final GraphGranularityType type;
+
+    SeriesKey(String userDir, int dashId, int deviceId, char pinType, byte pin, GraphGranularityType type) {
+        this.userDir = userDir;
+        this.dashId = dashId;
+        this.deviceId = deviceId;
+        this.pinType = pinType;
+        this.pin = pin;
+        this.type = type;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SeriesKey)) return false;
+
+        SeriesKey that = (SeriesKey) o;
+
+        if (dashId != that.dashId) return false;
+        if (deviceId != that.deviceId) return false;
+        if (pinType != that.pinType) return false;
+        if (pin != that.pin) return false;
+        if (type != that.type) return false;
+        return userDir.equals(that.userDir);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = userDir.hashCode();
+        result = 31 * result + dashId;
+        result = 31 * result + deviceId;
+        result = 31 * result + (int) pinType;
+        result = 31 * result + (int) pin;
+        result = 31 * result + type.ordinal();
+        return result;
+    }
+}
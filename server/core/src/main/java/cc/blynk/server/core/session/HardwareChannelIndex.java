@@ -0,0 +1,151 @@
+package cc.blynk.server.core.session;
+
+import io.netty.channel.Channel;
+
+import java.util.Arrays;
+
+/**
+ * Index of hardware channels by dashId and deviceId.
+ * Index is immutable open-addressed table that is rebuilt on every channel add/remove.
+ * Hardware connects/disconnects are rare comparing to messages routing,
+ * so lookup is lock-free and doesn't allocate anything.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 03.09.17.
+ */
+public final class HardwareChannelIndex {
+
+    public static final Channel[] EMPTY = new Channel[0];
+
+    private volatile Table table = new Table(4);
+
+    private static long key(int dashId, int deviceId) {
+        return ((long) dashId << 32) | (deviceId & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return - channels of the device. Returned array should not be modified.
+     */
+    public Channel[] get(int dashId, int deviceId) {
+        return table.get(key(dashId, deviceId));
+    }
+
+    public synchronized void add(int dashId, int deviceId, Channel channel) {
+        long key = key(dashId, deviceId);
+        Table current = this.table;
+        Channel[] channels = current.get(key);
+        for (Channel existing : channels) {
+            if (existing == channel) {
+                return;
+            }
+        }
+
+        Channel[] newChannels = Arrays.copyOf(channels, channels.length + 1);
+        newChannels[channels.length] = channel;
+
+        int newSize = channels.length == 0 ? current.size + 1 : current.size;
+        Table newTable = new Table(Table.capacityFor(newSize));
+        current.copyTo(newTable, key);
+        newTable.put(key, newChannels);
+        this.table = newTable;
+    }
+
+    public synchronized void remove(Channel channel) {
+        Table current = this.table;
+        Table newTable = new Table(Table.capacityFor(current.size));
+        boolean found = false;
+        for (int i = 0; i < current.keys.length; i++) {
+            Channel[] channels = current.values[i];
+            if (channels == null) {
+                continue;
+            }
+            int index = indexOf(channels, channel);
+            if (index == -1) {
+                newTable.put(current.keys[i], channels);
+            } else {
+                found = true;
+                if (channels.length > 1) {
+                    Channel[] newChannels = new Channel[channels.length - 1];
+                    System.arraycopy(channels, 0, newChannels, 0, index);
+                    System.arraycopy(channels, index + 1, newChannels, index, channels.length - index - 1);
+                    newTable.put(current.keys[i], newChannels);
+                }
+            }
+        }
+        if (found) {
+            this.table = newTable;
+        }
+    }
+
+    private static int indexOf(Channel[] channels, Channel channel) {
+        for (int i = 0; i < channels.length; i++) {
+            if (channels[i] == channel) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static final class Table {
+
+        private final long[] keys;
+        //null value marks empty slot
+        private final Channel[][] values;
+        private int size;
+
+        Table(int capacity) {
+            this.keys = new long[capacity];
+            this.values = new Channel[capacity][];
+        }
+
+        //load factor 0.5
+        static int capacityFor(int size) {
+            int capacity = 4;
+            while (capacity < size * 2) {
+                capacity <<= 1;
+            }
+            return capacity;
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        Channel[] get(long key) {
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            Channel[] channels;
+            while ((channels = values[slot]) != null) {
+                if (keys[slot] == key) {
+                    return channels;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return EMPTY;
+        }
+
+        void put(long key, Channel[] channels) {
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (values[slot] != null && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (values[slot] == null) {
+                size++;
+            }
+            keys[slot] = key;
+            values[slot] = channels;
+        }
+
+        void copyTo(Table target, long skipKey) {
+            for (int i = 0; i < keys.length; i++) {
+                if (values[i] != null && keys[i] != skipKey) {
+                    target.put(keys[i], values[i]);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,31 @@
+package cc.blynk.server.core.stats.model;
+
+/**
+ * Usage of history graph data cache since server start.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.09.17.
+ */
+public class GraphCacheStat {
+
+    public final long hits;
+    public final long misses;
+    //percent of requested pins served from cache
+    public final int hitRate;
+    public final long evictions;
+    public final long invalidations;
+    public final int entries;
+    public final long bytes;
+
+    public GraphCacheStat(long hits, long misses, long evictions, long invalidations, int entries, long bytes) {
+        this.hits = hits;
+        this.misses = misses;
+        long requests = hits + misses;
+        this.hitRate = requests == 0 ? 0 : (int) (hits * 100 / requests);
+        this.evictions = evictions;
+        this.invalidations = invalidations;
+        this.entries = entries;
+        this.bytes = bytes;
+    }
+}
@@ -0,0 +1,57 @@
+package cc.blynk.server.core.stats.model;
+
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.PinStorage;
+import cc.blynk.server.core.model.auth.User;
+
+import java.util.Collection;
+
+/**
+ * Memory used by pin values stored without widgets.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 09.09.17.
+ */
+public class PinStorageStat {
+
+    public final int dashes;
+
+    public final long values;
+
+    //estimated
+    public final long bytes;
+
+    public final long maxDashBytes;
+
+    //values not stored because dash storage limit reached, since server start
+    public final long rejected;
+
+    public PinStorageStat(Collection<User> users) {
+        int dashes = 0;
+        long values = 0;
+        long bytes = 0;
+        long maxDashBytes = 0;
+        long rejected = 0;
+
+        for (User user : users) {
+            for (DashBoard dash : user.profile.dashBoards) {
+                PinStorage pinStorage = dash.pinsStorage;
+                int dashBytes = pinStorage.getBytes();
+                if (dashBytes > 0) {
+                    dashes++;
+                    values += pinStorage.size();
+                    bytes += dashBytes;
+                    maxDashBytes = Math.max(maxDashBytes, dashBytes);
+                }
+                rejected += pinStorage.getRejected();
+            }
+        }
+
+        this.dashes = dashes;
+        this.values = values;
+        this.bytes = bytes;
+        this.maxDashBytes = maxDashBytes;
+        this.rejected = rejected;
+    }
+}
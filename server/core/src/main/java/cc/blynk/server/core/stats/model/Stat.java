@@ -2,12 +2,14 @@ package cc.blynk.server.core.stats.model;
 
 import cc.blynk.server.core.BlockingIOProcessor;
 import cc.blynk.server.core.dao.SessionDao;
+import cc.blynk.server.core.dao.TokenManager;
 import cc.blynk.server.core.dao.UserDao;
 import cc.blynk.server.core.dao.UserKey;
 import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.protocol.enums.Command;
+import cc.blynk.server.core.reporting.GraphDataCache;
 import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.utils.JsonParser;
 import io.netty.buffer.ByteBufAllocator;
@@ -30,6 +32,9 @@ public class Stat {
     public final HttpStat http = new HttpStat();
     public final BlockingIOStat ioStat;
     public final MemoryStat memoryStat;
+    public final PinStorageStat pinStorageStat;
+    public final TokenStat tokenStat;
+    public final GraphCacheStat graphCacheStat;
 
     public final int oneMinRate;
     public final int registrations;
@@ -43,7 +48,8 @@ public class Stat {
     public final int totalOnlineHards;
     public final transient long ts;
 
-    public Stat(SessionDao sessionDao, UserDao userDao, BlockingIOProcessor blockingIOProcessor, GlobalStats globalStats, boolean reset) {
+    public Stat(SessionDao sessionDao, UserDao userDao, TokenManager tokenManager, GraphDataCache graphDataCache,
+                BlockingIOProcessor blockingIOProcessor, GlobalStats globalStats, boolean reset) {
         //yeap, some stats updates may be lost (because of sumThenReset()),
         //but we don't care, cause this is just for general monitoring
         for (Short command : Command.valuesName.keySet()) {
@@ -119,6 +125,9 @@ public class Stat {
 
         this.ioStat = new BlockingIOStat(blockingIOProcessor);
         this.memoryStat = new MemoryStat(ByteBufAllocator.DEFAULT);
+        this.pinStorageStat = new PinStorageStat(userDao.users.values());
+        this.tokenStat = new TokenStat(tokenManager);
+        this.graphCacheStat = graphDataCache.getStat();
     }
 
     private boolean dashUpdated(User user, long now, long period) {
@@ -0,0 +1,23 @@
+package cc.blynk.server.core.stats.model;
+
+import cc.blynk.server.core.dao.TokenManager;
+
+/**
+ * Size of device tokens index.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 10.09.17.
+ */
+public class TokenStat {
+
+    public final int tokens;
+
+    //estimated, without TokenValue objects
+    public final long bytes;
+
+    public TokenStat(TokenManager tokenManager) {
+        this.tokens = tokenManager.getTokensCount();
+        this.bytes = tokenManager.getTokensIndexBytes();
+    }
+}
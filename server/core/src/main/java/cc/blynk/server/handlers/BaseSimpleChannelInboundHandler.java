@@ -1,6 +1,7 @@
 package cc.blynk.server.handlers;
 
 import cc.blynk.server.Limits;
+import cc.blynk.server.core.dao.UserDao;
 import cc.blynk.server.core.protocol.exceptions.QuotaLimitException;
 import cc.blynk.server.core.protocol.handlers.DefaultExceptionHandler;
 import cc.blynk.server.core.protocol.model.messages.MessageBase;
@@ -29,12 +30,14 @@ public abstract class BaseSimpleChannelInboundHandler<I> extends ChannelInboundH
     private final int USER_QUOTA_LIMIT;
     private final Class<?> type;
     private final InstanceLoadMeter quotaMeter;
+    private final UserDao userDao;
     private long lastQuotaExceededTime;
 
-    protected BaseSimpleChannelInboundHandler(Class<?> type, Limits limits) {
+    protected BaseSimpleChannelInboundHandler(Class<?> type, Limits limits, UserDao userDao) {
         this.type = type;
         this.USER_QUOTA_LIMIT = limits.USER_QUOTA_LIMIT;
         this.quotaMeter = new InstanceLoadMeter();
+        this.userDao = userDao;
     }
 
     private static int getMsgId(Object o) {
@@ -55,6 +58,9 @@ public abstract class BaseSimpleChannelInboundHandler<I> extends ChannelInboundH
                 }
                 quotaMeter.mark();
                 messageReceived(ctx, (I) msg);
+                if (modifiesProfile((I) msg)) {
+                    userDao.markModified(getState().user);
+                }
             } catch (Exception e) {
                 handleGeneralException(ctx, e, getMsgId(msg));
             } finally {
@@ -84,6 +90,14 @@ public abstract class BaseSimpleChannelInboundHandler<I> extends ChannelInboundH
      */
     public abstract void messageReceived(ChannelHandlerContext ctx, I msg);
 
+    /**
+     * Is called after each successfully handled message of type {@link I}.
+     * Commands that change profile asynchronously queue user for saving by themselves.
+     *
+     * @return - true in case message changed user profile, so it has to be saved.
+     */
+    protected abstract boolean modifiesProfile(I msg);
+
     public abstract StateHolderBase getState();
 
     public InstanceLoadMeter getQuotaMeter() {
@@ -9,16 +9,31 @@ import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.widgets.FrequencyWidget;
 import cc.blynk.server.core.model.widgets.Target;
 import cc.blynk.server.core.model.widgets.Widget;
-import cc.blynk.server.core.session.HardwareStateHolder;
-import cc.blynk.utils.ArrayUtil;
-import cc.blynk.utils.StateHolderUtil;
 import io.netty.channel.Channel;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
+ * Sends reading commands to hardware for widgets with reading frequency.
+ *
+ * Instead of scanning all sessions every tick, worker keeps queue of frequency widgets
+ * ordered by next reading time. Widgets are scheduled on app/hardware login,
+ * dashboard activation and widget/dashboard create/update. Removed widgets,
+ * deactivated dashboards and disconnected apps/hardware are dropped from the queue lazily,
+ * when their reading time comes. Once per minute active sessions are rescanned in order
+ * to pick up widgets that were changed bypassing scheduling hooks (e.g. via admin API).
+ *
+ * Queue is owned by worker thread, other threads only put widgets to pending queue.
+ *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
  * Created on 02.02.17.
@@ -27,9 +42,16 @@ public class ReadingWidgetsWorker implements Runnable {
 
     private static final Logger log = LogManager.getLogger(ReadingWidgetsWorker.class);
 
+    private static final int TICKS_PER_MINUTE = 60;
+
     private final SessionDao sessionDao;
     private final UserDao userDao;
 
+    private final Queue<ScheduledRead> pending = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<ScheduledRead> queue = new PriorityQueue<>();
+    private final Map<WidgetKey, ScheduledRead> scheduled = new HashMap<>();
+    private final Set<Channel> touchedChannels = Collections.newSetFromMap(new IdentityHashMap<>());
+
     private int tickedWidgets = 0;
     private int counter = 0;
     private long totalTime = 0;
@@ -39,10 +61,41 @@ public class ReadingWidgetsWorker implements Runnable {
         this.userDao = userDao;
     }
 
+    /**
+     * Schedules frequency widgets of all active dashboards of the user.
+     */
+    public void add(UserKey userKey, User user) {
+        for (DashBoard dash : user.profile.dashBoards) {
+            add(userKey, dash);
+        }
+    }
+
+    /**
+     * Schedules frequency widgets of the dashboard if it is active.
+     * Could be called from any thread. Already scheduled widgets are not affected.
+     */
+    public void add(UserKey userKey, DashBoard dash) {
+        if (!dash.isActive) {
+            return;
+        }
+        for (Widget widget : dash.widgets) {
+            if (widget instanceof FrequencyWidget && ((FrequencyWidget) widget).getFrequency() > 0) {
+                pending.add(new ScheduledRead(userKey, dash.id, widget));
+            }
+        }
+    }
+
+    int getScheduledCount() {
+        return scheduled.size();
+    }
+
     @Override
     public void run() {
         long now = System.currentTimeMillis();
         try {
+            if (counter == 0) {
+                rescan();
+            }
             tickedWidgets += process(now);
             totalTime += System.currentTimeMillis() - now;
         } catch (Exception e) {
@@ -50,52 +103,176 @@ public class ReadingWidgetsWorker implements Runnable {
         }
 
         counter++;
-        if (counter == 60) {
-            log.info("Ticked widgets for 1 minute : {}. Per second : {}, total time : {}", tickedWidgets, tickedWidgets / 60, totalTime);
+        if (counter == TICKS_PER_MINUTE) {
+            log.info("Ticked widgets for 1 minute : {}. Per second : {}, total time : {}. Scheduled : {}",
+                    tickedWidgets, tickedWidgets / TICKS_PER_MINUTE, totalTime, scheduled.size());
             tickedWidgets = 0;
             counter = 0;
             totalTime = 0;
         }
     }
 
-    private int process(long now) {
-        int tickedWidgets = 0;
+    private void rescan() {
         for (Map.Entry<UserKey, Session> entry : sessionDao.userSession.entrySet()) {
             Session session = entry.getValue();
-            //for now checking widgets for active app only
             if (session.isAppConnected() && session.isHardwareConnected()) {
                 UserKey userKey = entry.getKey();
                 User user = userDao.users.get(userKey);
-                for (DashBoard dashBoard : user.profile.dashBoards) {
-                    if (dashBoard.isActive) {
-                        for (Channel channel : session.hardwareChannels) {
-                            HardwareStateHolder stateHolder = StateHolderUtil.getHardState(channel);
-                            if (stateHolder != null && stateHolder.dash.id == dashBoard.id) {
-                                for (Widget widget : dashBoard.widgets) {
-                                    if (widget instanceof FrequencyWidget) {
-                                        FrequencyWidget frequencyWidget = (FrequencyWidget) widget;
-                                        if (channel.isWritable() &&
-                                                sameDeviceId(dashBoard, frequencyWidget.getDeviceId(), stateHolder.device.id) &&
-                                                frequencyWidget.isTicked(now)) {
-                                            tickedWidgets++;
-                                            frequencyWidget.writeReadingCommand(channel);
-                                        }
-                                    }
-                                }
-                                channel.flush();
-                            }
-                        }
-
-                    }
+                if (user != null) {
+                    add(userKey, user);
                 }
             }
         }
+    }
+
+    int process(long now) {
+        schedulePending(now);
+
+        int tickedWidgets = 0;
+        ScheduledRead read;
+        while ((read = queue.peek()) != null && read.dueAt <= now) {
+            queue.poll();
+            if (read.cancelled) {
+                continue;
+            }
+            try {
+                if (tick(read, now)) {
+                    tickedWidgets++;
+                }
+            } catch (Exception e) {
+                log.debug("Error processing reading widget. {}", e.getMessage());
+                read.dueAt = -1;
+            }
+
+            if (read.dueAt > now) {
+                queue.add(read);
+            } else {
+                scheduled.remove(read.key);
+            }
+        }
+
+        for (Channel channel : touchedChannels) {
+            channel.flush();
+        }
+        touchedChannels.clear();
+
         return tickedWidgets;
     }
 
-    private boolean sameDeviceId(DashBoard dash, int targetId, int channelDeviceId) {
-        Target target = dash.getTarget(targetId);
-        return target != null && ArrayUtil.contains(target.getDeviceIds(), channelDeviceId);
+    private void schedulePending(long now) {
+        ScheduledRead read;
+        while ((read = pending.poll()) != null) {
+            ScheduledRead existing = scheduled.get(read.key);
+            if (existing != null) {
+                if (existing.widget == read.widget) {
+                    continue;
+                }
+                existing.cancelled = true;
+            }
+            read.dueAt = now;
+            scheduled.put(read.key, read);
+            queue.add(read);
+        }
+    }
+
+    /**
+     * Sends reading command for the widget and sets its next reading time.
+     * Next reading time is -1 when widget should be removed from the queue.
+     */
+    private boolean tick(ScheduledRead read, long now) {
+        read.dueAt = -1;
+
+        //for now checking widgets for active app only
+        Session session = sessionDao.userSession.get(read.key.userKey);
+        if (session == null || !session.isAppConnected() || !session.isHardwareConnected()) {
+            return false;
+        }
+        User user = userDao.users.get(read.key.userKey);
+        if (user == null) {
+            return false;
+        }
+        DashBoard dash = user.profile.getDashById(read.key.dashId);
+        if (dash == null || !dash.isActive || dash.getWidgetById(read.key.widgetId) != read.widget) {
+            return false;
+        }
+
+        FrequencyWidget frequencyWidget = (FrequencyWidget) read.widget;
+        int frequency = frequencyWidget.getFrequency();
+        Target target = dash.getTarget(frequencyWidget.getDeviceId());
+        if (frequency <= 0 || target == null) {
+            return false;
+        }
+
+        boolean ticked = false;
+        boolean hasHardware = false;
+        for (int deviceId : target.getDeviceIds()) {
+            Channel[] channels = session.getHardwareChannels(dash.id, deviceId);
+            for (Channel channel : channels) {
+                hasHardware = true;
+                if (channel.isWritable() && (ticked || frequencyWidget.isTicked(now))) {
+                    ticked = true;
+                    frequencyWidget.writeReadingCommand(channel);
+                    touchedChannels.add(channel);
+                }
+            }
+        }
+
+        if (hasHardware) {
+            //not ticked widgets are retried on next run
+            read.dueAt = ticked ? now + frequency : now + 1;
+        }
+        return ticked;
+    }
+
+    private static final class WidgetKey {
+
+        final UserKey userKey;
+        final int dashId;
+        final long widgetId;
+
+        WidgetKey(UserKey userKey, int dashId, long widgetId) {
+            this.userKey = userKey;
+            this.dashId = dashId;
+            this.widgetId = widgetId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof WidgetKey)) {
+                return false;
+            }
+            WidgetKey that = (WidgetKey) o;
+            return dashId == that.dashId && widgetId == that.widgetId && userKey.equals(that.userKey);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = userKey.hashCode();
+            result = 31 * result + dashId;
+            result = 31 * result + (int) (widgetId ^ (widgetId >>> 32));
+            return result;
+        }
+    }
+
+    private static final class ScheduledRead implements Comparable<ScheduledRead> {
+
+        final WidgetKey key;
+        final Widget widget;
+        long dueAt;
+        boolean cancelled;
+
+        ScheduledRead(UserKey userKey, int dashId, Widget widget) {
+            this.key = new WidgetKey(userKey, dashId, widget.id);
+            this.widget = widget;
+        }
+
+        @Override
+        public int compareTo(ScheduledRead o) {
+            return Long.compare(dueAt, o.dueAt);
+        }
     }
 
 }
@@ -0,0 +1,42 @@
+package cc.blynk.server.workers.timer;
+
+/**
+ * Result of single timer worker tick.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 04.09.17.
+ */
+public final class TimerTickStat {
+
+    //timers which fire time has come
+    public final int ready;
+    //timers of active dashboards
+    public final int active;
+    //timers which message was delivered to online hardware
+    public final int sent;
+    //max delay between timer fire time and its actual processing
+    public final long maxLag;
+    public final long duration;
+
+    TimerTickStat(int ready, int active, int sent, long maxLag, long duration) {
+        this.ready = ready;
+        this.active = active;
+        this.sent = sent;
+        this.maxLag = maxLag;
+        this.duration = duration;
+    }
+
+    public long getThroughput() {
+        return duration == 0 ? ready * 1000L : ready * 1000L / duration;
+    }
+
+    @Override
+    public String toString() {
+        return "Timer finished. Ready " + ready
+                + ", Active " + active
+                + ", Actual " + sent
+                + ". Max lag : " + maxLag + " ms"
+                + ". Processing time : " + duration + " ms (" + getThroughput() + " timers/sec).";
+    }
+}
@@ -7,7 +7,6 @@ import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.widgets.Target;
-import cc.blynk.server.core.model.widgets.Widget;
 import cc.blynk.server.core.model.widgets.controls.Timer;
 import cc.blynk.server.core.model.widgets.others.eventor.Eventor;
 import cc.blynk.server.core.model.widgets.others.eventor.Rule;
@@ -22,23 +21,34 @@ import cc.blynk.utils.DateTimeUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.time.LocalDateTime;
-import java.time.ZonedDateTime;
+import java.io.Closeable;
+import java.time.Instant;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
 
 /**
  * Timer worker class responsible for triggering all timers at specified time.
- * Current implementation is some kind of Hashed Wheel Timer.
- * In general idea is very simple :
  *
- * Select timers at specified cell timer[secondsOfDayNow]
- * and run it one by one, instead of naive implementation
- * with iteration over all profiles every second
+ * For every timer next fire moment (UTC epoch second) is calculated when timer is added
+ * and every time it is fired. Scheduled timers are kept within priority queue ordered
+ * by fire time, so tick only takes timers which time has come and doesn't require
+ * any time zone calculations.
+ *
+ * Ready timers are split by user between firing threads, so timers of the same user
+ * are always fired in order, while timers clustered around popular time (like 00:00)
+ * are processed in parallel. In case there are no firing threads - timers are fired
+ * within the calling thread.
  *
  * + Concurrency around it as timerWorker may be accessed from different threads.
  *
@@ -47,54 +57,86 @@ import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
  * Created on 2/6/2015.
  *
  */
-public class TimerWorker implements Runnable {
+public class TimerWorker implements Runnable, Closeable {
 
     private static final Logger log = LogManager.getLogger(TimerWorker.class);
     public static final int TIMER_MSG_ID = 7777;
 
+    private static final int SECONDS_IN_DAY = 86400;
+    static final long NEVER = -1;
+
     private final UserDao userDao;
     private final SessionDao sessionDao;
     private final GCMWrapper gcmWrapper;
-    private final ConcurrentMap<TimerKey, BaseAction[]>[] timerExecutors;
-    private final static int size = 8640;
+    private final ConcurrentMap<TimerKey, TimerEntry> timers = new ConcurrentHashMap<>();
+    //guarded by itself. deleted timers are removed lazily
+    private final PriorityQueue<ScheduledTimer> queue = new PriorityQueue<>();
+    //single thread executors, so timers of same user are always fired in order
+    private final ExecutorService[] firingThreads;
+
+    //guarded by queue. timers are never scheduled at or before last processed second, so they are not fired twice
+    private long lastTickSecond;
+    private volatile TimerTickStat lastTickStat;
 
-    @SuppressWarnings("unchecked")
     public TimerWorker(UserDao userDao, SessionDao sessionDao, GCMWrapper gcmWrapper) {
+        this(userDao, sessionDao, gcmWrapper, 0);
+    }
+
+    public TimerWorker(UserDao userDao, SessionDao sessionDao, GCMWrapper gcmWrapper, int firingThreadsCount) {
         this.userDao = userDao;
         this.sessionDao = sessionDao;
         this.gcmWrapper = gcmWrapper;
-        //array cell for every second in a day,
-        //yes, it costs a bit of memory, but still cheap :)
-        this.timerExecutors = new ConcurrentMap[size];
-        for (int i = 0; i < size; i++) {
-            timerExecutors[i] = new ConcurrentHashMap<>();
+        this.firingThreads = new ExecutorService[Math.max(0, firingThreadsCount)];
+        for (int i = 0; i < firingThreads.length; i++) {
+            firingThreads[i] = Executors.newSingleThreadExecutor();
         }
+        this.lastTickSecond = System.currentTimeMillis() / 1000 - 1;
         init(userDao.users);
     }
 
-    private static int hash(int time) {
-        return time / 10;
+    /**
+     * Time of the day is stored in UTC, while days of the week are in user time zone.
+     *
+     * @return - first UTC epoch second after given one when timer should be triggered or NEVER.
+     */
+    static long nextFireTime(TimerTime time, long afterSecond) {
+        if (time.days == null || time.days.length == 0 || time.time < 0 || time.time >= SECONDS_IN_DAY) {
+            return NEVER;
+        }
+        ZoneId zone = time.tzName == null ? DateTimeUtils.UTC : time.tzName;
+
+        long candidate = Math.floorDiv(afterSecond, SECONDS_IN_DAY) * SECONDS_IN_DAY + time.time;
+        if (candidate <= afterSecond) {
+            candidate += SECONDS_IN_DAY;
+        }
+        //8 days, as day in user time zone may differ from UTC day
+        for (int i = 0; i < 8; i++) {
+            int dayOfWeek = Instant.ofEpochSecond(candidate).atZone(zone).getDayOfWeek().getValue();
+            if (ArrayUtil.contains(time.days, dayOfWeek)) {
+                return candidate;
+            }
+            candidate += SECONDS_IN_DAY;
+        }
+        return NEVER;
     }
 
     private void init(ConcurrentMap<UserKey, User> users) {
-        int counter = 0;
+        if (users.isEmpty()) {
+            return;
+        }
         for (Map.Entry<UserKey, User> entry : users.entrySet()) {
-            for (DashBoard dashBoard : entry.getValue().profile.dashBoards) {
-                for (Widget widget : dashBoard.widgets) {
-                    if (widget instanceof Timer) {
-                        Timer timer = (Timer) widget;
-                        add(entry.getKey(), timer, dashBoard.id);
-                        counter++;
-                    }
-                    if (widget instanceof Eventor) {
-                        Eventor eventor = (Eventor) widget;
-                        add(entry.getKey(), eventor, dashBoard.id);
-                        counter++;
-                    }
-                }
-            }
+            add(entry.getKey(), entry.getValue());
+        }
+        log.info("Timers : {}", timers.size());
+    }
+
+    /**
+     * Schedules timers of all user dashboards. May be called from many threads.
+     */
+    public void add(UserKey userKey, User user) {
+        for (DashBoard dashBoard : user.profile.dashBoards) {
+            dashBoard.addTimers(this, userKey);
         }
-        log.info("Timers : {}", counter);
     }
 
     public void add(UserKey userKey, Eventor eventor, int dashId) {
@@ -125,13 +167,28 @@ public class TimerWorker implements Runnable {
             }
         }
         if (!validActions.isEmpty()) {
-            timerExecutors[hash(time.time)].put(new TimerKey(userKey, dashId, deviceId, widgetId, additionalId, time), validActions.toArray(new BaseAction[validActions.size()]));
+            add(new TimerKey(userKey, dashId, deviceId, widgetId, additionalId, time), validActions.toArray(new BaseAction[validActions.size()]));
         }
     }
 
     private void add(UserKey userKey, int dashId, int deviceId, long widgetId, int additionalId, TimerTime time, BaseAction action) {
         if (action.isValid()) {
-            timerExecutors[hash(time.time)].put(new TimerKey(userKey, dashId, deviceId, widgetId, additionalId, time), new BaseAction[]{action});
+            add(new TimerKey(userKey, dashId, deviceId, widgetId, additionalId, time), new BaseAction[]{action});
+        }
+    }
+
+    private void add(TimerKey key, BaseAction[] actions) {
+        TimerEntry entry = new TimerEntry(key, actions);
+        TimerEntry previous = timers.put(key, entry);
+        if (previous != null) {
+            previous.cancelled = true;
+        }
+        //computed under same lock tick moves last second with, so timer is never scheduled to stale second
+        synchronized (queue) {
+            long fireAt = nextFireTime(key.time, lastTickSecond);
+            if (fireAt != NEVER) {
+                queue.add(new ScheduledTimer(entry, fireAt));
+            }
         }
     }
 
@@ -155,107 +212,242 @@ public class TimerWorker implements Runnable {
     }
 
     private void delete(UserKey userKey, int dashId, int deviceId, long widgetId, int additionalId, TimerTime time) {
-        timerExecutors[hash(time.time)].remove(new TimerKey(userKey, dashId, deviceId, widgetId, additionalId, time));
+        TimerEntry entry = timers.remove(new TimerKey(userKey, dashId, deviceId, widgetId, additionalId, time));
+        if (entry != null) {
+            entry.cancelled = true;
+        }
     }
 
-    private int actuallySendTimers;
+    public int getTimersCount() {
+        return timers.size();
+    }
+
+    public TimerTickStat getLastTickStat() {
+        return lastTickStat;
+    }
 
     @Override
     public void run() {
         log.trace("Starting timer...");
 
-        final ZonedDateTime currentDateTime = ZonedDateTime.now(DateTimeUtils.UTC);
-        final int curSeconds = currentDateTime.toLocalTime().toSecondOfDay();
-
-        ConcurrentMap<TimerKey, BaseAction[]> tickedExecutors = timerExecutors[hash(curSeconds)];
-
-        int readyForTickTimers = tickedExecutors.size();
-        if (readyForTickTimers == 0) {
-            return;
-        }
-
         final long now = System.currentTimeMillis();
-        int activeTimers = 0;
+        final long nowSecond = now / 1000;
 
         try {
-            activeTimers = send(tickedExecutors, currentDateTime, curSeconds, now);
+            List<ScheduledTimer> readyTimers = pollReady(nowSecond);
+            if (readyTimers.isEmpty()) {
+                return;
+            }
+            reschedule(readyTimers, nowSecond);
+            fire(readyTimers, now);
         } catch (Exception e) {
             log.error("Error running timers. ", e);
         }
-
-        if (activeTimers > 0) {
-            log.info("Timer finished. Ready {}, Active {}, Actual {}. Processing time : {} ms",
-                    readyForTickTimers, activeTimers, actuallySendTimers, System.currentTimeMillis() - now);
-        }
     }
 
-    private int send(ConcurrentMap<TimerKey, BaseAction[]> tickedExecutors, ZonedDateTime currentDateTime, int curSeconds, long now) {
-        int activeTimers = 0;
-        actuallySendTimers = 0;
+    private List<ScheduledTimer> pollReady(long nowSecond) {
+        List<ScheduledTimer> readyTimers = Collections.emptyList();
+        synchronized (queue) {
+            if (nowSecond > lastTickSecond) {
+                lastTickSecond = nowSecond;
+            }
 
-        for (Map.Entry<TimerKey, BaseAction[]> entry : tickedExecutors.entrySet()) {
-            final TimerKey key = entry.getKey();
-            final BaseAction[] actions = entry.getValue();
-            if (key.time.time == curSeconds && isTime(key.time, currentDateTime)) {
-                User user = userDao.users.get(key.userKey);
-                if (user != null) {
-                    DashBoard dash = user.profile.getDashById(key.dashId);
-                    if (dash != null && dash.isActive) {
-                        activeTimers++;
-                        process(dash, key, actions, now);
+            ScheduledTimer head;
+            while ((head = queue.peek()) != null && head.fireAt <= nowSecond) {
+                queue.poll();
+                if (!head.entry.cancelled) {
+                    if (readyTimers.isEmpty()) {
+                        readyTimers = new ArrayList<>();
                     }
+                    readyTimers.add(head);
                 }
             }
+
+            if (queue.size() > 2 * timers.size() + 1024) {
+                queue.removeIf(scheduledTimer -> scheduledTimer.entry.cancelled);
+            }
+        }
+        return readyTimers;
+    }
+
+    private void reschedule(List<ScheduledTimer> readyTimers, long nowSecond) {
+        List<ScheduledTimer> next = new ArrayList<>(readyTimers.size());
+        for (ScheduledTimer readyTimer : readyTimers) {
+            long fireAt = nextFireTime(readyTimer.entry.key.time, nowSecond);
+            if (fireAt != NEVER) {
+                next.add(new ScheduledTimer(readyTimer.entry, fireAt));
+            }
+        }
+        synchronized (queue) {
+            queue.addAll(next);
         }
+    }
 
-        return activeTimers;
+    private void fire(List<ScheduledTimer> readyTimers, long start) {
+        TimerPartition[] partitions = new TimerPartition[Math.max(1, firingThreads.length)];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = new TimerPartition();
+        }
+        for (ScheduledTimer readyTimer : readyTimers) {
+            int partition = (readyTimer.entry.key.userKey.hashCode() & Integer.MAX_VALUE) % partitions.length;
+            partitions[partition].timers.add(readyTimer);
+        }
+
+        CompletableFuture<?>[] firings = new CompletableFuture<?>[partitions.length];
+        for (int i = 0; i < partitions.length; i++) {
+            TimerPartition partition = partitions[i];
+            if (firingThreads.length == 0) {
+                partition.run();
+                firings[i] = CompletableFuture.completedFuture(null);
+            } else {
+                firings[i] = CompletableFuture.runAsync(partition, firingThreads[i]);
+            }
+        }
+
+        CompletableFuture.allOf(firings).whenComplete((ignored, throwable) -> {
+            if (throwable != null) {
+                log.error("Error running timers. ", throwable);
+            }
+            complete(partitions, readyTimers.size(), start);
+        });
     }
 
-    private void process(DashBoard dash, TimerKey key, BaseAction[] actions, long now) {
+    private void complete(TimerPartition[] partitions, int readyTimers, long start) {
+        int activeTimers = 0;
+        int sentTimers = 0;
+        long maxLag = 0;
+        for (TimerPartition partition : partitions) {
+            activeTimers += partition.activeTimers;
+            sentTimers += partition.sentTimers;
+            maxLag = Math.max(maxLag, partition.maxLag);
+        }
+
+        TimerTickStat stat = new TimerTickStat(readyTimers, activeTimers, sentTimers, maxLag,
+                System.currentTimeMillis() - start);
+        this.lastTickStat = stat;
+        if (activeTimers > 0) {
+            log.info(stat);
+        }
+    }
+
+    private int process(DashBoard dash, TimerKey key, BaseAction[] actions, long now) {
+        int sent = 0;
         for (BaseAction action : actions) {
             if (action instanceof SetPinAction) {
                 SetPinAction setPinAction = (SetPinAction) action;
 
                 Target target = dash.getTarget(key.deviceId);
                 if (target == null) {
-                    return;
+                    return sent;
                 }
 
                 int[] deviceIds = target.getDeviceIds();
 
                 if (deviceIds.length == 0) {
-                    return;
+                    return sent;
                 }
 
                 for (int deviceId : deviceIds) {
                     dash.update(deviceId, setPinAction.dataStream.pin, setPinAction.dataStream.pinType, setPinAction.value, now);
                 }
 
-                triggerTimer(sessionDao, key.userKey, setPinAction.makeHardwareBody(), key.dashId, deviceIds);
+                if (triggerTimer(sessionDao, key.userKey, setPinAction.makeHardwareBody(), key.dashId, deviceIds)) {
+                    sent++;
+                }
             } else if (action instanceof NotifyAction) {
                 NotifyAction notifyAction = (NotifyAction) action;
                 EventorProcessor.push(gcmWrapper, dash, notifyAction.message);
             }
             //todo other type of actions not supported yet. maybe in future.
         }
+        return sent;
     }
 
-    private boolean isTime(TimerTime timerTime, ZonedDateTime currentDateTime) {
-        LocalDateTime userDateTime = currentDateTime.withZoneSameInstant(timerTime.tzName).toLocalDateTime();
-        final int dayOfWeek = userDateTime.getDayOfWeek().ordinal() + 1;
-        return ArrayUtil.contains(timerTime.days, dayOfWeek);
-    }
-
-    private void triggerTimer(SessionDao sessionDao, UserKey userKey, String value, int dashId, int[] deviceIds) {
+    /**
+     * @return - true in case message was sent to online hardware.
+     */
+    private boolean triggerTimer(SessionDao sessionDao, UserKey userKey, String value, int dashId, int[] deviceIds) {
+        boolean sent = false;
         Session session = sessionDao.userSession.get(userKey);
         if (session != null) {
             if (!session.sendMessageToHardware(dashId, HARDWARE, TIMER_MSG_ID, value, deviceIds)) {
-                actuallySendTimers++;
+                sent = true;
             }
             for (int deviceId : deviceIds) {
                 session.sendToApps(HARDWARE, TIMER_MSG_ID, dashId, deviceId, value);
             }
         }
+        return sent;
+    }
+
+    @Override
+    public void close() {
+        for (ExecutorService firingThread : firingThreads) {
+            firingThread.shutdown();
+        }
+    }
+
+    private static final class TimerEntry {
+
+        final TimerKey key;
+        final BaseAction[] actions;
+        volatile boolean cancelled;
+
+        TimerEntry(TimerKey key, BaseAction[] actions) {
+            this.key = key;
+            this.actions = actions;
+        }
+    }
+
+    private static final class ScheduledTimer implements Comparable<ScheduledTimer> {
+
+        final TimerEntry entry;
+        //UTC epoch second
+        final long fireAt;
+
+        ScheduledTimer(TimerEntry entry, long fireAt) {
+            this.entry = entry;
+            this.fireAt = fireAt;
+        }
+
+        @Override
+        public int compareTo(ScheduledTimer o) {
+            return Long.compare(fireAt, o.fireAt);
+        }
+    }
+
+    /**
+     * Ready timers of users assigned to one firing thread.
+     */
+    private final class TimerPartition implements Runnable {
+
+        final List<ScheduledTimer> timers = new ArrayList<>();
+        int activeTimers;
+        int sentTimers;
+        long maxLag;
+
+        @Override
+        public void run() {
+            for (ScheduledTimer scheduledTimer : timers) {
+                long now = System.currentTimeMillis();
+                maxLag = Math.max(maxLag, now - scheduledTimer.fireAt * 1000);
+
+                TimerKey key = scheduledTimer.entry.key;
+                User user = userDao.users.get(key.userKey);
+                if (user != null) {
+                    DashBoard dash = user.profile.getDashById(key.dashId);
+                    if (dash != null && dash.isActive) {
+                        activeTimers++;
+                        try {
+                            sentTimers += process(dash, key, scheduledTimer.entry.actions, now);
+                            userDao.markModified(user);
+                        } catch (Exception e) {
+                            log.error("Error running timer. ", e);
+                        }
+                    }
+                }
+            }
+        }
     }
 
 }
@@ -7,6 +7,8 @@ import io.netty.buffer.ByteBufUtil;
 
 import static cc.blynk.server.core.protocol.enums.Response.*;
 import static cc.blynk.server.core.protocol.model.messages.MessageBase.HEADER_LENGTH;
+import static cc.blynk.utils.StringUtils.BODY_SEPARATOR;
+import static cc.blynk.utils.StringUtils.DEVICE_SEPARATOR;
 
 /**
  * Utility class that creates native netty buffers instead of java objects.
@@ -20,6 +22,9 @@ public class BlynkByteBufUtil {
 
     public static final ByteBufAllocator ALLOCATOR = ByteBufAllocator.DEFAULT;
 
+    //"-2147483648-2147483648\0"
+    private static final int MAX_IDS_PREFIX_LENGTH = 24;
+
     public static ByteBuf notificationError(final int msgId) {
         return makeResponse(msgId, NOTIFICATION_ERROR);
     }
@@ -81,6 +86,60 @@ public class BlynkByteBufUtil {
         return byteBuf.setShort(3, bytesWritten);
     }
 
+    /**
+     * Same as makeUTF8StringMessage(cmd, msgId, prependDashIdAndDeviceId(dashId, deviceId, data)),
+     * but writes dash and device ids directly to the buffer without intermediate strings.
+     */
+    public static ByteBuf makeUTF8StringMessage(final short cmd, final int msgId,
+                                                final int dashId, final int deviceId, final String data) {
+        final ByteBuf byteBuf = makeMessageWithIds(cmd, msgId, dashId, deviceId, ByteBufUtil.utf8MaxBytes(data));
+        ByteBufUtil.writeUtf8(byteBuf, data);
+        return byteBuf.setShort(3, byteBuf.writerIndex() - HEADER_LENGTH);
+    }
+
+    /**
+     * Same as above, but body is copied from readable bytes of the given buffer.
+     * Reader index of the data buffer is not changed.
+     */
+    public static ByteBuf makeBinaryMessage(final short cmd, final int msgId,
+                                            final int dashId, final int deviceId, final ByteBuf data) {
+        final int dataLength = data.readableBytes();
+        final ByteBuf byteBuf = makeMessageWithIds(cmd, msgId, dashId, deviceId, dataLength);
+        byteBuf.writeBytes(data, data.readerIndex(), dataLength);
+        return byteBuf.setShort(3, byteBuf.writerIndex() - HEADER_LENGTH);
+    }
+
+    private static ByteBuf makeMessageWithIds(final short cmd, final int msgId,
+                                              final int dashId, final int deviceId, final int maxDataLength) {
+        final ByteBuf byteBuf = ALLOCATOR.directBuffer(HEADER_LENGTH + MAX_IDS_PREFIX_LENGTH + maxDataLength)
+                .writeByte(cmd)
+                .writeShort(msgId)
+                .writerIndex(HEADER_LENGTH);
+
+        writeAsciiInt(byteBuf, dashId);
+        //same as prependDashIdAndDeviceId, old apps expect "dashId\0body" for device 0
+        if (deviceId != 0) {
+            byteBuf.writeByte(DEVICE_SEPARATOR);
+            writeAsciiInt(byteBuf, deviceId);
+        }
+        return byteBuf.writeByte(BODY_SEPARATOR);
+    }
+
+    private static void writeAsciiInt(final ByteBuf byteBuf, final int value) {
+        long val = value;
+        if (val < 0) {
+            byteBuf.writeByte('-');
+            val = -val;
+        }
+        long divider = 1;
+        while (divider * 10 <= val) {
+            divider *= 10;
+        }
+        for (; divider > 0; divider /= 10) {
+            byteBuf.writeByte((int) ('0' + val / divider % 10));
+        }
+    }
+
     public static ByteBuf makeASCIIStringMessage(final short cmd, final int msgId, final String data) {
         final int dataLength = data.length();
         final ByteBuf byteBuf = ALLOCATOR.buffer(HEADER_LENGTH + dataLength)
@@ -9,6 +9,7 @@ import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -68,6 +69,17 @@ public class FileUtils {
         }
     }
 
+    /**
+     * Appends all remaining bytes of buffer to the end of file with single write call.
+     */
+    public static void write(Path reportingPath, ByteBuffer entries) throws IOException {
+        try (FileChannel channel = FileChannel.open(reportingPath, CREATE, WRITE, APPEND)) {
+            while (entries.hasRemaining()) {
+                channel.write(entries);
+            }
+        }
+    }
+
     /**
      * Read bunch of last records from file.
      *
@@ -110,6 +122,33 @@ public class FileUtils {
         }
     }
 
+    /**
+     * Maps bunch of last records of file into memory instead of reading them into heap.
+     * Same records as {@link #read(Path, int, int)} are returned, but buffer is read-only
+     * and already flipped.
+     *
+     * @param userDataFile - file to map
+     * @param count - number of records to map
+     * @param skip - number of entries to skip from the end
+     *
+     * @return - mapped byte buffer with data or null if there is no data
+     * @throws IOException
+     */
+    public static ByteBuffer map(Path userDataFile, int count, int skip) throws IOException {
+        try (FileChannel channel = FileChannel.open(userDataFile, READ)) {
+            long size = channel.size();
+            long expectedMinimumLength = (long) (count + skip) * SIZE_OF_REPORT_ENTRY;
+            long diff = size - expectedMinimumLength;
+            long startReadIndex = Math.max(0, diff);
+            long bufferSize = diff < 0 ? (long) count * SIZE_OF_REPORT_ENTRY + diff : (long) count * SIZE_OF_REPORT_ENTRY;
+            if (bufferSize <= 0) {
+                return null;
+            }
+            //mapping stays valid after channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, startReadIndex, bufferSize);
+        }
+    }
+
     public static String getUserReportingDir(User user) {
         return getUserReportingDir(user.email, user.appName);
     }
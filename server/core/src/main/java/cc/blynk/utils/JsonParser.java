@@ -140,6 +140,10 @@ public final class JsonParser {
         userWriter.writeValue(file, user);
     }
 
+    public static byte[] writeUserAsBytes(User user) throws IOException {
+        return userWriter.writeValueAsBytes(user);
+    }
+
     private static String toJson(ObjectWriter writer, Object o) {
         try {
             return writer.writeValueAsString(o);
@@ -180,6 +184,10 @@ public final class JsonParser {
         return userReader.readValue(userFile);
     }
 
+    public static User parseUserFromBytes(byte[] userBytes) throws IOException {
+        return userReader.readValue(userBytes);
+    }
+
     public static User parseUserFromString(String userString) throws IOException {
         return userReader.readValue(userString);
     }
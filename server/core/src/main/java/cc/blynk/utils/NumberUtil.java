@@ -2,6 +2,7 @@ package cc.blynk.utils;
 
 /**
  * Optimized but less precise double parsing method. It is also doesn't spam objects.
+ * Also contains number formatting methods that write ascii digits straight into byte array.
  *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
@@ -11,6 +12,15 @@ public class NumberUtil {
 
     public static final double NO_RESULT = Double.MIN_VALUE;
 
+    //max length of number written with writeLong() or writeDouble()
+    public static final int MAX_NUMBER_LENGTH = 24;
+
+    private static final byte[] LONG_MIN_VALUE = Long.toString(Long.MIN_VALUE).getBytes();
+    //abs(value) * 10^MAX_FRACTION_DIGITS should fit 2^53 for values below MAX_FIXED_VALUE
+    private static final int MAX_FRACTION_DIGITS = 8;
+    private static final double MAX_FIXED_VALUE = 1e7;
+    private static final double MIN_FIXED_VALUE = 1e-3;
+
     // Precompute Math.pow(10, n) as table:
     private final static int POW_RANGE = 256;
     private final static double[] POS_EXPS = new double[POW_RANGE];
@@ -164,4 +174,88 @@ public class NumberUtil {
         return (numSign) ? number : -number;
     }
 
+    /**
+     * Writes decimal representation of value into buffer, same as Long.toString(value) produces.
+     *
+     * @return position in buffer after last written byte
+     */
+    public static int writeLong(byte[] buf, int pos, long value) {
+        if (value == Long.MIN_VALUE) {
+            System.arraycopy(LONG_MIN_VALUE, 0, buf, pos, LONG_MIN_VALUE.length);
+            return pos + LONG_MIN_VALUE.length;
+        }
+        if (value < 0) {
+            buf[pos++] = '-';
+            value = -value;
+        }
+        int end = pos + digits(value);
+        int i = end;
+        do {
+            buf[--i] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        return end;
+    }
+
+    private static int digits(long value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Writes value into buffer without creating objects. Output is parsed back to exactly same double.
+     * For values between 0.001 and 10^7 output matches Double.toString(value) format
+     * with the shortest fraction that is enough to represent value, e.g. "1.0", "23.45", "-0.125".
+     * Values that require more than 8 fraction digits, very small and very big values are written
+     * via Double.toString().
+     *
+     * @return position in buffer after last written byte
+     */
+    public static int writeDouble(byte[] buf, int pos, double value) {
+        double abs = Math.abs(value);
+        if (abs < MAX_FIXED_VALUE) {
+            long integral = (long) value;
+            //-0.0 is written with fallback
+            if (integral == value && (value != 0 || Double.doubleToRawLongBits(value) == 0)) {
+                pos = writeLong(buf, pos, integral);
+                buf[pos++] = '.';
+                buf[pos++] = '0';
+                return pos;
+            }
+            if (abs >= MIN_FIXED_VALUE) {
+                for (int scale = 1; scale <= MAX_FRACTION_DIGITS; scale++) {
+                    double pow = POS_EXPS[scale];
+                    long scaled = Math.round(abs * pow);
+                    if (scaled / pow == abs) {
+                        return writeFixed(buf, pos, value < 0, scaled, scale);
+                    }
+                }
+            }
+        }
+        String s = Double.toString(value);
+        for (int i = 0; i < s.length(); i++) {
+            buf[pos++] = (byte) s.charAt(i);
+        }
+        return pos;
+    }
+
+    private static int writeFixed(byte[] buf, int pos, boolean negative, long scaled, int scale) {
+        if (negative) {
+            buf[pos++] = '-';
+        }
+        long pow = (long) POS_EXPS[scale];
+        pos = writeLong(buf, pos, scaled / pow);
+        buf[pos++] = '.';
+        long fraction = scaled % pow;
+        //leading zeros of fraction
+        for (int i = digits(fraction); i < scale; i++) {
+            buf[pos++] = '0';
+        }
+        return writeLong(buf, pos, fraction);
+    }
+
 }
@@ -15,19 +15,6 @@ public class StringUtils {
     public static final char DEVICE_SEPARATOR = '-';
 
     public static final Pattern PIN_PATTERN =  Pattern.compile("/pin/", Pattern.LITERAL);
-    public static final Pattern PIN_PATTERN_0 =  Pattern.compile("/pin[0]/", Pattern.LITERAL);
-    public static final Pattern PIN_PATTERN_1 =  Pattern.compile("/pin[1]/", Pattern.LITERAL);
-    public static final Pattern PIN_PATTERN_2 =  Pattern.compile("/pin[2]/", Pattern.LITERAL);
-    public static final Pattern PIN_PATTERN_3 =  Pattern.compile("/pin[3]/", Pattern.LITERAL);
-    public static final Pattern PIN_PATTERN_4 =  Pattern.compile("/pin[4]/", Pattern.LITERAL);
-    public static final Pattern PIN_PATTERN_5 =  Pattern.compile("/pin[5]/", Pattern.LITERAL);
-    public static final Pattern PIN_PATTERN_6 =  Pattern.compile("/pin[6]/", Pattern.LITERAL);
-    public static final Pattern PIN_PATTERN_7 =  Pattern.compile("/pin[7]/", Pattern.LITERAL);
-    public static final Pattern PIN_PATTERN_8 =  Pattern.compile("/pin[8]/", Pattern.LITERAL);
-    public static final Pattern PIN_PATTERN_9 =  Pattern.compile("/pin[9]/", Pattern.LITERAL);
-    public static final Pattern GENERIC_PLACEHOLDER = Pattern.compile("%s", Pattern.LITERAL);
-
-    public static final Pattern DATETIME_PATTERN =  Pattern.compile("/datetime_iso/", Pattern.LITERAL);
 
     /**
      * Parses string similar to this : "xw 1 xxxx"
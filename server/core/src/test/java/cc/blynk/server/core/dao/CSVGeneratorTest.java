@@ -2,12 +2,30 @@ package cc.blynk.server.core.dao;
 
 import cc.blynk.server.core.model.AppName;
 import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.protocol.exceptions.NoDataException;
+import cc.blynk.utils.FileUtils;
 import cc.blynk.utils.ServerProperties;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * The Blynk Project.
@@ -16,22 +34,156 @@ import java.nio.file.Paths;
  */
 public class CSVGeneratorTest {
 
-    private CSVGenerator csvGenerator = new CSVGenerator(new ReportingDao("/tmp", new ServerProperties("/server.properties")));
+    private Path dataFolder;
+    private ReportingDao reportingDao;
+    private CSVGenerator csvGenerator;
+    private User user;
 
-    @Test
-    public void generateCSV() throws Exception {
-        User user  = new User();
+    @Before
+    public void init() throws Exception {
+        dataFolder = Files.createTempDirectory("csv_generator_test");
+        reportingDao = new ReportingDao(dataFolder.toString(), new ServerProperties("/server.properties"));
+        csvGenerator = reportingDao.csvGenerator;
+
+        user = new User();
         user.email = "test@blynk.cc";
         user.appName = AppName.BLYNK;
+        Files.createDirectories(dataFolder.resolve(user.email));
+    }
 
-        Path path = Paths.get("/home/doom369/hourly_data.csv.gz");
+    @After
+    public void cleanup() throws Exception {
+        reportingDao.close();
+        Files.walk(dataFolder)
+                .sorted(Comparator.reverseOrder())
+                .forEach(FileUtils::deleteQuietly);
+    }
 
-        final ByteBuffer buf = ByteBuffer.allocate(2 * 16);
-        buf.putDouble(1).putLong(1);
-        buf.putDouble(2).putLong(2);
+    private void write(int deviceId, double... valuesAndTs) throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(valuesAndTs.length * 8);
+        for (int i = 0; i < valuesAndTs.length; i += 2) {
+            buf.putDouble(valuesAndTs[i]).putLong((long) valuesAndTs[i + 1]);
+        }
         buf.flip();
+        Path file = dataFolder.resolve(user.email).resolve(
+                ReportingDao.generateFilename(1, deviceId, 'v', (byte) 1, GraphGranularityType.MINUTE));
+        FileUtils.write(file, buf);
+    }
+
+    private static String gunzip(InputStream in) throws Exception {
+        try (InputStream gzip = new GZIPInputStream(in)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[1024];
+            int read;
+            while ((read = gzip.read(buf)) != -1) {
+                out.write(buf, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+        }
+    }
+
+    @Test
+    public void generateCSV() throws Exception {
+        write(0, 1, 1, 2.5, 2);
+        write(2, -0.125, 3);
+
+        Path path = csvGenerator.createCSV(user, 1, 0, PinType.VIRTUAL, (byte) 1, 0, 1, 2);
+        try {
+            assertEquals("1.0,1,0\n2.5,2,0\n-0.125,3,2\n", gunzip(Files.newInputStream(path)));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test(expected = NoDataException.class)
+    public void noDataForAllDevices() throws Exception {
+        csvGenerator.createCSV(user, 1, 0, PinType.VIRTUAL, (byte) 1, 0, 1);
+    }
+
+    @Test
+    public void exportTimeRange() throws Exception {
+        write(0, 1, 10, 2, 20, 3, 30, 4, 40);
+
+        CSVExport export = csvGenerator.export(user, 1, PinType.VIRTUAL, (byte) 1, 20, 30, 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        export.writeTo(out);
+        assertEquals("2.0,20,0\n3.0,30,0\n", new String(out.toByteArray(), StandardCharsets.US_ASCII));
+
+        export = csvGenerator.export(user, 1, PinType.VIRTUAL, (byte) 1, 35, Long.MAX_VALUE, 0);
+        out = new ByteArrayOutputStream();
+        export.writeTo(out);
+        assertEquals("4.0,40,0\n", new String(out.toByteArray(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void exportCompressedFile() throws Exception {
+        int count = 3000;
+        double[] valuesAndTs = new double[count * 2];
+        for (int i = 0; i < count; i++) {
+            valuesAndTs[i * 2] = i % 7;
+            valuesAndTs[i * 2 + 1] = 1_500_000_000_000L + i * 60_000L;
+        }
+        write(0, valuesAndTs);
+
+        CSVExport export = csvGenerator.export(user, 1, PinType.VIRTUAL, (byte) 1, 0, Long.MAX_VALUE, 0);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        export.writeTo(expected);
+
+        //old entries are moved into compressed file
+        reportingDao.storage.compact();
+        assertTrue(Files.exists(dataFolder.resolve(user.email).resolve(
+                ReportingDao.generateFilename(1, 0, 'v', (byte) 1, GraphGranularityType.MINUTE)
+                        .replace(".bin", ".cbin"))));
+
+        export = csvGenerator.export(user, 1, PinType.VIRTUAL, (byte) 1, 0, Long.MAX_VALUE, 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        export.writeTo(out);
+        assertEquals(new String(expected.toByteArray(), StandardCharsets.US_ASCII),
+                new String(out.toByteArray(), StandardCharsets.US_ASCII));
+    }
+
+    @Test(expected = NoDataException.class)
+    public void exportTimeRangeWithoutData() throws Exception {
+        write(0, 1, 10, 2, 20);
+        csvGenerator.export(user, 1, PinType.VIRTUAL, (byte) 1, 11, 19, 0);
+    }
+
+    @Test
+    public void streamedExportIsSameAsFile() throws Exception {
+        int count = 20_000;
+        double[] valuesAndTs = new double[count * 2];
+        for (int i = 0; i < count; i++) {
+            valuesAndTs[i * 2] = i * 0.25;
+            valuesAndTs[i * 2 + 1] = 1_500_000_000_000L + i * 60_000L;
+        }
+        write(0, valuesAndTs);
+
+        Path path = csvGenerator.createCSV(user, 1, 0, PinType.VIRTUAL, (byte) 1, 0);
+        String expected;
+        try {
+            expected = gunzip(Files.newInputStream(path));
+        } finally {
+            Files.delete(path);
+        }
+
+        CSVChunkedInput input = new CSVChunkedInput(
+                csvGenerator.export(user, 1, PinType.VIRTUAL, (byte) 1, 0, Long.MAX_VALUE, 0));
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        int chunks = 0;
+        while (!input.isEndOfInput()) {
+            ByteBuf chunk = input.readChunk(ByteBufAllocator.DEFAULT);
+            byte[] bytes = new byte[chunk.readableBytes()];
+            chunk.readBytes(bytes);
+            chunk.release();
+            compressed.write(bytes);
+            chunks++;
+        }
+        input.close();
 
-        //CSVGenerator.makeGzippedCSVFile(buf, path);
+        assertTrue(chunks > 1);
+        assertFalse(expected.isEmpty());
+        assertEquals(count, expected.split("\n").length);
+        assertEquals(expected, gunzip(new ByteArrayInputStream(compressed.toByteArray())));
     }
 
 }
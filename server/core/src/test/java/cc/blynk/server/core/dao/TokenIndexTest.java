@@ -0,0 +1,94 @@
+package cc.blynk.server.core.dao;
+
+import cc.blynk.utils.TokenGeneratorUtil;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 10.09.17.
+ */
+public class TokenIndexTest {
+
+    private static TokenValue value() {
+        return new TokenValue(null, null, null);
+    }
+
+    @Test
+    public void testPutGetRemove() {
+        TokenIndex index = new TokenIndex();
+        String token = TokenGeneratorUtil.generateNewToken();
+        TokenValue value = value();
+        TokenValue newValue = value();
+
+        index.put(token, value);
+        assertSame(value, index.get(token));
+        index.put(token, newValue);
+        assertSame(newValue, index.get(token));
+        assertEquals(1, index.size());
+
+        //upper case is not generated token, so it is different one
+        assertNull(index.get(token.toUpperCase()));
+
+        index.remove(token);
+        assertNull(index.get(token));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testManualTokens() {
+        TokenIndex index = new TokenIndex();
+        TokenValue value = value();
+        TokenValue upperCaseValue = value();
+        String token = "00000000000000000000000000000001";
+
+        index.put("123", value);
+        index.put(token.replace('1', 'A'), upperCaseValue);
+        index.put(token, value());
+
+        assertSame(value, index.get("123"));
+        assertSame(upperCaseValue, index.get(token.replace('1', 'A')));
+        assertEquals(3, index.size());
+
+        index.remove("123");
+        assertNull(index.get("123"));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void testManyTokensFromManyThreads() {
+        TokenIndex index = new TokenIndex();
+        int count = 100_000;
+        List<String> tokens = new ArrayList<>(count);
+        List<TokenValue> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tokens.add(TokenGeneratorUtil.generateNewToken());
+            values.add(value());
+        }
+
+        IntStream.range(0, count).parallel().forEach(i -> index.put(tokens.get(i), values.get(i)));
+        assertEquals(count, index.size());
+
+        //removal shifts entries of same probe sequence, all other tokens should be reachable
+        for (int i = 0; i < count; i += 2) {
+            index.remove(tokens.get(i));
+        }
+        assertEquals(count / 2, index.size());
+        for (int i = 0; i < count; i++) {
+            if (i % 2 == 0) {
+                assertNull(index.get(tokens.get(i)));
+            } else {
+                assertSame(values.get(i), index.get(tokens.get(i)));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+package cc.blynk.server.core.dao.functions;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 16.09.17.
+ */
+public class PercentileFunctionTest {
+
+    @Test
+    public void testExactPercentile() {
+        PercentileFunction p90 = new PercentileFunction(0.9);
+        for (int i = 10; i >= 0; i--) {
+            p90.apply(i);
+        }
+        assertEquals(9, p90.getResult(), 0.0001);
+
+        p90.reset();
+        p90.apply(1);
+        assertEquals(1, p90.getResult(), 0.0001);
+        p90.apply(2);
+        assertEquals(1.9, p90.getResult(), 0.0001);
+    }
+
+    @Test
+    public void testStreamingIsExactForFewValues() {
+        StreamingPercentileFunction median = new StreamingPercentileFunction(0.5);
+        median.apply(3);
+        assertEquals(3, median.getResult(), 0.0001);
+        median.apply(1);
+        assertEquals(2, median.getResult(), 0.0001);
+        median.apply(2);
+        median.apply(5);
+        median.apply(4);
+        assertEquals(3, median.getResult(), 0.0001);
+
+        PercentileFunction exact = new PercentileFunction(0.99);
+        StreamingPercentileFunction streaming = new StreamingPercentileFunction(0.99);
+        Random random = new Random(17);
+        for (int i = 0; i < 100; i++) {
+            double value = random.nextDouble();
+            exact.apply(value);
+            streaming.apply(value);
+        }
+        assertEquals(exact.getResult(), streaming.getResult(), 0.0000001);
+    }
+
+    @Test
+    public void testStreamingIsCloseToExact() {
+        Random random = new Random(17);
+        for (double quantile : new double[] {0.5, 0.9, 0.99}) {
+            PercentileFunction exact = new PercentileFunction(quantile);
+            StreamingPercentileFunction streaming = new StreamingPercentileFunction(quantile);
+            for (int round = 0; round < 3; round++) {
+                exact.reset();
+                streaming.reset();
+                for (int i = 0; i < 10_000; i++) {
+                    double value = round == 2 ? random.nextGaussian() * 10 : random.nextDouble() * 100;
+                    exact.apply(value);
+                    streaming.apply(value);
+                }
+                assertEquals("quantile " + quantile, exact.getResult(), streaming.getResult(), 1);
+            }
+        }
+    }
+
+}
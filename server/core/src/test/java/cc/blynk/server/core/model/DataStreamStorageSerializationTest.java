@@ -5,8 +5,6 @@ import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.utils.JsonParser;
 import org.junit.Test;
 
-import java.util.HashMap;
-
 import static org.junit.Assert.*;
 
 /**
@@ -25,7 +23,7 @@ public class DataStreamStorageSerializationTest {
                 new DashBoard()
         };
         user.lastModifiedTs = 0;
-        user.profile.dashBoards[0].pinsStorage = new HashMap<>();
+        user.profile.dashBoards[0].pinsStorage = new PinStorage();
         PinStorageKey pinStorageKey = new PinStorageKey(0, PinType.VIRTUAL, (byte) 0);
         PinStorageKey pinStorageKey2 = new PinStorageKey(0, PinType.DIGITAL, (byte) 1);
         PinPropertyStorageKey pinStorageKey3 = new PinPropertyStorageKey(0, PinType.VIRTUAL, (byte) 0, "label");
@@ -0,0 +1,86 @@
+package cc.blynk.server.core.model;
+
+import cc.blynk.server.core.model.enums.PinType;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 09.09.17.
+ */
+public class PinStorageTest {
+
+    @Test
+    public void testCompactKeepsOriginalValue() {
+        assertEquals(0, PinStorage.compact("0"));
+        assertEquals(-15, PinStorage.compact("-15"));
+        assertEquals(123456789, PinStorage.compact("123456789"));
+        String[] notCompacted = {"", "-", "-0", "01", "+1", "1.0", "1e3", "1234567890", "abc", "12a"};
+        for (String value : notCompacted) {
+            assertSame(value, PinStorage.compact(value));
+        }
+    }
+
+    @Test
+    public void testPutGetRemove() {
+        PinStorage pinStorage = new PinStorage();
+        PinStorageKey key = new PinStorageKey(-1, PinType.VIRTUAL, (byte) 200);
+        PinStorageKey otherDevice = new PinStorageKey(1, PinType.VIRTUAL, (byte) 200);
+        PinPropertyStorageKey property = new PinPropertyStorageKey(-1, PinType.VIRTUAL, (byte) 200, "label");
+
+        assertNull(pinStorage.put(key, "1"));
+        assertNull(pinStorage.put(otherDevice, "text"));
+        assertNull(pinStorage.put(property, "123"));
+        assertEquals("1", pinStorage.put(key, "007"));
+
+        assertEquals(3, pinStorage.size());
+        assertEquals("007", pinStorage.get(key));
+        assertEquals("text", pinStorage.get(otherDevice));
+        assertEquals("123", pinStorage.get(property));
+        assertNull(pinStorage.get(new PinStorageKey(-1, PinType.DIGITAL, (byte) 200)));
+
+        Map<PinStorageKey, String> copy = new HashMap<>();
+        for (Map.Entry<PinStorageKey, String> entry : pinStorage.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue());
+        }
+        assertEquals(3, copy.size());
+        assertEquals("007", copy.get(key));
+        assertEquals("123", copy.get(property));
+
+        assertEquals("007", pinStorage.remove(key));
+        assertEquals("123", pinStorage.remove(property));
+        assertEquals("text", pinStorage.remove(otherDevice));
+        assertTrue(pinStorage.isEmpty());
+        assertEquals(0, pinStorage.getBytes());
+    }
+
+    @Test
+    public void testLimit() {
+        PinStorage pinStorage = new PinStorage(200, true);
+
+        assertNull(pinStorage.put(new PinStorageKey(0, PinType.VIRTUAL, (byte) 1), "1"));
+        assertNull(pinStorage.put(new PinStorageKey(0, PinType.VIRTUAL, (byte) 2), "long string value"));
+        int bytes = pinStorage.getBytes();
+
+        //doesn't fit
+        assertNull(pinStorage.put(new PinStorageKey(0, PinType.VIRTUAL, (byte) 3), "another long string value"));
+        assertNull(pinStorage.get(new PinStorageKey(0, PinType.VIRTUAL, (byte) 3)));
+        assertEquals(1, pinStorage.getRejected());
+        assertEquals(bytes, pinStorage.getBytes());
+
+        //existing values could always be replaced with smaller ones
+        assertEquals("long string value", pinStorage.put(new PinStorageKey(0, PinType.VIRTUAL, (byte) 2), "0"));
+        assertTrue(pinStorage.getBytes() < bytes);
+        assertNull(pinStorage.put(new PinStorageKey(0, PinType.VIRTUAL, (byte) 3), "another long string value"));
+        assertEquals(3, pinStorage.size());
+    }
+
+}
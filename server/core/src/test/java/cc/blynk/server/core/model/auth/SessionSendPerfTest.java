@@ -0,0 +1,97 @@
+package cc.blynk.server.core.model.auth;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+import static cc.blynk.utils.BlynkByteBufUtil.makeUTF8StringMessage;
+import static cc.blynk.utils.StringUtils.prependDashIdAndDeviceId;
+
+/**
+ * Compares hardware message fan-out to app channels with previous approach,
+ * when body was concatenated to string and one buffer was retained and reset for every target.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 04.09.17.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class SessionSendPerfTest {
+
+    private static final String BODY = "vw\0" + "1\0" + "123.45";
+
+    @Param({"1", "5", "50"})
+    public int appChannels;
+
+    private Session session;
+    private EmbeddedChannel[] channels;
+
+    @Setup
+    public void setup() {
+        session = new Session(null);
+        channels = new EmbeddedChannel[appChannels];
+        for (int i = 0; i < appChannels; i++) {
+            channels[i] = new EmbeddedChannel();
+            session.addAppChannel(channels[i]);
+        }
+    }
+
+    @TearDown
+    public void close() {
+        for (EmbeddedChannel channel : channels) {
+            channel.finishAndReleaseAll();
+        }
+    }
+
+    private void releaseOutbound() {
+        for (EmbeddedChannel channel : channels) {
+            channel.releaseOutbound();
+        }
+    }
+
+    @Benchmark
+    public void retainAndReset() {
+        String body = prependDashIdAndDeviceId(1, 0, BODY);
+        ByteBuf msg = makeUTF8StringMessage(HARDWARE, 1, body);
+        int targetsNum = session.appChannels.size();
+        if (targetsNum > 1) {
+            msg.retain(targetsNum - 1);
+        }
+        for (Channel channel : session.appChannels) {
+            if (channel.isWritable()) {
+                channel.writeAndFlush(msg, channel.voidPromise());
+            } else {
+                msg.release();
+            }
+            msg.resetReaderIndex();
+        }
+        releaseOutbound();
+    }
+
+    @Benchmark
+    public void sharedDuplicates() {
+        session.sendToApps(HARDWARE, 1, 1, 0, BODY);
+        releaseOutbound();
+    }
+
+}
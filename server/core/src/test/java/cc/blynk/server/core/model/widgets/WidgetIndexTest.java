@@ -0,0 +1,111 @@
+package cc.blynk.server.core.model.widgets;
+
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.DataStream;
+import cc.blynk.server.core.model.PinStorageKey;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.controls.Button;
+import cc.blynk.server.core.model.widgets.controls.Slider;
+import cc.blynk.server.core.model.widgets.notifications.Notification;
+import cc.blynk.server.core.model.widgets.notifications.Twitter;
+import cc.blynk.server.core.model.widgets.others.webhook.WebHook;
+import cc.blynk.server.core.model.widgets.outputs.LCD;
+import cc.blynk.server.core.model.widgets.outputs.ValueDisplay;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 08.09.17.
+ */
+public class WidgetIndexTest {
+
+    private static <T extends OnePinWidget> T onePin(T widget, int deviceId, int pin, PinType pinType) {
+        widget.deviceId = deviceId;
+        widget.pin = (byte) pin;
+        widget.pinType = pinType;
+        return widget;
+    }
+
+    @Test
+    public void testFindByPin() {
+        Button button = onePin(new Button(), 0, 1, PinType.VIRTUAL);
+        ValueDisplay display = onePin(new ValueDisplay(), 1, 1, PinType.VIRTUAL);
+        ValueDisplay analog = onePin(new ValueDisplay(), 0, 2, PinType.ANALOG);
+        Slider pwmSlider = onePin(new Slider(), 0, 3, PinType.DIGITAL);
+        pwmSlider.pwmMode = true;
+        LCD lcd = new LCD();
+        lcd.dataStreams = new DataStream[] {
+                new DataStream((byte) 4, PinType.VIRTUAL),
+                new DataStream((byte) 4, PinType.VIRTUAL)
+        };
+
+        DashBoard dash = new DashBoard();
+        dash.widgets = new Widget[] {button, display, analog, pwmSlider, lcd};
+
+        assertSame(button, dash.findWidgetByPin(0, (byte) 1, PinType.VIRTUAL));
+        assertSame(display, dash.findWidgetByPin(1, (byte) 1, PinType.VIRTUAL));
+        assertNull(dash.findWidgetByPin(2, (byte) 1, PinType.VIRTUAL));
+        assertNull(dash.findWidgetByPin(0, (byte) 1, PinType.DIGITAL));
+
+        //analog pin widgets accept digital writes, pwm widgets accept analog writes
+        assertSame(analog, dash.findWidgetByPin(0, (byte) 2, PinType.DIGITAL));
+        assertSame(pwmSlider, dash.findWidgetByPin(0, (byte) 3, PinType.DIGITAL));
+        assertSame(pwmSlider, dash.findWidgetByPin(0, (byte) 3, PinType.ANALOG));
+
+        assertSame(lcd, dash.findWidgetByPin(0, (byte) 4, PinType.VIRTUAL));
+    }
+
+    @Test
+    public void testUpdateGoesToWidgetOrPinStorage() {
+        Button button = onePin(new Button(), 0, 1, PinType.VIRTUAL);
+        LCD lcd = new LCD();
+        lcd.dataStreams = new DataStream[] {new DataStream((byte) 1, PinType.VIRTUAL)};
+
+        DashBoard dash = new DashBoard();
+        dash.widgets = new Widget[] {button, lcd};
+
+        dash.update(0, (byte) 1, PinType.VIRTUAL, "10", 1);
+        assertEquals("10", button.value);
+        assertEquals("10", lcd.dataStreams[0].value);
+        assertTrue(dash.pinsStorage.isEmpty());
+
+        dash.update(0, (byte) 2, PinType.VIRTUAL, "20", 2);
+        assertEquals("20", dash.pinsStorage.get(new PinStorageKey(0, PinType.VIRTUAL, (byte) 2)));
+        assertEquals(2, dash.updatedAt);
+    }
+
+    @Test
+    public void testWebhooksIndexedSeparately() {
+        WebHook webHook = onePin(new WebHook(), 0, 1, PinType.VIRTUAL);
+        DashBoard dash = new DashBoard();
+        dash.widgets = new Widget[] {webHook};
+
+        assertNull(dash.findWidgetByPin(0, (byte) 1, PinType.VIRTUAL));
+        assertSame(webHook, dash.findWebhookByPin(0, (byte) 1, PinType.VIRTUAL));
+        assertNull(dash.findWebhookByPin(0, (byte) 2, PinType.VIRTUAL));
+    }
+
+    @Test
+    public void testIndexRebuiltWhenWidgetsReplaced() {
+        Notification notification = new Notification();
+        DashBoard dash = new DashBoard();
+        assertNull(dash.getWidgetByType(Notification.class));
+
+        dash.widgets = new Widget[] {notification};
+        assertSame(notification, dash.getWidgetByType(Notification.class));
+        assertSame(notification, dash.getWidgetByType(Notification.class));
+        assertNull(dash.getWidgetByType(Twitter.class));
+
+        Button button = onePin(new Button(), 0, 1, PinType.VIRTUAL);
+        dash.widgets = new Widget[] {button};
+        assertNull(dash.getWidgetByType(Notification.class));
+        assertSame(button, dash.findWidgetByPin(0, (byte) 1, PinType.VIRTUAL));
+    }
+
+}
@@ -0,0 +1,83 @@
+package cc.blynk.server.core.model.widgets.others.eventor;
+
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.DataStream;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.controls.Button;
+import cc.blynk.server.core.model.widgets.others.eventor.model.action.BaseAction;
+import cc.blynk.server.core.model.widgets.others.eventor.model.action.SetPinAction;
+import cc.blynk.server.core.model.widgets.others.eventor.model.condition.GreaterThan;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 07.09.17.
+ */
+public class EventorIndexTest {
+
+    private static Rule rule(DataStream trigger, boolean isActive) {
+        return new Rule(trigger, null, new GreaterThan(10),
+                new BaseAction[] {new SetPinAction((byte) 2, PinType.VIRTUAL, "1")}, isActive);
+    }
+
+    private static Eventor eventor(int deviceId, Rule... rules) {
+        Eventor eventor = new Eventor(rules);
+        eventor.deviceId = deviceId;
+        return eventor;
+    }
+
+    @Test
+    public void testRulesGroupedByTriggerPin() {
+        Rule v1 = rule(new DataStream((byte) 1, PinType.VIRTUAL), true);
+        Rule v1Second = rule(new DataStream((byte) 1, PinType.VIRTUAL), true);
+        Rule d1 = rule(new DataStream((byte) 1, PinType.DIGITAL), true);
+        Rule inactive = rule(new DataStream((byte) 3, PinType.VIRTUAL), false);
+        Rule noTrigger = rule(null, true);
+
+        EventorIndex index = EventorIndex.build(new Widget[] {
+                new Button(), eventor(0, v1, d1, inactive, noTrigger, v1Second)
+        });
+
+        assertArrayEquals(new Rule[] {v1, v1Second}, index.getRules(0, (byte) 1, PinType.VIRTUAL));
+        assertArrayEquals(new Rule[] {d1}, index.getRules(0, (byte) 1, PinType.DIGITAL));
+        assertNull(index.getRules(0, (byte) 1, PinType.ANALOG));
+        assertNull(index.getRules(0, (byte) 3, PinType.VIRTUAL));
+        assertNull(index.getRules(1, (byte) 1, PinType.VIRTUAL));
+    }
+
+    @Test
+    public void testPwmTriggerMatchesAnalogPin() {
+        Rule pwm = rule(new DataStream((byte) 5, true, false, PinType.DIGITAL, null, 0, 255, null), true);
+
+        EventorIndex index = EventorIndex.build(new Widget[] {eventor(0, pwm)});
+
+        assertArrayEquals(new Rule[] {pwm}, index.getRules(0, (byte) 5, PinType.DIGITAL));
+        assertArrayEquals(new Rule[] {pwm}, index.getRules(0, (byte) 5, PinType.ANALOG));
+    }
+
+    @Test
+    public void testIndexRebuiltWhenWidgetsReplaced() {
+        Rule v1 = rule(new DataStream((byte) 1, PinType.VIRTUAL), true);
+        DashBoard dash = new DashBoard();
+
+        EventorIndex empty = dash.getEventorIndex();
+        assertNull(empty.getRules(0, (byte) 1, PinType.VIRTUAL));
+        assertSame(empty, dash.getEventorIndex());
+
+        dash.widgets = new Widget[] {eventor(0, v1)};
+        EventorIndex index = dash.getEventorIndex();
+        assertNotSame(empty, index);
+        assertArrayEquals(new Rule[] {v1}, index.getRules(0, (byte) 1, PinType.VIRTUAL));
+
+        dash.widgets = new Widget[] {new Button()};
+        assertNull(dash.getEventorIndex().getRules(0, (byte) 1, PinType.VIRTUAL));
+    }
+
+}
@@ -0,0 +1,113 @@
+package cc.blynk.server.core.model.widgets.others.webhook;
+
+import cc.blynk.utils.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static cc.blynk.utils.StringUtils.PIN_PATTERN;
+
+/**
+ * Compares compiled webhook template with previous regexp based formatting.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 05.09.17.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class WebhookTemplatePerfTest {
+
+    private static final String URL = "https://api.thingspeak.com/update?api_key=XXXXXXXXXXXXXXXX&field1=/pin[0]/&field2=/pin[1]/";
+    private static final String BODY = "{\"temperature\":\"/pin[0]/\",\"humidity\":\"/pin[1]/\"}";
+    private static final String TRIGGER = "23.45\0" + "67.8";
+
+    //patterns of previous implementation
+    private static final Pattern PIN_PATTERN_0 = Pattern.compile("/pin[0]/", Pattern.LITERAL);
+    private static final Pattern PIN_PATTERN_1 = Pattern.compile("/pin[1]/", Pattern.LITERAL);
+    private static final Pattern PIN_PATTERN_2 = Pattern.compile("/pin[2]/", Pattern.LITERAL);
+    private static final Pattern PIN_PATTERN_3 = Pattern.compile("/pin[3]/", Pattern.LITERAL);
+    private static final Pattern PIN_PATTERN_4 = Pattern.compile("/pin[4]/", Pattern.LITERAL);
+    private static final Pattern PIN_PATTERN_5 = Pattern.compile("/pin[5]/", Pattern.LITERAL);
+    private static final Pattern PIN_PATTERN_6 = Pattern.compile("/pin[6]/", Pattern.LITERAL);
+    private static final Pattern PIN_PATTERN_7 = Pattern.compile("/pin[7]/", Pattern.LITERAL);
+    private static final Pattern PIN_PATTERN_8 = Pattern.compile("/pin[8]/", Pattern.LITERAL);
+    private static final Pattern PIN_PATTERN_9 = Pattern.compile("/pin[9]/", Pattern.LITERAL);
+    private static final Pattern GENERIC_PLACEHOLDER = Pattern.compile("%s", Pattern.LITERAL);
+    private static final Pattern DATETIME_PATTERN = Pattern.compile("/datetime_iso/", Pattern.LITERAL);
+
+    private WebhookTemplate urlTemplate;
+    private WebhookTemplate bodyTemplate;
+    private final StringBuilder sb = new StringBuilder(256);
+
+    @Setup
+    public void setup() {
+        urlTemplate = WebhookTemplate.compile(URL, true);
+        bodyTemplate = WebhookTemplate.compile(BODY, true);
+    }
+
+    @Benchmark
+    public String regexpFormat() {
+        return format(URL, TRIGGER, false) + format(BODY, TRIGGER, true);
+    }
+
+    @Benchmark
+    public String compiledTemplate() {
+        sb.setLength(0);
+        urlTemplate.render(sb, TRIGGER);
+        String url = sb.toString();
+        sb.setLength(0);
+        bodyTemplate.render(sb, TRIGGER);
+        return url + sb.toString();
+    }
+
+    //previous WebhookProcessor.format() implementation
+    private static String format(String data, String triggerValue, boolean doBlynkCheck) {
+        if (doBlynkCheck || !data.toLowerCase().contains("/pin/v")) {
+            data = PIN_PATTERN.matcher(data).replaceFirst(triggerValue);
+        }
+
+        String[] splitted = triggerValue.split(StringUtils.BODY_SEPARATOR_STRING);
+        switch (splitted.length) {
+            case 10 :
+                data = PIN_PATTERN_9.matcher(data).replaceFirst(splitted[9]);
+            case 9 :
+                data = PIN_PATTERN_8.matcher(data).replaceFirst(splitted[8]);
+            case 8 :
+                data = PIN_PATTERN_7.matcher(data).replaceFirst(splitted[7]);
+            case 7 :
+                data = PIN_PATTERN_6.matcher(data).replaceFirst(splitted[6]);
+            case 6 :
+                data = PIN_PATTERN_5.matcher(data).replaceFirst(splitted[5]);
+            case 5 :
+                data = PIN_PATTERN_4.matcher(data).replaceFirst(splitted[4]);
+            case 4 :
+                data = PIN_PATTERN_3.matcher(data).replaceFirst(splitted[3]);
+            case 3 :
+                data = PIN_PATTERN_2.matcher(data).replaceFirst(splitted[2]);
+            case 2 :
+                data = PIN_PATTERN_1.matcher(data).replaceFirst(splitted[1]);
+            case 1 :
+                data = PIN_PATTERN_0.matcher(data).replaceFirst(splitted[0]);
+                data = GENERIC_PLACEHOLDER.matcher(data).replaceFirst(triggerValue);
+                data = DATETIME_PATTERN.matcher(data).replaceFirst(Instant.now().toString());
+        }
+        return data;
+    }
+
+}
@@ -0,0 +1,85 @@
+package cc.blynk.server.core.model.widgets.others.webhook;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 05.09.17.
+ */
+public class WebhookTemplateTest {
+
+    @Test
+    public void testNoPlaceholders() {
+        WebhookTemplate template = WebhookTemplate.compile("http://test.com/update", true);
+        assertEquals("http://test.com/update", template.render("123"));
+    }
+
+    @Test
+    public void testPinAndGenericPlaceholders() {
+        assertEquals("http://test.com123end", WebhookTemplate.compile("http://test.com/pin/end", true).render("123"));
+        assertEquals("[123]", WebhookTemplate.compile("[%s]", true).render("123"));
+        //only first occurrence is replaced
+        assertEquals("[123,%s]", WebhookTemplate.compile("[%s,%s]", true).render("123"));
+    }
+
+    @Test
+    public void testPinPlaceholderDisabled() {
+        assertEquals("http://test.com/pin/V1", WebhookTemplate.compile("http://test.com/pin/V1", false).render("123"));
+    }
+
+    @Test
+    public void testMultiValuePlaceholders() {
+        WebhookTemplate template = WebhookTemplate.compile("[/pin[0]/,/pin[1]/,/pin[2]/]", true);
+        assertEquals("[1,2,3]", template.render("1\0" + "2\0" + "3"));
+        //missing parts are left as is
+        assertEquals("[1,2,/pin[2]/]", template.render("1\0" + "2"));
+        //trailing empty parts are ignored as with String.split()
+        assertEquals("[1,/pin[1]/,/pin[2]/]", template.render("1\0\0"));
+        assertEquals("[,2,/pin[2]/]", template.render("\0" + "2"));
+    }
+
+    @Test
+    public void testTooManyParts() {
+        WebhookTemplate template = WebhookTemplate.compile("/pin/ /pin[0]/ %s", true);
+        String value = "0\0" + "1\0" + "2\0" + "3\0" + "4\0" + "5\0" + "6\0" + "7\0" + "8\0" + "9\0" + "10";
+        assertEquals(value + " /pin[0]/ %s", template.render(value));
+    }
+
+    @Test
+    public void testValueIsNotTreatedAsRegexpReplacement() {
+        assertEquals("[$1\\]", WebhookTemplate.compile("[%s]", true).render("$1\\"));
+    }
+
+    @Test
+    public void testDatetime() {
+        String result = WebhookTemplate.compile("[/datetime_iso/]", true).render("1");
+        assertTrue(result.matches("\\[\\d{4}-\\d{2}-\\d{2}T.*Z]"));
+    }
+
+    @Test
+    public void testCountParts() {
+        String[] values = {"", "1", "1\0" + "2", "1\0\0", "\0", "\0\0", "\0" + "1", "1\0\0" + "2"};
+        for (String value : values) {
+            assertEquals(value.split("\0").length, WebhookTemplate.countParts(value));
+        }
+    }
+
+    @Test
+    public void testTemplateRecompiledOnChange() {
+        WebHook webHook = new WebHook();
+        webHook.url = "http://test.com/pin/";
+        WebhookTemplate template = webHook.getUrlTemplate();
+        assertSame(template, webHook.getUrlTemplate());
+
+        webHook.url = "http://test.com/%s";
+        assertNotSame(template, webHook.getUrlTemplate());
+        assertEquals("http://test.com/1", webHook.getUrlTemplate().render("1"));
+    }
+
+}
@@ -0,0 +1,189 @@
+package cc.blynk.server.core.processors;
+
+import com.sun.net.httpserver.HttpServer;
+import org.asynchttpclient.AsyncCompletionHandler;
+import org.asynchttpclient.DefaultAsyncHttpClient;
+import org.asynchttpclient.Request;
+import org.asynchttpclient.RequestBuilder;
+import org.asynchttpclient.Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks dispatcher against local stub http server.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 05.09.17.
+ */
+public class WebhookDispatcherTest {
+
+    private HttpServer server;
+    private DefaultAsyncHttpClient httpClient;
+    private String url;
+
+    private volatile int responseCode = 200;
+    private volatile CountDownLatch release = new CountDownLatch(0);
+    private final AtomicInteger inProgress = new AtomicInteger();
+    private final Queue<String> received = new ConcurrentLinkedQueue<>();
+
+    @Before
+    public void init() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            inProgress.incrementAndGet();
+            received.add(exchange.getRequestURI().getQuery());
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(responseCode, -1);
+            exchange.close();
+            inProgress.decrementAndGet();
+        });
+        server.start();
+        url = "http://localhost:" + server.getAddress().getPort() + "/hook?value=";
+        httpClient = new DefaultAsyncHttpClient();
+    }
+
+    @After
+    public void close() throws Exception {
+        release.countDown();
+        httpClient.close();
+        server.stop(0);
+    }
+
+    private Request request(String value) {
+        return new RequestBuilder("GET").setUrl(url + value).build();
+    }
+
+    private static final class Handler extends AsyncCompletionHandler<Response> {
+
+        private final CountDownLatch done;
+
+        Handler(CountDownLatch done) {
+            this.done = done;
+        }
+
+        @Override
+        public Response onCompleted(Response response) {
+            done.countDown();
+            return response;
+        }
+
+        @Override
+        public void onThrowable(Throwable t) {
+            done.countDown();
+        }
+    }
+
+    private static void await(CountDownLatch latch) throws Exception {
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    private void awaitInProgress(int expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (inProgress.get() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, inProgress.get());
+    }
+
+    @Test
+    public void testHostConnectionsLimitAndCoalescing() throws Exception {
+        WebhookDispatcher dispatcher = new WebhookDispatcher(httpClient, 2, 10, 10, 30_000);
+        release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(4);
+
+        Object hook1 = new Object();
+        Object hook2 = new Object();
+        Object hook3 = new Object();
+        assertTrue(dispatcher.dispatch(hook1, request("1"), new Handler(done)));
+        assertTrue(dispatcher.dispatch(hook2, request("2"), new Handler(done)));
+        awaitInProgress(2);
+
+        //queued, same webhook is replaced with latest value
+        assertTrue(dispatcher.dispatch(hook3, request("3"), new Handler(done)));
+        assertTrue(dispatcher.dispatch(hook1, request("4"), new Handler(done)));
+        assertTrue(dispatcher.dispatch(hook1, request("5"), new Handler(done)));
+
+        WebhookDispatcherStat stat = dispatcher.getStat();
+        assertEquals(2, stat.inFlight);
+        assertEquals(2, stat.queued);
+        assertEquals(1, stat.coalesced);
+
+        release.countDown();
+        await(done);
+
+        assertEquals(4, received.size());
+        assertTrue(received.contains("value=3"));
+        assertTrue(received.contains("value=5"));
+        assertFalse(received.contains("value=4"));
+    }
+
+    @Test
+    public void testQueueLimit() throws Exception {
+        WebhookDispatcher dispatcher = new WebhookDispatcher(httpClient, 1, 1, 10, 30_000);
+        release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+
+        assertTrue(dispatcher.dispatch(new Object(), request("1"), new Handler(done)));
+        awaitInProgress(1);
+        assertTrue(dispatcher.dispatch(new Object(), request("2"), new Handler(done)));
+        assertFalse(dispatcher.dispatch(new Object(), request("3"), new Handler(done)));
+
+        release.countDown();
+        await(done);
+        assertEquals(1, dispatcher.getStat().dropped);
+    }
+
+    @Test
+    public void testCircuitBreaking() throws Exception {
+        WebhookDispatcher dispatcher = new WebhookDispatcher(httpClient, 2, 10, 3, 200);
+        responseCode = 500;
+
+        for (int i = 0; i < 3; i++) {
+            CountDownLatch done = new CountDownLatch(1);
+            assertTrue(dispatcher.dispatch(new Object(), request("" + i), new Handler(done)));
+            await(done);
+        }
+
+        assertFalse(dispatcher.dispatch(new Object(), request("rejected"), new Handler(new CountDownLatch(1))));
+        WebhookDispatcherStat stat = dispatcher.getStat();
+        assertEquals(1, stat.openCircuits);
+        assertEquals(3, stat.failed);
+        assertEquals(1, stat.rejected);
+
+        //after open period single probe is allowed
+        Thread.sleep(250);
+        responseCode = 200;
+        release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        assertTrue(dispatcher.dispatch(new Object(), request("probe"), new Handler(done)));
+        assertFalse(dispatcher.dispatch(new Object(), request("rejected"), new Handler(new CountDownLatch(1))));
+        release.countDown();
+        await(done);
+
+        done = new CountDownLatch(1);
+        assertTrue(dispatcher.dispatch(new Object(), request("closed"), new Handler(done)));
+        await(done);
+        assertEquals(0, dispatcher.getStat().openCircuits);
+        assertFalse(received.contains("value=rejected"));
+    }
+
+}
@@ -0,0 +1,72 @@
+package cc.blynk.server.core.protocol.model.messages.hardware;
+
+import cc.blynk.server.core.protocol.exceptions.ParseException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 04.09.17.
+ */
+public class RawHardwareMessageTest {
+
+    private static RawHardwareMessage message(String body) {
+        //message is parsed from the middle of the buffer, as it is within decoder
+        ByteBuf buf = Unpooled.copiedBuffer("xxx" + body.replaceAll(" ", "\0") + "yyy", StandardCharsets.UTF_8);
+        int length = buf.readableBytes() - 6;
+        return new RawHardwareMessage(1, buf.skipBytes(3).readRetainedSlice(length));
+    }
+
+    @Test
+    public void testParseWriteCommand() {
+        RawHardwareMessage message = message("vw 10 1.23");
+        assertTrue(message.isWriteOperation());
+        assertTrue(message.hasValue());
+        assertEquals('v', message.getPinType());
+        assertEquals(10, message.getPin());
+        assertEquals("1.23", message.getValue());
+
+        message = message("aw 127 тест 2");
+        assertEquals(127, message.getPin());
+        assertEquals("тест\0" + "2", message.getValue());
+
+        message = message("dw -1 1");
+        assertEquals(-1, message.getPin());
+    }
+
+    @Test
+    public void testWrongCommands() {
+        assertFalse(message("vr 1").isWriteOperation());
+        assertFalse(message("vw 1").hasValue());
+        assertFalse(message("vw 1 ").hasValue());
+        assertFalse(message("v").isWriteOperation());
+        assertFalse(message("v").hasValue());
+    }
+
+    @Test(expected = ParseException.class)
+    public void testPinOverflow() {
+        message("vw 128 1").getPin();
+    }
+
+    @Test(expected = ParseException.class)
+    public void testEmptyPin() {
+        message("vw  1").getPin();
+    }
+
+    @Test
+    public void testRelease() {
+        RawHardwareMessage message = message("vw 1 1");
+        assertEquals(2, message.refCnt());
+        message.release();
+        assertEquals(1, message.refCnt());
+    }
+
+}
@@ -0,0 +1,84 @@
+package cc.blynk.server.core.reporting;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphPeriod;
+import cc.blynk.utils.ByteUtils;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.09.17.
+ */
+public class DownsamplerTest {
+
+    private static byte[] series(double... values) {
+        ByteBuffer buf = ByteBuffer.allocate(values.length * 16);
+        for (int i = 0; i < values.length; i++) {
+            buf.putDouble(values[i]).putLong(1_000L * i);
+        }
+        return buf.array();
+    }
+
+    private static double[] values(byte[] data) {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        double[] values = new double[data.length / 16];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = buf.getDouble();
+            buf.getLong();
+        }
+        return values;
+    }
+
+    @Test
+    public void testNotEnoughPoints() {
+        byte[] data = series(1, 2, 3);
+        assertSame(data, Downsampler.lttb(data, 3));
+        assertSame(data, Downsampler.minMax(data, 100));
+    }
+
+    @Test
+    public void testLttbKeepsPeaks() {
+        byte[] result = Downsampler.lttb(series(0, 0, 0, 10, 0, 0, 0, -10, 0, 0, 0, 0), 4);
+        assertArrayEquals(new double[] {0, 10, -10, 0}, values(result), 0);
+
+        //timestamps stay in order
+        ByteBuffer buf = ByteBuffer.wrap(result);
+        assertEquals(0, buf.getLong(8));
+        assertEquals(3000, buf.getLong(16 + 8));
+        assertEquals(7000, buf.getLong(32 + 8));
+        assertEquals(11000, buf.getLong(48 + 8));
+    }
+
+    @Test
+    public void testMinMax() {
+        byte[] result = Downsampler.minMax(series(5, 1, 9, 3, 4, 4, 4, 4, 8, 2, 7, 6), 6);
+        assertArrayEquals(new double[] {1, 9, 4, 8, 2}, values(result), 0);
+    }
+
+    @Test
+    public void testFitReducesPayload() throws Exception {
+        double[] values = new double[GraphPeriod.ALL.numberOfPoints];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Math.sin(i / 100.0) * 100 + i % 7;
+        }
+        byte[] data = series(values);
+        byte[][] streams = new byte[][] {data, data, data, data};
+
+        byte[][] fitted = Downsampler.fit(streams, Short.MAX_VALUE);
+        int size = 0;
+        for (byte[] stream : fitted) {
+            size += stream.length;
+        }
+        assertTrue(size <= Short.MAX_VALUE);
+        assertTrue(ByteUtils.compress(1, streams).length > Short.MAX_VALUE * 2);
+        assertTrue(ByteUtils.compress(1, fitted).length < Short.MAX_VALUE);
+    }
+
+}
@@ -0,0 +1,151 @@
+package cc.blynk.server.core.reporting;
+
+import cc.blynk.server.core.model.AppName;
+import cc.blynk.server.core.model.DataStream;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.AggregationFunctionType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphPeriod;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import cc.blynk.server.core.stats.model.GraphCacheStat;
+import cc.blynk.utils.ByteUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.09.17.
+ */
+public class GraphDataCacheTest {
+
+    private User user;
+    private GraphDataCache cache;
+
+    @Before
+    public void init() {
+        user = new User();
+        user.email = "test@blynk.cc";
+        user.appName = AppName.BLYNK;
+        cache = new GraphDataCache(1024 * 1024);
+    }
+
+    private static byte[] series(int points) {
+        ByteBuffer buf = ByteBuffer.allocate(points * 16);
+        for (int i = 0; i < points; i++) {
+            buf.putDouble(ThreadLocalRandom.current().nextInt(100) / 10D).putLong(1_500_000_000_000L + i * 60_000L);
+        }
+        return buf.array();
+    }
+
+    private GraphDataCache.Key key(int deviceId, byte pin, GraphPeriod period) {
+        GraphPinRequest request = new GraphPinRequest(1, deviceId, new DataStream(pin, PinType.VIRTUAL),
+                period, 0, AggregationFunctionType.AVG);
+        return new GraphDataCache.Key(user, request, DownsamplingType.LTTB, 0);
+    }
+
+    private BaseReportingKey pinKey(int deviceId, byte pin) {
+        return new BaseReportingKey(user.email, user.appName, 1, deviceId, PinType.VIRTUAL, pin);
+    }
+
+    @Test
+    public void testJoinedStreamsSameAsCompressed() throws Exception {
+        byte[][] data = {series(1000), new byte[0], series(3), series(20_000)};
+        CompressedGraphStream[] streams = new CompressedGraphStream[data.length];
+        for (int i = 0; i < data.length; i++) {
+            streams[i] = CompressedGraphStream.compress(data[i]);
+        }
+
+        byte[] joined = CompressedGraphStream.join(7, streams);
+        assertArrayEquals(ByteUtils.decompress(ByteUtils.compress(7, data)), ByteUtils.decompress(joined));
+    }
+
+    @Test
+    public void testDecompressedSameAsCompressed() {
+        byte[][] data = {series(1000), new byte[0], series(3), series(20_000)};
+        for (byte[] pinData : data) {
+            assertArrayEquals(pinData, CompressedGraphStream.compress(pinData).decompress());
+        }
+    }
+
+    @Test
+    public void testInvalidatedOnWrite() {
+        GraphDataCache.Key key = key(0, (byte) 1, GraphPeriod.DAY);
+        CompressedGraphStream stream = CompressedGraphStream.compress(series(10));
+
+        assertNull(cache.get(key));
+        cache.put(key, stream, cache.version());
+        assertSame(stream, cache.get(key));
+        assertSame(stream, cache.get(key(0, (byte) 1, GraphPeriod.DAY)));
+        assertNull(cache.get(key(0, (byte) 1, GraphPeriod.WEEK)));
+
+        //other pin and other granularity
+        cache.invalidate(pinKey(0, (byte) 2), GraphPeriod.DAY.granularityType);
+        cache.invalidate(pinKey(0, (byte) 1), GraphGranularityType.DAILY);
+        assertSame(stream, cache.get(key));
+
+        cache.invalidate(pinKey(0, (byte) 1), GraphPeriod.DAY.granularityType);
+        assertNull(cache.get(key));
+
+        GraphCacheStat stat = cache.getStat();
+        assertEquals(3, stat.hits);
+        assertEquals(3, stat.misses);
+        assertEquals(50, stat.hitRate);
+        assertEquals(1, stat.invalidations);
+        assertEquals(0, stat.entries);
+        assertEquals(0, stat.bytes);
+    }
+
+    @Test
+    public void testTagInvalidatedByAnyDevice() {
+        GraphPinRequest request = new GraphPinRequest(1, new int[] {0, 1, 2}, new DataStream((byte) 1, PinType.VIRTUAL),
+                GraphPeriod.DAY, 0, AggregationFunctionType.MAX);
+        GraphDataCache.Key key = new GraphDataCache.Key(user, request, DownsamplingType.LTTB, 0);
+        cache.put(key, CompressedGraphStream.compress(series(10)), cache.version());
+
+        cache.invalidate(pinKey(2, (byte) 1));
+        assertNull(cache.get(key));
+        assertEquals(0, cache.getStat().bytes);
+    }
+
+    @Test
+    public void testNotCachedWhenInvalidatedDuringRead() {
+        GraphDataCache.Key key = key(0, (byte) 1, GraphPeriod.DAY);
+        long version = cache.version();
+        cache.invalidate(pinKey(0, (byte) 1), GraphPeriod.DAY.granularityType);
+        cache.put(key, CompressedGraphStream.compress(series(10)), version);
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        CompressedGraphStream stream = CompressedGraphStream.compress(series(1000));
+        cache = new GraphDataCache((stream.size() + 128) * 3);
+
+        for (byte pin = 0; pin < 3; pin++) {
+            cache.put(key(0, pin, GraphPeriod.DAY), stream, cache.version());
+        }
+        cache.get(key(0, (byte) 0, GraphPeriod.DAY));
+        cache.put(key(0, (byte) 3, GraphPeriod.DAY), stream, cache.version());
+
+        assertSame(stream, cache.get(key(0, (byte) 0, GraphPeriod.DAY)));
+        assertNull(cache.get(key(0, (byte) 1, GraphPeriod.DAY)));
+        assertSame(stream, cache.get(key(0, (byte) 2, GraphPeriod.DAY)));
+        assertEquals(1, cache.getStat().evictions);
+        assertEquals(3, cache.getStat().entries);
+
+        //evicted entry is removed from index too
+        cache.invalidate(pinKey(0, (byte) 1), GraphPeriod.DAY.granularityType);
+        assertEquals(0, cache.getStat().invalidations);
+    }
+
+}
@@ -0,0 +1,97 @@
+package cc.blynk.server.core.reporting;
+
+import cc.blynk.server.core.dao.functions.Function;
+import cc.blynk.server.core.model.widgets.outputs.graph.AggregationFunctionType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphPeriod;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tag of devices with hourly data for 3 months, same timestamps for all devices.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 15.09.17.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class SeriesMergerPerfTest {
+
+    @Param({"10", "50", "200"})
+    public int devices;
+
+    @Param({"AVG", "MED"})
+    public AggregationFunctionType functionType;
+
+    private ByteBuffer[] series;
+
+    @Setup
+    public void setup() {
+        int points = GraphPeriod.THREE_MONTHS.numberOfPoints;
+        long startTs = System.currentTimeMillis() / 3_600_000 - points;
+        series = new ByteBuffer[devices];
+        for (int i = 0; i < devices; i++) {
+            ByteBuffer buf = ByteBuffer.allocate(points * 16);
+            for (int j = 0; j < points; j++) {
+                buf.putDouble(ThreadLocalRandom.current().nextDouble(100))
+                   .putLong((startTs + j) * 3_600_000);
+            }
+            series[i] = buf;
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer treeMap() {
+        TreeMap<Long, Function> data = new TreeMap<>();
+        for (ByteBuffer buf : series) {
+            ByteBuffer localByteBuf = buf.duplicate();
+            localByteBuf.flip();
+            while (localByteBuf.hasRemaining()) {
+                double newVal = localByteBuf.getDouble();
+                Long ts = localByteBuf.getLong();
+                Function functionObj = data.get(ts);
+                if (functionObj == null) {
+                    functionObj = functionType.produce();
+                    data.put(ts, functionObj);
+                }
+                functionObj.apply(newVal);
+            }
+        }
+        ByteBuffer result = ByteBuffer.allocate(data.size() * 16);
+        for (Map.Entry<Long, Function> entry : data.entrySet()) {
+            result.putDouble(entry.getValue().getResult())
+                  .putLong(entry.getKey());
+        }
+        return result;
+    }
+
+    @Benchmark
+    public ByteBuffer kWayMerge() {
+        return SeriesMerger.merge(series, functionType.produce());
+    }
+
+    @Benchmark
+    public ByteBuffer kWayMergeApproximate() {
+        return SeriesMerger.merge(series, functionType.produce(true));
+    }
+
+}
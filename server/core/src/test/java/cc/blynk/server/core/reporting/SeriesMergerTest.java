@@ -0,0 +1,117 @@
+package cc.blynk.server.core.reporting;
+
+import cc.blynk.server.core.dao.functions.Function;
+import cc.blynk.server.core.model.widgets.outputs.graph.AggregationFunctionType;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 15.09.17.
+ */
+public class SeriesMergerTest {
+
+    private static ByteBuffer series(double... valuesAndTs) {
+        ByteBuffer buf = ByteBuffer.allocate(valuesAndTs.length * 8);
+        for (int i = 0; i < valuesAndTs.length; i += 2) {
+            buf.putDouble(valuesAndTs[i]).putLong((long) valuesAndTs[i + 1]);
+        }
+        return buf;
+    }
+
+    //previous implementation of tag data aggregation
+    private static ByteBuffer mergeWithTreeMap(ByteBuffer[] series, AggregationFunctionType functionType) {
+        TreeMap<Long, Function> data = new TreeMap<>();
+        for (ByteBuffer buf : series) {
+            if (buf != null) {
+                ByteBuffer localByteBuf = buf.duplicate();
+                localByteBuf.flip();
+                while (localByteBuf.hasRemaining()) {
+                    double newVal = localByteBuf.getDouble();
+                    Long ts = localByteBuf.getLong();
+                    data.computeIfAbsent(ts, key -> functionType.produce()).apply(newVal);
+                }
+            }
+        }
+        ByteBuffer result = ByteBuffer.allocate(data.size() * 16);
+        for (Map.Entry<Long, Function> entry : data.entrySet()) {
+            result.putDouble(entry.getValue().getResult())
+                  .putLong(entry.getKey());
+        }
+        return result;
+    }
+
+    @Test
+    public void testMerge() {
+        ByteBuffer[] series = {
+                series(1, 10, 2, 20, 3, 30),
+                null,
+                series(5, 20, -1, 40),
+                series(),
+                series(7, 5)
+        };
+
+        ByteBuffer result = SeriesMerger.merge(series, AggregationFunctionType.SUM.produce());
+        assertEquals(5 * 16, result.position());
+        assertEquals(5 * 16, result.array().length);
+        assertEquals(series(7, 5, 1, 10, 7, 20, 3, 30, -1, 40), result);
+
+        result = SeriesMerger.merge(series, AggregationFunctionType.MAX.produce());
+        assertEquals(series(7, 5, 1, 10, 5, 20, 3, 30, -1, 40), result);
+    }
+
+    @Test
+    public void testNoData() {
+        ByteBuffer result = SeriesMerger.merge(new ByteBuffer[] {null, series()}, AggregationFunctionType.AVG.produce());
+        assertEquals(0, result.position());
+        assertEquals(0, result.array().length);
+    }
+
+    @Test
+    public void testSameResultAsTreeMap() {
+        //aligned timestamps are merged with scans
+        assertSameResultAsTreeMap(3);
+    }
+
+    @Test
+    public void testSameResultAsTreeMapNotAligned() {
+        //sparse timestamps switch merge to heap
+        assertSameResultAsTreeMap(1000);
+    }
+
+    private static void assertSameResultAsTreeMap(int maxStep) {
+        Random random = new Random(17);
+        ByteBuffer[] series = new ByteBuffer[30];
+        for (int i = 0; i < series.length; i++) {
+            int count = random.nextInt(100);
+            double[] valuesAndTs = new double[count * 2];
+            long ts = random.nextInt(20);
+            for (int j = 0; j < count; j++) {
+                valuesAndTs[j * 2] = random.nextInt(2000) / 10.0 - 100;
+                valuesAndTs[j * 2 + 1] = ts;
+                ts += 1 + random.nextInt(maxStep);
+            }
+            series[i] = series(valuesAndTs);
+        }
+
+        for (AggregationFunctionType functionType : AggregationFunctionType.values()) {
+            ByteBuffer expected = mergeWithTreeMap(series, functionType);
+            ByteBuffer result = SeriesMerger.merge(series, functionType.produce());
+            expected.flip();
+            result.flip();
+            assertEquals(functionType.name(), expected.remaining(), result.remaining());
+            while (expected.hasRemaining()) {
+                assertEquals(functionType.name(), expected.getDouble(), result.getDouble(), 0.0000001);
+                assertEquals(functionType.name(), expected.getLong(), result.getLong());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,201 @@
+package cc.blynk.server.core.reporting.average;
+
+import cc.blynk.server.core.model.AppName;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 02.09.17.
+ */
+public class AggregationCheckpointTest {
+
+    private Path dataFolder;
+
+    @Before
+    public void init() throws IOException {
+        dataFolder = Files.createTempDirectory("blynk_checkpoint");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        org.apache.commons.io.FileUtils.deleteDirectory(dataFolder.toFile());
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        PinIdRegistry pinIds = new PinIdRegistry();
+        AggregationTable table = new AggregationTable();
+        for (int i = 0; i < 1000; i++) {
+            BaseReportingKey key = new BaseReportingKey("test" + (i % 10) + "@blynk.cc", AppName.BLYNK,
+                    i, 0, PinType.VIRTUAL, (byte) (i % 128));
+            int pinId = pinIds.getId(key);
+            table.add(pinId, 25000000L + i, i * 2.5D, i + 1);
+        }
+
+        Path path = dataFolder.resolve("hourly_temp.bin");
+        AggregationCheckpoint.write(path, table.copy(), pinIds);
+        assertTrue(Files.exists(path));
+        assertFalse(AggregationCheckpoint.isLegacy(path));
+
+        //ids are assigned in other order after restart
+        PinIdRegistry restoredPinIds = new PinIdRegistry();
+        restoredPinIds.getId(new BaseReportingKey("other@blynk.cc", AppName.BLYNK, 1, 0, PinType.DIGITAL, (byte) 1));
+        AggregationTable restored = new AggregationTable();
+        assertEquals(1000, AggregationCheckpoint.read(path, restored, restoredPinIds, -1));
+        assertEquals(1000, restored.size());
+
+        Map<Integer, Double> sums = new HashMap<>();
+        restored.forEach((pinId, period, sum, count) -> {
+            BaseReportingKey key = restoredPinIds.getKey(pinId);
+            assertEquals(25000000L + key.dashId, period);
+            assertEquals(key.dashId + 1, count);
+            assertEquals("test" + (key.dashId % 10) + "@blynk.cc", key.email);
+            sums.put(key.dashId, sum);
+        });
+        assertEquals(1000, sums.size());
+        assertEquals(999 * 2.5D, sums.get(999), 0);
+    }
+
+    @Test
+    public void testEmptyTableRemovesCheckpoint() throws IOException {
+        Path path = dataFolder.resolve("minute_temp.bin");
+        Files.write(path, new byte[] {1, 2, 3});
+        AggregationCheckpoint.write(path, new AggregationTable(), new PinIdRegistry());
+        assertFalse(Files.exists(path));
+    }
+
+    @Test
+    public void testLegacySnapshotRestored() throws IOException {
+        Map<AggregationKey, AggregationValue> legacy = new HashMap<>();
+        AggregationValue value = new AggregationValue();
+        value.update(10);
+        value.update(20);
+        legacy.put(new AggregationKey("test@blynk.cc", AppName.BLYNK, 1, 0, PinType.VIRTUAL, (byte) 1, 100), value);
+
+        Path path = dataFolder.resolve(AverageAggregatorProcessor.DAILY_TEMP_FILENAME);
+        try (OutputStream os = Files.newOutputStream(path);
+             ObjectOutputStream oos = new ObjectOutputStream(os)) {
+            oos.writeObject(legacy);
+        }
+        assertTrue(AggregationCheckpoint.isLegacy(path));
+
+        AverageAggregatorProcessor averageAggregator = new AverageAggregatorProcessor(dataFolder.toString());
+        assertEquals(15, averageAggregator.getDaily().get(
+                new AggregationKey("test@blynk.cc", AppName.BLYNK, 1, 0, PinType.VIRTUAL, (byte) 1, 100)).calcAverage(), 0);
+        assertFalse(Files.exists(path));
+
+        averageAggregator.checkpoint();
+        assertTrue(Files.exists(path));
+        assertFalse(AggregationCheckpoint.isLegacy(path));
+    }
+
+    @Test
+    public void testDrainedEntriesKeptTillFlushed() throws IOException {
+        BaseReportingKey key = new BaseReportingKey("test@blynk.cc", AppName.BLYNK, 1, 0, PinType.VIRTUAL, (byte) 1);
+        AverageAggregatorProcessor averageAggregator = new AverageAggregatorProcessor(dataFolder.toString());
+        averageAggregator.collect(key, 10 * AverageAggregatorProcessor.MINUTE, 1);
+        averageAggregator.collect(key, 11 * AverageAggregatorProcessor.MINUTE, 2);
+
+        Map<AggregationKey, AggregationValue> drained = averageAggregator.drain(GraphGranularityType.MINUTE, 11);
+        assertEquals(1, drained.size());
+        assertTrue(averageAggregator.getMinute().containsKey(new AggregationKey(key, 11)));
+
+        //checkpoint is taken while drained entry is being written
+        averageAggregator.checkpoint();
+        AverageAggregatorProcessor restored = new AverageAggregatorProcessor(dataFolder.toString());
+        assertEquals(2, restored.getMinute().size());
+        assertEquals(1, restored.getMinute().get(new AggregationKey(key, 10)).calcAverage(), 0);
+
+        //same checkpoint is restored after entry was written, written period is skipped
+        averageAggregator.checkpoint();
+        averageAggregator.flushed(GraphGranularityType.MINUTE, drained, Collections.emptyMap());
+        restored = new AverageAggregatorProcessor(dataFolder.toString());
+        assertEquals(1, restored.getMinute().size());
+        assertTrue(restored.getMinute().containsKey(new AggregationKey(key, 11)));
+
+        //written entries are not part of next checkpoint
+        averageAggregator.checkpoint();
+        restored = new AverageAggregatorProcessor(dataFolder.toString());
+        assertEquals(1, restored.getMinute().size());
+    }
+
+    @Test
+    public void testFailedEntriesRetried() throws IOException {
+        BaseReportingKey key = new BaseReportingKey("test@blynk.cc", AppName.BLYNK, 1, 0, PinType.VIRTUAL, (byte) 1);
+        AverageAggregatorProcessor averageAggregator = new AverageAggregatorProcessor(dataFolder.toString());
+        averageAggregator.collect(key, 10 * AverageAggregatorProcessor.MINUTE, 1);
+
+        Map<AggregationKey, AggregationValue> drained = averageAggregator.drain(GraphGranularityType.MINUTE, 11);
+        assertEquals(1, drained.size());
+        assertTrue(averageAggregator.getMinute().isEmpty());
+
+        //same checkpoint is restored after write failed, failed period is not skipped
+        averageAggregator.checkpoint();
+        averageAggregator.flushed(GraphGranularityType.MINUTE, drained, drained);
+        AverageAggregatorProcessor restored = new AverageAggregatorProcessor(dataFolder.toString());
+        assertEquals(1, restored.getMinute().get(new AggregationKey(key, 10)).calcAverage(), 0);
+
+        //failed entry is drained again with next flush
+        drained = averageAggregator.drain(GraphGranularityType.MINUTE, 12);
+        assertEquals(1, drained.size());
+        assertEquals(1, drained.get(new AggregationKey(key, 10)).calcAverage(), 0);
+    }
+
+    @Test
+    public void testFailingEntryDoesNotHoldBackWrittenPeriod() throws IOException {
+        BaseReportingKey failing = new BaseReportingKey("test@blynk.cc", AppName.BLYNK, 1, 0,
+                PinType.VIRTUAL, (byte) 1);
+        BaseReportingKey key = new BaseReportingKey("test@blynk.cc", AppName.BLYNK, 1, 0, PinType.VIRTUAL, (byte) 2);
+        AverageAggregatorProcessor averageAggregator = new AverageAggregatorProcessor(dataFolder.toString());
+        averageAggregator.collect(failing, 10 * AverageAggregatorProcessor.MINUTE, 1);
+        AggregationKey failingKey = new AggregationKey(failing, 10);
+
+        for (int i = 0; i < AverageAggregatorProcessor.MAX_WRITE_ATTEMPTS; i++) {
+            long period = 11 + i;
+            averageAggregator.collect(key, period * AverageAggregatorProcessor.MINUTE - 1, period);
+            Map<AggregationKey, AggregationValue> drained =
+                    averageAggregator.drain(GraphGranularityType.MINUTE, period);
+            assertEquals(2, drained.size());
+            assertTrue(drained.containsKey(failingKey));
+            averageAggregator.checkpoint();
+            averageAggregator.flushed(GraphGranularityType.MINUTE, drained,
+                    Collections.singletonMap(failingKey, drained.get(failingKey)));
+
+            //other entries are written, so they are not restored from checkpoint taken before flush
+            AverageAggregatorProcessor restored = new AverageAggregatorProcessor(dataFolder.toString());
+            Map<AggregationKey, AggregationValue> restoredEntries = restored.getMinute();
+            if (i < AverageAggregatorProcessor.MAX_WRITE_ATTEMPTS - 1) {
+                assertEquals(1, restoredEntries.size());
+                assertTrue(restoredEntries.containsKey(failingKey));
+            } else {
+                assertTrue(restoredEntries.isEmpty());
+            }
+            averageAggregator.checkpoint();
+        }
+
+        //failing entry is dropped after last attempt
+        assertTrue(averageAggregator.drain(GraphGranularityType.MINUTE, 20).isEmpty());
+        averageAggregator.checkpoint();
+        assertTrue(new AverageAggregatorProcessor(dataFolder.toString()).getMinute().isEmpty());
+    }
+
+}
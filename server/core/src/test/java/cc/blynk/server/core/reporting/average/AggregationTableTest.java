@@ -0,0 +1,60 @@
+package cc.blynk.server.core.reporting.average;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 30.08.17.
+ */
+public class AggregationTableTest {
+
+    @Test
+    public void testAggregateAndDrainOutdated() {
+        AggregationTable table = new AggregationTable();
+
+        //enough entries to force rehash of every stripe
+        for (int pinId = 1; pinId <= 1000; pinId++) {
+            for (long period = 100; period < 110; period++) {
+                table.aggregate(pinId, period, pinId);
+                table.aggregate(pinId, period, period);
+            }
+        }
+        assertEquals(10_000, table.size());
+
+        Map<Long, Double> drained = new HashMap<>();
+        table.drain(105, (pinId, period, sum, count) -> {
+            assertEquals(2, count);
+            assertEquals(pinId + period, sum, 0);
+            drained.put(((long) pinId << 32) | period, sum);
+        });
+
+        assertEquals(5000, drained.size());
+        assertEquals(5000, table.size());
+
+        int[] left = new int[1];
+        table.forEach((pinId, period, sum, count) -> {
+            assertTrue(period >= 105);
+            left[0]++;
+        });
+        assertEquals(5000, left[0]);
+
+        //remaining entries are still reachable after removals
+        table.aggregate(7, 105, 1);
+        assertEquals(5000, table.size());
+
+        table.drain(Long.MAX_VALUE, (pinId, period, sum, count) -> {
+            if (pinId == 7 && period == 105) {
+                assertEquals(3, count);
+            }
+        });
+        assertEquals(0, table.size());
+    }
+
+}
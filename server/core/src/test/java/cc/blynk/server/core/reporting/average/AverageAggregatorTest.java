@@ -4,6 +4,7 @@ import cc.blynk.server.core.dao.ReportingDao;
 import cc.blynk.server.core.model.AppName;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
 import cc.blynk.server.core.reporting.raw.BaseReportingKey;
 import cc.blynk.utils.ServerProperties;
 import org.junit.Test;
@@ -15,9 +16,11 @@ import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.Collections;
+import java.util.Map;
 
 import static cc.blynk.server.core.reporting.average.AverageAggregatorProcessor.DAY;
 import static cc.blynk.server.core.reporting.average.AverageAggregatorProcessor.HOUR;
+import static cc.blynk.server.core.reporting.average.AverageAggregatorProcessor.MINUTE;
 import static cc.blynk.utils.ReportingUtil.getReportingFolder;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -101,6 +104,29 @@ public class AverageAggregatorTest {
         assertEquals(expectedDailyAverage, averageAggregator.getDaily().get(new AggregationKey(user.email, user.appName, dashId, 0, pinType, pin, getMillis(2015, 8, 1, 0, 0) / DAY)).calcAverage(), 0);
     }
 
+    @Test
+    public void testPinReleasedAfterAllEntriesDrained() {
+        AverageAggregatorProcessor averageAggregator = new AverageAggregatorProcessor("");
+        BaseReportingKey key = new BaseReportingKey("test@test.com", AppName.BLYNK, 1, 0, PinType.VIRTUAL, (byte) 1);
+
+        long ts = getMillis(2015, 8, 1, 0, 0);
+        averageAggregator.collect(key, ts, 10);
+        assertEquals(1, averageAggregator.pinsCount());
+
+        averageAggregator.drain(GraphGranularityType.MINUTE, ts / MINUTE + 1);
+        averageAggregator.drain(GraphGranularityType.HOURLY, ts / HOUR + 1);
+        assertEquals(1, averageAggregator.pinsCount());
+
+        Map<AggregationKey, AggregationValue> daily = averageAggregator.drain(GraphGranularityType.DAILY, ts / DAY + 1);
+        assertEquals(1, daily.size());
+        assertEquals(0, averageAggregator.pinsCount());
+
+        long nextDay = getMillis(2015, 8, 2, 0, 0);
+        averageAggregator.collect(key, nextDay, 20);
+        assertEquals(1, averageAggregator.pinsCount());
+        assertEquals(20, averageAggregator.getDaily().get(new AggregationKey(key, nextDay / DAY)).calcAverage(), 0);
+    }
+
     @Test
     public void testTempFilesCreated() throws IOException {
         Path dir = Paths.get(reportingFolder, "");
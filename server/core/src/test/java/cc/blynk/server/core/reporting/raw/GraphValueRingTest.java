@@ -0,0 +1,64 @@
+package cc.blynk.server.core.reporting.raw;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 31.08.17.
+ */
+public class GraphValueRingTest {
+
+    @Test
+    public void testReadLastPoints() {
+        GraphValueRing ring = new GraphValueRing(4);
+        assertNull(ring.read(10, 0));
+
+        ring.add(1, 1);
+        ring.add(2, 2);
+
+        ByteBuffer data = ring.read(10, 0);
+        assertNotNull(data);
+        data.flip();
+        assertEquals(32, data.remaining());
+        assertEquals(1, data.getDouble(), 0);
+        assertEquals(1, data.getLong());
+        assertEquals(2, data.getDouble(), 0);
+        assertEquals(2, data.getLong());
+
+        assertNull(ring.read(10, 2));
+    }
+
+    @Test
+    public void testOverwrittenPointsAreDropped() {
+        GraphValueRing ring = new GraphValueRing(4);
+        for (int i = 0; i < 10; i++) {
+            ring.add(i, i * 1000);
+        }
+
+        ByteBuffer data = ring.read(10, 0);
+        assertNotNull(data);
+        data.flip();
+        assertEquals(4 * 16, data.remaining());
+        for (int i = 6; i < 10; i++) {
+            assertEquals(i, data.getDouble(), 0);
+            assertEquals(i * 1000, data.getLong());
+        }
+
+        data = ring.read(2, 1);
+        assertNotNull(data);
+        data.flip();
+        assertEquals(2 * 16, data.remaining());
+        assertEquals(7, data.getDouble(), 0);
+        assertEquals(7000, data.getLong());
+        assertEquals(8, data.getDouble(), 0);
+        assertEquals(8000, data.getLong());
+    }
+
+}
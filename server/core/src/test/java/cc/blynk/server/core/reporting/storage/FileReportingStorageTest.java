@@ -0,0 +1,278 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.dao.ReportingDao;
+import cc.blynk.server.core.model.AppName;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.utils.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 19.09.17.
+ */
+public class FileReportingStorageTest {
+
+    private static final String EMAIL = "test@blynk.cc";
+    private static final char PIN_TYPE = PinType.VIRTUAL.pintTypeChar;
+
+    private Path dataFolder;
+    private FileReportingStorage storage;
+    private Path rawFile;
+    private Path blocksFile;
+
+    @Before
+    public void init() throws IOException {
+        dataFolder = Files.createTempDirectory("blynk_files");
+        storage = new FileReportingStorage(dataFolder.toString());
+        rawFile = dataFolder.resolve(EMAIL).resolve(
+                ReportingDao.generateFilename(1, 0, PIN_TYPE, (byte) 1, GraphGranularityType.MINUTE));
+        blocksFile = HistoryBlockFile.blocksPath(rawFile);
+    }
+
+    @After
+    public void close() throws IOException {
+        storage.close();
+        org.apache.commons.io.FileUtils.deleteDirectory(dataFolder.toFile());
+    }
+
+    private static ByteBuffer entries(int count, long seed) {
+        Random random = new Random(seed);
+        ByteBuffer entries = ByteBuffer.allocate(count * 16);
+        long ts = 1_500_000_000_000L;
+        double value = 20;
+        for (int i = 0; i < count; i++) {
+            //mostly regular timestamps with random gaps, smooth values with jumps and special values
+            ts += random.nextInt(10) == 0 ? 60_000L * (1 + random.nextInt(100_000)) : 60_000L;
+            if (i % 100 == 50) {
+                value = i % 200 == 50 ? Double.NaN : -Double.MAX_VALUE;
+            } else if (random.nextInt(5) != 0) {
+                value = Math.round((20 + random.nextGaussian()) * 100) / 100D;
+            }
+            entries.putDouble(value).putLong(ts);
+        }
+        entries.flip();
+        return entries;
+    }
+
+    private void write(ByteBuffer entries) throws IOException {
+        storage.write(EMAIL, AppName.BLYNK, 1, 0, PIN_TYPE, (byte) 1, GraphGranularityType.MINUTE, entries.duplicate());
+    }
+
+    private ByteBuffer read(int count, int skip) throws IOException {
+        return storage.read(EMAIL, AppName.BLYNK, 1, 0, PIN_TYPE, (byte) 1, GraphGranularityType.MINUTE, count, skip);
+    }
+
+    @Test
+    public void testCodecRoundTrip() {
+        int count = 5000;
+        ByteBuffer entries = entries(count, 1);
+        byte[] encoded = HistoryBlockCodec.encode(entries, 0, count);
+        assertTrue(encoded.length < count * 16);
+
+        ByteBuffer decoded = ByteBuffer.allocate(count * 16);
+        HistoryBlockCodec.decode(ByteBuffer.wrap(encoded), count, decoded);
+        assertEquals(entries, decoded.flip());
+
+        //regular timestamps and same value take 2 bits per entry
+        ByteBuffer regular = ByteBuffer.allocate(count * 16);
+        for (int i = 0; i < count; i++) {
+            regular.putDouble(1).putLong(i * 60_000L);
+        }
+        assertTrue(HistoryBlockCodec.encode(regular, 0, count).length < count / 4 + 32);
+
+        //single entry and extreme timestamps
+        ByteBuffer extreme = ByteBuffer.allocate(48);
+        extreme.putDouble(Double.NEGATIVE_INFINITY).putLong(Long.MIN_VALUE)
+               .putDouble(0.1D).putLong(Long.MAX_VALUE)
+               .putDouble(-0.0D).putLong(0);
+        extreme.flip();
+        for (int i = 1; i <= 3; i++) {
+            decoded = ByteBuffer.allocate(i * 16);
+            HistoryBlockCodec.decode(ByteBuffer.wrap(HistoryBlockCodec.encode(extreme, 0, i)), i, decoded);
+            decoded.flip();
+            ByteBuffer expected = extreme.duplicate();
+            expected.limit(i * 16);
+            assertEquals(expected, decoded);
+        }
+    }
+
+    @Test
+    public void testCompressedReadIsSameAsRaw() throws IOException {
+        int count = HistoryBlockFile.BLOCK_ENTRIES * 3 + 100;
+        ByteBuffer entries = entries(count, 2);
+        write(entries);
+
+        int[] counts = {1, 10, 100, HistoryBlockFile.BLOCK_ENTRIES, count, count * 2};
+        int[] skips = {0, 1, 99, 100, 101, HistoryBlockFile.BLOCK_ENTRIES + 5, count - 1, count};
+        ByteBuffer[] expected = new ByteBuffer[counts.length * skips.length];
+        for (int i = 0; i < counts.length; i++) {
+            for (int j = 0; j < skips.length; j++) {
+                expected[i * skips.length + j] = read(counts[i], skips[j]);
+            }
+        }
+
+        assertEquals(HistoryBlockFile.BLOCK_ENTRIES * 3, storage.compact(rawFile));
+        assertTrue(Files.exists(blocksFile));
+        assertEquals(100 * 16, Files.size(rawFile));
+        assertTrue(Files.size(blocksFile) < HistoryBlockFile.BLOCK_ENTRIES * 3 * 16);
+
+        for (int i = 0; i < counts.length; i++) {
+            for (int j = 0; j < skips.length; j++) {
+                ByteBuffer data = read(counts[i], skips[j]);
+                ByteBuffer expectedData = expected[i * skips.length + j];
+                if (expectedData == null) {
+                    assertNull(data);
+                } else {
+                    assertNotNull(data);
+                    assertEquals(expectedData.position(), data.position());
+                    assertEquals(expectedData.flip(), data.flip());
+                }
+            }
+        }
+
+        ByteBuffer view = storage.readView(EMAIL, AppName.BLYNK, 1, 0, PIN_TYPE, (byte) 1,
+                GraphGranularityType.MINUTE, count, 0);
+        assertNotNull(view);
+        assertTrue(view.isReadOnly());
+        assertEquals(entries, view);
+    }
+
+    @Test
+    public void testAppendAfterCompaction() throws IOException {
+        int count = HistoryBlockFile.BLOCK_ENTRIES * 2;
+        ByteBuffer entries = entries(count + 10, 3);
+
+        ByteBuffer firstPart = entries.duplicate();
+        firstPart.limit(count * 16);
+        write(firstPart);
+        //whole file is moved into blocks
+        assertEquals(count, storage.compact(rawFile));
+        assertFalse(Files.exists(rawFile));
+
+        ByteBuffer secondPart = entries.duplicate();
+        secondPart.position(count * 16);
+        write(secondPart);
+
+        ByteBuffer data = read(count + 10, 0);
+        assertNotNull(data);
+        assertEquals(entries, data.flip());
+
+        data = read(20, 5);
+        assertNotNull(data);
+        data.flip();
+        assertEquals(entries.getLong((count - 15) * 16 + 8), data.getLong(8));
+        assertEquals(entries.getLong((count + 4) * 16 + 8), data.getLong(19 * 16 + 8));
+    }
+
+    @Test
+    public void testInterruptedConversionIsRepaired() throws IOException {
+        int count = HistoryBlockFile.BLOCK_ENTRIES + 10;
+        ByteBuffer entries = entries(count, 4);
+        write(entries);
+        Path copy = rawFile.resolveSibling("copy.bin");
+        Files.copy(rawFile, copy);
+
+        assertEquals(HistoryBlockFile.BLOCK_ENTRIES, storage.compact(rawFile));
+        //raw file wasn't replaced with its tail
+        Files.delete(rawFile);
+        Files.move(copy, rawFile);
+
+        //no new blocks, only converted entries are removed from raw file
+        assertEquals(0, storage.compact(rawFile));
+        assertEquals(10 * 16, Files.size(rawFile));
+        ByteBuffer data = read(count * 2, 0);
+        assertNotNull(data);
+        assertEquals(entries, data.flip());
+    }
+
+    @Test
+    public void testTornBlocksAppendIsRepaired() throws IOException {
+        int count = HistoryBlockFile.BLOCK_ENTRIES * 2 + 10;
+        ByteBuffer entries = entries(count, 7);
+        ByteBuffer firstPart = entries.duplicate();
+        firstPart.limit(HistoryBlockFile.BLOCK_ENTRIES * 16);
+        write(firstPart);
+        assertEquals(HistoryBlockFile.BLOCK_ENTRIES, storage.compact(rawFile));
+        long firstBlockEnd = Files.size(blocksFile);
+
+        ByteBuffer secondPart = entries.duplicate();
+        secondPart.position(HistoryBlockFile.BLOCK_ENTRIES * 16);
+        write(secondPart);
+        Path copy = rawFile.resolveSibling("copy.bin");
+        Files.copy(rawFile, copy);
+        assertEquals(HistoryBlockFile.BLOCK_ENTRIES, storage.compact(rawFile));
+
+        //crash in the middle of second block append, raw file wasn't replaced with its tail
+        try (FileChannel channel = FileChannel.open(blocksFile, StandardOpenOption.WRITE)) {
+            channel.truncate((firstBlockEnd + Files.size(blocksFile)) / 2);
+        }
+        Files.delete(rawFile);
+        Files.move(copy, rawFile);
+
+        assertEquals(HistoryBlockFile.BLOCK_ENTRIES, storage.compact(rawFile));
+        assertEquals(10 * 16, Files.size(rawFile));
+        ByteBuffer data = read(count, 0);
+        assertNotNull(data);
+        assertEquals(entries, data.flip());
+    }
+
+    @Test
+    public void testLateEntryWithSameTsIsKept() throws IOException {
+        int count = HistoryBlockFile.BLOCK_ENTRIES;
+        ByteBuffer entries = entries(count, 6);
+        write(entries);
+        assertEquals(count, storage.compact(rawFile));
+
+        //late value for already written period
+        long lastTs = entries.getLong((count - 1) * 16 + 8);
+        ByteBuffer late = ByteBuffer.allocate(16);
+        late.putDouble(42).putLong(lastTs).flip();
+        write(late);
+
+        assertEquals(0, storage.compact(rawFile));
+        assertEquals(16, Files.size(rawFile));
+        ByteBuffer data = read(1, 0);
+        assertNotNull(data);
+        data.flip();
+        assertEquals(42, data.getDouble(0), 0);
+        assertEquals(lastTs, data.getLong(8));
+    }
+
+    @Test
+    public void testCompactAllAndDelete() throws IOException {
+        write(entries(HistoryBlockFile.BLOCK_ENTRIES, 5));
+        Path otherFile = dataFolder.resolve(EMAIL).resolve(
+                ReportingDao.generateFilename(1, 0, PIN_TYPE, (byte) 1, GraphGranularityType.HOURLY));
+        FileUtils.write(otherFile, 1, 1);
+
+        storage.compact();
+        assertTrue(Files.exists(blocksFile));
+        assertFalse(Files.exists(rawFile));
+        assertTrue(Files.exists(otherFile));
+        assertFalse(Files.exists(HistoryBlockFile.blocksPath(otherFile)));
+
+        storage.delete(EMAIL, AppName.BLYNK, 1, 0, PIN_TYPE, (byte) 1);
+        assertFalse(Files.exists(blocksFile));
+        assertFalse(Files.exists(otherFile));
+        assertNull(read(10, 0));
+    }
+
+}
@@ -0,0 +1,189 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.dao.ReportingDao;
+import cc.blynk.server.core.model.AppName;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.utils.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 28.08.17.
+ */
+public class MappedReportingStorageTest {
+
+    private static final String EMAIL = "test@blynk.cc";
+    private static final char PIN_TYPE = PinType.VIRTUAL.pintTypeChar;
+
+    private Path dataFolder;
+    private MappedReportingStorage storage;
+
+    @Before
+    public void init() throws IOException {
+        dataFolder = Files.createTempDirectory("blynk_segments");
+        storage = new MappedReportingStorage(dataFolder.toString(), 2);
+    }
+
+    @After
+    public void close() throws IOException {
+        storage.close();
+        org.apache.commons.io.FileUtils.deleteDirectory(dataFolder.toFile());
+    }
+
+    @Test
+    public void testWriteAndReadAcrossChunks() throws IOException {
+        int count = SegmentShard.ENTRIES_PER_CHUNK * 3 + 10;
+        for (int i = 0; i < count; i++) {
+            storage.write(EMAIL, AppName.BLYNK, 1, 0, PIN_TYPE, (byte) 1, GraphGranularityType.MINUTE, i, i * 1000);
+        }
+
+        ByteBuffer data = storage.read(EMAIL, AppName.BLYNK, 1, 0, PIN_TYPE, (byte) 1, GraphGranularityType.MINUTE, 300, 0);
+        assertNotNull(data);
+        data.flip();
+        assertEquals(300 * 16, data.remaining());
+        for (int i = count - 300; i < count; i++) {
+            assertEquals(i, data.getDouble(), 0.0001);
+            assertEquals(i * 1000, data.getLong());
+        }
+
+        data = storage.read(EMAIL, AppName.BLYNK, 1, 0, PIN_TYPE, (byte) 1, GraphGranularityType.MINUTE, 5, 10);
+        assertNotNull(data);
+        data.flip();
+        assertEquals(5 * 16, data.remaining());
+        assertEquals(count - 15, data.getDouble(), 0.0001);
+
+        //asking more than stored
+        data = storage.read(EMAIL, AppName.BLYNK, 1, 0, PIN_TYPE, (byte) 1, GraphGranularityType.MINUTE, count * 2, 0);
+        assertNotNull(data);
+        data.flip();
+        assertEquals(count * 16, data.remaining());
+
+        assertNull(storage.read(EMAIL, AppName.BLYNK, 1, 0, PIN_TYPE, (byte) 1, GraphGranularityType.MINUTE, 10, count));
+        assertNull(storage.read(EMAIL, AppName.BLYNK, 1, 0, PIN_TYPE, (byte) 1, GraphGranularityType.HOURLY, 10, 0));
+    }
+
+    @Test
+    public void testBatchWrite() throws IOException {
+        ByteBuffer entries = ByteBuffer.allocate(3 * 16);
+        for (int i = 0; i < 3; i++) {
+            entries.putDouble(i).putLong(i * 1000);
+        }
+        entries.flip();
+        storage.write(EMAIL, AppName.BLYNK, 1, 0, PIN_TYPE, (byte) 1, GraphGranularityType.HOURLY, entries);
+
+        ByteBuffer data = storage.read(EMAIL, AppName.BLYNK, 1, 0, PIN_TYPE, (byte) 1, GraphGranularityType.HOURLY, 10, 0);
+        assertNotNull(data);
+        data.flip();
+        assertEquals(48, data.remaining());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, data.getDouble(), 0.0001);
+            assertEquals(i * 1000, data.getLong());
+        }
+    }
+
+    @Test
+    public void testDataRestoredAfterReopen() throws IOException {
+        for (int i = 0; i < SegmentShard.ENTRIES_PER_CHUNK + 1; i++) {
+            storage.write(EMAIL, AppName.BLYNK, 1, 0, PIN_TYPE, (byte) 1, GraphGranularityType.HOURLY, i, i);
+            storage.write(EMAIL, AppName.BLYNK, 1, 0, PIN_TYPE, (byte) 2, GraphGranularityType.HOURLY, -i, i);
+        }
+        storage.close();
+
+        storage = new MappedReportingStorage(dataFolder.toString(), 2);
+        assertEquals(2, storage.seriesCount());
+
+        ByteBuffer data = storage.read(EMAIL, AppName.BLYNK, 1, 0, PIN_TYPE, (byte) 2, GraphGranularityType.HOURLY, 2, 0);
+        assertNotNull(data);
+        data.flip();
+        assertEquals(-(SegmentShard.ENTRIES_PER_CHUNK - 1), data.getDouble(), 0.0001);
+        assertEquals(SegmentShard.ENTRIES_PER_CHUNK - 1, data.getLong());
+        assertEquals(-SegmentShard.ENTRIES_PER_CHUNK, data.getDouble(), 0.0001);
+        assertEquals(SegmentShard.ENTRIES_PER_CHUNK, data.getLong());
+
+        storage.write(EMAIL, AppName.BLYNK, 1, 0, PIN_TYPE, (byte) 2, GraphGranularityType.HOURLY, 1000, 1000);
+        data = storage.read(EMAIL, AppName.BLYNK, 1, 0, PIN_TYPE, (byte) 2, GraphGranularityType.HOURLY, 1, 0);
+        assertNotNull(data);
+        data.flip();
+        assertEquals(1000, data.getDouble(), 0.0001);
+    }
+
+    @Test
+    public void testDeleteReleasesSeries() throws IOException {
+        storage.write(EMAIL, AppName.BLYNK, 1, 0, PIN_TYPE, (byte) 1, GraphGranularityType.MINUTE, 1, 1);
+        storage.write(EMAIL, AppName.BLYNK, 1, 0, PIN_TYPE, (byte) 1, GraphGranularityType.DAILY, 1, 1);
+        storage.delete(EMAIL, AppName.BLYNK, 1, 0, PIN_TYPE, (byte) 1);
+
+        assertNull(storage.read(EMAIL, AppName.BLYNK, 1, 0, PIN_TYPE, (byte) 1, GraphGranularityType.MINUTE, 1, 0));
+        assertEquals(0, storage.seriesCount());
+
+        storage.close();
+        storage = new MappedReportingStorage(dataFolder.toString(), 2);
+        assertEquals(0, storage.seriesCount());
+    }
+
+    @Test
+    public void testLegacyFileMigratedOnFirstAccess() throws IOException {
+        Path userFolder = dataFolder.resolve(EMAIL);
+        Files.createDirectories(userFolder);
+        Path legacyFile = userFolder.resolve(
+                ReportingDao.generateFilename(1, 0, PIN_TYPE, (byte) 3, GraphGranularityType.MINUTE));
+        FileUtils.write(legacyFile, 1.11D, 1111111);
+        FileUtils.write(legacyFile, 1.22D, 2222222);
+
+        ByteBuffer data = storage.read(EMAIL, AppName.BLYNK, 1, 0, PIN_TYPE, (byte) 3, GraphGranularityType.MINUTE, 10, 0);
+        assertNotNull(data);
+        data.flip();
+        assertEquals(32, data.remaining());
+        assertEquals(1.11D, data.getDouble(), 0.0001);
+        assertEquals(1111111, data.getLong());
+        assertFalse(Files.exists(legacyFile));
+
+        storage.write(EMAIL, AppName.BLYNK, 1, 0, PIN_TYPE, (byte) 3, GraphGranularityType.MINUTE, 1.33D, 3333333);
+        data = storage.read(EMAIL, AppName.BLYNK, 1, 0, PIN_TYPE, (byte) 3, GraphGranularityType.MINUTE, 10, 0);
+        assertNotNull(data);
+        data.flip();
+        assertEquals(48, data.remaining());
+    }
+
+    @Test
+    public void testCompressedLegacyFileMigrated() throws IOException {
+        Path userFolder = dataFolder.resolve(EMAIL);
+        Files.createDirectories(userFolder);
+        Path legacyFile = userFolder.resolve(
+                ReportingDao.generateFilename(1, 0, PIN_TYPE, (byte) 4, GraphGranularityType.MINUTE));
+        int count = HistoryBlockFile.BLOCK_ENTRIES + 2;
+        ByteBuffer entries = ByteBuffer.allocate(count * 16);
+        for (int i = 0; i < count; i++) {
+            entries.putDouble(i).putLong(i * 60000L);
+        }
+        entries.flip();
+        FileUtils.write(legacyFile, entries);
+        assertEquals(HistoryBlockFile.BLOCK_ENTRIES,
+                HistoryBlockFile.convert(legacyFile, HistoryBlockFile.blocksPath(legacyFile)));
+
+        ByteBuffer data = storage.read(EMAIL, AppName.BLYNK, 1, 0, PIN_TYPE, (byte) 4,
+                GraphGranularityType.MINUTE, count, 0);
+        assertNotNull(data);
+        data.flip();
+        entries.rewind();
+        assertEquals(entries, data);
+        assertFalse(Files.exists(legacyFile));
+        assertFalse(Files.exists(HistoryBlockFile.blocksPath(legacyFile)));
+    }
+
+}
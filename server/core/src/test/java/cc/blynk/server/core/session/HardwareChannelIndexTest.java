@@ -0,0 +1,53 @@
+package cc.blynk.server.core.session;
+
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 04.09.17.
+ */
+public class HardwareChannelIndexTest {
+
+    @Test
+    public void testAddGetRemove() {
+        HardwareChannelIndex index = new HardwareChannelIndex();
+        assertSame(HardwareChannelIndex.EMPTY, index.get(1, 0));
+
+        Channel[] channels = new Channel[100];
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = new EmbeddedChannel();
+            index.add(i % 2, i, channels[i]);
+        }
+
+        Channel second = new EmbeddedChannel();
+        index.add(0, 0, second);
+        //same channel is not added twice
+        index.add(0, 0, second);
+
+        assertArrayEquals(new Channel[] {channels[0], second}, index.get(0, 0));
+        for (int i = 1; i < channels.length; i++) {
+            assertArrayEquals(new Channel[] {channels[i]}, index.get(i % 2, i));
+            assertEquals(0, index.get((i + 1) % 2, i).length);
+        }
+
+        index.remove(channels[0]);
+        assertArrayEquals(new Channel[] {second}, index.get(0, 0));
+
+        for (int i = 1; i < channels.length; i++) {
+            index.remove(channels[i]);
+        }
+        assertArrayEquals(new Channel[] {second}, index.get(0, 0));
+        assertEquals(0, index.get(1, 99).length);
+
+        index.remove(second);
+        assertSame(HardwareChannelIndex.EMPTY, index.get(0, 0));
+    }
+
+}
@@ -2,7 +2,9 @@ package cc.blynk.server.db;
 
 import cc.blynk.server.core.BlockingIOProcessor;
 import cc.blynk.server.core.dao.SessionDao;
+import cc.blynk.server.core.dao.TokenManager;
 import cc.blynk.server.core.dao.UserDao;
+import cc.blynk.server.core.reporting.GraphDataCache;
 import cc.blynk.server.core.reporting.average.AverageAggregatorProcessor;
 import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.core.stats.model.CommandStat;
@@ -64,7 +66,7 @@ public class RealtimeStatsDBTest {
         UserDao userDao = new UserDao(new ConcurrentHashMap<>(), "test");
         BlockingIOProcessor blockingIOProcessor = mock(BlockingIOProcessor.class);
 
-        Stat stat = new Stat(sessionDao, userDao, blockingIOProcessor, new GlobalStats(), false);
+        Stat stat = new Stat(sessionDao, userDao, new TokenManager(userDao.users, blockingIOProcessor, null, ""), new GraphDataCache(0), blockingIOProcessor, new GlobalStats(), false);
         int i;
 
         final HttpStat hs = stat.http;
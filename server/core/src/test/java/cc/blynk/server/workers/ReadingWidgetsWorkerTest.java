@@ -0,0 +1,142 @@
+package cc.blynk.server.workers;
+
+import cc.blynk.server.core.dao.SessionDao;
+import cc.blynk.server.core.dao.UserDao;
+import cc.blynk.server.core.dao.UserKey;
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.auth.Session;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.utils.JsonParser;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 04.09.17.
+ */
+public class ReadingWidgetsWorkerTest {
+
+    private static final String DASH = "{\"id\":1, \"isActive\":true, \"devices\":[{\"id\":0}], \"widgets\":["
+            + "{\"type\":\"GAUGE\",\"id\":7,\"x\":0,\"y\":0,\"width\":1,\"height\":1,"
+            + "\"pinType\":\"VIRTUAL\",\"pin\":1,\"deviceId\":0,\"frequency\":1000},"
+            + "{\"type\":\"GAUGE\",\"id\":8,\"x\":0,\"y\":0,\"width\":1,\"height\":1,"
+            + "\"pinType\":\"VIRTUAL\",\"pin\":2,\"deviceId\":0}"
+            + "]}";
+
+    private ReadingWidgetsWorker worker;
+    private UserKey userKey;
+    private DashBoard dash;
+    private Session session;
+    private EmbeddedChannel appChannel;
+    private EmbeddedChannel hardChannel;
+
+    @Before
+    public void init() {
+        User user = new User("test@test.com", "pass", "Blynk", "local", false, false);
+        dash = JsonParser.parseDashboard(DASH);
+        user.profile.dashBoards = new DashBoard[] {dash};
+        userKey = new UserKey(user);
+
+        ConcurrentHashMap<UserKey, User> users = new ConcurrentHashMap<>();
+        users.put(userKey, user);
+        SessionDao sessionDao = new SessionDao();
+        session = new Session(null);
+        sessionDao.userSession.put(userKey, session);
+
+        appChannel = new EmbeddedChannel();
+        hardChannel = new EmbeddedChannel();
+        session.addAppChannel(appChannel);
+        session.addHardChannel(hardChannel, 1, 0);
+
+        worker = new ReadingWidgetsWorker(sessionDao, new UserDao(users, "local"));
+    }
+
+    @After
+    public void close() {
+        appChannel.finishAndReleaseAll();
+        hardChannel.finishAndReleaseAll();
+    }
+
+    private int readOutbound() {
+        int count = 0;
+        ByteBuf msg;
+        while ((msg = hardChannel.readOutbound()) != null) {
+            msg.release();
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void testOnlyDueWidgetsAreRead() {
+        worker.add(userKey, dash);
+        assertEquals(1, worker.process(10_000));
+        assertEquals(1, worker.getScheduledCount());
+        assertEquals(1, readOutbound());
+
+        assertEquals(0, worker.process(10_500));
+        assertEquals(0, readOutbound());
+
+        assertEquals(1, worker.process(11_000));
+        assertEquals(1, readOutbound());
+    }
+
+    @Test
+    public void testSameWidgetIsNotScheduledTwice() {
+        worker.add(userKey, dash);
+        worker.add(userKey, dash);
+        assertEquals(1, worker.process(10_000));
+        assertEquals(1, worker.getScheduledCount());
+    }
+
+    @Test
+    public void testRemovedWidgetIsDropped() {
+        worker.add(userKey, dash);
+        worker.process(10_000);
+        readOutbound();
+
+        dash.widgets = new Widget[0];
+        assertEquals(0, worker.process(11_000));
+        assertEquals(0, worker.getScheduledCount());
+        assertNull(hardChannel.readOutbound());
+    }
+
+    @Test
+    public void testDeactivatedDashIsDroppedAndScheduledAgainOnActivate() {
+        worker.add(userKey, dash);
+        worker.process(10_000);
+        readOutbound();
+
+        dash.deactivate();
+        worker.add(userKey, dash);
+        assertEquals(0, worker.process(11_000));
+        assertEquals(0, worker.getScheduledCount());
+
+        dash.activate();
+        worker.add(userKey, dash);
+        assertEquals(1, worker.process(12_000));
+        assertEquals(1, readOutbound());
+    }
+
+    @Test
+    public void testDisconnectedHardwareIsDropped() {
+        worker.add(userKey, dash);
+        worker.process(10_000);
+        readOutbound();
+
+        session.removeHardChannel(hardChannel);
+        assertEquals(0, worker.process(11_000));
+        assertEquals(0, worker.getScheduledCount());
+    }
+
+}
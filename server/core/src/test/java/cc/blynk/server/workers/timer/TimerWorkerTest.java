@@ -0,0 +1,61 @@
+package cc.blynk.server.workers.timer;
+
+import cc.blynk.server.core.model.widgets.others.eventor.TimerTime;
+import cc.blynk.utils.DateTimeUtils;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static cc.blynk.server.workers.timer.TimerWorker.NEVER;
+import static cc.blynk.server.workers.timer.TimerWorker.nextFireTime;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 04.09.17.
+ */
+public class TimerWorkerTest {
+
+    //Monday
+    private static final long MONDAY_UTC = LocalDateTime.of(2017, 9, 4, 0, 0).toEpochSecond(ZoneOffset.UTC);
+    private static final int HOUR = 3600;
+    private static final int DAY = 24 * HOUR;
+
+    @Test
+    public void testNextFireTimeEveryDay() {
+        TimerTime time = new TimerTime(HOUR);
+
+        assertEquals(MONDAY_UTC + HOUR, nextFireTime(time, MONDAY_UTC));
+        assertEquals(MONDAY_UTC + HOUR, nextFireTime(time, MONDAY_UTC + HOUR - 1));
+        //never fired twice at same second
+        assertEquals(MONDAY_UTC + DAY + HOUR, nextFireTime(time, MONDAY_UTC + HOUR));
+        assertEquals(MONDAY_UTC + DAY + HOUR, nextFireTime(time, MONDAY_UTC + 2 * HOUR));
+    }
+
+    @Test
+    public void testNextFireTimeRespectsDaysOfWeek() {
+        //saturday and sunday
+        TimerTime weekend = new TimerTime(0, new int[] {6, 7}, 10 * HOUR, DateTimeUtils.UTC);
+        assertEquals(MONDAY_UTC + 5 * DAY + 10 * HOUR, nextFireTime(weekend, MONDAY_UTC));
+        assertEquals(MONDAY_UTC + 6 * DAY + 10 * HOUR, nextFireTime(weekend, MONDAY_UTC + 5 * DAY + 10 * HOUR));
+        assertEquals(MONDAY_UTC + 12 * DAY + 10 * HOUR, nextFireTime(weekend, MONDAY_UTC + 6 * DAY + 10 * HOUR));
+    }
+
+    @Test
+    public void testNextFireTimeUsesUserDayOfWeek() {
+        //01:00 UTC is 18:00 of previous day in Los Angeles, so Monday there is Tuesday in UTC
+        TimerTime monday = new TimerTime(0, new int[] {1}, HOUR, ZoneId.of("America/Los_Angeles"));
+        assertEquals(MONDAY_UTC + DAY + HOUR, nextFireTime(monday, MONDAY_UTC));
+    }
+
+    @Test
+    public void testNeverFired() {
+        assertEquals(NEVER, nextFireTime(new TimerTime(0, new int[0], HOUR, DateTimeUtils.UTC), MONDAY_UTC));
+        assertEquals(NEVER, nextFireTime(new TimerTime(0, null, HOUR, DateTimeUtils.UTC), MONDAY_UTC));
+        assertEquals(NEVER, nextFireTime(new TimerTime(0, new int[] {1}, DAY, DateTimeUtils.UTC), MONDAY_UTC));
+    }
+
+}
@@ -0,0 +1,46 @@
+package cc.blynk.utils;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+import static cc.blynk.utils.StringUtils.prependDashIdAndDeviceId;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 04.09.17.
+ */
+public class BlynkByteBufUtilTest {
+
+    private static void assertSameMessage(int dashId, int deviceId, String body) {
+        ByteBuf expected = BlynkByteBufUtil.makeUTF8StringMessage(HARDWARE, 7, prependDashIdAndDeviceId(dashId, deviceId, body));
+        ByteBuf actual = BlynkByteBufUtil.makeUTF8StringMessage(HARDWARE, 7, dashId, deviceId, body);
+        ByteBuf data = Unpooled.copiedBuffer(body, StandardCharsets.UTF_8);
+        ByteBuf actualBinary = BlynkByteBufUtil.makeBinaryMessage(HARDWARE, 7, dashId, deviceId, data);
+        try {
+            assertEquals(ByteBufUtil.hexDump(expected), ByteBufUtil.hexDump(actual));
+            assertEquals(ByteBufUtil.hexDump(expected), ByteBufUtil.hexDump(actualBinary));
+            assertEquals(0, data.readerIndex());
+        } finally {
+            expected.release();
+            actual.release();
+            actualBinary.release();
+        }
+    }
+
+    @Test
+    public void testMessageWithDashAndDeviceId() {
+        assertSameMessage(1, 0, "vw\0" + "1\0" + "100");
+        assertSameMessage(0, 1, "vw\0" + "1\0" + "100");
+        assertSameMessage(10, 200, "aw\0" + "10\0" + "1.23");
+        assertSameMessage(Integer.MAX_VALUE, Integer.MIN_VALUE, "vw\0" + "1\0" + "тест");
+        assertSameMessage(-1, 100_000, "");
+    }
+
+}
@@ -11,10 +11,12 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 /**
  * User: ddumanskiy
@@ -82,4 +84,34 @@ public class FileManagerIntegrationTest {
         assertNotNull(users.get(new UserKey(user1.email, AppName.BLYNK)));
     }
 
+    @Test
+    public void testProfilesSnapshot() throws IOException {
+        fileManager.overrideUserFile(user1);
+        fileManager.overrideUserFile(user2);
+        long old = System.currentTimeMillis() - 10_000;
+        fileManager.generateFileName(user1.email, user1.appName).toFile().setLastModified(old);
+        fileManager.generateFileName(user2.email, user2.appName).toFile().setLastModified(old);
+
+        user1.lastLoggedIP = "snapshot";
+        user2.lastLoggedIP = "snapshot";
+        fileManager.writeProfilesSnapshot(Arrays.asList(user1, user2));
+
+        //user2 profile file is newer than snapshot
+        user2.lastLoggedIP = "file";
+        fileManager.overrideUserFile(user2);
+        fileManager.generateFileName(user2.email, user2.appName).toFile()
+                .setLastModified(System.currentTimeMillis() + 10_000);
+
+        Map<UserKey, User> users = fileManager.deserializeUsers();
+        assertEquals(2, users.size());
+        assertEquals("snapshot", users.get(new UserKey(user1.email, AppName.BLYNK)).lastLoggedIP);
+        assertEquals("file", users.get(new UserKey(user2.email, AppName.BLYNK)).lastLoggedIP);
+
+        //deleted profiles are not restored from snapshot
+        fileManager.delete(user1.email, user1.appName);
+        users = fileManager.deserializeUsers();
+        assertEquals(1, users.size());
+        assertNull(users.get(new UserKey(user1.email, AppName.BLYNK)));
+    }
+
 }
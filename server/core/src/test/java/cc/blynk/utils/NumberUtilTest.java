@@ -2,6 +2,7 @@ package cc.blynk.utils;
 
 import org.junit.Test;
 
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ThreadLocalRandom;
 
 import static cc.blynk.utils.NumberUtil.NO_RESULT;
@@ -89,4 +90,50 @@ public class NumberUtilTest {
         d = parseDouble("-1.0");
         assertEquals(d, -1.0, 0.0000000001);
     }
+
+    private static String writeDouble(double value) {
+        byte[] buf = new byte[NumberUtil.MAX_NUMBER_LENGTH];
+        int length = NumberUtil.writeDouble(buf, 0, value);
+        return new String(buf, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    private static String writeLong(long value) {
+        byte[] buf = new byte[NumberUtil.MAX_NUMBER_LENGTH];
+        int length = NumberUtil.writeLong(buf, 0, value);
+        return new String(buf, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void testWriteLong() {
+        long[] values = {0, 1, -1, 9, 10, 1_504_224_000_000L, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long value : values) {
+            assertEquals(Long.toString(value), writeLong(value));
+        }
+        for (int i = 0; i < 10_000; i++) {
+            long random = ThreadLocalRandom.current().nextLong();
+            assertEquals(Long.toString(random), writeLong(random));
+        }
+    }
+
+    @Test
+    public void testWriteDoubleSameAsToString() {
+        double[] values = {0, 1, -1, 0.1, 0.5, 23.45, -0.125, 0.001, 9999999, 1e7, 1e-4, 1.0 / 3, -0.0,
+                Double.NaN, Double.POSITIVE_INFINITY, Double.MAX_VALUE, Double.MIN_VALUE};
+        for (double value : values) {
+            assertEquals(Double.toString(value), writeDouble(value));
+        }
+        for (int i = 0; i < 10_000; i++) {
+            //values with few fraction digits, like sensors send
+            double random = ThreadLocalRandom.current().nextInt(-10_000_000, 10_000_000) / 100.0;
+            assertEquals(Double.toString(random), writeDouble(random));
+        }
+    }
+
+    @Test
+    public void testWriteDoubleParsedBack() {
+        for (int i = 0; i < 10_000; i++) {
+            double random = ThreadLocalRandom.current().nextDouble(-100000, 100000);
+            assertEquals(random, Double.parseDouble(writeDouble(random)), 0);
+        }
+    }
 }
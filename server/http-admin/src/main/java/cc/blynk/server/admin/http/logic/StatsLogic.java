@@ -16,6 +16,7 @@ import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.reporting.GraphDataCache;
 import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.core.stats.model.Stat;
 import cc.blynk.utils.JsonParser;
@@ -42,6 +43,7 @@ public class StatsLogic extends CookiesBaseHttpHandler {
     private final FileManager fileManager;
     private final BlockingIOProcessor blockingIOProcessor;
     private final GlobalStats globalStats;
+    private final GraphDataCache graphDataCache;
 
     public StatsLogic(Holder holder, String rootPath) {
         super(holder, rootPath);
@@ -49,12 +51,13 @@ public class StatsLogic extends CookiesBaseHttpHandler {
         this.fileManager = holder.fileManager;
         this.blockingIOProcessor = holder.blockingIOProcessor;
         this.globalStats = holder.stats;
+        this.graphDataCache = holder.reportingDao.graphDataCache;
     }
 
     @GET
     @Path("/realtime")
     public Response getReatime() {
-       return ok(Collections.singletonList(new Stat(sessionDao, userDao, blockingIOProcessor, globalStats, false)));
+       return ok(Collections.singletonList(new Stat(sessionDao, userDao, tokenManager, graphDataCache, blockingIOProcessor, globalStats, false)));
     }
 
     @GET
@@ -79,7 +82,7 @@ public class StatsLogic extends CookiesBaseHttpHandler {
     @Path("/messages")
     public Response getMessages(@QueryParam("_sortField") String sortField,
                                     @QueryParam("_sortDir") String sortOrder) {
-        return ok(sort(convertObjectToMap(new Stat(sessionDao, userDao, blockingIOProcessor, globalStats, false).commands), sortField, sortOrder));
+        return ok(sort(convertObjectToMap(new Stat(sessionDao, userDao, tokenManager, graphDataCache, blockingIOProcessor, globalStats, false).commands), sortField, sortOrder));
     }
 
     @GET
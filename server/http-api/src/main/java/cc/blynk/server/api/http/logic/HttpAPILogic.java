@@ -31,6 +31,12 @@ import cc.blynk.server.notifications.push.GCMWrapper;
 import cc.blynk.utils.JsonParser;
 import cc.blynk.utils.StringUtils;
 import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpChunkedInput;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpUtil;
 import net.glxn.qrgen.core.image.ImageType;
 import net.glxn.qrgen.javase.QRCode;
 import org.apache.logging.log4j.LogManager;
@@ -39,9 +45,11 @@ import org.apache.logging.log4j.Logger;
 import java.util.Base64;
 
 import static cc.blynk.core.http.Response.ok;
-import static cc.blynk.core.http.Response.redirect;
 import static cc.blynk.server.core.protocol.enums.Command.*;
 import static cc.blynk.utils.StringUtils.BODY_SEPARATOR;
+import static io.netty.handler.codec.http.HttpHeaderNames.*;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 
 /**
  * The Blynk Project.
@@ -58,23 +66,25 @@ public class HttpAPILogic extends TokenBaseHttpHandler {
     private final GCMWrapper gcmWrapper;
     private final ReportingDao reportingDao;
     private final EventorProcessor eventorProcessor;
+    private final UserDao userDao;
 
 
     public HttpAPILogic(Holder holder) {
         this(holder.tokenManager, holder.sessionDao, holder.blockingIOProcessor,
                 holder.mailWrapper, holder.gcmWrapper, holder.reportingDao,
-                holder.stats, holder.eventorProcessor);
+                holder.stats, holder.eventorProcessor, holder.userDao);
     }
 
     private HttpAPILogic(TokenManager tokenManager, SessionDao sessionDao, BlockingIOProcessor blockingIOProcessor,
                          MailWrapper mailWrapper, GCMWrapper gcmWrapper, ReportingDao reportingDao,
-                         GlobalStats globalStats, EventorProcessor eventorProcessor) {
+                         GlobalStats globalStats, EventorProcessor eventorProcessor, UserDao userDao) {
         super(tokenManager, sessionDao, globalStats, "");
         this.blockingIOProcessor = blockingIOProcessor;
         this.mailWrapper = mailWrapper;
         this.gcmWrapper = gcmWrapper;
         this.reportingDao = reportingDao;
         this.eventorProcessor = eventorProcessor;
+        this.userDao = userDao;
     }
 
     private static String makeBody(DashBoard dash, int deviceId, byte pin, PinType pinType, String pinValue) {
@@ -242,8 +252,11 @@ public class HttpAPILogic extends TokenBaseHttpHandler {
     @GET
     @Path("{token}/data/{pin}")
     @Metric(HTTP_GET_HISTORY_DATA)
-    public Response getPinHistoryData(@PathParam("token") String token,
-                                      @PathParam("pin") String pinString) {
+    public Response getPinHistoryData(@Context ChannelHandlerContext ctx,
+                                      @PathParam("token") String token,
+                                      @PathParam("pin") String pinString,
+                                      @QueryParam("from") String fromString,
+                                      @QueryParam("to") String toString) {
         TokenValue tokenValue = tokenManager.getTokenValueByToken(token);
 
         if (tokenValue == null) {
@@ -266,20 +279,45 @@ public class HttpAPILogic extends TokenBaseHttpHandler {
             return Response.badRequest("Wrong pin format.");
         }
 
-        //todo may be optimized
+        long from;
+        long to;
         try {
-            java.nio.file.Path path = reportingDao.csvGenerator.createCSV(user, dashId, deviceId, pinType, pin, deviceId);
-            return redirect("/" + path.getFileName().toString());
-        } catch (IllegalCommandBodyException e1) {
-            log.debug(e1.getMessage());
-            return Response.badRequest(e1.getMessage());
-        } catch (NoDataException noData) {
-            log.debug("No data for pin.");
-            return Response.badRequest("No data for pin.");
-        } catch (Exception e) {
-            log.debug("Error getting pin data.");
-            return Response.badRequest("Error getting pin data.");
+            from = fromString == null ? 0 : Long.parseLong(fromString);
+            to = toString == null ? Long.MAX_VALUE : Long.parseLong(toString);
+        } catch (NumberFormatException e) {
+            log.debug("Wrong time range. From : {}, to : {}.", fromString, toString);
+            return Response.badRequest("Wrong time range.");
         }
+
+        //export is streamed from history thread, so event loop is not blocked with file access
+        blockingIOProcessor.executeHistory(() -> {
+            try {
+                CSVExport export = reportingDao.csvGenerator.export(user, dashId, pinType, pin, from, to, deviceId);
+                HttpResponse response = new DefaultHttpResponse(HTTP_1_1, OK);
+                response.headers()
+                        .set(CONTENT_TYPE, "application/x-gzip")
+                        .set(CONTENT_DISPOSITION, "attachment; filename=\""
+                                + CSVGenerator.generateExportCSVFileName(user.email, dashId, deviceId, pinType, pin)
+                                + "\"")
+                        .set(CONNECTION, HttpHeaderValues.KEEP_ALIVE)
+                        .set(ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+                HttpUtil.setTransferEncodingChunked(response, true);
+                ctx.write(response);
+                //HttpChunkedInput writes LastHttpContent at the end
+                ctx.writeAndFlush(new HttpChunkedInput(new CSVChunkedInput(export)));
+            } catch (IllegalCommandBodyException e1) {
+                log.debug(e1.getMessage());
+                ctx.writeAndFlush(Response.badRequest(e1.getMessage()), ctx.voidPromise());
+            } catch (NoDataException noData) {
+                log.debug("No data for pin.");
+                ctx.writeAndFlush(Response.badRequest("No data for pin."), ctx.voidPromise());
+            } catch (Exception e) {
+                log.debug("Error getting pin data.");
+                ctx.writeAndFlush(Response.badRequest("Error getting pin data."), ctx.voidPromise());
+            }
+        });
+
+        return Response.NO_RESPONSE;
     }
 
     public Response updateWidgetProperty(String token,
@@ -433,6 +471,7 @@ public class HttpAPILogic extends TokenBaseHttpHandler {
         reportingDao.process(user, dashId, deviceId, pin, pinType, pinValue, now);
 
         dash.update(deviceId, pin, pinType, pinValue, now);
+        userDao.markModified(user);
 
         String body = makeBody(dash, deviceId, pin, pinType, pinValue);
 
@@ -496,6 +535,7 @@ public class HttpAPILogic extends TokenBaseHttpHandler {
 
         long now = System.currentTimeMillis();
         dash.update(deviceId, pin, pinType, pinsData[0].value, now);
+        userDao.markModified(user);
 
         String body = makeBody(dash, deviceId, pin, pinType, pinsData[0].value);
 
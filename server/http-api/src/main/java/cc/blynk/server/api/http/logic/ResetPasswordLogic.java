@@ -138,6 +138,7 @@ public class ResetPasswordLogic extends BaseHttpHandler {
 
         user.pass = password;
         user.lastModifiedTs = System.currentTimeMillis();
+        userDao.markModified(user);
 
         log.info("{} password was reset.", user.email);
         tokensPool.removeToken(token);
@@ -0,0 +1,77 @@
+package cc.blynk.server.api.http.logic;
+
+import cc.blynk.core.http.rest.HandlerHolder;
+import cc.blynk.core.http.rest.HandlerWrapper;
+import cc.blynk.core.http.rest.Router;
+import cc.blynk.server.Holder;
+import cc.blynk.utils.AnnotationsUtil;
+import io.netty.handler.codec.http.HttpMethod;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Compares regex lookup of all handlers one by one with routing tree on HttpAPILogic routes.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 14.09.17.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class HttpAPILogicRoutingPerfTest {
+
+    @Param({
+            "/4ae3851817194e2596cf1b7103603ef8/update/v10?value=10",
+            "/4ae3851817194e2596cf1b7103603ef8/get/v10",
+            "/4ae3851817194e2596cf1b7103603ef8/isHardwareConnected",
+            "/4ae3851817194e2596cf1b7103603ef8/unknown"
+    })
+    public String uri;
+
+    private HandlerWrapper[] handlers;
+    private Router router;
+
+    @Setup
+    public void setup() {
+        //handlers don't do anything here, so no real holder is required
+        handlers = AnnotationsUtil.register("", new HttpAPILogic(mock(Holder.class)), null);
+        router = new Router(handlers);
+    }
+
+    @Benchmark
+    public HandlerHolder regexLookup() {
+        for (HandlerWrapper handler : handlers) {
+            if (handler.httpMethod == HttpMethod.GET) {
+                Matcher matcher = handler.uriTemplate.matcher(uri);
+                if (matcher.matches()) {
+                    return new HandlerHolder(handler, handler.uriTemplate.extractParameters(matcher));
+                }
+            }
+        }
+        return null;
+    }
+
+    @Benchmark
+    public HandlerHolder routerLookup() {
+        return router.lookup(HttpMethod.GET, uri);
+    }
+
+}
@@ -2,6 +2,7 @@ package cc.blynk.core.http;
 
 import cc.blynk.core.http.rest.HandlerHolder;
 import cc.blynk.core.http.rest.HandlerWrapper;
+import cc.blynk.core.http.rest.Router;
 import cc.blynk.core.http.rest.URIDecoder;
 import cc.blynk.server.Holder;
 import cc.blynk.server.core.dao.SessionDao;
@@ -19,7 +20,6 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.Map;
-import java.util.regex.Matcher;
 
 import static cc.blynk.core.http.Response.serverError;
 
@@ -35,6 +35,7 @@ public abstract class BaseHttpHandler extends ChannelInboundHandlerAdapter imple
     protected final TokenManager tokenManager;
     protected final SessionDao sessionDao;
     protected final HandlerWrapper[] handlers;
+    private final Router router;
     protected final String rootPath;
 
     public BaseHttpHandler(Holder holder, String rootPath) {
@@ -46,6 +47,7 @@ public abstract class BaseHttpHandler extends ChannelInboundHandlerAdapter imple
         this.sessionDao = sessionDao;
         this.rootPath = rootPath;
         this.handlers = AnnotationsUtil.register(rootPath, this, globalStats);
+        this.router = new Router(handlers);
     }
 
     @Override
@@ -92,16 +94,7 @@ public abstract class BaseHttpHandler extends ChannelInboundHandlerAdapter imple
     }
 
     private HandlerHolder lookupHandler(HttpRequest req) {
-        for (HandlerWrapper handler : handlers) {
-            if (handler.httpMethod == req.method()) {
-                Matcher matcher = handler.uriTemplate.matcher(req.uri());
-                if (matcher.matches()) {
-                    Map<String, String> extractedParams = handler.uriTemplate.extractParameters(matcher);
-                    return new HandlerHolder(handler, extractedParams);
-                }
-            }
-        }
-        return null;
+        return router.lookup(req.method(), req.uri());
     }
 
     @Override
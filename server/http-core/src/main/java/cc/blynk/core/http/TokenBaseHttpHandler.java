@@ -49,7 +49,10 @@ public abstract class TokenBaseHttpHandler extends BaseHttpHandler {
     }
 
     private void completeLogin(Channel channel, FullHttpResponse response) {
-        channel.writeAndFlush(response);
+        //handler may write response on its own, e.g. from another thread
+        if (response != Response.NO_RESPONSE) {
+            channel.writeAndFlush(response);
+        }
         log.debug("Re registering http channel finished.");
     }
 }
@@ -39,6 +39,10 @@ public class UriTemplate {
         compile();
     }
 
+    public String getPattern() {
+        return urlPattern;
+    }
+
     public Matcher matcher(String url) {
         return compiledUrl.matcher(url);
     }
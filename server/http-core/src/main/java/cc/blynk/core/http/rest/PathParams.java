@@ -0,0 +1,92 @@
+package cc.blynk.core.http.rest;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only map of path params found by {@link Router}. Paths have only few params,
+ * so names are shared between requests of same handler and lookup is simple scan.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 14.09.17.
+ */
+final class PathParams extends AbstractMap<String, String> {
+
+    private final String[] names;
+    private final String[] values;
+
+    private PathParams(String[] names, String[] values) {
+        this.names = names;
+        this.values = values;
+    }
+
+    static Map<String, String> of(String[] names, String uri, int[] bounds) {
+        if (names.length == 0) {
+            return Collections.emptyMap();
+        }
+        String[] values = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            values[i] = uri.substring(bounds[i * 2], bounds[i * 2 + 1]);
+        }
+        return new PathParams(names, values);
+    }
+
+    @Override
+    public String get(Object key) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(key)) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return names.length;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new Iterator<Entry<String, String>>() {
+                    private int i;
+
+                    @Override
+                    public boolean hasNext() {
+                        return i < names.length;
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        if (i >= names.length) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<String, String> entry = new SimpleImmutableEntry<>(names[i], values[i]);
+                        i++;
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return names.length;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,201 @@
+package cc.blynk.core.http.rest;
+
+import io.netty.handler.codec.http.HttpMethod;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+
+/**
+ * Finds handler for request uri without running regex of every handler.
+ *
+ * Handler paths are compiled into tree per http method, where every node is one path segment.
+ * Segment is either literal or "{param}". Lookup walks uri segments and compares them in place,
+ * so no substrings are created until handler is found. Literal segments have priority over params.
+ * Param value could contain same chars as {@link cc.blynk.core.http.UriTemplate} allows and
+ * is extracted as is, without decoding.
+ *
+ * Paths that can't be expressed with tree (e.g. with "{format}" suffix) are matched with regex
+ * as before, after tree lookup.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 14.09.17.
+ */
+public final class Router {
+
+    //same chars as in UriTemplate param regex
+    private static final boolean[] PARAM_CHARS = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            PARAM_CHARS[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            PARAM_CHARS[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            PARAM_CHARS[c] = true;
+        }
+        for (char c : "_%-.~!$&'()*+,;=:[]@".toCharArray()) {
+            PARAM_CHARS[c] = true;
+        }
+    }
+
+    private final Map<HttpMethod, Node> roots;
+    private final List<HandlerWrapper> regexHandlers;
+    //max number of params within single path
+    private int maxParams;
+
+    public Router(HandlerWrapper[] handlers) {
+        this.roots = new HashMap<>();
+        this.regexHandlers = new ArrayList<>();
+        for (HandlerWrapper handler : handlers) {
+            if (!add(handler)) {
+                regexHandlers.add(handler);
+            }
+        }
+    }
+
+    private boolean add(HandlerWrapper handler) {
+        String pattern = handler.uriTemplate.getPattern();
+        if (pattern.isEmpty() || pattern.charAt(0) != '/') {
+            return false;
+        }
+
+        String[] segments = pattern.substring(1).split("/", -1);
+        List<String> paramNames = new ArrayList<>();
+        for (String segment : segments) {
+            if (isParam(segment)) {
+                paramNames.add(segment.substring(1, segment.length() - 1));
+            } else if (segment.indexOf('{') != -1 || segment.indexOf('}') != -1) {
+                return false;
+            }
+        }
+
+        maxParams = Math.max(maxParams, paramNames.size());
+        Node node = roots.computeIfAbsent(handler.httpMethod, method -> new Node());
+        for (String segment : segments) {
+            node = isParam(segment) ? node.paramChild() : node.literalChild(segment);
+        }
+        //first registered handler wins, same as with linear lookup
+        if (node.handler == null) {
+            node.handler = handler;
+            node.paramNames = paramNames.toArray(new String[paramNames.size()]);
+        }
+        return true;
+    }
+
+    private static boolean isParam(String segment) {
+        return segment.length() > 2
+                && segment.charAt(0) == '{' && segment.charAt(segment.length() - 1) == '}'
+                && segment.indexOf('{', 1) == -1;
+    }
+
+    public HandlerHolder lookup(HttpMethod method, String uri) {
+        Node root = roots.get(method);
+        if (root != null && !uri.isEmpty() && uri.charAt(0) == '/') {
+            int end = uri.indexOf('?');
+            if (end == -1) {
+                end = uri.length();
+            }
+            //start and end of every param value
+            int[] bounds = new int[maxParams * 2];
+            Node leaf = match(root, uri, 1, end, bounds, 0);
+            if (leaf != null) {
+                return new HandlerHolder(leaf.handler, PathParams.of(leaf.paramNames, uri, bounds));
+            }
+        }
+
+        for (HandlerWrapper handler : regexHandlers) {
+            if (handler.httpMethod == method) {
+                Matcher matcher = handler.uriTemplate.matcher(uri);
+                if (matcher.matches()) {
+                    return new HandlerHolder(handler, handler.uriTemplate.extractParameters(matcher));
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Node match(Node node, String uri, int start, int end, int[] bounds, int paramIndex) {
+        int segmentEnd = uri.indexOf('/', start);
+        if (segmentEnd == -1 || segmentEnd > end) {
+            segmentEnd = end;
+        }
+        boolean last = segmentEnd == end;
+        int length = segmentEnd - start;
+
+        for (int i = 0; i < node.literals.length; i++) {
+            String literal = node.literals[i];
+            if (literal.length() == length && uri.regionMatches(start, literal, 0, length)) {
+                Node result = last
+                        ? leafOrNull(node.literalNodes[i])
+                        : match(node.literalNodes[i], uri, segmentEnd + 1, end, bounds, paramIndex);
+                if (result != null) {
+                    return result;
+                }
+            }
+        }
+
+        if (node.param != null && isParamValue(uri, start, segmentEnd)) {
+            bounds[paramIndex * 2] = start;
+            bounds[paramIndex * 2 + 1] = segmentEnd;
+            return last
+                    ? leafOrNull(node.param)
+                    : match(node.param, uri, segmentEnd + 1, end, bounds, paramIndex + 1);
+        }
+        return null;
+    }
+
+    private static Node leafOrNull(Node node) {
+        return node.handler == null ? null : node;
+    }
+
+    private static boolean isParamValue(String uri, int start, int end) {
+        if (start == end) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            char c = uri.charAt(i);
+            if (c >= PARAM_CHARS.length || !PARAM_CHARS[c]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Node {
+
+        private String[] literals = new String[0];
+        private Node[] literalNodes = new Node[0];
+        private Node param;
+
+        private HandlerWrapper handler;
+        private String[] paramNames;
+
+        private Node literalChild(String segment) {
+            for (int i = 0; i < literals.length; i++) {
+                if (literals[i].equals(segment)) {
+                    return literalNodes[i];
+                }
+            }
+            literals = Arrays.copyOf(literals, literals.length + 1);
+            literalNodes = Arrays.copyOf(literalNodes, literalNodes.length + 1);
+            literals[literals.length - 1] = segment;
+            literalNodes[literalNodes.length - 1] = new Node();
+            return literalNodes[literalNodes.length - 1];
+        }
+
+        private Node paramChild() {
+            if (param == null) {
+                param = new Node();
+            }
+            return param;
+        }
+    }
+
+}
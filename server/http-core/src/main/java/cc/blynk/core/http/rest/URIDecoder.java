@@ -18,7 +18,6 @@ import java.util.Map;
  */
 public class URIDecoder extends QueryStringDecoder {
 
-    public final String[] paths;
     public final Map<String, String> pathData;
     public String contentType;
     public Map<String, String> headers;
@@ -30,7 +29,6 @@ public class URIDecoder extends QueryStringDecoder {
     public URIDecoder(HttpRequest httpRequest, Map<String, String> extractedParams) {
         super(httpRequest.uri());
         this.httpRequest = httpRequest;
-        this.paths = path().split("/");
         if (httpRequest.method() == HttpMethod.PUT || httpRequest.method() == HttpMethod.POST) {
             if (httpRequest instanceof HttpContent) {
                 this.contentType = httpRequest.headers().get(HttpHeaderNames.CONTENT_TYPE);
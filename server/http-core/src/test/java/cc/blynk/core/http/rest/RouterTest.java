@@ -0,0 +1,132 @@
+package cc.blynk.core.http.rest;
+
+import cc.blynk.core.http.Response;
+import cc.blynk.core.http.annotation.GET;
+import cc.blynk.core.http.annotation.POST;
+import cc.blynk.core.http.annotation.Path;
+import cc.blynk.core.http.annotation.PathParam;
+import cc.blynk.utils.AnnotationsUtil;
+import io.netty.handler.codec.http.HttpMethod;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 14.09.17.
+ */
+public class RouterTest {
+
+    @Path("/")
+    public static class TestHandler {
+
+        @GET
+        @Path("{token}/update/{pin}")
+        public Response update(@PathParam("token") String token, @PathParam("pin") String pin) {
+            return null;
+        }
+
+        @POST
+        @Path("{token}/update/{pin}")
+        public Response updatePost(@PathParam("token") String token, @PathParam("pin") String pin) {
+            return null;
+        }
+
+        @GET
+        @Path("{token}/qr")
+        public Response qr(@PathParam("token") String token) {
+            return null;
+        }
+
+        @GET
+        @Path("users/{name}")
+        public Response user(@PathParam("name") String name) {
+            return null;
+        }
+
+        @GET
+        @Path("users/names/getAll")
+        public Response names() {
+            return null;
+        }
+
+        @GET
+        @Path("report.{format}")
+        public Response report() {
+            return null;
+        }
+    }
+
+    private final Router router = new Router(AnnotationsUtil.register("", new TestHandler(), null));
+
+    private String lookup(HttpMethod method, String uri) {
+        HandlerHolder holder = router.lookup(method, uri);
+        return holder == null ? null : holder.handler.classMethod.getName();
+    }
+
+    @Test
+    public void testMatchSameAsRegex() {
+        String[] uris = {
+                "/4ae3851817194e2596cf1b7103603ef8/update/v10",
+                "/4ae3851817194e2596cf1b7103603ef8/update/v10?value=1&value=2",
+                "/4ae3851817194e2596cf1b7103603ef8/update/",
+                "/4ae3851817194e2596cf1b7103603ef8/update/v10/",
+                "/4ae3851817194e2596cf1b7103603ef8/update",
+                "//update/v10",
+                "/token/qr",
+                "/token/qr?",
+                "/token%20x/qr",
+                "/to ken/qr",
+                "/users/dmitriy@blynk.cc",
+                "/users/names",
+                "/users/names/getAll",
+                "/users/names/getAll/",
+                "/report.json",
+                "/report",
+                "/",
+                ""
+        };
+        HandlerWrapper[] handlers = AnnotationsUtil.register("", new TestHandler(), null);
+        for (String uri : uris) {
+            String expected = null;
+            for (HandlerWrapper handler : handlers) {
+                if (handler.httpMethod == HttpMethod.GET && handler.uriTemplate.matcher(uri).matches()) {
+                    expected = handler.classMethod.getName();
+                }
+            }
+            assertEquals(uri, expected, lookup(HttpMethod.GET, uri));
+        }
+    }
+
+    @Test
+    public void testExtractParams() {
+        HandlerHolder holder = router.lookup(HttpMethod.GET, "/4ae3851817194e2596cf1b7103603ef8/update/v10?value=1");
+        Map<String, String> params = holder.extractedParams;
+        assertEquals(2, params.size());
+        assertEquals("4ae3851817194e2596cf1b7103603ef8", params.get("token"));
+        assertEquals("v10", params.get("pin"));
+        assertNull(params.get("value"));
+
+        holder = router.lookup(HttpMethod.GET, "/users/names/getAll");
+        assertTrue(holder.extractedParams.isEmpty());
+    }
+
+    @Test
+    public void testMethodIsPartOfRoute() {
+        assertEquals("updatePost", lookup(HttpMethod.POST, "/token/update/v1"));
+        assertNull(lookup(HttpMethod.POST, "/token/qr"));
+        assertNull(lookup(HttpMethod.PUT, "/token/update/v1"));
+    }
+
+    @Test
+    public void testLiteralHasPriority() {
+        assertEquals("names", lookup(HttpMethod.GET, "/users/names/getAll"));
+        assertEquals("user", lookup(HttpMethod.GET, "/users/getAll"));
+    }
+
+}
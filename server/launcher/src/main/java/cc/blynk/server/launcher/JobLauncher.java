@@ -4,7 +4,6 @@ import cc.blynk.server.Holder;
 import cc.blynk.server.core.BaseServer;
 import cc.blynk.server.core.reporting.average.AverageAggregatorProcessor;
 import cc.blynk.server.workers.*;
-import cc.blynk.utils.ReportingUtil;
 
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -24,17 +23,30 @@ class JobLauncher {
 
         long startDelay;
 
-        ReportingWorker reportingWorker = new ReportingWorker(
-                holder.reportingDao,
-                ReportingUtil.getReportingFolder(holder.props.getProperty("data.folder")),
-                holder.dbManager
-        );
+        ReportingWorker reportingWorker = new ReportingWorker(holder.reportingDao, holder.dbManager,
+                holder.props.getIntProperty("reporting.flush.writers", 2));
 
         //to start at the beggining of an minute
         startDelay = AverageAggregatorProcessor.MINUTE - (System.currentTimeMillis() % AverageAggregatorProcessor.MINUTE);
         scheduler.scheduleAtFixedRate(reportingWorker, startDelay, AverageAggregatorProcessor.MINUTE, TimeUnit.MILLISECONDS);
 
-        ProfileSaverWorker profileSaverWorker = new ProfileSaverWorker(holder.userDao, holder.fileManager, holder.dbManager);
+        //checkpoint keeps drained but not yet written entries, so it doesn't depend on flush timing.
+        //it copies and writes all aggregations, so it runs separately and doesn't delay other jobs
+        ScheduledExecutorService checkpointScheduler = Executors.newSingleThreadScheduledExecutor();
+        checkpointScheduler.scheduleAtFixedRate(holder.reportingDao.averageAggregator::checkpoint, startDelay + 500,
+                holder.props.getIntProperty("reporting.checkpoint.period", 60000), TimeUnit.MILLISECONDS);
+
+        //compression may take a while for big files, so it doesn't delay reporting flush
+        ScheduledExecutorService compressionScheduler = Executors.newSingleThreadScheduledExecutor();
+        int compressionPeriod = holder.props.getIntProperty("reporting.compression.period", 60);
+        if (compressionPeriod > 0) {
+            compressionScheduler.scheduleWithFixedDelay(holder.reportingDao.storage::compact,
+                    1, compressionPeriod, TimeUnit.MINUTES);
+        }
+
+        ProfileSaverWorker profileSaverWorker = new ProfileSaverWorker(holder.userDao, holder.fileManager, holder.dbManager,
+                holder.props.getBoolProperty("profiles.snapshot.enabled"),
+                holder.props.getIntProperty("profile.save.worker.threads", 2));
 
         //running 1 sec later after reporting
         scheduler.scheduleAtFixedRate(profileSaverWorker, startDelay + 1000,
@@ -60,7 +72,8 @@ class JobLauncher {
 
         //shutdown hook thread catcher
         Runtime.getRuntime().addShutdownHook(new Thread(
-                new ShutdownHookWorker(servers, holder, scheduler, profileSaverWorker)
+                new ShutdownHookWorker(servers, holder, scheduler, checkpointScheduler, compressionScheduler,
+                        reportingWorker, profileSaverWorker)
         ));
     }
 
@@ -62,6 +62,8 @@ public class ServerLauncher {
         //required to avoid dependencies within model to server.properties
         System.setProperty("terminal.strings.pool.size", serverProperties.getProperty("terminal.strings.pool.size", "25"));
         System.setProperty("initial.energy", serverProperties.getProperty("initial.energy", "2000"));
+        System.setProperty("pin.storage.dash.max.size", serverProperties.getProperty("pin.storage.dash.max.size", "512"));
+        System.setProperty("pin.storage.compact.values", serverProperties.getProperty("pin.storage.compact.values", "true"));
 
         boolean isUnpacked = JarUtil.unpackStaticFiles(ServerProperties.jarPath, "static/");
 
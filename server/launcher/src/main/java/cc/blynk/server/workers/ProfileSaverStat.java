@@ -0,0 +1,41 @@
+package cc.blynk.server.workers;
+
+/**
+ * Result of single profile saver run.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 12.09.17.
+ */
+public final class ProfileSaverStat {
+
+    //users queued as possibly modified
+    public final int queued;
+    //profiles written to disk
+    public final int saved;
+    public final int failed;
+    //max delay between user was queued and its profile was written
+    public final long maxLag;
+    public final long duration;
+
+    ProfileSaverStat(int queued, int saved, int failed, long maxLag, long duration) {
+        this.queued = queued;
+        this.saved = saved;
+        this.failed = failed;
+        this.maxLag = maxLag;
+        this.duration = duration;
+    }
+
+    public long getThroughput() {
+        return duration == 0 ? saved * 1000L : saved * 1000L / duration;
+    }
+
+    @Override
+    public String toString() {
+        return "Profiles saving finished. Queued " + queued
+                + ", Saved " + saved
+                + ", Failed " + failed
+                + ". Max lag : " + maxLag + " ms"
+                + ". Processing time : " + duration + " ms (" + getThroughput() + " profiles/sec).";
+    }
+}
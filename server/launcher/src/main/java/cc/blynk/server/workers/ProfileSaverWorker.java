@@ -12,9 +12,25 @@ import org.apache.logging.log4j.Logger;
 import java.io.Closeable;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Background thread that once a minute stores all user DB to disk in case profile was changed since last saving.
+ * Background thread that once a minute stores to disk profiles of users that were modified since last saving.
+ * Once per day and on shutdown also writes profiles snapshot that is used for fast server start.
+ *
+ * Possibly modified users are taken from UserDao queue, so saving doesn't depend on total users count.
+ * Once per hour all users are checked in case some modification path didn't queue the user.
+ * Profiles are written by separate threads, so slow disk doesn't block saving of other profiles.
  *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
@@ -24,28 +40,51 @@ public class ProfileSaverWorker implements Runnable, Closeable {
 
     private static final Logger log = LogManager.getLogger(ProfileSaverWorker.class);
 
-    //1 min
+    private static final long FULL_SCAN_PERIOD = 60 * 60 * 1000;
+    private static final long BACKUP_PERIOD = 24 * 60 * 60 * 1000;
+    //backups are spread over this period, so all profiles are not rewritten at once
+    private static final long BACKUP_SPREAD_PERIOD = 60 * 60 * 1000;
+
     private final UserDao userDao;
     private final FileManager fileManager;
     private final DBManager dbManager;
+    private final boolean snapshotEnabled;
+    private final ExecutorService writers;
+    //profiles are not considered modified before worker start, as they were just loaded
+    private final long startTs;
     private long lastStart;
+    private long fullScanTs;
     private long backupTs;
+    private Iterator<User> backupIterator;
+    private long snapshotTs;
+    private volatile ProfileSaverStat lastStat;
 
     public ProfileSaverWorker(UserDao userDao, FileManager fileManager, DBManager dbManager) {
+        this(userDao, fileManager, dbManager, false, 1);
+    }
+
+    public ProfileSaverWorker(UserDao userDao, FileManager fileManager, DBManager dbManager,
+                              boolean snapshotEnabled, int writersCount) {
         this.userDao = userDao;
         this.fileManager = fileManager;
         this.dbManager = dbManager;
-        this.lastStart = System.currentTimeMillis();
+        this.snapshotEnabled = snapshotEnabled;
+        this.writers = Executors.newFixedThreadPool(Math.max(1, writersCount));
+        this.startTs = System.currentTimeMillis();
+        this.lastStart = startTs;
+        this.fullScanTs = 0;
         this.backupTs = 0;
+        this.snapshotTs = startTs;
     }
 
-    private static boolean isUpdated(long lastStart, User user) {
-        return (lastStart <= user.lastModifiedTs) || isDashUpdated(lastStart, user);
+    private boolean isUpdated(User user) {
+        long savedTs = Math.max(startTs, user.savedTs);
+        return (savedTs <= user.lastModifiedTs) || isDashUpdated(savedTs, user);
     }
 
-    private static boolean isDashUpdated(long lastStart, User user) {
+    private static boolean isDashUpdated(long savedTs, User user) {
         for (DashBoard dashBoard : user.profile.dashBoards) {
-            if (lastStart <= dashBoard.updatedAt) {
+            if (savedTs <= dashBoard.updatedAt) {
                 return true;
             }
         }
@@ -59,57 +98,150 @@ public class ProfileSaverWorker implements Runnable, Closeable {
 
             final long now = System.currentTimeMillis();
 
-            ArrayList<User> users = saveModified();
+            ArrayList<User> users = saveModified(now);
 
             dbManager.saveUsers(users);
 
             //backup only for local mode
-            if (!dbManager.isDBEnabled() && users.size() > 0) {
-                archiveUser(now);
+            if (!dbManager.isDBEnabled()) {
+                archiveUsers(now, users.size() > 0);
             }
 
             lastStart = now;
 
+            if (snapshotEnabled && now - snapshotTs > BACKUP_PERIOD) {
+                writeSnapshot(now);
+            }
+
             log.debug("Saving user db finished. Modified {} users.", users.size());
         } catch (Throwable t) {
             log.error("Error saving users.", t);
         }
     }
 
-    private void archiveUser(long now) {
-        if (now - backupTs > 86_400_000) {
+    private void archiveUsers(long now, boolean hasModified) {
+        if (backupIterator == null || !backupIterator.hasNext()) {
+            if (!hasModified || now - backupTs < BACKUP_PERIOD) {
+                return;
+            }
             //it is time for backup, once per day.
             backupTs = now;
-            for (User user : userDao.users.values()) {
-                try {
-                    Path path = fileManager.generateBackupFileName(user.email, user.appName);
-                    JsonParser.writeUser(path.toFile(), user);
-                } catch (Exception e) {
-                    //ignore
-                }
+            backupIterator = userDao.getUsers().values().iterator();
+        }
+
+        long portion = userDao.getUsers().size() * Math.max(now - lastStart, 1) / BACKUP_SPREAD_PERIOD + 1;
+        for (long i = 0; i < portion && backupIterator.hasNext(); i++) {
+            User user = backupIterator.next();
+            try {
+                Path path = fileManager.generateBackupFileName(user.email, user.appName);
+                JsonParser.writeUser(path.toFile(), user);
+            } catch (Exception e) {
+                //ignore
             }
         }
     }
 
-    private ArrayList<User> saveModified() {
-        ArrayList<User> users = new ArrayList<>();
+    private void writeSnapshot(long now) {
+        snapshotTs = now;
+        try {
+            fileManager.writeProfilesSnapshot(userDao.getUsers().values());
+        } catch (Exception e) {
+            log.error("Error writing profiles snapshot.", e);
+        }
+    }
 
-        for (User user : userDao.getUsers().values()) {
-            if (isUpdated(lastStart, user)) {
-                try {
+    private List<User> getCandidates(long now) {
+        List<User> candidates = new ArrayList<>();
+        for (User user : userDao.pollModified()) {
+            //deleted users are not saved
+            if (userDao.isRegistered(user)) {
+                candidates.add(user);
+            } else {
+                user.queuedForSaveTs = 0;
+            }
+        }
+        if (now - fullScanTs >= FULL_SCAN_PERIOD) {
+            fullScanTs = now;
+            Set<User> queued = Collections.newSetFromMap(new IdentityHashMap<>());
+            queued.addAll(candidates);
+            for (User user : userDao.getUsers().values()) {
+                if (!queued.contains(user)) {
+                    candidates.add(user);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    private ArrayList<User> saveModified(long now) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        List<User> candidates = getCandidates(now);
+
+        List<User> modified = new ArrayList<>();
+        List<Long> queuedTimes = new ArrayList<>();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (User user : candidates) {
+            long queuedTs = user.queuedForSaveTs;
+            //reset before profile copy is taken, so modifications made during saving queue user again
+            user.queuedForSaveTs = 0;
+            if (isUpdated(user)) {
+                modified.add(user);
+                queuedTimes.add(queuedTs);
+                tasks.add(() -> {
+                    long savedTs = System.currentTimeMillis();
                     fileManager.overrideUserFile(user);
-                    users.add(user);
-                } catch (Exception e) {
-                    log.error("Error saving : {}.", user);
+                    user.savedTs = savedTs;
+                    return null;
+                });
+            }
+        }
+
+        List<Future<Void>> results = writers.invokeAll(tasks);
+        long finishedTs = System.currentTimeMillis();
+
+        ArrayList<User> users = new ArrayList<>(modified.size());
+        long maxLag = 0;
+        for (int i = 0; i < results.size(); i++) {
+            User user = modified.get(i);
+            try {
+                results.get(i).get();
+                users.add(user);
+                long queuedTs = queuedTimes.get(i);
+                //users found by full scan were not queued
+                if (queuedTs > 0) {
+                    maxLag = Math.max(maxLag, finishedTs - queuedTs);
                 }
+            } catch (ExecutionException e) {
+                log.error("Error saving : {}.", user, e.getCause());
+                //will be retried within next run
+                userDao.markModified(user);
             }
         }
 
+        ProfileSaverStat stat = new ProfileSaverStat(candidates.size(), users.size(), modified.size() - users.size(),
+                maxLag, finishedTs - start);
+        this.lastStat = stat;
+        if (users.size() > 0 || stat.failed > 0) {
+            log.info(stat);
+        }
         return users;
     }
 
+    public ProfileSaverStat getLastStat() {
+        return lastStat;
+    }
+
     @Override
     public void close() {
         run();
+        if (snapshotEnabled) {
+            writeSnapshot(System.currentTimeMillis());
+        }
+        writers.shutdown();
+        try {
+            writers.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 }
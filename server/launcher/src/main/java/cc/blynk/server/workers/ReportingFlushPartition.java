@@ -0,0 +1,124 @@
+package cc.blynk.server.workers;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.GraphDataCache;
+import cc.blynk.server.core.reporting.average.AggregationKey;
+import cc.blynk.server.core.reporting.average.AggregationValue;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import cc.blynk.server.core.reporting.storage.ReportingStorage;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+
+/**
+ * Part of reporting flush that belongs to subset of users.
+ * Entries are grouped by target file, so every file is written with single call.
+ * Partition is always flushed by single thread.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 01.09.17.
+ */
+final class ReportingFlushPartition {
+
+    private static final Logger log = LogManager.getLogger(ReportingFlushPartition.class);
+
+    private static final GraphGranularityType[] TYPES = GraphGranularityType.values();
+
+    private final ReportingStorage storage;
+    private final GraphDataCache graphDataCache;
+    //all lists below are indexed by granularity ordinal
+    private final List<Map<AggregationKey, AggregationValue>> drained;
+    private final List<Map<BaseReportingKey, ArrayList<AggregationKey>>> files;
+    final List<Map<AggregationKey, AggregationValue>> flushed;
+    //entries of files that failed with IO error, they are returned to aggregator for retry
+    final List<Map<AggregationKey, AggregationValue>> failed;
+
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(64 * SIZE_OF_REPORT_ENTRY);
+
+    int keysFlushed;
+    int filesTouched;
+    long bytesWritten;
+
+    ReportingFlushPartition(ReportingStorage storage, GraphDataCache graphDataCache,
+                            List<Map<AggregationKey, AggregationValue>> drained) {
+        this.storage = storage;
+        this.graphDataCache = graphDataCache;
+        this.drained = drained;
+        this.files = new ArrayList<>(TYPES.length);
+        this.flushed = new ArrayList<>(TYPES.length);
+        this.failed = new ArrayList<>(TYPES.length);
+        for (int i = 0; i < TYPES.length; i++) {
+            files.add(new HashMap<>());
+            flushed.add(new HashMap<>());
+            failed.add(new HashMap<>());
+        }
+    }
+
+    void add(GraphGranularityType type, AggregationKey key) {
+        files.get(type.ordinal()).computeIfAbsent(key.getBaseReportingKey(), k -> new ArrayList<>()).add(key);
+    }
+
+    void flush() {
+        for (GraphGranularityType type : TYPES) {
+            Map<AggregationKey, AggregationValue> values = drained.get(type.ordinal());
+            Map<AggregationKey, AggregationValue> flushedValues = flushed.get(type.ordinal());
+            Map<AggregationKey, AggregationValue> failedValues = failed.get(type.ordinal());
+
+            for (Map.Entry<BaseReportingKey, ArrayList<AggregationKey>> file : files.get(type.ordinal()).entrySet()) {
+                ArrayList<AggregationKey> keys = file.getValue();
+                keys.sort(AggregationKey.AGGREGATION_KEY_COMPARATOR);
+
+                ByteBuffer entries = prepareBuffer(keys.size());
+                for (AggregationKey key : keys) {
+                    entries.putDouble(values.get(key).calcAverage())
+                           .putLong(key.getTs(type));
+                }
+                entries.flip();
+
+                AggregationKey first = keys.get(0);
+                try {
+                    storage.write(first.getEmail(), first.getAppName(),
+                            first.getDashId(), first.getDeviceId(),
+                            first.getPinType(), first.getPin(),
+                            type, entries);
+                    //cached graphs of this file are outdated now
+                    graphDataCache.invalidate(file.getKey(), type);
+
+                    for (AggregationKey key : keys) {
+                        flushedValues.put(key, values.get(key));
+                    }
+                    keysFlushed += keys.size();
+                    filesTouched++;
+                    bytesWritten += keys.size() * SIZE_OF_REPORT_ENTRY;
+                } catch (IOException e) {
+                    log.error("Error writing {} reporting file for {}.", type, first.getEmail(), e);
+                    for (AggregationKey key : keys) {
+                        failedValues.put(key, values.get(key));
+                    }
+                } catch (Exception e) {
+                    //invalid key, write will never succeed, so entries are dropped
+                    log.error("Error writing {} reporting file for {}.", type, first.getEmail(), e);
+                }
+            }
+        }
+    }
+
+    private ByteBuffer prepareBuffer(int entriesCount) {
+        int size = entriesCount * SIZE_OF_REPORT_ENTRY;
+        if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocateDirect(size);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+}
@@ -0,0 +1,31 @@
+package cc.blynk.server.workers;
+
+/**
+ * Result of single reporting flush.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 01.09.17.
+ */
+public final class ReportingFlushStat {
+
+    public final int keysFlushed;
+    public final int filesTouched;
+    public final long bytesWritten;
+    public final long duration;
+
+    ReportingFlushStat(int keysFlushed, int filesTouched, long bytesWritten, long duration) {
+        this.keysFlushed = keysFlushed;
+        this.filesTouched = filesTouched;
+        this.bytesWritten = bytesWritten;
+        this.duration = duration;
+    }
+
+    @Override
+    public String toString() {
+        return "Reporting flush. Keys : " + keysFlushed
+                + ", files : " + filesTouched
+                + ", bytes : " + bytesWritten
+                + ", time : " + duration + " ms.";
+    }
+}
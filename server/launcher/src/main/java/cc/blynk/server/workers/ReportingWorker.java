@@ -5,103 +5,195 @@ import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
 import cc.blynk.server.core.reporting.average.AggregationKey;
 import cc.blynk.server.core.reporting.average.AggregationValue;
 import cc.blynk.server.db.DBManager;
-import cc.blynk.utils.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.Closeable;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-
-import static cc.blynk.server.core.dao.ReportingDao.generateFilename;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Worker that runs once a minute. During run - stores all aggregated reporting data
  * to disk. Also sends all data in batches to RDBMS in case DBManager was initialized.
  *
+ * Aggregated entries are split by user between writer threads. Every writer groups
+ * its entries by target file and appends each file with single write. Scheduler thread
+ * only takes the data from aggregator, so it is not blocked by disk IO.
+ * In case there are no writers - flush is performed within the calling thread.
+ *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
  * Created on 10.08.15.
  */
-public class ReportingWorker implements Runnable {
+public class ReportingWorker implements Runnable, Closeable {
 
     private static final Logger log = LogManager.getLogger(ReportingWorker.class);
 
+    private static final GraphGranularityType[] TYPES = GraphGranularityType.values();
+    //max time to wait for started flushes on close
+    private static final long CLOSE_TIMEOUT_MILLIS = 30_000;
+
     private final ReportingDao reportingDao;
-    private final String reportingPath;
     private final DBManager dbManager;
+    //single thread executors, so flushes of same user are always ordered
+    private final ExecutorService[] writers;
+
+    private volatile ReportingFlushStat lastFlushStat;
+
+    public ReportingWorker(ReportingDao reportingDao, DBManager dbManager) {
+        this(reportingDao, dbManager, 0);
+    }
 
-    public ReportingWorker(ReportingDao reportingDao, String reportingPath, DBManager dbManager) {
+    public ReportingWorker(ReportingDao reportingDao, DBManager dbManager, int writersCount) {
         this.reportingDao = reportingDao;
-        this.reportingPath = reportingPath;
         this.dbManager = dbManager;
+        this.writers = new ExecutorService[Math.max(0, writersCount)];
+        for (int i = 0; i < writers.length; i++) {
+            String name = "reporting-writer-" + i;
+            writers[i] = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, name));
+        }
     }
 
     @Override
     public void run() {
         try {
-            Map<AggregationKey, AggregationValue> removedKeysMinute = process(reportingDao.averageAggregator.getMinute(), GraphGranularityType.MINUTE);
-            Map<AggregationKey, AggregationValue> removedKeysHour = process(reportingDao.averageAggregator.getHourly(), GraphGranularityType.HOURLY);
-            Map<AggregationKey, AggregationValue> removedKeysDay = process(reportingDao.averageAggregator.getDaily(), GraphGranularityType.DAILY);
-
-            dbManager.insertReporting(removedKeysMinute, GraphGranularityType.MINUTE);
-            dbManager.insertReporting(removedKeysHour, GraphGranularityType.HOURLY);
-            dbManager.insertReporting(removedKeysDay, GraphGranularityType.DAILY);
-
-            dbManager.insertReportingRaw(reportingDao.rawDataProcessor.rawStorage);
+            long start = System.currentTimeMillis();
+
+            List<Map<AggregationKey, AggregationValue>> drained = drain(start);
+            ReportingFlushPartition[] partitions = preparePartitions(drained);
+
+            CompletableFuture<?>[] flushes = new CompletableFuture<?>[partitions.length];
+            for (int i = 0; i < partitions.length; i++) {
+                ReportingFlushPartition partition = partitions[i];
+                if (writers.length == 0) {
+                    partition.flush();
+                    flushes[i] = CompletableFuture.completedFuture(null);
+                } else {
+                    flushes[i] = CompletableFuture.runAsync(partition::flush, writers[i]);
+                }
+            }
 
-            dbManager.cleanOldReportingRecords(Instant.now());
+            CompletableFuture.allOf(flushes).whenComplete((ignored, throwable) -> {
+                if (throwable != null) {
+                    log.error("Error during reporting flush.", throwable);
+                }
+                //drained entries are kept within aggregator checkpoints until this point
+                for (GraphGranularityType type : TYPES) {
+                    reportingDao.averageAggregator.flushed(type, drained.get(type.ordinal()),
+                            failed(partitions, type));
+                }
+                complete(partitions, start);
+            });
         } catch (Exception e) {
             log.error("Error during reporting job.", e);
         }
     }
 
     /**
-     * Iterates over all reporting entries that were created during last minute.
-     * And stores all entries one by one to disk.
-     *
-     * @param map - reporting entires that were created during last minute.
-     * @param type - type of reporting. Could be minute, hourly, daily.
-     * @return - returns list of reporting entries that were successfully flushed to disk.
+     * Takes all reporting entries of finished periods from aggregator.
      */
-    private Map<AggregationKey, AggregationValue>  process(Map<AggregationKey, AggregationValue> map, GraphGranularityType type) {
-        long nowTruncatedToPeriod = System.currentTimeMillis() / type.period;
+    private List<Map<AggregationKey, AggregationValue>> drain(long now) {
+        //indexed by granularity ordinal
+        List<Map<AggregationKey, AggregationValue>> drained = new ArrayList<>(TYPES.length);
+        for (GraphGranularityType type : TYPES) {
+            long nowTruncatedToPeriod = now / type.period;
+            drained.add(reportingDao.averageAggregator.drain(type, nowTruncatedToPeriod));
+        }
+        return drained;
+    }
 
-        ArrayList<AggregationKey> keys = new ArrayList<>(map.keySet());
-        keys.sort(AggregationKey.AGGREGATION_KEY_COMPARATOR);
+    /**
+     * Splits drained entries between partitions by user.
+     */
+    private ReportingFlushPartition[] preparePartitions(List<Map<AggregationKey, AggregationValue>> drained) {
+        ReportingFlushPartition[] partitions = new ReportingFlushPartition[Math.max(1, writers.length)];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = new ReportingFlushPartition(reportingDao.storage, reportingDao.graphDataCache, drained);
+        }
 
-        Map<AggregationKey, AggregationValue> removedKeys = new HashMap<>();
+        for (GraphGranularityType type : TYPES) {
+            for (AggregationKey key : drained.get(type.ordinal()).keySet()) {
+                int partition = (key.getEmail().hashCode() & Integer.MAX_VALUE) % partitions.length;
+                partitions[partition].add(type, key);
+            }
+        }
 
-        for (AggregationKey keyToRemove : keys) {
-            //if prev hour
-            if (keyToRemove.isOutdated(nowTruncatedToPeriod)) {
-                AggregationValue value = map.get(keyToRemove);
+        return partitions;
+    }
 
-                try {
-                    final Path userReportFolder = Paths.get(reportingPath, FileUtils.getUserReportingDir(keyToRemove.getEmail(), keyToRemove.getAppName()));
-                    if (Files.notExists(userReportFolder)) {
-                        Files.createDirectories(userReportFolder);
-                    }
+    private static Map<AggregationKey, AggregationValue> failed(ReportingFlushPartition[] partitions,
+                                                                GraphGranularityType type) {
+        Map<AggregationKey, AggregationValue> result = new HashMap<>();
+        for (ReportingFlushPartition partition : partitions) {
+            result.putAll(partition.failed.get(type.ordinal()));
+        }
+        return result;
+    }
 
-                    String fileName = generateFilename(keyToRemove.getDashId(), keyToRemove.getDeviceId(), keyToRemove.getPinType(), keyToRemove.getPin(), type);
-                    Path filePath = Paths.get(userReportFolder.toString(), fileName);
+    private void complete(ReportingFlushPartition[] partitions, long start) {
+        try {
+            int keysFlushed = 0;
+            int filesTouched = 0;
+            long bytesWritten = 0;
+            for (ReportingFlushPartition partition : partitions) {
+                keysFlushed += partition.keysFlushed;
+                filesTouched += partition.filesTouched;
+                bytesWritten += partition.bytesWritten;
+            }
+            this.lastFlushStat = new ReportingFlushStat(keysFlushed, filesTouched, bytesWritten,
+                    System.currentTimeMillis() - start);
+            log.info(lastFlushStat);
+
+            for (GraphGranularityType type : TYPES) {
+                Map<AggregationKey, AggregationValue> removedKeys = new HashMap<>();
+                for (ReportingFlushPartition partition : partitions) {
+                    removedKeys.putAll(partition.flushed.get(type.ordinal()));
+                }
+                dbManager.insertReporting(removedKeys, type);
+            }
 
-                    FileUtils.write(filePath, value.calcAverage(), keyToRemove.getTs(type));
+            dbManager.insertReportingRaw(reportingDao.rawDataProcessor.rawStorage);
 
-                    removedKeys.put(keyToRemove, value);
-                } catch (Exception ioe) {
-                    log.error("Error writing reporting file. Reason : {}", ioe.getMessage());
-                } finally {
-                    map.remove(keyToRemove);
+            dbManager.cleanOldReportingRecords(Instant.now());
+        } catch (Exception e) {
+            log.error("Error during reporting job.", e);
+        }
+    }
+
+    public ReportingFlushStat getLastFlushStat() {
+        return lastFlushStat;
+    }
+
+    /**
+     * Waits for already started flushes, so drained data is written before storage is closed.
+     */
+    @Override
+    public void close() {
+        for (ExecutorService writer : writers) {
+            writer.shutdown();
+        }
+        long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MILLIS;
+        for (int i = 0; i < writers.length; i++) {
+            try {
+                long timeout = Math.max(0, deadline - System.currentTimeMillis());
+                if (!writers[i].awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                    List<Runnable> notStarted = writers[i].shutdownNow();
+                    log.error("Reporting writer {} didn't finish flush within {} ms. {} flushes were not started.",
+                            i, CLOSE_TIMEOUT_MILLIS, notStarted.size());
                 }
+            } catch (InterruptedException e) {
+                log.error("Interrupted while waiting for reporting writer {}.", i);
+                Thread.currentThread().interrupt();
+                return;
             }
         }
-
-        return removedKeys;
     }
 
 }
@@ -4,6 +4,7 @@ import cc.blynk.server.Holder;
 import cc.blynk.server.core.BaseServer;
 
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Used to close and store all important info to disk.
@@ -17,15 +18,35 @@ public class ShutdownHookWorker implements Runnable {
     private final BaseServer[] servers;
     private final Holder holder;
     private final ProfileSaverWorker profileSaverWorker;
+    private final ReportingWorker reportingWorker;
     private final ScheduledExecutorService scheduler;
+    private final ScheduledExecutorService checkpointScheduler;
+    private final ScheduledExecutorService compressionScheduler;
 
     public ShutdownHookWorker(BaseServer[] servers, Holder holder,
                               ScheduledExecutorService scheduler,
+                              ScheduledExecutorService checkpointScheduler,
+                              ScheduledExecutorService compressionScheduler,
+                              ReportingWorker reportingWorker,
                               ProfileSaverWorker profileSaverWorker) {
         this.servers = servers;
         this.holder = holder;
         this.profileSaverWorker = profileSaverWorker;
+        this.reportingWorker = reportingWorker;
         this.scheduler = scheduler;
+        this.checkpointScheduler = checkpointScheduler;
+        this.compressionScheduler = compressionScheduler;
+    }
+
+    private static void stop(ScheduledExecutorService executor, String name) {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                System.out.println(name + " jobs were not finished in time.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     @Override
@@ -42,7 +63,19 @@ public class ShutdownHookWorker implements Runnable {
         }
 
         System.out.println("Stopping scheduler...");
-        scheduler.shutdown();
+        //reporting job that is already running may still pass drained data to writers
+        stop(scheduler, "Scheduler");
+
+        System.out.println("Stopping aggregator checkpoints...");
+        //final checkpoint is made by aggregator on close
+        stop(checkpointScheduler, "Checkpoint");
+
+        System.out.println("Stopping reporting compression...");
+        //compression rewrites reporting files, so it should finish before storage is closed
+        stop(compressionScheduler, "Compression");
+
+        System.out.println("Stopping reporting writers...");
+        reportingWorker.close();
 
         System.out.println("Saving user profiles...");
         profileSaverWorker.close();
@@ -3,7 +3,10 @@ package cc.blynk.server.workers;
 import cc.blynk.server.Holder;
 import cc.blynk.server.core.BlockingIOProcessor;
 import cc.blynk.server.core.dao.SessionDao;
+import cc.blynk.server.core.dao.TokenManager;
 import cc.blynk.server.core.dao.UserDao;
+import cc.blynk.server.core.processors.WebhookDispatcher;
+import cc.blynk.server.core.reporting.GraphDataCache;
 import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.core.stats.model.Stat;
 import cc.blynk.server.db.DBManager;
@@ -26,25 +29,32 @@ public class StatsWorker implements Runnable {
     private final GlobalStats stats;
     private final SessionDao sessionDao;
     private final UserDao userDao;
+    private final TokenManager tokenManager;
+    private final GraphDataCache graphDataCache;
     private final DBManager dbManager;
     private final String region;
     private final BlockingIOProcessor blockingIOProcessor;
+    private final WebhookDispatcher webhookDispatcher;
 
     public StatsWorker(Holder holder) {
         this.stats = holder.stats;
         this.sessionDao = holder.sessionDao;
         this.userDao = holder.userDao;
+        this.tokenManager = holder.tokenManager;
+        this.graphDataCache = holder.reportingDao.graphDataCache;
         this.dbManager = holder.dbManager;
         this.region = holder.region;
         this.blockingIOProcessor = holder.blockingIOProcessor;
+        this.webhookDispatcher = holder.webhookDispatcher;
     }
 
     @Override
     public void run() {
         try {
-            Stat stat = new Stat(sessionDao, userDao, blockingIOProcessor, stats, true);
+            Stat stat = new Stat(sessionDao, userDao, tokenManager, graphDataCache, blockingIOProcessor, stats, true);
             log.info(stat);
             dbManager.insertStat(this.region, stat);
+            log.info(webhookDispatcher.getStat());
         } catch (Exception e) {
             log.error("Error making stats.", e);
         }
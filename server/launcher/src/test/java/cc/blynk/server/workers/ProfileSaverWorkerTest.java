@@ -19,6 +19,7 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.*;
 
 /**
@@ -88,4 +89,42 @@ public class ProfileSaverWorkerTest {
         verifyNoMoreInteractions(fileManager);
     }
 
+    @Test
+    public void testOnlyQueuedModifiedProfilesAreSaved() throws Exception {
+        User user1 = new User("1", "", AppName.BLYNK, "local", false, false);
+        User user2 = new User("2", "", AppName.BLYNK, "local", false, false);
+        User user3 = new User("3", "", AppName.BLYNK, "local", false, false);
+        UserDao realUserDao = new UserDao(new ConcurrentHashMap<>(), "local");
+        realUserDao.users.put(new UserKey(user1), user1);
+        realUserDao.users.put(new UserKey(user2), user2);
+
+        Thread.sleep(1);
+
+        ProfileSaverWorker profileSaverWorker = new ProfileSaverWorker(realUserDao, fileManager, new DBManager(blockingIOProcessor, true));
+        //first run checks all users
+        profileSaverWorker.run();
+        verifyNoMoreInteractions(fileManager);
+
+        user1.lastModifiedTs = System.currentTimeMillis();
+        realUserDao.markModified(user1);
+        realUserDao.markModified(user1);
+        realUserDao.markModified(user2);
+        //deleted users are not saved
+        realUserDao.add(user3);
+        realUserDao.delete(new UserKey(user3));
+        //modifications within same millisecond as saving are saved again
+        Thread.sleep(2);
+        profileSaverWorker.run();
+
+        verify(fileManager, times(1)).overrideUserFile(any());
+        verify(fileManager).overrideUserFile(user1);
+        assertEquals(1, profileSaverWorker.getLastStat().saved);
+        assertEquals(2, profileSaverWorker.getLastStat().queued);
+
+        //not modified since last save
+        realUserDao.markModified(user1);
+        profileSaverWorker.run();
+        verify(fileManager, times(1)).overrideUserFile(any());
+    }
+
 }
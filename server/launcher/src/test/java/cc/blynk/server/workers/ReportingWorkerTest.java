@@ -3,14 +3,22 @@ package cc.blynk.server.workers;
 import cc.blynk.server.core.BlockingIOProcessor;
 import cc.blynk.server.core.dao.ReportingDao;
 import cc.blynk.server.core.model.AppName;
+import cc.blynk.server.core.model.DataStream;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphPeriod;
 import cc.blynk.server.core.protocol.handlers.DefaultExceptionHandler;
+import cc.blynk.server.core.reporting.Downsampler;
+import cc.blynk.server.core.reporting.DownsamplingType;
+import cc.blynk.server.core.reporting.GraphPinRequest;
 import cc.blynk.server.core.reporting.average.AggregationKey;
 import cc.blynk.server.core.reporting.average.AggregationValue;
 import cc.blynk.server.core.reporting.average.AverageAggregatorProcessor;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import cc.blynk.server.core.stats.model.GraphCacheStat;
 import cc.blynk.server.db.DBManager;
+import cc.blynk.utils.ByteUtils;
 import cc.blynk.utils.ServerProperties;
 import org.apache.commons.io.FileUtils;
 import org.junit.Before;
@@ -27,12 +35,16 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
 import java.util.concurrent.ConcurrentHashMap;
 
 import static cc.blynk.server.core.dao.ReportingDao.generateFilename;
 import static cc.blynk.utils.ReportingUtil.getReportingFolder;
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -86,22 +98,19 @@ public class ReportingWorkerTest {
         User user = new User();
         user.email = "test";
         user.appName = AppName.BLYNK;
-        ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock, reportingFolder, new DBManager(blockingIOProcessor, true));
+        Path tempFolder = Files.createTempDirectory("blynk_aggregator");
+        AverageAggregatorProcessor realAggregator = new AverageAggregatorProcessor(tempFolder.toString());
+        ReportingDao reportingDao = new ReportingDao(reportingFolder, realAggregator, properties);
+        ReportingWorker reportingWorker = new ReportingWorker(reportingDao, new DBManager(blockingIOProcessor, true));
 
-        ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
-
-        long ts = getTS() / AverageAggregatorProcessor.HOUR;
-
-        AggregationKey aggregationKey = new AggregationKey("ddd\0+123@gmail.com", AppName.BLYNK, 1, 0, PinType.ANALOG, (byte) 1, ts);
-        AggregationValue aggregationValue = new AggregationValue();
-        aggregationValue.update(100);
-
-        map.put(aggregationKey, aggregationValue);
-
-        when(averageAggregator.getMinute()).thenReturn(map);
+        realAggregator.collect(new BaseReportingKey("ddd\0+123@gmail.com", AppName.BLYNK, 1, 0, PinType.ANALOG, (byte) 1), getTS(), 100);
+        assertEquals(1, realAggregator.getMinute().size());
 
         reportingWorker.run();
-        assertTrue(map.isEmpty());
+        assertTrue(realAggregator.getMinute().isEmpty());
+        assertTrue(realAggregator.getHourly().isEmpty());
+        assertTrue(realAggregator.getDaily().isEmpty());
+        FileUtils.deleteDirectory(tempFolder.toFile());
     }
 
     @Test
@@ -109,7 +118,7 @@ public class ReportingWorkerTest {
         User user = new User();
         user.email = "test";
         user.appName = AppName.BLYNK;
-        ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock, reportingFolder, new DBManager(blockingIOProcessor, true));
+        ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock, new DBManager(blockingIOProcessor, true));
 
         ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
 
@@ -129,16 +138,14 @@ public class ReportingWorkerTest {
         map.put(aggregationKey2, aggregationValue2);
         map.put(aggregationKey3, aggregationValue3);
 
-        when(averageAggregator.getMinute()).thenReturn(new ConcurrentHashMap<>());
-        when(averageAggregator.getHourly()).thenReturn(map);
-        when(averageAggregator.getDaily()).thenReturn(new ConcurrentHashMap<>());
+        when(averageAggregator.drain(eq(GraphGranularityType.HOURLY), anyLong())).thenReturn(map);
 
         reportingWorker.run();
 
         assertTrue(Files.exists(Paths.get(reportingFolder, "test", generateFilename(1, 0, PinType.ANALOG.pintTypeChar, (byte) 1, GraphGranularityType.HOURLY))));
         assertTrue(Files.exists(Paths.get(reportingFolder, "test2", generateFilename(2, 0, PinType.ANALOG.pintTypeChar, (byte) 2, GraphGranularityType.HOURLY))));
 
-        assertTrue(map.isEmpty());
+        verify(averageAggregator).drain(eq(GraphGranularityType.HOURLY), anyLong());
 
         ByteBuffer data = reportingDaoMock.getByteBufferFromDisk(user, 1, 0, PinType.ANALOG, (byte) 1, 2, GraphGranularityType.HOURLY, 0);
         assertNotNull(data);
@@ -164,7 +171,7 @@ public class ReportingWorkerTest {
 
     @Test
     public void testStore2() throws IOException {
-        ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock, reportingFolder, new DBManager(blockingIOProcessor, true));
+        ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock, new DBManager(blockingIOProcessor, true));
 
         ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
 
@@ -184,15 +191,13 @@ public class ReportingWorkerTest {
         map.put(aggregationKey2, aggregationValue2);
         map.put(aggregationKey3, aggregationValue3);
 
-        when(averageAggregator.getMinute()).thenReturn(new ConcurrentHashMap<>());
-        when(averageAggregator.getHourly()).thenReturn(map);
-        when(averageAggregator.getDaily()).thenReturn(new ConcurrentHashMap<>());
+        when(averageAggregator.drain(eq(GraphGranularityType.HOURLY), anyLong())).thenReturn(map);
 
         reportingWorker.run();
 
         assertTrue(Files.exists(Paths.get(reportingFolder, "test", generateFilename(1, 0, PinType.ANALOG.pintTypeChar, (byte) 1, GraphGranularityType.HOURLY))));
 
-        assertTrue(map.isEmpty());
+        verify(averageAggregator).drain(eq(GraphGranularityType.HOURLY), anyLong());
 
         User user = new User();
         user.email = "test";
@@ -225,9 +230,53 @@ public class ReportingWorkerTest {
     }
 
 
+    @Test
+    public void testStoreWithWriters() throws Exception {
+        ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock, new DBManager(blockingIOProcessor, true), 2);
+
+        ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
+
+        long ts = getTS() / AverageAggregatorProcessor.HOUR;
+
+        AggregationValue aggregationValue = new AggregationValue();
+        aggregationValue.update(100);
+        AggregationValue aggregationValue2 = new AggregationValue();
+        aggregationValue2.update(150.54);
+        AggregationValue aggregationValue3 = new AggregationValue();
+        aggregationValue3.update(200);
+
+        map.put(new AggregationKey("test", AppName.BLYNK, 1, 0, PinType.ANALOG, (byte) 1, ts), aggregationValue);
+        map.put(new AggregationKey("test", AppName.BLYNK, 1, 0, PinType.ANALOG, (byte) 1, ts - 1), aggregationValue2);
+        map.put(new AggregationKey("test2", AppName.BLYNK, 2, 0, PinType.ANALOG, (byte) 2, ts), aggregationValue3);
+
+        when(averageAggregator.drain(eq(GraphGranularityType.HOURLY), anyLong())).thenReturn(map);
+
+        reportingWorker.run();
+        //close waits for started flushes
+        reportingWorker.close();
+
+        ReportingFlushStat stat = reportingWorker.getLastFlushStat();
+        assertNotNull(stat);
+        assertEquals(3, stat.keysFlushed);
+        assertEquals(2, stat.filesTouched);
+        assertEquals(48, stat.bytesWritten);
+
+        User user = new User();
+        user.email = "test";
+        user.appName = AppName.BLYNK;
+
+        ByteBuffer data = reportingDaoMock.getByteBufferFromDisk(user, 1, 0, PinType.ANALOG, (byte) 1, 2, GraphGranularityType.HOURLY, 0);
+        assertNotNull(data);
+        data.flip();
+        assertEquals(150.54, data.getDouble(), 0.001);
+        assertEquals((ts - 1) * AverageAggregatorProcessor.HOUR, data.getLong());
+        assertEquals(100.0, data.getDouble(), 0.001);
+        assertEquals(ts * AverageAggregatorProcessor.HOUR, data.getLong());
+    }
+
     @Test
     public void testDeleteCommand() throws IOException {
-        ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock, reportingFolder, new DBManager(blockingIOProcessor, true));
+        ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock, new DBManager(blockingIOProcessor, true));
 
         ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
 
@@ -247,9 +296,7 @@ public class ReportingWorkerTest {
         map.put(aggregationKey2, aggregationValue2);
         map.put(aggregationKey3, aggregationValue3);
 
-        when(averageAggregator.getMinute()).thenReturn(new ConcurrentHashMap<>());
-        when(averageAggregator.getHourly()).thenReturn(map);
-        when(averageAggregator.getDaily()).thenReturn(new ConcurrentHashMap<>());
+        when(averageAggregator.drain(eq(GraphGranularityType.HOURLY), anyLong())).thenReturn(map);
         when(properties.getProperty("data.folder")).thenReturn(System.getProperty("java.io.tmpdir"));
 
         reportingWorker.run();
@@ -265,6 +312,59 @@ public class ReportingWorkerTest {
         assertFalse(Files.exists(Paths.get(reportingFolder, "test", generateFilename(1, 0, PinType.ANALOG.pintTypeChar, (byte) 1, GraphGranularityType.HOURLY))));
     }
 
+    @Test
+    public void testFlushInvalidatesGraphCache() throws IOException {
+        //properties mock disables cache
+        ReportingDao reportingDao = new ReportingDao(reportingFolder, averageAggregator,
+                new ServerProperties(Collections.emptyMap()));
+        ReportingWorker reportingWorker = new ReportingWorker(reportingDao, new DBManager(blockingIOProcessor, true));
+
+        User user = new User();
+        user.email = "test";
+        user.appName = AppName.BLYNK;
+        GraphPinRequest[] requestedPins = new GraphPinRequest[] {
+                new GraphPinRequest(1, 0, new DataStream((byte) 1, PinType.ANALOG), GraphPeriod.WEEK, 0, null),
+                new GraphPinRequest(1, 0, new DataStream((byte) 2, PinType.ANALOG), GraphPeriod.WEEK, 0, null)
+        };
+
+        long ts = getTS() / AverageAggregatorProcessor.HOUR;
+        ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
+        AggregationValue aggregationValue = new AggregationValue();
+        aggregationValue.update(100);
+        map.put(new AggregationKey("test", AppName.BLYNK, 1, 0, PinType.ANALOG, (byte) 2, ts - 1), aggregationValue);
+        when(averageAggregator.drain(eq(GraphGranularityType.HOURLY), anyLong())).thenReturn(map);
+        reportingWorker.run();
+
+        reportingDao.getCompressedReportingData(user, requestedPins, DownsamplingType.LTTB, 0);
+        assertEquals(2, reportingDao.graphDataCache.getStat().entries);
+
+        map = new ConcurrentHashMap<>();
+        map.put(new AggregationKey("test", AppName.BLYNK, 1, 0, PinType.ANALOG, (byte) 1, ts), aggregationValue);
+        when(averageAggregator.drain(eq(GraphGranularityType.HOURLY), anyLong())).thenReturn(map);
+        reportingWorker.run();
+
+        //only flushed pin is removed from cache
+        assertEquals(1, reportingDao.graphDataCache.getStat().entries);
+        byte[] compressed = reportingDao.getCompressedReportingData(user, requestedPins, DownsamplingType.LTTB, 0);
+        assertArrayEquals(ByteUtils.decompress(ByteUtils.compress(1, reportingDao.getReportingData(user, requestedPins))),
+                ByteUtils.decompress(compressed));
+
+        GraphCacheStat stat = reportingDao.graphDataCache.getStat();
+        assertEquals(1, stat.hits);
+        assertEquals(3, stat.misses);
+        assertEquals(1, stat.invalidations);
+
+        //too large response is downsampled from cached data, files are not read again
+        int maxSize = compressed.length - 1;
+        byte[] fitted = reportingDao.getCompressedReportingData(user, requestedPins, DownsamplingType.LTTB, 0, maxSize);
+        assertArrayEquals(ByteUtils.decompress(ByteUtils.compress(1,
+                Downsampler.fit(reportingDao.getReportingData(user, requestedPins), maxSize / 2))),
+                ByteUtils.decompress(fitted));
+        stat = reportingDao.graphDataCache.getStat();
+        assertEquals(3, stat.hits);
+        assertEquals(3, stat.misses);
+    }
+
     private long getTS() {
         SimpleDateFormat formatter = new SimpleDateFormat("MMM dd, yyyy HH:mm:ss");
         String dateInString = "Aug 10, 2015 12:10:56";
@@ -83,7 +83,7 @@ public class AppHandler extends BaseSimpleChannelInboundHandler<StringMessage> {
     private final GlobalStats stats;
 
     public AppHandler(Holder holder, AppStateHolder state) {
-        super(StringMessage.class, holder.limits);
+        super(StringMessage.class, holder.limits, holder.userDao);
         this.token = new GetTokenLogic(holder);
         this.assignTokenLogic = new AssignTokenLogic(holder);
         this.hardwareApp = new HardwareAppLogic(holder, state.user.email);
@@ -99,13 +99,13 @@ public class AppHandler extends BaseSimpleChannelInboundHandler<StringMessage> {
         this.getSharedDashLogic = new GetSharedDashLogic(holder.tokenManager);
 
         this.createDashLogic = new CreateDashLogic(holder.timerWorker, holder.tokenManager, holder.limits.DASHBOARDS_LIMIT, holder.limits.PROFILE_SIZE_LIMIT_BYTES);
-        this.updateDashLogic = new UpdateDashLogic(holder.timerWorker, holder.limits.PROFILE_SIZE_LIMIT_BYTES);
+        this.updateDashLogic = new UpdateDashLogic(holder.timerWorker, holder.readingWidgetsWorker, holder.limits.PROFILE_SIZE_LIMIT_BYTES);
 
-        this.activateDashboardLogic = new ActivateDashboardLogic(holder.sessionDao);
+        this.activateDashboardLogic = new ActivateDashboardLogic(holder.sessionDao, holder.readingWidgetsWorker);
         this.deActivateDashboardLogic = new DeActivateDashboardLogic(holder.sessionDao);
 
-        this.createWidgetLogic = new CreateWidgetLogic(holder.limits.WIDGET_SIZE_LIMIT_BYTES, holder.timerWorker);
-        this.updateWidgetLogic = new UpdateWidgetLogic(holder.limits.WIDGET_SIZE_LIMIT_BYTES, holder.timerWorker);
+        this.createWidgetLogic = new CreateWidgetLogic(holder.limits.WIDGET_SIZE_LIMIT_BYTES, holder.timerWorker, holder.readingWidgetsWorker);
+        this.updateWidgetLogic = new UpdateWidgetLogic(holder.limits.WIDGET_SIZE_LIMIT_BYTES, holder.timerWorker, holder.readingWidgetsWorker);
         this.deleteWidgetLogic = new DeleteWidgetLogic(holder.timerWorker);
         this.deleteDashLogic = new DeleteDashLogic(holder);
         this.updateDashSettingLogic = new UpdateDashSettingLogic(holder.limits.WIDGET_SIZE_LIMIT_BYTES);
@@ -114,7 +114,7 @@ public class AppHandler extends BaseSimpleChannelInboundHandler<StringMessage> {
         this.deleteDeviceLogic = new DeleteDeviceLogic(holder.tokenManager, holder.sessionDao);
 
         this.shareLogic = new ShareLogic(holder.sessionDao);
-        this.redeemLogic = new RedeemLogic(holder.dbManager, holder.blockingIOProcessor);
+        this.redeemLogic = new RedeemLogic(holder.dbManager, holder.blockingIOProcessor, holder.userDao);
         this.addEnergyLogic = new AddEnergyLogic(holder.dbManager, holder.blockingIOProcessor);
 
         this.createAppLogic = new CreateAppLogic(holder.limits.WIDGET_SIZE_LIMIT_BYTES);
@@ -277,6 +277,42 @@ public class AppHandler extends BaseSimpleChannelInboundHandler<StringMessage> {
         }
     }
 
+    @Override
+    protected boolean modifiesProfile(StringMessage msg) {
+        switch (msg.command) {
+            case HARDWARE :
+            case HARDWARE_RESEND_FROM_BLUETOOTH :
+            case ACTIVATE_DASHBOARD :
+            case DEACTIVATE_DASHBOARD :
+            case SHARING :
+            case GET_TOKEN :
+            case ADD_PUSH_TOKEN :
+            case REFRESH_TOKEN :
+            case GET_SHARE_TOKEN :
+            case REFRESH_SHARE_TOKEN :
+            case CREATE_DASH :
+            case UPDATE_DASH :
+            case DELETE_DASH :
+            case CREATE_WIDGET :
+            case UPDATE_WIDGET :
+            case DELETE_WIDGET :
+            case ADD_ENERGY :
+            case UPDATE_PROJECT_SETTINGS :
+            case CREATE_DEVICE :
+            case UPDATE_DEVICE :
+            case DELETE_DEVICE :
+            case CREATE_TAG :
+            case UPDATE_TAG :
+            case DELETE_TAG :
+            case CREATE_APP :
+            case UPDATE_APP :
+            case DELETE_APP :
+                return true;
+            default :
+                return false;
+        }
+    }
+
     @Override
     public StateHolderBase getState() {
         return state;
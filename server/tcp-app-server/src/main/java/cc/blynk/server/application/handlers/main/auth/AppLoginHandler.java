@@ -3,6 +3,7 @@ package cc.blynk.server.application.handlers.main.auth;
 import cc.blynk.server.Holder;
 import cc.blynk.server.application.handlers.main.AppHandler;
 import cc.blynk.server.application.handlers.sharing.auth.AppShareLoginHandler;
+import cc.blynk.server.core.dao.UserKey;
 import cc.blynk.server.core.model.AppName;
 import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.FacebookTokenResponse;
@@ -187,14 +188,15 @@ public class AppLoginHandler extends SimpleChannelInboundHandler<LoginMessage> i
         Session session = holder.sessionDao.getOrCreateSessionByUser(appStateHolder.userKey, channel.eventLoop());
         if (session.initialEventLoop != channel.eventLoop()) {
             log.debug("Re registering app channel. {}", ctx.channel());
-            reRegisterChannel(ctx, session, channelFuture -> completeLogin(channelFuture.channel(), session, user, messageId));
+            reRegisterChannel(ctx, session, channelFuture -> completeLogin(channelFuture.channel(), session, appStateHolder.userKey, user, messageId));
         } else {
-            completeLogin(channel, session, user, messageId);
+            completeLogin(channel, session, appStateHolder.userKey, user, messageId);
         }
     }
 
-    private void completeLogin(Channel channel, Session session, User user, int msgId) {
+    private void completeLogin(Channel channel, Session session, UserKey userKey, User user, int msgId) {
         session.addAppChannel(channel);
+        holder.readingWidgetsWorker.add(userKey, user);
         channel.writeAndFlush(ok(msgId), channel.voidPromise());
         for (DashBoard dashBoard : user.profile.dashBoards) {
             if (dashBoard.isAppConnectedOn && dashBoard.isActive) {
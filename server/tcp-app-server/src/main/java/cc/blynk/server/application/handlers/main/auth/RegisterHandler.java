@@ -6,6 +6,7 @@ import cc.blynk.server.core.dao.UserDao;
 import cc.blynk.server.core.dao.UserKey;
 import cc.blynk.server.core.model.AppName;
 import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.PinStorage;
 import cc.blynk.server.core.model.auth.App;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.device.Device;
@@ -22,7 +23,6 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -146,7 +146,7 @@ public class RegisterHandler extends SimpleChannelInboundHandler<RegisterMessage
         clonedDash.createdAt = System.currentTimeMillis();
         clonedDash.updatedAt = clonedDash.createdAt;
         clonedDash.isActive = true;
-        clonedDash.pinsStorage = Collections.emptyMap();
+        clonedDash.pinsStorage = new PinStorage();
         clonedDash.eraseValues();
 
         clonedDash.addTimers(timerWorker, new UserKey(newUser));
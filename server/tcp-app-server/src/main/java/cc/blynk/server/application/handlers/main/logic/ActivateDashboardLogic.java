@@ -7,6 +7,7 @@ import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.device.Device;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.workers.ReadingWidgetsWorker;
 import cc.blynk.utils.ParseUtil;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
@@ -31,9 +32,11 @@ public class ActivateDashboardLogic {
     private static final Logger log = LogManager.getLogger(ActivateDashboardLogic.class);
 
     private final SessionDao sessionDao;
+    private final ReadingWidgetsWorker readingWidgetsWorker;
 
-    public ActivateDashboardLogic(SessionDao sessionDao) {
+    public ActivateDashboardLogic(SessionDao sessionDao, ReadingWidgetsWorker readingWidgetsWorker) {
         this.sessionDao = sessionDao;
+        this.readingWidgetsWorker = readingWidgetsWorker;
     }
 
     public void messageReceived(ChannelHandlerContext ctx, AppStateHolder state, StringMessage message) {
@@ -48,6 +51,7 @@ public class ActivateDashboardLogic {
         user.lastModifiedTs = System.currentTimeMillis();
 
         Session session = sessionDao.userSession.get(state.userKey);
+        readingWidgetsWorker.add(state.userKey, dash);
 
         if (session.isHardwareConnected(dashId)) {
             for (Device device : dash.devices) {
@@ -3,6 +3,7 @@ package cc.blynk.server.application.handlers.main.logic;
 import cc.blynk.server.Holder;
 import cc.blynk.server.core.BlockingIOProcessor;
 import cc.blynk.server.core.dao.TokenManager;
+import cc.blynk.server.core.dao.UserDao;
 import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.device.Device;
@@ -33,11 +34,13 @@ public class AssignTokenLogic {
     private final TokenManager tokenManager;
     private final BlockingIOProcessor blockingIOProcessor;
     private final DBManager dbManager;
+    private final UserDao userDao;
 
     public AssignTokenLogic(Holder holder) {
         this.tokenManager = holder.tokenManager;
         this.blockingIOProcessor = holder.blockingIOProcessor;
         this.dbManager = holder.dbManager;
+        this.userDao = holder.userDao;
     }
 
     public void messageReceived(ChannelHandlerContext ctx, User user, StringMessage message) {
@@ -77,6 +80,7 @@ public class AssignTokenLogic {
             }
 
             tokenManager.assignToken(user, dash, device, token);
+            userDao.markModified(user);
 
             ctx.writeAndFlush(ok(message.id), ctx.voidPromise());
         });
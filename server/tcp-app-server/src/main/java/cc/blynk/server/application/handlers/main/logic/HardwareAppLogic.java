@@ -45,7 +45,7 @@ public class HardwareAppLogic {
 
     public HardwareAppLogic(Holder holder, String email) {
         this.sessionDao = holder.sessionDao;
-        this.webhookProcessor = new WebhookProcessor(holder.asyncHttpClient,
+        this.webhookProcessor = new WebhookProcessor(holder.webhookDispatcher,
                 holder.limits.WEBHOOK_PERIOD_LIMITATION,
                 holder.limits.WEBHOOK_RESPONSE_SUZE_LIMIT_BYTES,
                 holder.limits.WEBHOOK_FAILURE_LIMIT,
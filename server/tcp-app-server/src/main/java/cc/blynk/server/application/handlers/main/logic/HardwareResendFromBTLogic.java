@@ -31,7 +31,7 @@ public class HardwareResendFromBTLogic extends BaseProcessorHandler {
     private final SessionDao sessionDao;
 
     public HardwareResendFromBTLogic(Holder holder, String email) {
-        super(holder.eventorProcessor, new WebhookProcessor(holder.asyncHttpClient,
+        super(holder.eventorProcessor, new WebhookProcessor(holder.webhookDispatcher,
                 holder.limits.WEBHOOK_PERIOD_LIMITATION,
                 holder.limits.WEBHOOK_RESPONSE_SUZE_LIMIT_BYTES,
                 holder.limits.WEBHOOK_FAILURE_LIMIT,
@@ -1,6 +1,7 @@
 package cc.blynk.server.application.handlers.main.logic;
 
 import cc.blynk.server.core.BlockingIOProcessor;
+import cc.blynk.server.core.dao.UserDao;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.protocol.model.messages.ResponseMessage;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
@@ -27,10 +28,12 @@ public class RedeemLogic {
 
     private final BlockingIOProcessor blockingIOProcessor;
     private final DBManager dbManager;
+    private final UserDao userDao;
 
-    public RedeemLogic(DBManager dbManager, BlockingIOProcessor blockingIOProcessor) {
+    public RedeemLogic(DBManager dbManager, BlockingIOProcessor blockingIOProcessor, UserDao userDao) {
         this.blockingIOProcessor = blockingIOProcessor;
         this.dbManager = dbManager;
+        this.userDao = userDao;
     }
 
     public void messageReceived(ChannelHandlerContext ctx, User user, StringMessage message) {
@@ -59,6 +62,7 @@ public class RedeemLogic {
 
     private void unlockContent(User user, int reward) {
         user.purchaseEnergy(reward);
+        userDao.markModified(user);
         log.info("Unlocking content for {}. Reward {}.", user.email, reward);
     }
 
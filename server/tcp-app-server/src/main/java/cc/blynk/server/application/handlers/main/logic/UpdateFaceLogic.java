@@ -67,6 +67,7 @@ public class UpdateFaceLogic {
                     //we found child project-face
                     try {
                         existingDash.updateFaceFields(dash);
+                        userDao.markModified(existingUser);
                         count++;
                     } catch (Exception e) {
                         log.error("Error updating face for user {}, dashId {}.", existingUser.email, existingDash.id, e);
@@ -6,6 +6,7 @@ import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.protocol.exceptions.IllegalCommandException;
 import cc.blynk.server.core.protocol.exceptions.NotAllowedException;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.workers.ReadingWidgetsWorker;
 import cc.blynk.server.workers.timer.TimerWorker;
 import cc.blynk.utils.JsonParser;
 import io.netty.channel.ChannelHandlerContext;
@@ -26,9 +27,11 @@ public class UpdateDashLogic {
 
     private final int DASH_MAX_SIZE;
     private final TimerWorker timerWorker;
+    private final ReadingWidgetsWorker readingWidgetsWorker;
 
-    public UpdateDashLogic(TimerWorker timerWorker, int maxDashSize) {
+    public UpdateDashLogic(TimerWorker timerWorker, ReadingWidgetsWorker readingWidgetsWorker, int maxDashSize) {
         this.timerWorker = timerWorker;
+        this.readingWidgetsWorker = readingWidgetsWorker;
         this.DASH_MAX_SIZE = maxDashSize;
     }
 
@@ -63,6 +66,8 @@ public class UpdateDashLogic {
         existingDash.updateFields(updatedDash);
         user.lastModifiedTs = existingDash.updatedAt;
 
+        readingWidgetsWorker.add(state.userKey, existingDash);
+
         ctx.writeAndFlush(ok(message.id), ctx.voidPromise());
     }
 
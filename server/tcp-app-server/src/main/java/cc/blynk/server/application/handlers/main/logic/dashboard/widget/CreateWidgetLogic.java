@@ -9,6 +9,7 @@ import cc.blynk.server.core.model.widgets.others.eventor.Eventor;
 import cc.blynk.server.core.protocol.exceptions.IllegalCommandException;
 import cc.blynk.server.core.protocol.exceptions.NotAllowedException;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.workers.ReadingWidgetsWorker;
 import cc.blynk.server.workers.timer.TimerWorker;
 import cc.blynk.utils.ArrayUtil;
 import cc.blynk.utils.JsonParser;
@@ -31,10 +32,12 @@ public class CreateWidgetLogic {
 
     private final int MAX_WIDGET_SIZE;
     private final TimerWorker timerWorker;
+    private final ReadingWidgetsWorker readingWidgetsWorker;
 
-    public CreateWidgetLogic(int maxWidgetSize, TimerWorker timerWorker) {
+    public CreateWidgetLogic(int maxWidgetSize, TimerWorker timerWorker, ReadingWidgetsWorker readingWidgetsWorker) {
         this.MAX_WIDGET_SIZE = maxWidgetSize;
         this.timerWorker = timerWorker;
+        this.readingWidgetsWorker = readingWidgetsWorker;
     }
 
     public void messageReceived(ChannelHandlerContext ctx, AppStateHolder state, StringMessage message) {
@@ -85,6 +88,8 @@ public class CreateWidgetLogic {
             timerWorker.add(state.userKey, (Eventor) newWidget, dashId);
         }
 
+        readingWidgetsWorker.add(state.userKey, dash);
+
         ctx.writeAndFlush(ok(message.id), ctx.voidPromise());
     }
 
@@ -11,6 +11,7 @@ import cc.blynk.server.core.model.widgets.ui.Tabs;
 import cc.blynk.server.core.protocol.exceptions.IllegalCommandException;
 import cc.blynk.server.core.protocol.exceptions.NotAllowedException;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.workers.ReadingWidgetsWorker;
 import cc.blynk.server.workers.timer.TimerWorker;
 import cc.blynk.utils.JsonParser;
 import cc.blynk.utils.ParseUtil;
@@ -32,10 +33,12 @@ public class UpdateWidgetLogic {
 
     private final int MAX_WIDGET_SIZE;
     private final TimerWorker timerWorker;
+    private final ReadingWidgetsWorker readingWidgetsWorker;
 
-    public UpdateWidgetLogic(int maxWidgetSize, TimerWorker timerWorker) {
+    public UpdateWidgetLogic(int maxWidgetSize, TimerWorker timerWorker, ReadingWidgetsWorker readingWidgetsWorker) {
         this.MAX_WIDGET_SIZE = maxWidgetSize;
         this.timerWorker = timerWorker;
+        this.readingWidgetsWorker = readingWidgetsWorker;
     }
 
     public void messageReceived(ChannelHandlerContext ctx, AppStateHolder state, StringMessage message) {
@@ -83,9 +86,10 @@ public class UpdateWidgetLogic {
             newNotif.androidTokens.putAll(prevNotif.androidTokens);
         }
 
-        //non atomic update. changes could not be visible in saving thread.
-        //ignoring for now
-        dash.widgets[existingWidgetIndex] = newWidget;
+        //widgets array is replaced, so saving thread and dash indexes see the change
+        Widget[] updatedWidgets = dash.widgets.clone();
+        updatedWidgets[existingWidgetIndex] = newWidget;
+        dash.widgets = updatedWidgets;
         dash.cleanPinStorage(newWidget);
         dash.updatedAt = System.currentTimeMillis();
         user.lastModifiedTs = dash.updatedAt;
@@ -102,6 +106,8 @@ public class UpdateWidgetLogic {
             timerWorker.add(state.userKey, (Eventor) newWidget, dashId);
         }
 
+        readingWidgetsWorker.add(state.userKey, dash);
+
         ctx.writeAndFlush(ok(message.id), ctx.voidPromise());
     }
 
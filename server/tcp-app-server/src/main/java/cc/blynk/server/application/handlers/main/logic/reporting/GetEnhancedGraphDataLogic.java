@@ -12,6 +12,7 @@ import cc.blynk.server.core.model.widgets.outputs.graph.GraphPeriod;
 import cc.blynk.server.core.protocol.exceptions.IllegalCommandException;
 import cc.blynk.server.core.protocol.exceptions.NoDataException;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.reporting.DownsamplingType;
 import cc.blynk.server.core.reporting.GraphPinRequest;
 import cc.blynk.utils.StringUtils;
 import io.netty.channel.Channel;
@@ -21,7 +22,6 @@ import org.apache.logging.log4j.Logger;
 
 import static cc.blynk.server.core.protocol.enums.Command.GET_ENHANCED_GRAPH_DATA;
 import static cc.blynk.utils.BlynkByteBufUtil.*;
-import static cc.blynk.utils.ByteUtils.compress;
 
 /**
  * The Blynk Project.
@@ -33,6 +33,8 @@ public class GetEnhancedGraphDataLogic {
 
     private static final Logger log = LogManager.getLogger(GetEnhancedGraphDataLogic.class);
 
+    static final int MAX_GRAPH_DATA_SIZE = Short.MAX_VALUE * 2;
+
     private final BlockingIOProcessor blockingIOProcessor;
     private final ReportingDao reportingDao;
 
@@ -52,9 +54,25 @@ public class GetEnhancedGraphDataLogic {
         long widgetId = Long.parseLong(messageParts[1]);
         GraphPeriod graphPeriod = GraphPeriod.valueOf(messageParts[2]);
         int page = 0;
-        if (messageParts.length == 4) {
+        if (messageParts.length > 3) {
             page = Integer.parseInt(messageParts[3]);
         }
+        //optional screen resolution, data is downsampled on server when period has more points
+        int maxPoints = 0;
+        DownsamplingType downsamplingType = DownsamplingType.LTTB;
+        try {
+            if (messageParts.length > 4) {
+                maxPoints = Integer.parseInt(messageParts[4]);
+            }
+            if (messageParts.length > 5) {
+                downsamplingType = DownsamplingType.valueOf(messageParts[5]);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IllegalCommandException("Graph request command body incorrect.");
+        }
+        if (maxPoints < 0) {
+            throw new IllegalCommandException("Graph request command body incorrect.");
+        }
         int skipCount = graphPeriod.numberOfPoints * page;
 
         DashBoard dash = user.profile.getDashByIdOrThrow(dashId);
@@ -90,16 +108,17 @@ public class GetEnhancedGraphDataLogic {
             i++;
         }
 
-        readGraphData(ctx.channel(), user, requestedPins, message.id);
+        readGraphData(ctx.channel(), user, requestedPins, downsamplingType, maxPoints, message.id);
     }
 
-    private void readGraphData(Channel channel, User user, GraphPinRequest[] requestedPins, int msgId) {
+    private void readGraphData(Channel channel, User user, GraphPinRequest[] requestedPins,
+                               DownsamplingType downsamplingType, int maxPoints, int msgId) {
         blockingIOProcessor.executeHistory(() -> {
             try {
-                byte[][] data = reportingDao.getReportingData(user, requestedPins);
-                byte[] compressed = compress(requestedPins[0].dashId, data);
+                byte[] compressed = reportingDao.getCompressedReportingData(user, requestedPins,
+                        downsamplingType, maxPoints, MAX_GRAPH_DATA_SIZE);
 
-                if (compressed.length > Short.MAX_VALUE * 2) {
+                if (compressed.length > MAX_GRAPH_DATA_SIZE) {
                     log.error("Data set for history graph is too large {}, for {}.", compressed.length, user.email);
                     channel.writeAndFlush(serverError(msgId), channel.voidPromise());
                 } else {
@@ -10,6 +10,7 @@ import cc.blynk.server.core.protocol.exceptions.IllegalCommandBodyException;
 import cc.blynk.server.core.protocol.exceptions.IllegalCommandException;
 import cc.blynk.server.core.protocol.exceptions.NoDataException;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.reporting.DownsamplingType;
 import cc.blynk.server.core.reporting.GraphPinRequest;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
@@ -18,9 +19,9 @@ import org.apache.logging.log4j.Logger;
 
 import java.util.Arrays;
 
+import static cc.blynk.server.application.handlers.main.logic.reporting.GetEnhancedGraphDataLogic.MAX_GRAPH_DATA_SIZE;
 import static cc.blynk.server.core.protocol.enums.Command.GET_GRAPH_DATA_RESPONSE;
 import static cc.blynk.utils.BlynkByteBufUtil.*;
-import static cc.blynk.utils.ByteUtils.compress;
 import static cc.blynk.utils.StringUtils.split2Device;
 
 /**
@@ -87,16 +88,35 @@ public class GetGraphDataLogic {
             requestedPins[i] = new GraphPinRequest(dashId, deviceId, messageParts, i, valuesPerPin);
         }
 
-        readGraphData(channel, user, requestedPins, msgId);
+        //optional screen resolution and downsampling type after pins
+        int optionalIndex = numberOfPins * valuesPerPin;
+        int maxPoints = 0;
+        DownsamplingType downsamplingType = DownsamplingType.LTTB;
+        try {
+            if (messageParts.length > optionalIndex) {
+                maxPoints = Integer.parseInt(messageParts[optionalIndex]);
+            }
+            if (messageParts.length > optionalIndex + 1) {
+                downsamplingType = DownsamplingType.valueOf(messageParts[optionalIndex + 1]);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IllegalCommandException("Graph request command body incorrect.");
+        }
+        if (maxPoints < 0) {
+            throw new IllegalCommandException("Graph request command body incorrect.");
+        }
+
+        readGraphData(channel, user, requestedPins, downsamplingType, maxPoints, msgId);
     }
 
-    private void readGraphData(Channel channel, User user, GraphPinRequest[] requestedPins, int msgId) {
+    private void readGraphData(Channel channel, User user, GraphPinRequest[] requestedPins,
+                               DownsamplingType downsamplingType, int maxPoints, int msgId) {
         blockingIOProcessor.executeHistory(() -> {
             try {
-                byte[][] data = reportingDao.getReportingData(user, requestedPins);
-                byte[] compressed = compress(requestedPins[0].dashId, data);
+                byte[] compressed = reportingDao.getCompressedReportingData(user, requestedPins,
+                        downsamplingType, maxPoints, MAX_GRAPH_DATA_SIZE);
 
-                if (compressed.length > Short.MAX_VALUE * 2) {
+                if (compressed.length > MAX_GRAPH_DATA_SIZE) {
                     log.error("Data set for history graph is too large {}, for {}.", compressed.length, user.email);
                     channel.writeAndFlush(serverError(msgId), channel.voidPromise());
                 } else {
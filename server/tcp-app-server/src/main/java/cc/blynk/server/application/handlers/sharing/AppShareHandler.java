@@ -36,7 +36,7 @@ public class AppShareHandler extends BaseSimpleChannelInboundHandler<StringMessa
     private final GlobalStats stats;
 
     public AppShareHandler(Holder holder, AppShareStateHolder state) {
-        super(StringMessage.class, holder.limits);
+        super(StringMessage.class, holder.limits, holder.userDao);
         this.hardwareApp = new HardwareAppShareLogic(holder.sessionDao);
         this.graphData = new GetGraphDataLogic(holder.reportingDao, holder.blockingIOProcessor);
         this.enhancedGraphDataLogic = new GetEnhancedGraphDataLogic(holder.reportingDao, holder.blockingIOProcessor);
@@ -80,6 +80,11 @@ public class AppShareHandler extends BaseSimpleChannelInboundHandler<StringMessa
         }
     }
 
+    @Override
+    protected boolean modifiesProfile(StringMessage msg) {
+        return msg.command == HARDWARE || msg.command == ADD_PUSH_TOKEN;
+    }
+
     @Override
     public StateHolderBase getState() {
         return state;
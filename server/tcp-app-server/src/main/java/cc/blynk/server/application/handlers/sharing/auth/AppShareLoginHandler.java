@@ -7,6 +7,7 @@ import cc.blynk.server.application.handlers.main.auth.OsType;
 import cc.blynk.server.application.handlers.main.auth.RegisterHandler;
 import cc.blynk.server.application.handlers.sharing.AppShareHandler;
 import cc.blynk.server.core.dao.SharedTokenValue;
+import cc.blynk.server.core.dao.UserKey;
 import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.model.auth.User;
@@ -90,14 +91,15 @@ public class AppShareLoginHandler extends SimpleChannelInboundHandler<ShareLogin
 
         if (session.initialEventLoop != ctx.channel().eventLoop()) {
             log.debug("Re registering app channel. {}", ctx.channel());
-            reRegisterChannel(ctx, session, channelFuture -> completeLogin(channelFuture.channel(), session, user.email, messageId));
+            reRegisterChannel(ctx, session, channelFuture -> completeLogin(channelFuture.channel(), session, appShareStateHolder.userKey, user.email, dash, messageId));
         } else {
-            completeLogin(ctx.channel(), session, user.email, messageId);
+            completeLogin(ctx.channel(), session, appShareStateHolder.userKey, user.email, dash, messageId);
         }
     }
 
-    private void completeLogin(Channel channel, Session session, String userName, int msgId) {
+    private void completeLogin(Channel channel, Session session, UserKey userKey, String userName, DashBoard dash, int msgId) {
         session.addAppChannel(channel);
+        holder.readingWidgetsWorker.add(userKey, dash);
         channel.writeAndFlush(ok(msgId), channel.voidPromise());
         log.info("Shared {} app joined.", userName);
     }
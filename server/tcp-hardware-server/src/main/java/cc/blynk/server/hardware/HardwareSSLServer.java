@@ -28,6 +28,7 @@ public class HardwareSSLServer extends BaseServer {
         final HardwareLoginHandler hardwareLoginHandler = new HardwareLoginHandler(holder, port);
         final HardwareChannelStateHandler hardwareChannelStateHandler = new HardwareChannelStateHandler(holder.sessionDao, holder.gcmWrapper);
         final AlreadyLoggedHandler alreadyLoggedHandler = new AlreadyLoggedHandler();
+        final boolean rawHardwareMessages = holder.props.getBoolProperty("hardware.raw.messages");
 
         final int hardTimeoutSecs = holder.limits.HARDWARE_IDLE_TIMEOUT;
 
@@ -40,7 +41,7 @@ public class HardwareSSLServer extends BaseServer {
                 }
                 pipeline.addLast("HSSL", holder.sslContextHolder.sslCtx.newHandler(ch.alloc()))
                 .addLast("HSSLChannelState", hardwareChannelStateHandler)
-                .addLast("HSSLMessageDecoder", new MessageDecoder(holder.stats))
+                .addLast("HSSLMessageDecoder", new MessageDecoder(holder.stats, rawHardwareMessages))
                 .addLast("HSSLMessageEncoder", new MessageEncoder(holder.stats))
                 .addLast("HSSLLogin", hardwareLoginHandler)
                 .addLast("HSSLNotLogged", new HardwareNotLoggedHandler())
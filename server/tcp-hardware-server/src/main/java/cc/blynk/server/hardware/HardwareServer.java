@@ -29,6 +29,7 @@ public class HardwareServer extends BaseServer {
         final HardwareLoginHandler hardwareLoginHandler = new HardwareLoginHandler(holder, port);
         final HardwareChannelStateHandler hardwareChannelStateHandler = new HardwareChannelStateHandler(holder.sessionDao, holder.gcmWrapper);
         final AlreadyLoggedHandler alreadyLoggedHandler = new AlreadyLoggedHandler();
+        final boolean rawHardwareMessages = holder.props.getBoolProperty("hardware.raw.messages");
 
         channelInitializer = new ChannelInitializer<SocketChannel>() {
             @Override
@@ -39,7 +40,7 @@ public class HardwareServer extends BaseServer {
                     pipeline.addLast("H_ReadTimeout", new ReadTimeoutHandler(hardTimeoutSecs));
                 }
                 pipeline.addLast("H_ChannelState", hardwareChannelStateHandler)
-                .addLast("H_MessageDecoder", new MessageDecoder(holder.stats))
+                .addLast("H_MessageDecoder", new MessageDecoder(holder.stats, rawHardwareMessages))
                 .addLast("H_MessageEncoder", new MessageEncoder(holder.stats))
                 .addLast("H_Login", hardwareLoginHandler)
                 .addLast("H_NotLogged", new HardwareNotLoggedHandler())
@@ -1,7 +1,9 @@
 package cc.blynk.server.hardware.handlers.hardware;
 
 import cc.blynk.server.Holder;
+import cc.blynk.server.core.protocol.model.messages.MessageBase;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.protocol.model.messages.hardware.RawHardwareMessage;
 import cc.blynk.server.core.session.HardwareStateHolder;
 import cc.blynk.server.core.session.StateHolderBase;
 import cc.blynk.server.handlers.BaseSimpleChannelInboundHandler;
@@ -16,7 +18,7 @@ import static cc.blynk.server.core.protocol.enums.Command.*;
  * Created by Dmitriy Dumanskiy.
  * Created on 29.07.15.
  */
-public class HardwareHandler extends BaseSimpleChannelInboundHandler<StringMessage> {
+public class HardwareHandler extends BaseSimpleChannelInboundHandler<MessageBase> {
 
     public final HardwareStateHolder state;
     private final HardwareLogic hardware;
@@ -29,7 +31,7 @@ public class HardwareHandler extends BaseSimpleChannelInboundHandler<StringMessa
     private final BlynkInternalLogic info;
 
     public HardwareHandler(Holder holder, HardwareStateHolder stateHolder) {
-        super(StringMessage.class, holder.limits);
+        super(MessageBase.class, holder.limits, holder.userDao);
         this.hardware = new HardwareLogic(holder, stateHolder.user.email);
         this.bridge = new BridgeLogic(holder.sessionDao, hardware);
 
@@ -44,7 +46,15 @@ public class HardwareHandler extends BaseSimpleChannelInboundHandler<StringMessa
     }
 
     @Override
-    public void messageReceived(ChannelHandlerContext ctx, StringMessage msg) {
+    public void messageReceived(ChannelHandlerContext ctx, MessageBase msg) {
+        if (msg instanceof RawHardwareMessage) {
+            hardware.messageReceived(ctx, state, (RawHardwareMessage) msg);
+        } else if (msg instanceof StringMessage) {
+            messageReceived(ctx, (StringMessage) msg);
+        }
+    }
+
+    private void messageReceived(ChannelHandlerContext ctx, StringMessage msg) {
         switch (msg.command) {
             case HARDWARE:
                 hardware.messageReceived(ctx, state, msg);
@@ -79,6 +89,18 @@ public class HardwareHandler extends BaseSimpleChannelInboundHandler<StringMessa
         }
     }
 
+    @Override
+    protected boolean modifiesProfile(MessageBase msg) {
+        switch (msg.command) {
+            case HARDWARE:
+            case BLYNK_INTERNAL:
+            case SET_WIDGET_PROPERTY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
     @Override
     public StateHolderBase getState() {
         return state;
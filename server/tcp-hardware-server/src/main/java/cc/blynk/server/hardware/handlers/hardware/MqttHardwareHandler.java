@@ -24,7 +24,7 @@ public class MqttHardwareHandler extends BaseSimpleChannelInboundHandler<MqttMes
     private final GlobalStats stats;
 
     public MqttHardwareHandler(Holder holder, HardwareStateHolder stateHolder) {
-        super(MqttMessage.class, holder.limits);
+        super(MqttMessage.class, holder.limits, holder.userDao);
         this.hardware = new MqttHardwareLogic(holder.sessionDao, holder.reportingDao);
         this.state = stateHolder;
         this.stats = holder.stats;
@@ -59,6 +59,11 @@ public class MqttHardwareHandler extends BaseSimpleChannelInboundHandler<MqttMes
         }
     }
 
+    @Override
+    protected boolean modifiesProfile(MqttMessage msg) {
+        return msg.fixedHeader().messageType() == MqttMessageType.PUBLISH;
+    }
+
     @Override
     public StateHolderBase getState() {
         return state;
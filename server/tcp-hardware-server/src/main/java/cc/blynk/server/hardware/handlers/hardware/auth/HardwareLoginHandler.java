@@ -3,6 +3,7 @@ package cc.blynk.server.hardware.handlers.hardware.auth;
 import cc.blynk.server.Holder;
 import cc.blynk.server.core.BlockingIOProcessor;
 import cc.blynk.server.core.dao.TokenValue;
+import cc.blynk.server.core.dao.UserKey;
 import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.model.auth.User;
@@ -54,10 +55,11 @@ public class HardwareLoginHandler extends SimpleChannelInboundHandler<LoginMessa
         this.listenPort = String.valueOf(listenPort);
     }
 
-    private static void completeLogin(Channel channel, Session session, User user, DashBoard dash, Device device, int msgId) {
+    private void completeLogin(Channel channel, Session session, UserKey userKey, User user, DashBoard dash, Device device, int msgId) {
         log.debug("completeLogin. {}", channel);
 
-        session.addHardChannel(channel);
+        session.addHardChannel(channel, dash.id, device.id);
+        holder.readingWidgetsWorker.add(userKey, dash);
         channel.write(ok(msgId));
 
         String body = dash.buildPMMessage(device.id);
@@ -101,9 +103,9 @@ public class HardwareLoginHandler extends SimpleChannelInboundHandler<LoginMessa
 
         if (session.initialEventLoop != ctx.channel().eventLoop()) {
             log.debug("Re registering hard channel. {}", ctx.channel());
-            reRegisterChannel(ctx, session, channelFuture -> completeLogin(channelFuture.channel(), session, user, dash, device, message.id));
+            reRegisterChannel(ctx, session, channelFuture -> completeLogin(channelFuture.channel(), session, hardwareStateHolder.userKey, user, dash, device, message.id));
         } else {
-            completeLogin(ctx.channel(), session, user, dash, device, message.id);
+            completeLogin(ctx.channel(), session, hardwareStateHolder.userKey, user, dash, device, message.id);
         }
     }
 
@@ -9,7 +9,9 @@ import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.processors.BaseProcessorHandler;
 import cc.blynk.server.core.processors.WebhookProcessor;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.protocol.model.messages.hardware.RawHardwareMessage;
 import cc.blynk.server.core.session.HardwareStateHolder;
+import cc.blynk.utils.NumberUtil;
 import cc.blynk.utils.ParseUtil;
 import io.netty.channel.ChannelHandlerContext;
 
@@ -33,7 +35,7 @@ public class HardwareLogic extends BaseProcessorHandler {
     private final SessionDao sessionDao;
 
     public HardwareLogic(Holder holder, String email) {
-        super(holder.eventorProcessor, new WebhookProcessor(holder.asyncHttpClient,
+        super(holder.eventorProcessor, new WebhookProcessor(holder.webhookDispatcher,
                 holder.limits.WEBHOOK_PERIOD_LIMITATION,
                 holder.limits.WEBHOOK_RESPONSE_SUZE_LIMIT_BYTES,
                 holder.limits.WEBHOOK_FAILURE_LIMIT,
@@ -57,8 +59,6 @@ public class HardwareLogic extends BaseProcessorHandler {
             return;
         }
 
-        DashBoard dash = state.dash;
-
         if (isWriteOperation(body)) {
             String[] splitBody = split3(body);
 
@@ -71,21 +71,62 @@ public class HardwareLogic extends BaseProcessorHandler {
             PinType pinType = PinType.getPinType(splitBody[0].charAt(0));
             byte pin = ParseUtil.parseByte(splitBody[1]);
             String value = splitBody[2];
-            long now = System.currentTimeMillis();
-            int deviceId = state.device.id;
 
-            reportingDao.process(state.user, dash.id, deviceId, pin, pinType, value, now);
-            dash.update(deviceId, pin, pinType, value, now);
+            DashBoard dash = state.dash;
+            Session session = processWrite(state, pinType, pin, value, NumberUtil.parseDouble(value));
+            if (dash.isActive) {
+                session.sendToApps(HARDWARE, message.id, dash.id, state.device.id, body);
+            } else {
+                log.debug("No active dashboard.");
+            }
+        }
+    }
+
+    /**
+     * Same as above, but pin is parsed directly from message bytes and
+     * body is forwarded to apps without decoding it into string.
+     */
+    public void messageReceived(ChannelHandlerContext ctx, HardwareStateHolder state, RawHardwareMessage message) {
+        //minimum command - "ar 1"
+        if (message.length < 4) {
+            log.debug("HardwareLogic command body too short.");
+            ctx.writeAndFlush(illegalCommand(message.id), ctx.voidPromise());
+            return;
+        }
+
+        if (message.isWriteOperation()) {
+            if (!message.hasValue()) {
+                log.debug("Write command is wrong.");
+                ctx.writeAndFlush(illegalCommand(message.id), ctx.voidPromise());
+                return;
+            }
 
-            Session session = sessionDao.userSession.get(state.userKey);
-            process(state.user, dash, deviceId, session, pin, pinType, value, now);
+            PinType pinType = PinType.getPinType(message.getPinType());
+            byte pin = message.getPin();
+            //value string is stored within pin anyway, so no sense to parse number from bytes separately
+            String value = message.getValue();
 
+            DashBoard dash = state.dash;
+            Session session = processWrite(state, pinType, pin, value, NumberUtil.parseDouble(value));
             if (dash.isActive) {
-                session.sendToApps(HARDWARE, message.id, dash.id, deviceId, body);
+                session.sendToApps(HARDWARE, message.id, dash.id, state.device.id, message.body);
             } else {
                 log.debug("No active dashboard.");
             }
         }
     }
 
+    private Session processWrite(HardwareStateHolder state, PinType pinType, byte pin, String value, double doubleValue) {
+        DashBoard dash = state.dash;
+        long now = System.currentTimeMillis();
+        int deviceId = state.device.id;
+
+        reportingDao.process(state.user, dash.id, deviceId, pin, pinType, value, now, doubleValue);
+        dash.update(deviceId, pin, pinType, value, now);
+
+        Session session = sessionDao.userSession.get(state.userKey);
+        process(state.user, dash, deviceId, session, pin, pinType, value, now);
+        return session;
+    }
+
 }
@@ -2,6 +2,7 @@ package cc.blynk.server.hardware.handlers.hardware.mqtt.auth;
 
 import cc.blynk.server.Holder;
 import cc.blynk.server.core.dao.TokenValue;
+import cc.blynk.server.core.dao.UserKey;
 import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.model.auth.User;
@@ -44,10 +45,11 @@ public class MqttHardwareLoginHandler extends SimpleChannelInboundHandler<MqttCo
         this.holder = holder;
     }
 
-    private static void completeLogin(Channel channel, Session session, User user, DashBoard dash, Device device, int msgId) {
+    private void completeLogin(Channel channel, Session session, UserKey userKey, User user, DashBoard dash, Device device, int msgId) {
         log.debug("completeLogin. {}", channel);
 
-        session.addHardChannel(channel);
+        session.addHardChannel(channel, dash.id, device.id);
+        holder.readingWidgetsWorker.add(userKey, dash);
         channel.writeAndFlush(ACCEPTED);
 
         session.sendToApps(HARDWARE_CONNECTED, msgId, dash.id, device.id);
@@ -87,9 +89,9 @@ public class MqttHardwareLoginHandler extends SimpleChannelInboundHandler<MqttCo
 
         if (session.initialEventLoop != ctx.channel().eventLoop()) {
             log.debug("Re registering hard channel. {}", ctx.channel());
-            reRegisterChannel(ctx, session, channelFuture -> completeLogin(channelFuture.channel(), session, user, dash, device, -1));
+            reRegisterChannel(ctx, session, channelFuture -> completeLogin(channelFuture.channel(), session, hardwareStateHolder.userKey, user, dash, device, -1));
         } else {
-            completeLogin(ctx.channel(), session, user, dash, device, -1);
+            completeLogin(ctx.channel(), session, hardwareStateHolder.userKey, user, dash, device, -1);
         }
     }
 